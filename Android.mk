@@ -3,7 +3,7 @@ include $(CLEAR_VARS)
 
 LOCAL_MODULE_TAGS := optional
 
-LOCAL_STATIC_JAVA_LIBRARIES := guava com.android.vcard
+LOCAL_STATIC_JAVA_LIBRARIES := guava com.android.vcard tag-core
 
 # Only compile source java files in this apk.
 LOCAL_SRC_FILES := $(call all-java-files-under, src)
@@ -14,3 +14,5 @@ LOCAL_PRIVILEGED_MODULE := true
 #LOCAL_SDK_VERSION := current
 
 include $(BUILD_PACKAGE)
+
+include $(call all-makefiles-under,$(LOCAL_PATH))
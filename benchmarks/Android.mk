@@ -0,0 +1,27 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+# Host benchmarks of the NDEF codec and parsers in tag-core. Run them with
+#   java -cp $(ANDROID_HOST_OUT)/framework/TagBenchmarks.jar \
+#       com.android.apps.tag.benchmarks.BenchmarkMain [JMH options]
+#
+# The allocation gate fails when parsing allocates or retains more than the checked in
+# baseline, see AllocationGate:
+#   java -XX:-DoEscapeAnalysis -cp $(ANDROID_HOST_OUT)/framework/TagBenchmarks.jar \
+#       com.android.apps.tag.benchmarks.AllocationGate \
+#       $(LOCAL_PATH)/allocation-baseline.txt [--threshold 10] [--update]
+# TagBenchmarksTests, under tests, runs the same check as a host test.
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+    ../tests/src/com/android/apps/tag/MockNdefMessages.java \
+
+LOCAL_STATIC_JAVA_LIBRARIES := tag-core-host guavalib jsr305lib jmh-core
+LOCAL_ANNOTATION_PROCESSORS := jmh-generator-annprocess
+
+LOCAL_MODULE := TagBenchmarks
+
+LOCAL_MODULE_TAGS := tests
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+
+include $(call all-makefiles-under,$(LOCAL_PATH))
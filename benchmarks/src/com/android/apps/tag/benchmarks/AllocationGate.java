@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.benchmarks;
+
+import com.android.apps.tag.MockNdefMessages;
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.NdefFormatException;
+import com.android.apps.tag.core.ndef.Record;
+import com.android.apps.tag.core.record.RecordData;
+import com.android.apps.tag.core.record.RecordParser;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fails when decoding and parsing a fixed corpus allocates or retains more than a checked in
+ * baseline allows. Run it on the host with escape analysis off, so the JIT can't hide
+ * allocations and the counts come out the same on every run:
+ * <pre>
+ * java -XX:-DoEscapeAnalysis -cp $(ANDROID_HOST_OUT)/framework/TagBenchmarks.jar \
+ *     com.android.apps.tag.benchmarks.AllocationGate benchmarks/allocation-baseline.txt \
+ *     [--threshold 10] [--update]
+ * </pre>
+ * It exits with 1 if any fixture got worse than the baseline by more than the threshold, in
+ * percent. {@code --update} writes the measurements to the baseline instead, for checking in
+ * along with a change that was meant to alter them. {@code AllocationGateTest} runs the same
+ * check against the baseline as a host test.
+ *
+ * <p>Each fixture is measured for the bytes allocated per call to
+ * {@link RecordParser#parse(Message)} on a freshly decoded message, and for the bytes the parsed
+ * records keep alive as measured by {@link RetainedSize}. There is a fixture per record type and
+ * one per mock message.
+ *
+ * <p>That is only the framework-free part of {@code NdefMessageParser.parse} on the device. The
+ * app's own costs on top of it aren't covered: the {@code ParsedNdefRecord} wrappers and
+ * {@code ParsedNdefMessage}, handing records to {@code ParallelRecordParser}, and decoding
+ * images, whose {@code Bitmap} is missing from the retained size of the image fixture.
+ */
+public class AllocationGate {
+    static final String ALLOCATED = "allocated";
+    static final String RETAINED = "retained";
+
+    static final int DEFAULT_THRESHOLD_PERCENT = 10;
+    private static final int WARMUP_CALLS = 2000;
+    private static final int MEASURED_CALLS = 1000;
+
+    public static void main(String[] args) throws IOException, NdefFormatException {
+        File baselineFile = null;
+        int threshold = DEFAULT_THRESHOLD_PERCENT;
+        boolean update = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--threshold".equals(args[i]) && i + 1 < args.length) {
+                threshold = Integer.parseInt(args[++i]);
+            } else if ("--update".equals(args[i])) {
+                update = true;
+            } else if (baselineFile == null && !args[i].startsWith("--")) {
+                baselineFile = new File(args[i]);
+            } else {
+                usage();
+            }
+        }
+        if (baselineFile == null) {
+            usage();
+        }
+        warnUnlessEscapeAnalysisIsOff();
+
+        TreeMap<String, Long> measured = measure(fixtures());
+        if (update) {
+            writeBaseline(baselineFile, measured);
+            System.out.println("Wrote " + measured.size() + " measurements to " + baselineFile);
+            return;
+        }
+        int failures = compare(measured, readBaseline(baselineFile), threshold, System.out);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: AllocationGate <baseline file> [--threshold <percent>]"
+                + " [--update]");
+        System.exit(2);
+    }
+
+    /**
+     * Prints each measurement next to its baseline and returns the number that got worse by
+     * more than {@code threshold} percent or are missing from the baseline.
+     */
+    static int compare(Map<String, Long> measured, Map<String, Long> baseline, int threshold,
+            PrintStream out) {
+        int failures = 0;
+        for (Map.Entry<String, Long> entry : measured.entrySet()) {
+            String key = entry.getKey();
+            long value = entry.getValue();
+            Long expected = baseline.get(key);
+            String verdict;
+            if (expected == null) {
+                verdict = "NOT IN BASELINE";
+                failures++;
+            } else if (value * 100 > expected * (100 + threshold)) {
+                verdict = "REGRESSED";
+                failures++;
+            } else if (value * 100 < expected * (100 - threshold)) {
+                verdict = "improved, consider --update";
+            } else {
+                verdict = "ok";
+            }
+            out.println(String.format(Locale.US, "%-40s %8d bytes, baseline %8s  %s",
+                    key, value, expected == null ? "-" : expected.toString(), verdict));
+        }
+        for (String key : baseline.keySet()) {
+            if (!measured.containsKey(key)) {
+                out.println(String.format(Locale.US, "%-40s no longer measured", key));
+            }
+        }
+        if (failures > 0) {
+            out.println(failures + " measurements over the baseline by more than "
+                    + threshold + "%");
+        }
+        return failures;
+    }
+
+    /**
+     * Warns if the JIT may hide allocations, which only ever lowers the counts, so a regression
+     * is still caught.
+     */
+    static void warnUnlessEscapeAnalysisIsOff() {
+        if (!ManagementFactory.getRuntimeMXBean().getInputArguments().contains(
+                "-XX:-DoEscapeAnalysis")) {
+            System.err.println("Warning: run with -XX:-DoEscapeAnalysis for stable counts");
+        }
+    }
+
+    /** Returns the encoded fixtures by name. */
+    static LinkedHashMap<String, byte[]> fixtures() throws IOException {
+        LinkedHashMap<String, byte[]> fixtures = Maps.newLinkedHashMap();
+        fixtures.put("text", single(
+                Corpora.text("Welcome to the conference, the schedule is on the board")));
+        fixtures.put("uri", single(Corpora.uri("http://www.example.com/schedule?room=12")));
+        fixtures.put("smart_poster", single(
+                Corpora.smartPoster("http://www.example.com/exhibit/7", "Exhibit 7")));
+        fixtures.put("nested_smart_poster", single(
+                Corpora.nestedSmartPoster("http://www.example.com/exhibit/7", "Exhibit 7", 3)));
+        fixtures.put("mime", single(Corpora.mime("application/octet-stream",
+                Strings.repeat("payload ", 128).getBytes(Charsets.US_ASCII))));
+        fixtures.put("vcard", single(Corpora.vCard("Jane Doe", 4)));
+        fixtures.put("image", single(Corpora.image(32)));
+        fixtures.put("handover",
+                Corpora.handover("Kitchen speaker", "HomeNet", "correct horse").toByteArray());
+        fixtures.put("mock/real_nfc_msg", MockNdefMessages.REAL_NFC_MSG);
+        fixtures.put("mock/call_google", MockNdefMessages.CALL_GOOGLE);
+        fixtures.put("mock/english_plain_text", MockNdefMessages.ENGLISH_PLAIN_TEXT);
+        fixtures.put("mock/send_text_message", MockNdefMessages.SEND_TEXT_MESSAGE);
+        fixtures.put("mock/smart_poster_url_and_text",
+                MockNdefMessages.SMART_POSTER_URL_AND_TEXT);
+        fixtures.put("mock/smart_poster_url_no_text", MockNdefMessages.SMART_POSTER_URL_NO_TEXT);
+        fixtures.put("mock/vcard", MockNdefMessages.VCARD);
+        fixtures.put("mock/uri", MockNdefMessages.URI);
+        return fixtures;
+    }
+
+    private static byte[] single(Record record) {
+        return new Message(ImmutableList.of(record)).toByteArray();
+    }
+
+    /** Returns the measurements of every fixture, keyed by metric and fixture name. */
+    static TreeMap<String, Long> measure(Map<String, byte[]> fixtures)
+            throws NdefFormatException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        TreeMap<String, Long> measured = Maps.newTreeMap();
+        for (Map.Entry<String, byte[]> fixture : fixtures.entrySet()) {
+            byte[] bytes = fixture.getValue();
+            List<Message> messages = Lists.newArrayListWithCapacity(MEASURED_CALLS);
+            for (int i = 0; i < WARMUP_CALLS; i++) {
+                RecordParser.parse(Message.decode(bytes));
+            }
+            for (int i = 0; i < MEASURED_CALLS; i++) {
+                messages.add(Message.decode(bytes));
+            }
+
+            List<RecordData> last = null;
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (Message message : messages) {
+                last = RecordParser.parse(message);
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            measured.put(ALLOCATED + " " + fixture.getKey(), allocated / MEASURED_CALLS);
+
+            List<RecordData> copy = RecordParser.parse(Message.decode(bytes));
+            measured.put(RETAINED + " " + fixture.getKey(), RetainedSize.of(last, copy));
+        }
+        return measured;
+    }
+
+    static Map<String, Long> readBaseline(File file) throws IOException {
+        return parseBaseline(Files.readLines(file, Charsets.UTF_8));
+    }
+
+    static Map<String, Long> parseBaseline(List<String> lines) throws IOException {
+        LinkedHashMap<String, Long> baseline = Maps.newLinkedHashMap();
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            List<String> fields = Lists.newArrayList(
+                    Splitter.on(' ').omitEmptyStrings().split(line));
+            if (fields.size() != 3) {
+                throw new IOException("Malformed baseline line: " + line);
+            }
+            baseline.put(fields.get(0) + " " + fields.get(1), Long.parseLong(fields.get(2)));
+        }
+        return baseline;
+    }
+
+    static void writeBaseline(File file, Map<String, Long> measured) throws IOException {
+        StringBuilder out = new StringBuilder()
+                .append("# Bytes allocated per parse and retained per parsed message, per\n")
+                .append("# fixture. Written by AllocationGate --update, see there.\n")
+                .append("# Only RecordParser.parse is measured, not the app's wrappers, the\n")
+                .append("# ParallelRecordParser hand-off or decoded Bitmaps.\n");
+        for (Map.Entry<String, Long> entry : measured.entrySet()) {
+            out.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        Files.write(out, file, Charsets.UTF_8);
+    }
+}
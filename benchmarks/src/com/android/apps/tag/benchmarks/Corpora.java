@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.benchmarks;
+
+import com.android.apps.tag.MockNdefMessages;
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.NdefFormatException;
+import com.android.apps.tag.core.ndef.Record;
+import com.android.apps.tag.core.record.BluetoothOobData;
+import com.android.apps.tag.core.record.VCardData;
+import com.android.apps.tag.core.record.WifiConfigData;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The messages the benchmarks parse: the mock messages the tests use, and synthetic corpora of
+ * increasing size. The synthetic ones are seeded, so every run parses the same bytes.
+ */
+final class Corpora {
+    /** The mock messages, as real tags would hold them. */
+    static final String MOCK = "mock";
+
+    /** Many one record messages, like most tags in the wild. */
+    static final String SMALL = "small";
+
+    /** A handful of mixed records per message, up to a few hundred bytes each. */
+    static final String MEDIUM = "medium";
+
+    /** Many records per message with nested posters, images and kilobyte payloads. */
+    static final String LARGE = "large";
+
+    private static final long SEED = 0x7a6;
+
+    private static final String[] WORDS = {
+        "tag", "poster", "museum", "exhibit", "coffee", "menu", "transit", "ticket", "gate",
+        "platform", "room", "conference", "welcome", "schedule", "wifi", "contact",
+    };
+
+    private Corpora() { }
+
+    static Message[] get(String name) throws NdefFormatException, IOException {
+        if (MOCK.equals(name)) {
+            return mock();
+        }
+        Random random = new Random(SEED);
+        if (SMALL.equals(name)) {
+            return synthetic(random, 256, 1, 0);
+        } else if (MEDIUM.equals(name)) {
+            return synthetic(random, 64, 4, 256);
+        } else if (LARGE.equals(name)) {
+            return synthetic(random, 16, 16, 4096);
+        }
+        throw new IllegalArgumentException("Unknown corpus " + name);
+    }
+
+    static Message[] mock() throws NdefFormatException {
+        byte[][] messages = {
+            MockNdefMessages.REAL_NFC_MSG,
+            MockNdefMessages.CALL_GOOGLE,
+            MockNdefMessages.ENGLISH_PLAIN_TEXT,
+            MockNdefMessages.SEND_TEXT_MESSAGE,
+            MockNdefMessages.SMART_POSTER_URL_AND_TEXT,
+            MockNdefMessages.SMART_POSTER_URL_NO_TEXT,
+            MockNdefMessages.VCARD,
+            MockNdefMessages.URI,
+        };
+        Message[] parsed = new Message[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            parsed[i] = Message.decode(messages[i]);
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns {@code count} messages of {@code records} records each. MIME, vCard and image
+     * records, which carry bulk payloads of up to {@code maxPayload} bytes, are only mixed in
+     * when that is above zero.
+     */
+    static Message[] synthetic(Random random, int count, int records, int maxPayload)
+            throws IOException {
+        Message[] messages = new Message[count];
+        int kinds = maxPayload > 0 ? 7 : 2;
+        for (int i = 0; i < count; i++) {
+            Record[] message = new Record[records];
+            for (int j = 0; j < records; j++) {
+                switch (random.nextInt(kinds)) {
+                    case 0:
+                        message[j] = text(sentence(random, 2 + random.nextInt(12)));
+                        break;
+                    case 1:
+                        message[j] = uri(url(random));
+                        break;
+                    case 2:
+                        message[j] = smartPoster(url(random), sentence(random, 4));
+                        break;
+                    case 3:
+                        message[j] = nestedSmartPoster(url(random), sentence(random, 4),
+                                1 + random.nextInt(3));
+                        break;
+                    case 4:
+                        byte[] data = new byte[random.nextInt(maxPayload)];
+                        random.nextBytes(data);
+                        message[j] = mime("application/octet-stream", data);
+                        break;
+                    case 5:
+                        message[j] = vCard(sentence(random, 2), random.nextInt(maxPayload / 64));
+                        break;
+                    default:
+                        message[j] = image(8 + random.nextInt(40));
+                        break;
+                }
+            }
+            messages[i] = new Message(Arrays.asList(message));
+        }
+        return messages;
+    }
+
+    static Record text(String text) {
+        return Record.createText(text, Locale.ENGLISH, true);
+    }
+
+    static Record uri(String uri) {
+        return Record.createUri(uri);
+    }
+
+    static Record mime(String type, byte[] data) {
+        return Record.createMime(type, data);
+    }
+
+    static Record smartPoster(String uri, String title) {
+        return smartPoster(uri(uri), text(title));
+    }
+
+    /** Returns a poster that holds another poster, {@code depth} levels deep. */
+    static Record nestedSmartPoster(String uri, String title, int depth) {
+        Record poster = smartPoster(uri, title);
+        for (int i = 0; i < depth; i++) {
+            poster = smartPoster(uri(uri), text(title), poster);
+        }
+        return poster;
+    }
+
+    private static Record smartPoster(Record... records) {
+        return new Record(Record.TNF_WELL_KNOWN, Record.RTD_SMART_POSTER, null,
+                new Message(Arrays.asList(records)).toByteArray());
+    }
+
+    /** Returns a vCard for {@code name} with {@code notes} lines of notes. */
+    static Record vCard(String name, int notes) {
+        StringBuilder card = new StringBuilder()
+                .append("BEGIN:VCARD\r\nVERSION:2.1\r\n")
+                .append("N:").append(name.replace(' ', ';')).append("\r\n")
+                .append("FN:").append(name).append("\r\n")
+                .append("TEL;WORK:+1-650-555-0100\r\n")
+                .append("EMAIL;INTERNET:someone@example.com\r\n");
+        for (int i = 0; i < notes; i++) {
+            card.append("NOTE:").append(Strings.repeat("x", 48)).append("\r\n");
+        }
+        card.append("END:VCARD\r\n");
+        return mime(VCardData.VCARD_MIME_TYPE, card.toString().getBytes(Charsets.UTF_8));
+    }
+
+    /**
+     * Returns a Handover Select message offering a Bluetooth speaker and the Wi-Fi network it
+     * joins, as a peripheral's tag would hold it.
+     */
+    static Message handover(String name, String ssid, String key) {
+        Record bluetooth = new Record(Record.TNF_MIME_MEDIA,
+                BluetoothOobData.BREDR_MIME_TYPE.getBytes(Charsets.US_ASCII), new byte[] { '0' },
+                bluetoothOob(name));
+        Record wifi = new Record(Record.TNF_MIME_MEDIA,
+                WifiConfigData.MIME_TYPE.getBytes(Charsets.US_ASCII), new byte[] { '1' },
+                wifiConfig(ssid, key));
+        return new Message(Arrays.asList(handoverSelect("0", "1"), bluetooth, wifi));
+    }
+
+    /** Returns a Handover Select record of version 1.2 with an active carrier per reference. */
+    private static Record handoverSelect(String... references) {
+        ArrayList<Record> carriers = Lists.newArrayList();
+        for (String reference : references) {
+            ByteArrayOutputStream ac = new ByteArrayOutputStream();
+            ac.write(0x01);
+            ac.write(reference.length());
+            ac.write(reference.getBytes(Charsets.US_ASCII), 0, reference.length());
+            ac.write(0);
+            carriers.add(new Record(Record.TNF_WELL_KNOWN, Record.RTD_ALTERNATIVE_CARRIER, null,
+                    ac.toByteArray()));
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(0x12);
+        byte[] message = new Message(carriers).toByteArray();
+        payload.write(message, 0, message.length);
+        return new Record(Record.TNF_WELL_KNOWN, Record.RTD_HANDOVER_SELECT, null,
+                payload.toByteArray());
+    }
+
+    /** Returns BR/EDR OOB data with an address, name, class of device and audio services. */
+    private static byte[] bluetoothOob(String name) {
+        ByteArrayOutputStream eir = new ByteArrayOutputStream();
+        byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+        eir.write(nameBytes.length + 1);
+        eir.write(0x09);
+        eir.write(nameBytes, 0, nameBytes.length);
+        byte[] rest = {
+            0x04, 0x0d, 0x14, 0x04, 0x24,
+            0x05, 0x03, 0x0b, 0x11, 0x1e, 0x11,
+        };
+        eir.write(rest, 0, rest.length);
+        int length = 8 + eir.size();
+        ByteArrayOutputStream oob = new ByteArrayOutputStream();
+        byte[] header = { (byte) length, (byte) (length >> 8), 0x66, 0x55, 0x44, 0x33, 0x22, 0x11 };
+        oob.write(header, 0, header.length);
+        byte[] structures = eir.toByteArray();
+        oob.write(structures, 0, structures.length);
+        return oob.toByteArray();
+    }
+
+    /** Returns a Wi-Fi Simple Configuration credential for a WPA2 network. */
+    private static byte[] wifiConfig(String ssid, String key) {
+        ByteArrayOutputStream credential = new ByteArrayOutputStream();
+        writeAttribute(credential, 0x1026, new byte[] { 1 });
+        writeAttribute(credential, 0x1045, ssid.getBytes(Charsets.UTF_8));
+        writeAttribute(credential, 0x1003, new byte[] { 0, WifiConfigData.AUTH_WPA2_PSK });
+        writeAttribute(credential, 0x100f, new byte[] { 0, WifiConfigData.ENCRYPTION_AES });
+        writeAttribute(credential, 0x1027, key.getBytes(Charsets.UTF_8));
+        ByteArrayOutputStream config = new ByteArrayOutputStream();
+        writeAttribute(config, 0x104a, new byte[] { 0x10 });
+        writeAttribute(config, 0x100e, credential.toByteArray());
+        return config.toByteArray();
+    }
+
+    private static void writeAttribute(ByteArrayOutputStream out, int type, byte[] value) {
+        byte[] header = {
+            (byte) (type >> 8), (byte) type, (byte) (value.length >> 8), (byte) value.length,
+        };
+        out.write(header, 0, header.length);
+        out.write(value, 0, value.length);
+    }
+
+    /** Returns a PNG image record of a {@code size} pixel square. */
+    static Record image(int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < size; x++) {
+            image.setRGB(x, x, 0xff8800);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return mime("image/png", out.toByteArray());
+    }
+
+    private static String sentence(Random random, int words) {
+        ArrayList<String> picked = Lists.newArrayListWithCapacity(words);
+        for (int i = 0; i < words; i++) {
+            picked.add(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return Joiner.on(' ').join(picked);
+    }
+
+    private static String url(Random random) {
+        return "http://www." + WORDS[random.nextInt(WORDS.length)] + ".example.com/"
+                + WORDS[random.nextInt(WORDS.length)] + "?id=" + random.nextInt(100000);
+    }
+}
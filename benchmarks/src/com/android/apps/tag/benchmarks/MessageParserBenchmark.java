@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.benchmarks;
+
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.NdefFormatException;
+import com.android.apps.tag.core.record.RecordParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link RecordParser#parse(Message)} over whole corpora. One operation parses every
+ * message of the corpus once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MessageParserBenchmark {
+    @Param({Corpora.MOCK, Corpora.SMALL, Corpora.MEDIUM, Corpora.LARGE})
+    public String corpus;
+
+    private Message[] mMessages;
+    private byte[][] mSerialized;
+
+    @Setup
+    public void setUp() throws NdefFormatException, IOException {
+        mMessages = Corpora.get(corpus);
+        mSerialized = new byte[mMessages.length][];
+        for (int i = 0; i < mMessages.length; i++) {
+            mSerialized[i] = mMessages[i].toByteArray();
+        }
+    }
+
+    /** Parses messages that are already decoded, as the viewer is handed them. */
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (Message msg : mMessages) {
+            blackhole.consume(RecordParser.parse(msg));
+        }
+    }
+
+    /** Decodes and parses serialized messages, as the history reads them back. */
+    @Benchmark
+    public void decodeAndParse(Blackhole blackhole) throws NdefFormatException {
+        for (byte[] bytes : mSerialized) {
+            blackhole.consume(RecordParser.parse(Message.decode(bytes)));
+        }
+    }
+}
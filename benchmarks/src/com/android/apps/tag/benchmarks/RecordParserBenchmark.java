@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.benchmarks;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.android.apps.tag.core.record.ImageData;
+import com.android.apps.tag.core.record.MimeData;
+import com.android.apps.tag.core.record.RecordData;
+import com.android.apps.tag.core.record.RecordParser;
+import com.android.apps.tag.core.record.SmartPosterData;
+import com.android.apps.tag.core.record.TextData;
+import com.android.apps.tag.core.record.UriData;
+import com.android.apps.tag.core.record.VCardData;
+import com.google.common.base.Strings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks each record parser on its own, and {@link RecordParser#parse(Record)}, which
+ * tries them in turn, on the records that take the longest to be recognized.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class RecordParserBenchmark {
+    private Record mText;
+    private Record mUri;
+    private Record mSmartPoster;
+    private Record mNestedSmartPoster;
+    private Record mMime;
+    private Record mVCard;
+    private Record mImage;
+
+    @Setup
+    public void setUp() throws IOException {
+        mText = Corpora.text("Welcome to the conference, the schedule is on the board");
+        mUri = Corpora.uri("http://www.example.com/schedule?room=12");
+        mSmartPoster = Corpora.smartPoster("http://www.example.com/exhibit/7", "Exhibit 7");
+        mNestedSmartPoster = Corpora.nestedSmartPoster("http://www.example.com/exhibit/7",
+                "Exhibit 7", 3);
+        mMime = Corpora.mime("application/octet-stream",
+                Strings.repeat("payload ", 128).getBytes());
+        mVCard = Corpora.vCard("Jane Doe", 4);
+        mImage = Corpora.image(32);
+    }
+
+    @Benchmark
+    public TextData text() {
+        return TextData.parse(mText);
+    }
+
+    @Benchmark
+    public UriData uri() {
+        return UriData.parse(mUri);
+    }
+
+    @Benchmark
+    public SmartPosterData smartPoster() {
+        return SmartPosterData.parse(mSmartPoster);
+    }
+
+    @Benchmark
+    public SmartPosterData nestedSmartPoster() {
+        return SmartPosterData.parse(mNestedSmartPoster);
+    }
+
+    @Benchmark
+    public MimeData mime() {
+        return MimeData.parse(mMime);
+    }
+
+    @Benchmark
+    public VCardData vCard() {
+        return VCardData.parse(mVCard);
+    }
+
+    /** Includes reading the image header, which is how the parser checks it is one. */
+    @Benchmark
+    public ImageData image() {
+        return ImageData.parse(mImage);
+    }
+
+    /** A MIME record is only recognized after every other parser turned it down. */
+    @Benchmark
+    public RecordData dispatchMime() {
+        return RecordParser.parse(mMime);
+    }
+
+    @Benchmark
+    public RecordData dispatchVCard() {
+        return RecordParser.parse(mVCard);
+    }
+}
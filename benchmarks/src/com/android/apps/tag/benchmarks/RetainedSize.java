@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.benchmarks;
+
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Measures the heap an object graph keeps alive, in a fixed model of a 64 bit VM with compressed
+ * references, so the result is the same whatever VM and flags it runs on.
+ *
+ * <p>Only what is reachable from the root and not from a second, independently built graph is
+ * counted. Building the same thing twice and passing the copy as the second graph leaves out
+ * constants, interned strings and anything else the parsers share between results.
+ *
+ * <p>Objects of the class library are modelled rather than walked, as their fields can't be
+ * read: strings by their length, collections and maps by their size plus their elements, and
+ * heap buffers by their capacity, as if each had an array of its own.
+ */
+final class RetainedSize {
+    private static final int HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int ALIGNMENT = 8;
+
+    /** A string along with its value array, holding one byte per Latin-1 character. */
+    private static final int STRING = 24;
+
+    /** A collection's object and its backing array header, as for {@code ArrayList}. */
+    private static final int COLLECTION = 24 + ARRAY_HEADER;
+
+    /** A hash map's object, plus a node per entry and a table slot per entry. */
+    private static final int MAP = 48 + ARRAY_HEADER;
+    private static final int MAP_ENTRY = 32 + REFERENCE;
+
+    /** A byte buffer's object, without the array or mapping it views. */
+    private static final int BUFFER = 48;
+
+    private RetainedSize() { }
+
+    /**
+     * Returns the bytes reachable from {@code root} that aren't reachable from {@code shared}.
+     */
+    static long of(Object root, Object shared) {
+        Set<Object> excluded = reachable(shared);
+        long bytes = 0;
+        for (Object object : reachable(root)) {
+            if (!excluded.contains(object)) {
+                bytes += sizeOf(object);
+            }
+        }
+        return bytes;
+    }
+
+    private static Set<Object> reachable(Object root) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        ArrayDeque<Object> pending = new ArrayDeque<Object>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            Object object = pending.remove();
+            if (object instanceof Class || object instanceof Enum || !seen.add(object)) {
+                continue;
+            }
+            for (Object child : childrenOf(object)) {
+                if (child != null) {
+                    pending.add(child);
+                }
+            }
+        }
+        return seen;
+    }
+
+    private static List<Object> childrenOf(Object object) {
+        List<Object> children = Lists.newArrayList();
+        Class<?> type = object.getClass();
+        if (type.isArray()) {
+            if (!type.getComponentType().isPrimitive()) {
+                Collections.addAll(children, (Object[]) object);
+            }
+        } else if (object instanceof String) {
+            // Modelled with its value
+        } else if (isLibraryClass(type)) {
+            if (object instanceof Collection) {
+                children.addAll((Collection<?>) object);
+            } else if (object instanceof Map) {
+                children.addAll(((Map<?, ?>) object).keySet());
+                children.addAll(((Map<?, ?>) object).values());
+            }
+        } else {
+            for (Field field : instanceFields(type)) {
+                if (field.getType().isPrimitive()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    children.add(field.get(object));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Can't read " + field, e);
+                } catch (RuntimeException e) {
+                    // A field of a class library superclass, which is closed to reflection
+                }
+            }
+        }
+        return children;
+    }
+
+    private static long sizeOf(Object object) {
+        Class<?> type = object.getClass();
+        if (type.isArray()) {
+            Class<?> component = type.getComponentType();
+            return align(ARRAY_HEADER + (long) Array.getLength(object) * widthOf(component));
+        } else if (object instanceof String) {
+            String string = (String) object;
+            int width = 1;
+            for (int i = 0; i < string.length(); i++) {
+                if (string.charAt(i) > 0xff) {
+                    width = 2;
+                    break;
+                }
+            }
+            return STRING + align(ARRAY_HEADER + (long) string.length() * width);
+        } else if (isLibraryClass(type)) {
+            if (object instanceof Collection) {
+                return align(COLLECTION + (long) ((Collection<?>) object).size() * REFERENCE);
+            } else if (object instanceof Map) {
+                return align(MAP + (long) ((Map<?, ?>) object).size() * MAP_ENTRY);
+            } else if (object instanceof ByteBuffer) {
+                ByteBuffer buffer = (ByteBuffer) object;
+                return BUFFER + (buffer.isDirect() ? 0
+                        : align(ARRAY_HEADER + (long) buffer.capacity()));
+            }
+        }
+        long bytes = HEADER;
+        for (Field field : instanceFields(type)) {
+            bytes += widthOf(field.getType());
+        }
+        return align(bytes);
+    }
+
+    private static boolean isLibraryClass(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.");
+    }
+
+    private static List<Field> instanceFields(Class<?> type) {
+        List<Field> fields = Lists.newArrayList();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
+
+    private static int widthOf(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
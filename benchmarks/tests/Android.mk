@@ -0,0 +1,17 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+# Runs the allocation gate against the checked in baseline as a host test:
+#   java -XX:-DoEscapeAnalysis -cp $(ANDROID_HOST_OUT)/framework/TagBenchmarksTests.jar \
+#       junit.textui.TestRunner com.android.apps.tag.benchmarks.AllocationGateTest
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
+LOCAL_JAVA_RESOURCE_FILES := $(LOCAL_PATH)/../allocation-baseline.txt
+
+LOCAL_STATIC_JAVA_LIBRARIES := TagBenchmarks junit
+
+LOCAL_MODULE := TagBenchmarksTests
+
+LOCAL_MODULE_TAGS := tests
+
+include $(BUILD_HOST_JAVA_LIBRARY)
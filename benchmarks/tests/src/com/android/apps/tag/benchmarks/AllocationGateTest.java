@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.benchmarks;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+/**
+ * Runs the {@link AllocationGate} against the baseline bundled with the test, failing if parsing
+ * any fixture allocates or retains more than the baseline allows.
+ */
+public class AllocationGateTest extends TestCase {
+    private static final String BASELINE = "/allocation-baseline.txt";
+
+    public void testWithinBaseline() throws Exception {
+        AllocationGate.warnUnlessEscapeAnalysisIsOff();
+        Map<String, Long> baseline = AllocationGate.parseBaseline(Resources.readLines(
+                Resources.getResource(AllocationGateTest.class, BASELINE), Charsets.UTF_8));
+        Map<String, Long> measured = AllocationGate.measure(AllocationGate.fixtures());
+        assertEquals("Measurements over the baseline, see the output above", 0,
+                AllocationGate.compare(measured, baseline,
+                        AllocationGate.DEFAULT_THRESHOLD_PERCENT, System.out));
+    }
+}
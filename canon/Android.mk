@@ -3,8 +3,9 @@ include $(CLEAR_VARS)
 
 LOCAL_SRC_FILES := $(call all-subdir-java-files) \
     ../tests/src/com/android/apps/tag/MockNdefMessages.java \
+    ../src/com/android/apps/tag/util/LatencyHistogram.java \
 
-LOCAL_STATIC_JAVA_LIBRARIES := guava
+LOCAL_STATIC_JAVA_LIBRARIES := guava tag-core
 
 LOCAL_PACKAGE_NAME := TagCanon
 
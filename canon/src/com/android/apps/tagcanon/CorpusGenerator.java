@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tagcanon;
+
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.primitives.Bytes;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates seeded corpora of NDEF messages for exercising the parsers, in categories that each
+ * stress one thing: large payloads, many records, nesting, chunking, text encodings, images,
+ * vCards, edge cases the specification allows, and malformed messages that must be rejected.
+ *
+ * <p>Every category draws from its own generator seeded from the corpus seed, so a category
+ * comes out the same whatever else is generated. Message sizes are spread evenly on a log scale
+ * from a few bytes to about {@link #MAX_MESSAGE_SIZE}.
+ */
+public class CorpusGenerator {
+    public static final String TEXT = "text";
+    public static final String URI = "uri";
+    public static final String SMART_POSTER = "smart_poster";
+    public static final String NESTED_SMART_POSTER = "nested_smart_poster";
+    public static final String MANY_RECORDS = "many_records";
+    public static final String CHUNKED = "chunked";
+    public static final String IMAGE = "image";
+    public static final String VCARD = "vcard";
+    public static final String EDGE_CASES = "edge_cases";
+
+    /** Messages that are malformed and must be rejected by the decoder. */
+    public static final String MALFORMED = "malformed";
+
+    public static final ImmutableList<String> CATEGORIES = ImmutableList.of(TEXT, URI,
+            SMART_POSTER, NESTED_SMART_POSTER, MANY_RECORDS, CHUNKED, IMAGE, VCARD, EDGE_CASES,
+            MALFORMED);
+
+    /** The largest message generated, the capacity of the largest tags in use. */
+    public static final int MAX_MESSAGE_SIZE = 32 * 1024;
+
+    /** The extension of fixture files, which hold one encoded message each. */
+    public static final String FIXTURE_EXTENSION = ".ndef";
+
+    private static final int MIN_MESSAGE_SIZE = 8;
+
+    /** Room left in a message for the headers of its records. */
+    private static final int HEADER_ALLOWANCE = 64;
+
+    private static final String[] WORDS = {
+        "tag", "poster", "museum", "exhibit", "coffee", "menu", "transit", "ticket", "gate",
+        "platform", "room", "conference", "welcome", "schedule", "wifi", "contact",
+    };
+
+    /** Words of other scripts, to cover multi-byte characters in both encodings. */
+    private static final String[][] LOCALIZED_WORDS = {
+        { "en", "hello" },
+        { "de", "Gr\u00fc\u00dfe" },
+        { "ru", "\u043f\u0440\u0438\u0432\u0435\u0442" },
+        { "ja", "\u3053\u3093\u306b\u3061\u306f" },
+        { "zh", "\u4f60\u597d" },
+        { "ar", "\u0645\u0631\u062d\u0628\u0627" },
+        { "hi", "\u0928\u092e\u0938\u094d\u0924\u0947" },
+        { "und", "\ud83c\udff7" },
+    };
+
+    private static final String[] URI_TEMPLATES = {
+        "http://www.%s.example.com/%s", "https://www.%s.example.com/%s",
+        "http://%s.example.org/%s", "https://%s.example.org/%s", "tel:+1650555%s%s",
+        "mailto:%s@example.com?subject=%s", "urn:nfc:ext:%s:%s", "geo:37.%s,-122.%s",
+        "sms:+1650555%s?body=%s", "market://details?id=com.%s.%s",
+    };
+
+    private static final byte[] ACTION_RECORD_TYPE = { 'a', 'c', 't' };
+    private static final byte[] TYPE_RECORD_TYPE = { 't' };
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final int FLAG_MB = 0x80;
+    private static final int FLAG_ME = 0x40;
+    private static final int FLAG_CF = 0x20;
+    private static final int FLAG_SR = 0x10;
+    private static final int FLAG_IL = 0x08;
+
+    private final long mSeed;
+    private Random mRandom;
+
+    public CorpusGenerator(long seed) {
+        mSeed = seed;
+    }
+
+    /** Returns {@code count} encoded messages of {@code category}. */
+    public List<byte[]> generate(String category, int count) {
+        if (!CATEGORIES.contains(category)) {
+            throw new IllegalArgumentException("Unknown category " + category);
+        }
+        mRandom = new Random(mSeed * 31 + category.hashCode());
+        ArrayList<byte[]> messages = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(generateOne(category, i));
+        }
+        return messages;
+    }
+
+    /**
+     * Writes {@code messages} as fixture files numbered in order in {@code dir}, replacing any
+     * fixtures already there.
+     */
+    public static void writeFixtures(File dir, List<byte[]> messages) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        File[] old = dir.listFiles();
+        if (old != null) {
+            for (File file : old) {
+                if (file.getName().endsWith(FIXTURE_EXTENSION)) {
+                    file.delete();
+                }
+            }
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            String name = String.format(Locale.US, "%05d%s", i, FIXTURE_EXTENSION);
+            Files.write(messages.get(i), new File(dir, name));
+        }
+    }
+
+    private byte[] generateOne(String category, int index) {
+        int size = randomSize();
+        if (TEXT.equals(category)) {
+            return encode(fill(size, new RecordSource() {
+                @Override public Record next(int budget) { return text(budget); }
+            }));
+        } else if (URI.equals(category)) {
+            return encode(fill(size, new RecordSource() {
+                @Override public Record next(int budget) { return uri(budget); }
+            }));
+        } else if (SMART_POSTER.equals(category)) {
+            return encode(ImmutableList.of(smartPoster(size, 0)));
+        } else if (NESTED_SMART_POSTER.equals(category)) {
+            return encode(ImmutableList.of(smartPoster(size, 1 + mRandom.nextInt(6))));
+        } else if (MANY_RECORDS.equals(category)) {
+            return encode(manyRecords(size));
+        } else if (CHUNKED.equals(category)) {
+            // Leave room for the header of every chunk
+            int chunkSize = 1 + mRandom.nextInt(Math.max(1, size / 4));
+            return encodeChunked(fill(size * chunkSize / (chunkSize + 6), new RecordSource() {
+                @Override public Record next(int budget) { return anyRecord(budget); }
+            }), chunkSize);
+        } else if (IMAGE.equals(category)) {
+            return encode(imageMessage(size));
+        } else if (VCARD.equals(category)) {
+            return encode(ImmutableList.of(vCard(size)));
+        } else if (EDGE_CASES.equals(category)) {
+            return edgeCase(index);
+        } else {
+            return malformed(index, encode(fill(size, new RecordSource() {
+                @Override public Record next(int budget) { return anyRecord(budget); }
+            })));
+        }
+    }
+
+    /** Returns a size spread evenly on a log scale over the range of message sizes. */
+    private int randomSize() {
+        double min = Math.log(MIN_MESSAGE_SIZE);
+        double max = Math.log(MAX_MESSAGE_SIZE);
+        return (int) Math.exp(min + mRandom.nextDouble() * (max - min));
+    }
+
+    private interface RecordSource {
+        /** Returns a record with a payload of about {@code budget} bytes. */
+        Record next(int budget);
+    }
+
+    /** Returns one to four records whose payloads add up to about {@code size} bytes. */
+    private List<Record> fill(int size, RecordSource source) {
+        int count = 1 + mRandom.nextInt(4);
+        int budget = Math.max(1, (size - HEADER_ALLOWANCE) / count);
+        ArrayList<Record> records = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            records.add(source.next(budget));
+        }
+        return records;
+    }
+
+    private Record anyRecord(int budget) {
+        switch (mRandom.nextInt(4)) {
+            case 0:
+                return text(budget);
+            case 1:
+                return uri(budget);
+            case 2:
+                return vCard(budget);
+            default:
+                byte[] data = new byte[budget];
+                mRandom.nextBytes(data);
+                return Record.createMime("application/octet-stream", data);
+        }
+    }
+
+    private Record text(int budget) {
+        String[] localized = LOCALIZED_WORDS[mRandom.nextInt(LOCALIZED_WORDS.length)];
+        boolean utf8 = mRandom.nextBoolean();
+        StringBuilder text = new StringBuilder();
+        // Roughly three bytes a character covers the widest of the scripts in either encoding
+        while (text.length() * 3 < budget || text.length() == 0) {
+            text.append(mRandom.nextBoolean() ? localized[1] : word()).append(' ');
+        }
+        return Record.createText(text.toString().trim(), new Locale(localized[0]), utf8);
+    }
+
+    private Record uri(int budget) {
+        String template = URI_TEMPLATES[mRandom.nextInt(URI_TEMPLATES.length)];
+        StringBuilder path = new StringBuilder(word());
+        while (path.length() < budget - 32) {
+            path.append('/').append(word());
+        }
+        String uri = String.format(Locale.US, template, word(), path);
+        switch (mRandom.nextInt(4)) {
+            case 0:
+                // The URI of an absolute URI record is its type, which is at most 255 bytes
+                byte[] type = uri.getBytes(Charsets.UTF_8);
+                return new Record(Record.TNF_ABSOLUTE_URI, Arrays.copyOf(type,
+                        Math.min(type.length, 255)), EMPTY, EMPTY);
+            case 1:
+                return new Record(Record.TNF_EXTERNAL_TYPE,
+                        ("example.com:" + word()).getBytes(Charsets.UTF_8), EMPTY,
+                        path.toString().getBytes(Charsets.UTF_8));
+            default:
+                return Record.createUri(uri);
+        }
+    }
+
+    /**
+     * Returns a smart poster of about {@code size} bytes, holding {@code depth} levels of
+     * posters inside it.
+     */
+    private Record smartPoster(int size, int depth) {
+        int budget = Math.max(1, (size - HEADER_ALLOWANCE) / (depth + 1) / 3);
+        ArrayList<Record> records = Lists.newArrayList();
+        records.add(uri(budget));
+        int titles = mRandom.nextInt(3);
+        for (int i = 0; i < titles; i++) {
+            records.add(text(budget / Math.max(1, titles)));
+        }
+        if (mRandom.nextBoolean()) {
+            records.add(new Record(Record.TNF_WELL_KNOWN, ACTION_RECORD_TYPE, EMPTY,
+                    new byte[] { (byte) mRandom.nextInt(3) }));
+        }
+        if (mRandom.nextBoolean()) {
+            records.add(new Record(Record.TNF_WELL_KNOWN, TYPE_RECORD_TYPE, EMPTY,
+                    "text/html".getBytes(Charsets.UTF_8)));
+        }
+        if (depth > 0) {
+            records.add(smartPoster(size - size / (depth + 1), depth - 1));
+        }
+        return poster(records);
+    }
+
+    private static Record poster(List<Record> records) {
+        return new Record(Record.TNF_WELL_KNOWN, Record.RTD_SMART_POSTER, EMPTY,
+                new Message(records).toByteArray());
+    }
+
+    /** Returns up to 255 small records, as many as fit in {@code size} bytes. */
+    private List<Record> manyRecords(int size) {
+        int count = Math.max(2, Math.min(255, size / 24));
+        int budget = Math.max(1, size / count - 8);
+        ArrayList<Record> records = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            records.add(mRandom.nextBoolean() ? text(budget) : uri(budget));
+        }
+        return records;
+    }
+
+    private List<Record> imageMessage(int size) {
+        ArrayList<Record> records = Lists.newArrayList();
+        if (mRandom.nextBoolean()) {
+            records.add(text(16));
+        }
+        records.add(image(Math.max(256, size - HEADER_ALLOWANCE)));
+        return records;
+    }
+
+    /**
+     * Returns a PNG or JPEG of noise that fits in {@code budget} bytes. Noise hardly compresses,
+     * so its size follows the pixel count.
+     */
+    private Record image(int budget) {
+        boolean png = mRandom.nextBoolean();
+        int side = Math.max(1, (int) Math.sqrt(budget / (png ? 3.2 : 1.6)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(budget);
+        while (true) {
+            Bitmap bitmap = Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888);
+            int[] pixels = new int[side * side];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = 0xff000000 | mRandom.nextInt(0x1000000);
+            }
+            bitmap.setPixels(pixels, 0, side, 0, 0, side, side);
+            out.reset();
+            bitmap.compress(png ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, 90,
+                    out);
+            bitmap.recycle();
+            if (out.size() <= budget || side == 1) {
+                break;
+            }
+            side = side * 3 / 4;
+        }
+        return Record.createMime(png ? "image/png" : "image/jpeg", out.toByteArray());
+    }
+
+    private Record vCard(int budget) {
+        String[] localized = LOCALIZED_WORDS[mRandom.nextInt(LOCALIZED_WORDS.length)];
+        String name = capitalize(word()) + " " + localized[1];
+        boolean v3 = mRandom.nextBoolean();
+        StringBuilder card = new StringBuilder()
+                .append("BEGIN:VCARD\r\n")
+                .append(v3 ? "VERSION:3.0\r\n" : "VERSION:2.1\r\n")
+                .append("N:").append(name.replace(' ', ';')).append("\r\n")
+                .append(v3 ? "FN:" : "FN;CHARSET=UTF-8:").append(name).append("\r\n")
+                .append("TEL;WORK:+1-650-555-").append(1000 + mRandom.nextInt(9000))
+                .append("\r\n")
+                .append("EMAIL;INTERNET:").append(word()).append("@example.com\r\n");
+        int length = card.toString().getBytes(Charsets.UTF_8).length;
+        while (length < budget - 16) {
+            String note = "NOTE:" + word() + ' ' + localized[1] + "\r\n";
+            card.append(note);
+            length += note.getBytes(Charsets.UTF_8).length;
+        }
+        card.append("END:VCARD\r\n");
+        return Record.createMime("text/x-vcard", card.toString().getBytes(Charsets.UTF_8));
+    }
+
+    /** Returns the edge cases in turn, each valid by the specification. */
+    private byte[] edgeCase(int index) {
+        byte[] small = new byte[] { 'x' };
+        switch (index % 12) {
+            case 0:
+                // An empty message, as a formatted but blank tag holds
+                return encode(ImmutableList.of(new Record(Record.TNF_EMPTY, null, null, null)));
+            case 1:
+                // The longest payload of a short record, and the shortest of a long one
+                return encode(ImmutableList.of(
+                        Record.createMime("application/octet-stream", new byte[255]),
+                        Record.createMime("application/octet-stream", new byte[256])));
+            case 2:
+                return encode(ImmutableList.of(new Record(Record.TNF_WELL_KNOWN,
+                        Record.RTD_TEXT, "#1".getBytes(Charsets.US_ASCII), small)));
+            case 3:
+                return encode(ImmutableList.of(new Record(Record.TNF_UNKNOWN, null, null,
+                        small)));
+            case 4:
+                return encode(ImmutableList.of(new Record(Record.TNF_WELL_KNOWN,
+                        new byte[] { 'Z', 'z' }, null, small)));
+            case 5:
+                // A text record without a status byte, which isn't valid text
+                return encode(ImmutableList.of(new Record(Record.TNF_WELL_KNOWN,
+                        Record.RTD_TEXT, null, null)));
+            case 6:
+                return encode(ImmutableList.of(new Record(Record.TNF_MIME_MEDIA,
+                        "TEXT/Plain; charset=utf-8".getBytes(Charsets.US_ASCII), null,
+                        "mixed case type".getBytes(Charsets.UTF_8))));
+            case 7:
+                // A URI identifier code beyond those defined
+                return encode(ImmutableList.of(new Record(Record.TNF_WELL_KNOWN,
+                        Record.RTD_URI, null, new byte[] { 0x7f, 'x' })));
+            case 8:
+                return encode(ImmutableList.of(new Record(Record.TNF_WELL_KNOWN,
+                        Record.RTD_URI, null, new byte[] { 0x01 })));
+            case 9:
+                return encode(ImmutableList.of(poster(ImmutableList.of(text(8)))));
+            case 10:
+                return encode(ImmutableList.of(new Record(Record.TNF_EXTERNAL_TYPE,
+                        "android.com:pkg".getBytes(Charsets.US_ASCII), null,
+                        "com.android.apps.tag".getBytes(Charsets.US_ASCII))));
+            default:
+                // Chunks of a single byte each
+                return encodeChunked(ImmutableList.of(text(64)), 1);
+        }
+    }
+
+    /** Returns {@code valid} broken in one of the ways a decoder must catch. */
+    private byte[] malformed(int index, byte[] valid) {
+        byte[] broken = valid.clone();
+        switch (index % 6) {
+            case 0:
+                return Arrays.copyOf(broken, 1 + mRandom.nextInt(Math.max(1, valid.length - 1)));
+            case 1:
+                broken[0] &= ~FLAG_MB;
+                return broken;
+            case 2:
+                return Bytes.concat(broken, new byte[] { (byte) mRandom.nextInt(256) });
+            case 3:
+                // The message ends in a chunk that says more follow
+                broken[0] |= FLAG_CF;
+                broken[0] |= FLAG_ME;
+                return broken;
+            case 4:
+                // A continuation chunk with no chunked record to continue
+                broken[0] = (byte) ((broken[0] & ~0x07) | Record.TNF_UNCHANGED);
+                return broken;
+            default:
+                // A payload length past the end of the message
+                if ((broken[0] & FLAG_SR) != 0) {
+                    broken[0] &= ~FLAG_SR;
+                } else {
+                    ByteBuffer.wrap(broken, 2, 4).putInt(valid.length);
+                }
+                return broken;
+        }
+    }
+
+    private static byte[] encode(List<Record> records) {
+        return new Message(records).toByteArray();
+    }
+
+    /**
+     * Encodes {@code records} with each payload split into chunks of {@code chunkSize} bytes, which
+     * {@link Message} never does itself. The type and id of a record go with its first chunk.
+     */
+    private static byte[] encodeChunked(List<Record> records, int chunkSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            byte[] type = record.getType();
+            byte[] id = record.getId();
+            byte[] payload = record.getPayload();
+            int chunks = Math.max(1, (payload.length + chunkSize - 1) / chunkSize);
+            for (int c = 0; c < chunks; c++) {
+                boolean first = c == 0;
+                boolean last = c == chunks - 1;
+                int start = c * chunkSize;
+                int length = Math.min(chunkSize, payload.length - start);
+                int flags = (i == 0 && first ? FLAG_MB : 0)
+                        | (i == records.size() - 1 && last ? FLAG_ME : 0)
+                        | (last ? 0 : FLAG_CF)
+                        | (first && id.length > 0 ? FLAG_IL : 0)
+                        | (first ? record.getTnf() : Record.TNF_UNCHANGED);
+                ByteBuffer header = ByteBuffer.allocate(7);
+                header.put((byte) flags);
+                header.put((byte) (first ? type.length : 0));
+                header.putInt(Math.max(0, length));
+                if ((flags & FLAG_IL) != 0) {
+                    header.put((byte) id.length);
+                }
+                out.write(header.array(), 0, header.position());
+                if (first) {
+                    out.write(type, 0, type.length);
+                    out.write(id, 0, id.length);
+                }
+                if (length > 0) {
+                    out.write(payload, start, length);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private String word() {
+        return WORDS[mRandom.nextInt(WORDS.length)];
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
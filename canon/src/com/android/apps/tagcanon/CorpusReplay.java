@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tagcanon;
+
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.NdefFormatException;
+import com.android.apps.tag.core.record.RecordParser;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Feeds the fixtures written by {@link CorpusGenerator} to the decoder and parsers of the core
+ * library and reports the throughput and worst case latency of each category.
+ */
+public class CorpusReplay {
+
+    /** How one category fared. */
+    public static final class Result {
+        public final String category;
+        public int messages;
+        public long bytes;
+
+        /** Messages rejected where they should have parsed, or parsed where they shouldn't. */
+        public int unexpected;
+
+        public long totalNanos;
+        public long worstNanos;
+        public String worstFixture;
+
+        Result(String category) {
+            this.category = category;
+        }
+
+        public double getMessagesPerSecond() {
+            return totalNanos == 0 ? 0 : messages * 1e9 / totalNanos;
+        }
+
+        public double getKilobytesPerSecond() {
+            return totalNanos == 0 ? 0 : bytes * 1e9 / 1024 / totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%-20s n=%d %.0f msg/s %.0f KB/s mean=%.1fus worst=%.1fus (%s) unexpected=%d",
+                    category, messages, getMessagesPerSecond(), getKilobytesPerSecond(),
+                    messages == 0 ? 0 : totalNanos / 1000.0 / messages, worstNanos / 1000.0,
+                    worstFixture, unexpected);
+        }
+    }
+
+    // Utility class
+    private CorpusReplay() { }
+
+    /**
+     * Replays every category found in {@code corpusDir}. The fixtures are read into memory up
+     * front, and each is decoded and parsed {@code passes} times. All but the last pass warm up
+     * the JIT and aren't counted.
+     */
+    public static List<Result> replay(File corpusDir, int passes) throws IOException {
+        ArrayList<Result> results = Lists.newArrayList();
+        for (String category : CorpusGenerator.CATEGORIES) {
+            File dir = new File(corpusDir, category);
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            Arrays.sort(files);
+            ArrayList<File> fixtures = Lists.newArrayList();
+            ArrayList<byte[]> messages = Lists.newArrayList();
+            for (File file : files) {
+                if (file.getName().endsWith(CorpusGenerator.FIXTURE_EXTENSION)) {
+                    fixtures.add(file);
+                    messages.add(Files.toByteArray(file));
+                }
+            }
+            boolean expectValid = !CorpusGenerator.MALFORMED.equals(category);
+            for (int pass = 1; pass < passes; pass++) {
+                for (byte[] message : messages) {
+                    parse(message);
+                }
+            }
+            results.add(measure(category, fixtures, messages, expectValid));
+        }
+        return results;
+    }
+
+    private static Result measure(String category, List<File> fixtures, List<byte[]> messages,
+            boolean expectValid) {
+        Result result = new Result(category);
+        for (int i = 0; i < messages.size(); i++) {
+            byte[] message = messages.get(i);
+            long start = System.nanoTime();
+            boolean parsed = parse(message);
+            long nanos = System.nanoTime() - start;
+
+            result.messages++;
+            result.bytes += message.length;
+            result.totalNanos += nanos;
+            if (nanos > result.worstNanos) {
+                result.worstNanos = nanos;
+                result.worstFixture = fixtures.get(i).getName();
+            }
+            if (parsed != expectValid) {
+                result.unexpected++;
+            }
+        }
+        return result;
+    }
+
+    /** Decodes and parses {@code message}, returning false if it was rejected. */
+    private static boolean parse(byte[] message) {
+        try {
+            RecordParser.parse(Message.decode(message));
+            return true;
+        } catch (NdefFormatException e) {
+            return false;
+        }
+    }
+
+    /** Returns the results as a report, one line per category. */
+    public static String formatReport(List<Result> results) {
+        StringBuilder report = new StringBuilder();
+        for (Result result : results) {
+            report.append(result).append('\n');
+        }
+        return report.toString();
+    }
+}
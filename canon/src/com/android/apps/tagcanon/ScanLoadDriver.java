@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tagcanon;
+
+import com.android.apps.tag.util.LatencyHistogram;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import android.nfc.FormatException;
+import android.nfc.NdefMessage;
+import android.nfc.NfcAdapter;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ResultReceiver;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Taps tags at the viewer as fast as a pattern says, by sending it the intents NFC dispatch
+ * would, and measures how it keeps up.
+ *
+ * <p>Every intent carries a receiver that the viewer tells once the scan is on screen, or once a
+ * later scan replaced it before it got there. The time from sending the intent to hearing back
+ * is the end to end latency of the scan, across intent delivery, parsing, inflation and the
+ * first frame. Scans the viewer never reports on within {@link #SETTLE_TIMEOUT_MILLIS} of the
+ * last one being sent count as dropped. The viewer's heap use comes back with each shown scan.
+ * The viewer only answers when it is a debuggable build, so every scan is dropped otherwise.
+ *
+ * <p>The intents are started from the driver's activity so the viewer lands in its task, which
+ * keeps the driver allowed to start it while the viewer is in front.
+ */
+public class ScanLoadDriver {
+    static final String TAG = "ScanLoadDriver";
+
+    /** Scans evenly spaced at the rate. */
+    public static final String STEADY = "steady";
+
+    /** Scans sent back to back in bursts, with the bursts spaced to keep the average rate. */
+    public static final String BURSTY = "bursty";
+
+    /** The same tag scanned over and over at the rate, as when a tag is left on the reader. */
+    public static final String REPEAT = "repeat";
+
+    public static final ImmutableList<String> PATTERNS = ImmutableList.of(STEADY, BURSTY, REPEAT);
+
+    /** How long to wait to hear about the last scans once all were sent. */
+    static final long SETTLE_TIMEOUT_MILLIS = 5000;
+
+    // Must match com.android.apps.tag.TagViewer, which this isn't built against
+    private static final String VIEWER_PACKAGE = "com.android.apps.tag";
+    private static final String VIEWER_CLASS = "com.android.apps.tag.TagViewer";
+    private static final String EXTRA_SCAN_RECEIVER = "com.android.apps.tag.extra.SCAN_RECEIVER";
+    private static final String EXTRA_SCAN_ID = "com.android.apps.tag.extra.SCAN_ID";
+    private static final String EXTRA_VIEWER_NANOS = "com.android.apps.tag.extra.VIEWER_NANOS";
+    private static final String EXTRA_JAVA_HEAP = "com.android.apps.tag.extra.JAVA_HEAP";
+    private static final String EXTRA_NATIVE_HEAP = "com.android.apps.tag.extra.NATIVE_HEAP";
+    private static final int SCAN_SHOWN = 1;
+    private static final int SCAN_COALESCED = 2;
+    private static final int SCAN_LAUNCHED = 3;
+
+    private static final int STATE_SENT = 0;
+    private static final int STATE_SHOWN = 1;
+    private static final int STATE_COALESCED = 2;
+    private static final int STATE_FAILED = 3;
+    private static final int STATE_LAUNCHED = 4;
+
+    /** Told once the run is over. */
+    public interface Callback {
+        void onFinished(String report);
+    }
+
+    /** A message to scan along with the category it was generated for. */
+    public static final class Fixture {
+        final String category;
+        final NdefMessage message;
+
+        public Fixture(String category, NdefMessage message) {
+            this.category = category;
+            this.message = message;
+        }
+    }
+
+    private final Activity mActivity;
+    private final List<Fixture> mFixtures;
+    private final String mPattern;
+    private final String mAction;
+    private final int mRate;
+    private final int mBurst;
+    private final int mScans;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ResultReceiver mReceiver = new ResultReceiver(mHandler) {
+        @Override
+        protected void onReceiveResult(int resultCode, Bundle resultData) {
+            onScanResult(resultCode, resultData, System.nanoTime());
+        }
+    };
+
+    private Callback mCallback;
+    private long mStartUptime;
+    private long mStartNanos;
+    private long mLastSentNanos;
+    private int mSent;
+    private int mUnresolved;
+
+    private final int[] mStates;
+    private final long[] mSentNanos;
+
+    private final LatencyHistogram mEndToEnd = new LatencyHistogram();
+    private final LatencyHistogram mInViewer = new LatencyHistogram();
+    private final LatencyHistogram mToLaunch = new LatencyHistogram();
+    private final TreeMap<String, LatencyHistogram> mEndToEndByCategory = Maps.newTreeMap();
+    private int mShown;
+    private int mCoalesced;
+    private int mLaunched;
+    private int mFailed;
+    private int mLate;
+    private long mWorstNanos;
+    private int mWorstScan = -1;
+
+    private long mFirstJavaHeap = -1;
+    private long mLastJavaHeap;
+    private long mPeakJavaHeap;
+    private long mFirstNativeHeap = -1;
+    private long mLastNativeHeap;
+    private long mPeakNativeHeap;
+
+    /**
+     * @param activity the activity to start the viewer from, which must stay alive for the run
+     * @param fixtures the messages to scan, in turn, or only the first for {@link #REPEAT}
+     * @param pattern one of {@link #PATTERNS}
+     * @param action {@link NfcAdapter#ACTION_TAG_DISCOVERED} or
+     *     {@link NfcAdapter#ACTION_TECH_DISCOVERED}
+     * @param rate the average scans per second
+     * @param burst the scans per burst for {@link #BURSTY}
+     * @param scans how many scans to send in all
+     */
+    public ScanLoadDriver(Activity activity, List<Fixture> fixtures, String pattern, String action,
+            int rate, int burst, int scans) {
+        Preconditions.checkArgument(!fixtures.isEmpty(), "nothing to scan");
+        Preconditions.checkArgument(PATTERNS.contains(pattern), "unknown pattern %s", pattern);
+        Preconditions.checkArgument(rate > 0 && burst > 0 && scans > 0);
+        mActivity = activity;
+        mFixtures = fixtures;
+        mPattern = pattern;
+        mAction = action;
+        mRate = rate;
+        mBurst = BURSTY.equals(pattern) ? burst : 1;
+        mScans = scans;
+        mStates = new int[scans];
+        mSentNanos = new long[scans];
+    }
+
+    /** Starts sending scans. Must be called on the main thread, and only once. */
+    public void start(Callback callback) {
+        Preconditions.checkState(mCallback == null, "already started");
+        mCallback = callback;
+        mStartUptime = SystemClock.uptimeMillis();
+        mStartNanos = System.nanoTime();
+        Log.i(TAG, "Sending " + mScans + " " + mPattern + " scans at " + mRate + "/s");
+        mHandler.post(mSendDue);
+    }
+
+    /** Sends every scan whose time has come, then waits for the next. */
+    private final Runnable mSendDue = new Runnable() {
+        @Override
+        public void run() {
+            long elapsed = SystemClock.uptimeMillis() - mStartUptime;
+            while (mSent < mScans && sendTimeOf(mSent) <= elapsed) {
+                send(mSent++);
+            }
+            if (mSent < mScans) {
+                mHandler.postAtTime(this, mStartUptime + sendTimeOf(mSent));
+            } else {
+                mHandler.postDelayed(mFinish, SETTLE_TIMEOUT_MILLIS);
+            }
+        }
+    };
+
+    private final Runnable mFinish = new Runnable() {
+        @Override
+        public void run() {
+            finish();
+        }
+    };
+
+    /** Returns when scan {@code index} is due, in milliseconds from the start. */
+    private long sendTimeOf(int index) {
+        return (long) (index / mBurst) * mBurst * 1000 / mRate;
+    }
+
+    private Fixture fixtureOf(int index) {
+        return mFixtures.get(REPEAT.equals(mPattern) ? 0 : index % mFixtures.size());
+    }
+
+    private void send(int index) {
+        Intent intent = new Intent(mAction)
+                .setClassName(VIEWER_PACKAGE, VIEWER_CLASS)
+                .putExtra(NfcAdapter.EXTRA_ID, TagCanon.UID)
+                .putExtra(NfcAdapter.EXTRA_NDEF_MESSAGES,
+                        new NdefMessage[] { fixtureOf(index).message })
+                .putExtra(EXTRA_SCAN_RECEIVER, mReceiver)
+                .putExtra(EXTRA_SCAN_ID, index);
+        mSentNanos[index] = System.nanoTime();
+        mLastSentNanos = mSentNanos[index];
+        try {
+            mActivity.startActivity(intent);
+            mStates[index] = STATE_SENT;
+            mUnresolved++;
+        } catch (ActivityNotFoundException e) {
+            Log.e(TAG, "The viewer isn't installed", e);
+            mStates[index] = STATE_FAILED;
+            mFailed++;
+        } catch (RuntimeException e) {
+            // Such as the message being too large for a transaction
+            Log.w(TAG, "Failed to send scan " + index, e);
+            mStates[index] = STATE_FAILED;
+            mFailed++;
+        }
+    }
+
+    private void onScanResult(int resultCode, Bundle data, long nowNanos) {
+        int index = data.getInt(EXTRA_SCAN_ID, -1);
+        if (mCallback == null || index < 0 || index >= mScans || mStates[index] != STATE_SENT) {
+            // Heard about after the run was over, or twice
+            mLate++;
+            return;
+        }
+        mUnresolved--;
+        if (resultCode == SCAN_COALESCED) {
+            mStates[index] = STATE_COALESCED;
+            mCoalesced++;
+        } else if (resultCode == SCAN_LAUNCHED) {
+            // Handed to the app its Android Application Record names, so never on screen
+            mStates[index] = STATE_LAUNCHED;
+            mLaunched++;
+            mToLaunch.recordNanos(nowNanos - mSentNanos[index]);
+        } else if (resultCode == SCAN_SHOWN) {
+            mStates[index] = STATE_SHOWN;
+            mShown++;
+            long nanos = nowNanos - mSentNanos[index];
+            mEndToEnd.recordNanos(nanos);
+            mInViewer.recordNanos(data.getLong(EXTRA_VIEWER_NANOS, 0));
+            String category = fixtureOf(index).category;
+            LatencyHistogram byCategory = mEndToEndByCategory.get(category);
+            if (byCategory == null) {
+                byCategory = new LatencyHistogram();
+                mEndToEndByCategory.put(category, byCategory);
+            }
+            byCategory.recordNanos(nanos);
+            if (nanos > mWorstNanos) {
+                mWorstNanos = nanos;
+                mWorstScan = index;
+            }
+            recordHeap(data.getLong(EXTRA_JAVA_HEAP, 0), data.getLong(EXTRA_NATIVE_HEAP, 0));
+        }
+        if (mSent == mScans && mUnresolved == 0) {
+            mHandler.removeCallbacks(mFinish);
+            finish();
+        }
+    }
+
+    private void recordHeap(long javaHeap, long nativeHeap) {
+        if (mFirstJavaHeap < 0) {
+            mFirstJavaHeap = javaHeap;
+            mFirstNativeHeap = nativeHeap;
+        }
+        mLastJavaHeap = javaHeap;
+        mLastNativeHeap = nativeHeap;
+        mPeakJavaHeap = Math.max(mPeakJavaHeap, javaHeap);
+        mPeakNativeHeap = Math.max(mPeakNativeHeap, nativeHeap);
+    }
+
+    private void finish() {
+        Callback callback = mCallback;
+        if (callback == null) {
+            return;
+        }
+        String report = formatReport();
+        mCallback = null;
+        callback.onFinished(report);
+    }
+
+    /** Returns the outcome of the run, with scans not heard about yet counted as dropped. */
+    String formatReport() {
+        StringBuilder report = new StringBuilder();
+        double sendSeconds = (mLastSentNanos - mStartNanos) / 1e9;
+        report.append(String.format(Locale.US,
+                "pattern=%s action=%s rate=%d/s burst=%d scans=%d fixtures=%d\n", mPattern,
+                mAction, mRate, mBurst, mScans, REPEAT.equals(mPattern) ? 1 : mFixtures.size()));
+        report.append(String.format(Locale.US,
+                "sent=%d in %.1fs shown=%d coalesced=%d launched=%d dropped=%d failed=%d"
+                + " late=%d\n", mSent, sendSeconds, mShown, mCoalesced, mLaunched, mUnresolved,
+                mFailed, mLate));
+        report.append("end to end: ").append(mEndToEnd).append('\n');
+        report.append("in viewer:  ").append(mInViewer).append('\n');
+        if (mLaunched > 0) {
+            report.append("to launch:  ").append(mToLaunch).append('\n');
+        }
+        if (mWorstScan >= 0) {
+            report.append(String.format(Locale.US, "worst: scan %d (%s) %.1fms\n", mWorstScan,
+                    fixtureOf(mWorstScan).category, mWorstNanos / 1e6));
+        }
+        if (mFirstJavaHeap >= 0) {
+            report.append(formatHeap("java heap", mFirstJavaHeap, mLastJavaHeap, mPeakJavaHeap));
+            report.append(formatHeap("native heap", mFirstNativeHeap, mLastNativeHeap,
+                    mPeakNativeHeap));
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : mEndToEndByCategory.entrySet()) {
+            report.append(String.format(Locale.US, "%-20s %s\n", entry.getKey(),
+                    entry.getValue()));
+        }
+        return report.toString();
+    }
+
+    private static String formatHeap(String name, long first, long last, long peak) {
+        return String.format(Locale.US, "%s: first=%.1fMB last=%.1fMB peak=%.1fMB growth=%+.1fMB\n",
+                name, first / 1048576.0, last / 1048576.0, peak / 1048576.0,
+                (last - first) / 1048576.0);
+    }
+
+    /**
+     * Builds fixtures from {@code messagesPerCategory} messages of each well formed category of
+     * {@link CorpusGenerator}, or of {@code category} alone if it isn't {@code null}. Messages
+     * the platform's decoder rejects are left out.
+     */
+    public static List<Fixture> generateFixtures(long seed, String category,
+            int messagesPerCategory) {
+        CorpusGenerator generator = new CorpusGenerator(seed);
+        List<String> categories = (category != null)
+                ? ImmutableList.of(category) : CorpusGenerator.CATEGORIES;
+        ImmutableList.Builder<Fixture> fixtures = ImmutableList.builder();
+        for (String name : categories) {
+            if (CorpusGenerator.MALFORMED.equals(name)) {
+                continue;
+            }
+            for (byte[] bytes : generator.generate(name, messagesPerCategory)) {
+                try {
+                    fixtures.add(new Fixture(name, new NdefMessage(bytes)));
+                } catch (FormatException e) {
+                    Log.d(TAG, "Skipping a " + name + " message the platform rejects");
+                }
+            }
+        }
+        return fixtures.build();
+    }
+}
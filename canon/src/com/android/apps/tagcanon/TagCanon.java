@@ -17,7 +17,9 @@
 package com.android.apps.tagcanon;
 
 import com.android.apps.tag.MockNdefMessages;
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
 import com.google.common.primitives.Bytes;
 
 import android.app.ListActivity;
@@ -29,26 +31,83 @@ import android.graphics.drawable.Drawable;
 import android.nfc.NdefMessage;
 import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
+import android.widget.Toast;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Locale;
 
 /**
  * A test activity that launches tags as if they had been scanned.
+ *
+ * <p>It also generates synthetic corpora with {@link CorpusGenerator} and replays them through
+ * the parsers with {@link CorpusReplay}, either from the list or unattended:
+ * <pre>
+ * adb shell am start -n com.android.apps.tagcanon/.TagCanon --es corpus all \
+ *     [--el seed 1] [--ei count 200] [--ei passes 3]
+ * </pre>
+ * where {@code corpus} is {@link #CORPUS_GENERATE}, {@link #CORPUS_REPLAY} or
+ * {@link #CORPUS_ALL}. The fixtures and the report go to the {@code corpus} directory of the
+ * app's external files, and the report is logged too.
+ *
+ * <p>{@link ScanLoadDriver} taps generated tags at the viewer to measure it under load:
+ * <pre>
+ * adb shell am start -n com.android.apps.tagcanon/.TagCanon --es load bursty \
+ *     [--ei rate 10] [--ei burst 10] [--ei scans 500] [--es action tech] \
+ *     [--es category smart_poster] [--el seed 1] [--ei count 20]
+ * </pre>
+ * where {@code load} is one of {@link ScanLoadDriver#PATTERNS}, {@code action} is
+ * {@link #ACTION_TAG} or {@link #ACTION_TECH} and {@code count} is the messages generated per
+ * category. The report goes to the {@code load} directory of the app's external files and is
+ * logged too.
  */
 public class TagCanon extends ListActivity {
     static final String TAG = "TagCanon";
     static final byte[] UID = new byte[] { 0x05, 0x00, 0x03, 0x08 };
 
+    public static final String EXTRA_CORPUS = "corpus";
+    public static final String EXTRA_SEED = "seed";
+    public static final String EXTRA_COUNT = "count";
+    public static final String EXTRA_PASSES = "passes";
+    public static final String EXTRA_LOAD = "load";
+    public static final String EXTRA_RATE = "rate";
+    public static final String EXTRA_BURST = "burst";
+    public static final String EXTRA_SCANS = "scans";
+    public static final String EXTRA_ACTION = "action";
+    public static final String EXTRA_CATEGORY = "category";
+
+    public static final String CORPUS_GENERATE = "generate";
+    public static final String CORPUS_REPLAY = "replay";
+    public static final String CORPUS_ALL = "all";
+
+    public static final String ACTION_TAG = "tag";
+    public static final String ACTION_TECH = "tech";
+
+    static final String REPORT_FILE = "replay-report.txt";
+
+    private static final long DEFAULT_SEED = 0x7a6;
+    private static final int DEFAULT_COUNT = 200;
+    private static final int DEFAULT_PASSES = 3;
+    private static final int DEFAULT_LOAD_COUNT = 20;
+    private static final int DEFAULT_RATE = 10;
+    private static final int DEFAULT_BURST = 10;
+    private static final int DEFAULT_SCANS = 500;
+
     ArrayAdapter<TagDescription> mAdapter;
 
+    /** The scan load run in progress, if any. */
+    ScanLoadDriver mLoadDriver;
+
     public static NdefRecord newTextRecord(String text, Locale locale, boolean encodeInUtf8) {
         Preconditions.checkNotNull(text);
         Preconditions.checkNotNull(locale);
@@ -107,6 +166,12 @@ public class TagCanon extends ListActivity {
         public String title;
         NdefMessage[] msgs;
 
+        /** The corpus task to run instead of launching a tag, if any. */
+        String corpus;
+
+        /** The scan load pattern to run instead of launching a tag, if any. */
+        String load;
+
         public TagDescription(String title, byte[] bytes) {
             this.title = title;
             try {
@@ -121,6 +186,18 @@ public class TagCanon extends ListActivity {
             this.msgs = msgs;
         }
 
+        static TagDescription forCorpus(String title, String corpus) {
+            TagDescription description = new TagDescription(title, (NdefMessage[]) null);
+            description.corpus = corpus;
+            return description;
+        }
+
+        static TagDescription forLoad(String title, String load) {
+            TagDescription description = new TagDescription(title, (NdefMessage[]) null);
+            description.load = load;
+            return description;
+        }
+
         @Override
         public String toString() {
             return title;
@@ -141,15 +218,171 @@ public class TagCanon extends ListActivity {
         adapter.add(new TagDescription("SmartPoster URL", MockNdefMessages.SMART_POSTER_URL_NO_TEXT));
         adapter.add(new TagDescription("VCARD", MockNdefMessages.VCARD));
         adapter.add(new TagDescription("URI", MockNdefMessages.URI));
+        adapter.add(TagDescription.forCorpus("Generate synthetic corpus", CORPUS_GENERATE));
+        adapter.add(TagDescription.forCorpus("Replay synthetic corpus", CORPUS_REPLAY));
+        adapter.add(TagDescription.forLoad("Scan load, steady", ScanLoadDriver.STEADY));
+        adapter.add(TagDescription.forLoad("Scan load, bursty", ScanLoadDriver.BURSTY));
+        adapter.add(TagDescription.forLoad("Scan load, same tag", ScanLoadDriver.REPEAT));
         setListAdapter(adapter);
         mAdapter = adapter;
+
+        String corpus = getIntent().getStringExtra(EXTRA_CORPUS);
+        if (corpus != null) {
+            runCorpusTask(corpus, true);
+        }
+        String load = getIntent().getStringExtra(EXTRA_LOAD);
+        if (load != null) {
+            runLoad(load, true);
+        }
     }
 
     @Override
     public void onListItemClick(ListView l, View v, int position, long id) {
         TagDescription description = mAdapter.getItem(position);
+        if (description.corpus != null) {
+            runCorpusTask(description.corpus, false);
+            return;
+        }
+        if (description.load != null) {
+            runLoad(description.load, false);
+            return;
+        }
         Intent intent = new Intent(NfcAdapter.ACTION_TAG_DISCOVERED);
         intent.putExtra(NfcAdapter.EXTRA_NDEF_MESSAGES, description.msgs);
         startActivity(intent);
     }
+
+    /**
+     * Generates and/or replays the corpus in the background, as {@code corpus} says, and
+     * finishes once done if {@code unattended}.
+     */
+    void runCorpusTask(final String corpus, final boolean unattended) {
+        Intent intent = getIntent();
+        final long seed = intent.getLongExtra(EXTRA_SEED, DEFAULT_SEED);
+        final int count = intent.getIntExtra(EXTRA_COUNT, DEFAULT_COUNT);
+        final int passes = intent.getIntExtra(EXTRA_PASSES, DEFAULT_PASSES);
+        final File dir = getExternalFilesDir("corpus");
+        if (dir == null) {
+            Log.e(TAG, "External storage isn't available for the corpus");
+            return;
+        }
+        Toast.makeText(this, "Running corpus " + corpus, Toast.LENGTH_SHORT).show();
+
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... params) {
+                try {
+                    return runCorpus(dir, corpus, seed, count, passes);
+                } catch (IOException e) {
+                    Log.e(TAG, "Corpus " + corpus + " failed", e);
+                    return "Corpus " + corpus + " failed: " + e;
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Corpus " + corpus + " failed", e);
+                    return "Corpus " + corpus + " failed: " + e.getMessage();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(String summary) {
+                Toast.makeText(TagCanon.this, summary, Toast.LENGTH_LONG).show();
+                if (unattended) {
+                    finish();
+                }
+            }
+        }.execute();
+    }
+
+    static String runCorpus(File dir, String corpus, long seed, int count, int passes)
+            throws IOException {
+        boolean generate = CORPUS_GENERATE.equals(corpus) || CORPUS_ALL.equals(corpus);
+        boolean replay = CORPUS_REPLAY.equals(corpus) || CORPUS_ALL.equals(corpus);
+        if (!generate && !replay) {
+            throw new IllegalArgumentException("Unknown corpus task " + corpus);
+        }
+        if (generate) {
+            CorpusGenerator generator = new CorpusGenerator(seed);
+            for (String category : CorpusGenerator.CATEGORIES) {
+                CorpusGenerator.writeFixtures(new File(dir, category),
+                        generator.generate(category, count));
+            }
+            Log.i(TAG, "Wrote " + count + " messages per category to " + dir);
+        }
+        if (!replay) {
+            return "Corpus written to " + dir;
+        }
+        String report = CorpusReplay.formatReport(CorpusReplay.replay(dir, passes));
+        File reportFile = new File(dir, REPORT_FILE);
+        Files.write(report, reportFile, Charsets.UTF_8);
+        for (String line : report.split("\n")) {
+            Log.i(TAG, line);
+        }
+        return "Replay report written to " + reportFile;
+    }
+
+    /**
+     * Generates the fixtures in the background, then taps them at the viewer in {@code pattern}
+     * and writes the report. Finishes once done if {@code unattended}.
+     */
+    void runLoad(final String pattern, final boolean unattended) {
+        if (mLoadDriver != null) {
+            Toast.makeText(this, "A scan load is already running", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = getIntent();
+        final long seed = intent.getLongExtra(EXTRA_SEED, DEFAULT_SEED);
+        final int count = intent.getIntExtra(EXTRA_COUNT, DEFAULT_LOAD_COUNT);
+        final String category = intent.getStringExtra(EXTRA_CATEGORY);
+        final String action = ACTION_TAG.equals(intent.getStringExtra(EXTRA_ACTION))
+                ? NfcAdapter.ACTION_TAG_DISCOVERED : NfcAdapter.ACTION_TECH_DISCOVERED;
+        final int rate = intent.getIntExtra(EXTRA_RATE, DEFAULT_RATE);
+        final int burst = intent.getIntExtra(EXTRA_BURST, DEFAULT_BURST);
+        final int scans = intent.getIntExtra(EXTRA_SCANS, DEFAULT_SCANS);
+        final File dir = getExternalFilesDir("load");
+        if (dir == null) {
+            Log.e(TAG, "External storage isn't available for the report");
+            return;
+        }
+
+        new AsyncTask<Void, Void, List<ScanLoadDriver.Fixture>>() {
+            @Override
+            protected List<ScanLoadDriver.Fixture> doInBackground(Void... params) {
+                return ScanLoadDriver.generateFixtures(seed, category, count);
+            }
+
+            @Override
+            protected void onPostExecute(List<ScanLoadDriver.Fixture> fixtures) {
+                try {
+                    mLoadDriver = new ScanLoadDriver(TagCanon.this, fixtures, pattern, action,
+                            rate, burst, scans);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Scan load " + pattern + " failed", e);
+                    Toast.makeText(TagCanon.this, "Scan load failed: " + e.getMessage(),
+                            Toast.LENGTH_LONG).show();
+                    return;
+                }
+                mLoadDriver.start(new ScanLoadDriver.Callback() {
+                    @Override
+                    public void onFinished(String report) {
+                        mLoadDriver = null;
+                        writeLoadReport(new File(dir, "load-report-" + pattern + ".txt"), report);
+                        if (unattended) {
+                            finish();
+                        }
+                    }
+                });
+            }
+        }.execute();
+    }
+
+    private void writeLoadReport(File file, String report) {
+        for (String line : report.split("\n")) {
+            Log.i(TAG, line);
+        }
+        try {
+            Files.write(report, file, Charsets.UTF_8);
+            Toast.makeText(this, "Load report written to " + file, Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + file, e);
+        }
+    }
 }
@@ -0,0 +1,30 @@
+LOCAL_PATH:= $(call my-dir)
+
+# The NDEF codec, record model and parsers, with no dependencies on the framework so they run
+# on any JVM. Built for the device, where the Tag app links it in, and for the host, where
+# batch tools and benchmarks use it.
+
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
+
+LOCAL_JAVA_LIBRARIES := guava
+
+LOCAL_MODULE := tag-core
+LOCAL_MODULE_TAGS := optional
+LOCAL_SDK_VERSION := current
+
+include $(BUILD_STATIC_JAVA_LIBRARY)
+
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
+
+LOCAL_JAVA_LIBRARIES := guavalib
+
+LOCAL_MODULE := tag-core-host
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+
+include $(call all-makefiles-under,$(LOCAL_PATH))
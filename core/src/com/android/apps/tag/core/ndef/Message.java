@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.ndef;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * An NDEF message: one or more {@link Record}s, encoded and decoded as the NFC Forum NDEF
+ * specification lays them out, chunked records included.
+ */
+public final class Message {
+    private final ImmutableList<Record> mRecords;
+
+    public Message(Record first, Record... rest) {
+        mRecords = ImmutableList.<Record>builder().add(first).add(rest).build();
+    }
+
+    public Message(List<Record> records) {
+        Preconditions.checkArgument(!records.isEmpty(), "a message needs a record");
+        mRecords = ImmutableList.copyOf(records);
+    }
+
+    /**
+     * Decodes a whole message.
+     *
+     * @throws NdefFormatException if {@code data} is malformed or holds more than the message
+     */
+    public static Message decode(byte[] data) throws NdefFormatException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        Message message;
+        try {
+            message = new Message(Record.decode(buffer, false));
+        } catch (BufferUnderflowException e) {
+            throw new NdefFormatException("Message is truncated", e);
+        }
+        if (buffer.hasRemaining()) {
+            throw new NdefFormatException("Trailing data after the message end");
+        }
+        return message;
+    }
+
+    public List<Record> getRecords() {
+        return mRecords;
+    }
+
+    /** Returns the length of the encoded message. */
+    public int getByteLength() {
+        int length = 0;
+        for (Record record : mRecords) {
+            length += record.getByteLength();
+        }
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate(getByteLength());
+        int last = mRecords.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            mRecords.get(i).encode(buffer, i == 0, i == last);
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Message && mRecords.equals(((Message) obj).mRecords);
+    }
+
+    @Override
+    public int hashCode() {
+        return mRecords.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Message " + mRecords;
+    }
+}
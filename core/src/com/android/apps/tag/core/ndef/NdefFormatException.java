@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.ndef;
+
+/**
+ * Thrown when bytes don't hold a well formed NDEF message.
+ */
+public class NdefFormatException extends Exception {
+    public NdefFormatException(String message) {
+        super(message);
+    }
+
+    public NdefFormatException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
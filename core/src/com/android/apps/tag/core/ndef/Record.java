@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.ndef;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Bytes;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A single NDEF record. Like the platform's {@code android.nfc.NdefRecord}, which it stands in
+ * for wherever Android isn't available, it is immutable and converts itself to the URI or MIME
+ * type it carries.
+ */
+public final class Record {
+    public static final short TNF_EMPTY = 0x00;
+    public static final short TNF_WELL_KNOWN = 0x01;
+    public static final short TNF_MIME_MEDIA = 0x02;
+    public static final short TNF_ABSOLUTE_URI = 0x03;
+    public static final short TNF_EXTERNAL_TYPE = 0x04;
+    public static final short TNF_UNKNOWN = 0x05;
+    public static final short TNF_UNCHANGED = 0x06;
+    public static final short TNF_RESERVED = 0x07;
+
+    public static final byte[] RTD_TEXT = { 'T' };
+    public static final byte[] RTD_URI = { 'U' };
+    public static final byte[] RTD_SMART_POSTER = { 'S', 'p' };
+    public static final byte[] RTD_HANDOVER_SELECT = { 'H', 's' };
+    public static final byte[] RTD_HANDOVER_REQUEST = { 'H', 'r' };
+    public static final byte[] RTD_ALTERNATIVE_CARRIER = { 'a', 'c' };
+
+    /** The external type of an Android Application Record, naming the app for a message. */
+    public static final byte[] RTD_ANDROID_APP = "android.com:pkg".getBytes(Charsets.US_ASCII);
+
+    private static final int FLAG_MB = 0x80;
+    private static final int FLAG_ME = 0x40;
+    private static final int FLAG_CF = 0x20;
+    private static final int FLAG_SR = 0x10;
+    private static final int FLAG_IL = 0x08;
+    private static final int TNF_MASK = 0x07;
+
+    /** The largest payload accepted when decoding, so a corrupt length can't exhaust memory. */
+    private static final int MAX_PAYLOAD_SIZE = 10 * (1 << 20);
+
+    /** The abbreviations of well known URI records, by identifier code. */
+    private static final String[] URI_PREFIXES = new String[] {
+        "", "http://www.", "https://www.", "http://", "https://", "tel:", "mailto:",
+        "ftp://anonymous:anonymous@", "ftp://ftp.", "ftps://", "sftp://", "smb://",
+        "nfs://", "ftp://", "dav://", "news:", "telnet://", "imap:", "rtsp://", "urn:",
+        "pop:", "sip:", "sips:", "tftp:", "btspp://", "btl2cap://", "btgoep://",
+        "tcpobex://", "irdaobex://", "file://", "urn:epc:id:", "urn:epc:tag:",
+        "urn:epc:pat:", "urn:epc:raw:", "urn:epc:", "urn:nfc:",
+    };
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final short mTnf;
+    private final byte[] mType;
+    private final byte[] mId;
+    private final byte[] mPayload;
+
+    /**
+     * @throws IllegalArgumentException if the fields aren't valid for {@code tnf}
+     */
+    public Record(short tnf, byte[] type, byte[] id, byte[] payload) {
+        this(tnf, copyOf(type), copyOf(id), copyOf(payload), false);
+    }
+
+    /** Takes ownership of the arrays, for records made while decoding. */
+    private Record(short tnf, byte[] type, byte[] id, byte[] payload, boolean owned) {
+        String error = validate(tnf, type, id, payload);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+        mTnf = tnf;
+        mType = type;
+        mId = id;
+        mPayload = payload;
+    }
+
+    /** Returns a well known URI record, abbreviating the URI where the specification allows. */
+    public static Record createUri(String uri) {
+        if (uri.length() == 0) {
+            throw new IllegalArgumentException("uri is empty");
+        }
+        byte prefix = 0;
+        for (int i = 1; i < URI_PREFIXES.length; i++) {
+            if (uri.startsWith(URI_PREFIXES[i])) {
+                prefix = (byte) i;
+                uri = uri.substring(URI_PREFIXES[i].length());
+                break;
+            }
+        }
+        byte[] payload = Bytes.concat(new byte[] { prefix }, uri.getBytes(Charsets.UTF_8));
+        return new Record(TNF_WELL_KNOWN, RTD_URI, EMPTY, payload, true);
+    }
+
+    /** Returns a record of {@code mimeType} content. */
+    public static Record createMime(String mimeType, byte[] data) {
+        mimeType = normalizeMimeType(mimeType);
+        int slash = mimeType.indexOf('/');
+        if (slash <= 0 || slash == mimeType.length() - 1) {
+            throw new IllegalArgumentException("Not a MIME type: " + mimeType);
+        }
+        return new Record(TNF_MIME_MEDIA, mimeType.getBytes(Charsets.US_ASCII), EMPTY,
+                copyOf(data), true);
+    }
+
+    /** Returns a well known text record in the language of {@code locale}. */
+    public static Record createText(String text, Locale locale, boolean encodeInUtf8) {
+        byte[] langBytes = locale.getLanguage().getBytes(Charsets.US_ASCII);
+        byte[] textBytes = text.getBytes(encodeInUtf8 ? Charsets.UTF_8 : Charsets.UTF_16);
+        int utfBit = encodeInUtf8 ? 0 : (1 << 7);
+        byte status = (byte) (utfBit + langBytes.length);
+        return new Record(TNF_WELL_KNOWN, RTD_TEXT, EMPTY,
+                Bytes.concat(new byte[] { status }, langBytes, textBytes), true);
+    }
+
+    public short getTnf() {
+        return mTnf;
+    }
+
+    public byte[] getType() {
+        return mType.clone();
+    }
+
+    /** Returns true if the type of this record is {@code type}, without copying it. */
+    public boolean hasType(byte[] type) {
+        return Arrays.equals(mType, type);
+    }
+
+    public byte[] getId() {
+        return mId.clone();
+    }
+
+    public byte[] getPayload() {
+        return mPayload.clone();
+    }
+
+    public int getPayloadLength() {
+        return mPayload.length;
+    }
+
+    /**
+     * Returns the MIME type of this record's content: its type for a MIME record, or
+     * {@code text/plain} for a well known text record. Returns {@code null} for anything else.
+     */
+    public String toMimeType() {
+        if (mTnf == TNF_WELL_KNOWN && Arrays.equals(mType, RTD_TEXT)) {
+            return "text/plain";
+        } else if (mTnf == TNF_MIME_MEDIA) {
+            return normalizeMimeType(new String(mType, Charsets.US_ASCII));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the URI this record carries, or {@code null} if it carries none. That is the URI
+     * of a URI record or an absolute URI record, the first URI in a smart poster, or a
+     * {@code vnd.android.nfc://ext/} URI naming the type of an external record.
+     */
+    public String toUri() {
+        return toUri(false);
+    }
+
+    private String toUri(boolean inSmartPoster) {
+        switch (mTnf) {
+            case TNF_WELL_KNOWN:
+                if (Arrays.equals(mType, RTD_SMART_POSTER) && !inSmartPoster) {
+                    try {
+                        for (Record nested : Message.decode(mPayload).getRecords()) {
+                            String uri = nested.toUri(true);
+                            if (uri != null) {
+                                return uri;
+                            }
+                        }
+                    } catch (NdefFormatException e) {
+                        // Not a URI
+                    }
+                } else if (Arrays.equals(mType, RTD_URI)) {
+                    String uri = decodeWellKnownUri();
+                    return uri == null ? null : normalizeScheme(uri);
+                }
+                return null;
+            case TNF_ABSOLUTE_URI:
+                return normalizeScheme(new String(mType, Charsets.UTF_8));
+            case TNF_EXTERNAL_TYPE:
+                if (inSmartPoster) {
+                    return null;
+                }
+                return "vnd.android.nfc://ext/" + new String(mType, Charsets.US_ASCII);
+            default:
+                return null;
+        }
+    }
+
+    private String decodeWellKnownUri() {
+        if (mPayload.length < 2) {
+            return null;
+        }
+        int prefix = mPayload[0] & 0xff;
+        if (prefix >= URI_PREFIXES.length) {
+            return null;
+        }
+        return URI_PREFIXES[prefix]
+                + new String(mPayload, 1, mPayload.length - 1, Charsets.UTF_8);
+    }
+
+    /** Lowercases the scheme of {@code uri}, if it has one. */
+    private static String normalizeScheme(String uri) {
+        for (int i = 0; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c == ':') {
+                String scheme = uri.substring(0, i);
+                String lower = scheme.toLowerCase(Locale.ROOT);
+                return scheme.equals(lower) ? uri : lower + uri.substring(i);
+            } else if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+        }
+        return uri;
+    }
+
+    private static String normalizeMimeType(String type) {
+        type = type.trim().toLowerCase(Locale.ROOT);
+        int semicolon = type.indexOf(';');
+        return semicolon == -1 ? type : type.substring(0, semicolon);
+    }
+
+    private static String validate(short tnf, byte[] type, byte[] id, byte[] payload) {
+        if (type.length > 255 || id.length > 255) {
+            return "Type or id longer than 255 bytes";
+        }
+        switch (tnf) {
+            case TNF_EMPTY:
+                if (type.length != 0 || id.length != 0 || payload.length != 0) {
+                    return "Unexpected data in an empty record";
+                }
+                return null;
+            case TNF_WELL_KNOWN:
+            case TNF_MIME_MEDIA:
+            case TNF_ABSOLUTE_URI:
+            case TNF_EXTERNAL_TYPE:
+                return null;
+            case TNF_UNKNOWN:
+            case TNF_RESERVED:
+                if (type.length != 0) {
+                    return "Unexpected type in an unknown or reserved record";
+                }
+                return null;
+            case TNF_UNCHANGED:
+                return "Unexpected unchanged type outside a chunked record";
+            default:
+                return "Unexpected TNF " + tnf;
+        }
+    }
+
+    /**
+     * Decodes records from {@code buffer}, up to the one flagged as ending the message, or only
+     * the first one if {@code single}.
+     */
+    static List<Record> decode(ByteBuffer buffer, boolean single) throws NdefFormatException {
+        ArrayList<Record> records = Lists.newArrayList();
+        ByteArrayOutputStream chunks = null;
+        short chunkTnf = 0;
+        byte[] type = EMPTY;
+        byte[] id = EMPTY;
+        boolean end = false;
+
+        while (!end) {
+            int flags = buffer.get() & 0xff;
+            boolean chunked = (flags & FLAG_CF) != 0;
+            short tnf = (short) (flags & TNF_MASK);
+            end = (flags & FLAG_ME) != 0;
+
+            if (!single && ((flags & FLAG_MB) != 0) != (records.isEmpty() && chunks == null)) {
+                throw new NdefFormatException("Message begin flag out of place");
+            } else if (chunked && end) {
+                throw new NdefFormatException("Message ends inside a chunked record");
+            } else if ((chunks != null) != (tnf == TNF_UNCHANGED)) {
+                throw new NdefFormatException("Unchanged type out of place");
+            } else if (chunks != null && (flags & FLAG_IL) != 0) {
+                throw new NdefFormatException("Id in a trailing chunk");
+            }
+
+            int typeLength = buffer.get() & 0xff;
+            long payloadLength = (flags & FLAG_SR) != 0
+                    ? buffer.get() & 0xff : buffer.getInt() & 0xffffffffL;
+            int idLength = (flags & FLAG_IL) != 0 ? buffer.get() & 0xff : 0;
+            if (chunks != null && typeLength != 0) {
+                throw new NdefFormatException("Type in a trailing chunk");
+            }
+            if (payloadLength > MAX_PAYLOAD_SIZE) {
+                throw new NdefFormatException("Payload too large: " + payloadLength);
+            }
+
+            if (chunks == null) {
+                type = typeLength == 0 ? EMPTY : new byte[typeLength];
+                id = idLength == 0 ? EMPTY : new byte[idLength];
+                buffer.get(type);
+                buffer.get(id);
+            }
+            byte[] payload = payloadLength == 0 ? EMPTY : new byte[(int) payloadLength];
+            buffer.get(payload);
+
+            if (chunked && chunks == null) {
+                chunks = new ByteArrayOutputStream();
+                chunkTnf = tnf;
+            }
+            if (chunks != null) {
+                chunks.write(payload, 0, payload.length);
+                if (chunked) {
+                    continue;
+                }
+                if (chunks.size() > MAX_PAYLOAD_SIZE) {
+                    throw new NdefFormatException("Payload too large: " + chunks.size());
+                }
+                payload = chunks.toByteArray();
+                tnf = chunkTnf;
+                chunks = null;
+            }
+
+            String error = validate(tnf, type, id, payload);
+            if (error != null) {
+                throw new NdefFormatException(error);
+            }
+            records.add(new Record(tnf, type, id, payload, true));
+            if (single) {
+                break;
+            }
+        }
+        return records;
+    }
+
+    /** Writes this record to {@code buffer}, flagged as the first and last of its message. */
+    void encode(ByteBuffer buffer, boolean first, boolean last) {
+        boolean shortRecord = mPayload.length < 256;
+        boolean hasId = mId.length > 0;
+        int flags = (first ? FLAG_MB : 0) | (last ? FLAG_ME : 0)
+                | (shortRecord ? FLAG_SR : 0) | (hasId ? FLAG_IL : 0) | mTnf;
+        buffer.put((byte) flags);
+        buffer.put((byte) mType.length);
+        if (shortRecord) {
+            buffer.put((byte) mPayload.length);
+        } else {
+            buffer.putInt(mPayload.length);
+        }
+        if (hasId) {
+            buffer.put((byte) mId.length);
+        }
+        buffer.put(mType);
+        buffer.put(mId);
+        buffer.put(mPayload);
+    }
+
+    /** Returns the length of this record when encoded. */
+    int getByteLength() {
+        int length = 3 + mType.length + mId.length + mPayload.length;
+        if (mPayload.length >= 256) {
+            length += 3;
+        }
+        if (mId.length > 0) {
+            length++;
+        }
+        return length;
+    }
+
+    /** Returns this record encoded on its own, as a message of one. */
+    public byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate(getByteLength());
+        encode(buffer, true, true);
+        return buffer.array();
+    }
+
+    private static byte[] copyOf(byte[] bytes) {
+        return (bytes == null || bytes.length == 0) ? EMPTY : bytes.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Record)) {
+            return false;
+        }
+        Record other = (Record) obj;
+        return mTnf == other.mTnf && Arrays.equals(mType, other.mType)
+                && Arrays.equals(mId, other.mId) && Arrays.equals(mPayload, other.mPayload);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mTnf;
+        result = 31 * result + Arrays.hashCode(mType);
+        result = 31 * result + Arrays.hashCode(mId);
+        result = 31 * result + Arrays.hashCode(mPayload);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Record tnf=" + mTnf + " type=" + new String(mType, Charsets.US_ASCII)
+                + " payload=" + mPayload.length + " bytes";
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * An Android Application Record, the {@code android.com:pkg} external type record naming the
+ * package of the app a message is meant for. A message holding one is handed straight to that
+ * app if it is installed.
+ */
+public class AarData extends ExternalTypeData {
+
+    public static final String RECORD_TYPE = "aar";
+
+    /** The external type of an Android Application Record. */
+    public static final String AAR_TYPE = new String(Record.RTD_ANDROID_APP, Charsets.US_ASCII);
+
+    /** Dot separated Java identifiers, as package names are. */
+    private static final Pattern PACKAGE_NAME =
+            Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*");
+
+    private final String mPackageName;
+
+    public AarData(String packageName) {
+        super(AAR_TYPE, packageName.getBytes(Charsets.US_ASCII));
+        mPackageName = packageName;
+    }
+
+    /** Returns the package name of the app the message is meant for. */
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    @Override
+    public void addSearchText(Collection<String> text) {
+        text.add(mPackageName);
+    }
+
+    /**
+     * Parses an Android Application Record, or returns {@code null} if {@code record} isn't one
+     * or doesn't name a valid package.
+     */
+    public static AarData parse(Record record) {
+        String type = externalTypeOf(record);
+        if (type == null || !type.equalsIgnoreCase(AAR_TYPE)) {
+            return null;
+        }
+        String packageName = new String(record.getPayload(), Charsets.UTF_8).trim();
+        if (!PACKAGE_NAME.matcher(packageName).matches()) {
+            return null;
+        }
+        return new AarData(packageName);
+    }
+}
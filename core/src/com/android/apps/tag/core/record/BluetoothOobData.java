@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The out-of-band pairing data of a Bluetooth device, carried by a Connection Handover message:
+ * an {@code application/vnd.bluetooth.ep.oob} record for BR/EDR or an
+ * {@code application/vnd.bluetooth.le.oob} record for Low Energy.
+ *
+ * <p>Both hold the device's address followed by EIR or AD structures, of which the name, class,
+ * services and pairing values are kept. See the Bluetooth Secure Simple Pairing Using NFC
+ * application document.
+ */
+public class BluetoothOobData extends MimeData {
+
+    public static final String RECORD_TYPE = "BluetoothOob";
+
+    public static final String BREDR_MIME_TYPE = "application/vnd.bluetooth.ep.oob";
+    public static final String LE_MIME_TYPE = "application/vnd.bluetooth.le.oob";
+
+    /** The LE address type, from the LE Bluetooth Device Address structure. */
+    public static final int ADDRESS_PUBLIC = 0;
+    public static final int ADDRESS_RANDOM = 1;
+
+    private static final int EIR_UUID16_INCOMPLETE = 0x02;
+    private static final int EIR_UUID16 = 0x03;
+    private static final int EIR_UUID32_INCOMPLETE = 0x04;
+    private static final int EIR_UUID32 = 0x05;
+    private static final int EIR_UUID128_INCOMPLETE = 0x06;
+    private static final int EIR_UUID128 = 0x07;
+    private static final int EIR_SHORT_NAME = 0x08;
+    private static final int EIR_NAME = 0x09;
+    private static final int EIR_DEVICE_CLASS = 0x0d;
+    private static final int EIR_HASH = 0x0e;
+    private static final int EIR_RANDOMIZER = 0x0f;
+    private static final int EIR_TK = 0x10;
+    private static final int EIR_LE_ADDRESS = 0x1b;
+    private static final int EIR_LE_ROLE = 0x1c;
+    private static final int EIR_LE_SC_CONFIRMATION = 0x22;
+    private static final int EIR_LE_SC_RANDOM = 0x23;
+
+    private static final int ADDRESS_LENGTH = 6;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The Bluetooth base UUID that 16 and 32 bit UUIDs are short forms of. */
+    private static final String BASE_UUID_SUFFIX = "-0000-1000-8000-00805f9b34fb";
+
+    private final boolean mLowEnergy;
+    private final String mAddress;
+    private final int mAddressType;
+    private final String mName;
+    private final int mDeviceClass;
+    private final int mRole;
+    private final List<String> mServiceUuids;
+    private final byte[] mHash;
+    private final byte[] mRandomizer;
+    private final byte[] mTk;
+
+    private BluetoothOobData(String mimeType, ByteBuffer content, boolean lowEnergy,
+            String address, int addressType, String name, int deviceClass, int role,
+            List<String> serviceUuids, byte[] hash, byte[] randomizer, byte[] tk) {
+        super(mimeType, content);
+        mLowEnergy = lowEnergy;
+        mAddress = Preconditions.checkNotNull(address);
+        mAddressType = addressType;
+        mName = name;
+        mDeviceClass = deviceClass;
+        mRole = role;
+        mServiceUuids = ImmutableList.copyOf(serviceUuids);
+        mHash = hash;
+        mRandomizer = randomizer;
+        mTk = tk;
+    }
+
+    /** Returns true for a Low Energy device, false for BR/EDR. */
+    public boolean isLowEnergy() {
+        return mLowEnergy;
+    }
+
+    /** Returns the device address, as six upper case hex pairs separated by colons. */
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /** Returns {@link #ADDRESS_PUBLIC} or {@link #ADDRESS_RANDOM} for LE, -1 for BR/EDR. */
+    public int getAddressType() {
+        return mAddressType;
+    }
+
+    /** Returns the device's name. This may be {@code null}. */
+    public String getName() {
+        return mName;
+    }
+
+    /** Returns the class of device, or -1 if it isn't given. */
+    public int getDeviceClass() {
+        return mDeviceClass;
+    }
+
+    /** Returns the LE role, or -1 if it isn't given. */
+    public int getRole() {
+        return mRole;
+    }
+
+    /** Returns the service class UUIDs, in their 128 bit form. */
+    public List<String> getServiceUuids() {
+        return mServiceUuids;
+    }
+
+    /**
+     * Returns the Simple Pairing hash C for BR/EDR, or the Secure Connections confirmation
+     * value for LE. This may be {@code null}.
+     */
+    public byte[] getHash() {
+        return mHash == null ? null : mHash.clone();
+    }
+
+    /**
+     * Returns the Simple Pairing randomizer R for BR/EDR, or the Secure Connections random
+     * value for LE. This may be {@code null}.
+     */
+    public byte[] getRandomizer() {
+        return mRandomizer == null ? null : mRandomizer.clone();
+    }
+
+    /** Returns the LE legacy pairing temporary key. This may be {@code null}. */
+    public byte[] getTk() {
+        return mTk == null ? null : mTk.clone();
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    @Override
+    public void addSearchText(Collection<String> text) {
+        super.addSearchText(text);
+        text.add(mAddress);
+        if (mName != null) {
+            text.add(mName);
+        }
+    }
+
+    /**
+     * Returns the pairing data in {@code record}, or {@code null} if it isn't a Bluetooth OOB
+     * record or doesn't give the device's address.
+     */
+    public static BluetoothOobData parse(Record record) {
+        return parse(record, record.toMimeType());
+    }
+
+    /** Like {@link #parse(Record)}, for a record whose MIME type is already known. */
+    static BluetoothOobData parse(Record record, String mimeType) {
+        boolean lowEnergy = LE_MIME_TYPE.equals(mimeType);
+        if (!lowEnergy && !BREDR_MIME_TYPE.equals(mimeType)) {
+            return null;
+        }
+        byte[] payload = record.getPayload();
+        Builder builder = new Builder();
+        if (lowEnergy) {
+            builder.parseStructures(payload, 0, payload.length);
+        } else {
+            // The OOB data length, which some tags get wrong, then the address, little endian
+            if (payload.length < 2 + ADDRESS_LENGTH) {
+                return null;
+            }
+            int length = (payload[0] & 0xff) | ((payload[1] & 0xff) << 8);
+            builder.address = formatAddress(payload, 2, true);
+            builder.parseStructures(payload, 2 + ADDRESS_LENGTH,
+                    Math.max(2 + ADDRESS_LENGTH, Math.min(length, payload.length)));
+        }
+        if (builder.address == null) {
+            return null;
+        }
+        return new BluetoothOobData(mimeType, ByteBuffer.wrap(payload), lowEnergy,
+                builder.address, lowEnergy ? builder.addressType : -1, builder.getName(),
+                builder.deviceClass, builder.role, builder.uuids.build(), builder.hash,
+                builder.randomizer, builder.tk);
+    }
+
+    /** Collects the values of EIR and AD structures. */
+    private static final class Builder {
+        String address;
+        int addressType = ADDRESS_PUBLIC;
+        String name;
+        String shortName;
+        int deviceClass = -1;
+        int role = -1;
+        final ImmutableList.Builder<String> uuids = ImmutableList.builder();
+        byte[] hash;
+        byte[] randomizer;
+        byte[] tk;
+
+        /** Parses the structures in {@code data} from {@code start} to {@code end}. */
+        void parseStructures(byte[] data, int start, int end) {
+            int pos = start;
+            while (pos < end) {
+                int length = data[pos] & 0xff;
+                if (length == 0) {
+                    // Padding to the end of the data
+                    break;
+                }
+                if (pos + 1 + length > end) {
+                    // Truncated, so keep what came before
+                    break;
+                }
+                parseStructure(data[pos + 1] & 0xff, data, pos + 2, length - 1);
+                pos += 1 + length;
+            }
+        }
+
+        private void parseStructure(int type, byte[] data, int offset, int length) {
+            switch (type) {
+                case EIR_UUID16_INCOMPLETE:
+                case EIR_UUID16:
+                    addUuids(data, offset, length, 2);
+                    break;
+                case EIR_UUID32_INCOMPLETE:
+                case EIR_UUID32:
+                    addUuids(data, offset, length, 4);
+                    break;
+                case EIR_UUID128_INCOMPLETE:
+                case EIR_UUID128:
+                    addUuids(data, offset, length, 16);
+                    break;
+                case EIR_SHORT_NAME:
+                    shortName = new String(data, offset, length, Charsets.UTF_8);
+                    break;
+                case EIR_NAME:
+                    name = new String(data, offset, length, Charsets.UTF_8);
+                    break;
+                case EIR_DEVICE_CLASS:
+                    if (length == 3) {
+                        deviceClass = (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8)
+                                | ((data[offset + 2] & 0xff) << 16);
+                    }
+                    break;
+                case EIR_HASH:
+                case EIR_LE_SC_CONFIRMATION:
+                    hash = copy(data, offset, length, 16);
+                    break;
+                case EIR_RANDOMIZER:
+                case EIR_LE_SC_RANDOM:
+                    randomizer = copy(data, offset, length, 16);
+                    break;
+                case EIR_TK:
+                    tk = copy(data, offset, length, 16);
+                    break;
+                case EIR_LE_ADDRESS:
+                    if (length == ADDRESS_LENGTH + 1) {
+                        address = formatAddress(data, offset, true);
+                        addressType = data[offset + ADDRESS_LENGTH] & 0x01;
+                    }
+                    break;
+                case EIR_LE_ROLE:
+                    if (length == 1) {
+                        role = data[offset] & 0xff;
+                    }
+                    break;
+            }
+        }
+
+        String getName() {
+            return name != null ? name : shortName;
+        }
+
+        private void addUuids(byte[] data, int offset, int length, int width) {
+            for (int i = 0; i + width <= length; i += width) {
+                uuids.add(formatUuid(data, offset + i, width));
+            }
+        }
+    }
+
+    /** Returns the {@code length} bytes at {@code offset}, or {@code null} if not as expected. */
+    private static byte[] copy(byte[] data, int offset, int length, int expected) {
+        if (length != expected) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        System.arraycopy(data, offset, value, 0, length);
+        return value;
+    }
+
+    /** Formats the six byte address at {@code offset} as upper case hex pairs. */
+    static String formatAddress(byte[] data, int offset, boolean littleEndian) {
+        StringBuilder address = new StringBuilder(3 * ADDRESS_LENGTH);
+        for (int i = 0; i < ADDRESS_LENGTH; i++) {
+            if (i > 0) {
+                address.append(':');
+            }
+            appendHex(address, data[offset + (littleEndian ? ADDRESS_LENGTH - 1 - i : i)]);
+        }
+        return address.toString().toUpperCase(Locale.US);
+    }
+
+    /** Formats the little endian UUID of {@code width} bytes at {@code offset}. */
+    private static String formatUuid(byte[] data, int offset, int width) {
+        StringBuilder hex = new StringBuilder(36);
+        for (int i = width - 1; i >= 0; i--) {
+            appendHex(hex, data[offset + i]);
+        }
+        if (width < 16) {
+            while (hex.length() < 8) {
+                hex.insert(0, '0');
+            }
+            return hex + BASE_UUID_SUFFIX;
+        }
+        hex.insert(20, '-').insert(16, '-').insert(12, '-').insert(8, '-');
+        return hex.toString();
+    }
+
+    private static void appendHex(StringBuilder out, byte b) {
+        out.append(HEX_DIGITS[(b >> 4) & 0x0f]).append(HEX_DIGITS[b & 0x0f]);
+    }
+}
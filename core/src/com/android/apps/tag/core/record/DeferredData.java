@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Preconditions;
+
+import java.util.Locale;
+
+/**
+ * A record left unparsed because the {@link ParseBudget} of its message ran out. It keeps the
+ * record so it can be parsed on demand, and tells from the record's type alone what it most
+ * likely holds.
+ */
+public class DeferredData extends RecordData {
+
+    public static final String RECORD_TYPE = "deferred";
+
+    private final Record mRecord;
+    private final ParseBudget.Limit mLimit;
+
+    public DeferredData(Record record, ParseBudget.Limit limit) {
+        mRecord = Preconditions.checkNotNull(record);
+        mLimit = Preconditions.checkNotNull(limit);
+    }
+
+    /** Returns the record, for parsing it once it is wanted. */
+    public Record getRecord() {
+        return mRecord;
+    }
+
+    /** Returns the limit that ran out before the record was reached. */
+    public ParseBudget.Limit getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * Returns the {@link RecordData#getRecordType} the record most likely parses as, judged by
+     * its type without looking at its payload.
+     */
+    public String getExpectedType() {
+        if (mRecord.getTnf() == Record.TNF_WELL_KNOWN) {
+            if (mRecord.hasType(Record.RTD_SMART_POSTER)) {
+                return SmartPosterData.RECORD_TYPE;
+            } else if (mRecord.hasType(Record.RTD_URI)) {
+                return UriData.RECORD_TYPE;
+            } else if (mRecord.hasType(Record.RTD_TEXT)) {
+                return TextData.RECORD_TYPE;
+            } else if (mRecord.hasType(Record.RTD_HANDOVER_SELECT)
+                    || mRecord.hasType(Record.RTD_HANDOVER_REQUEST)) {
+                return HandoverData.RECORD_TYPE;
+            }
+        } else if (mRecord.getTnf() == Record.TNF_ABSOLUTE_URI) {
+            return UriData.RECORD_TYPE;
+        } else if (mRecord.getTnf() == Record.TNF_EXTERNAL_TYPE) {
+            return mRecord.hasType(Record.RTD_ANDROID_APP)
+                    ? AarData.RECORD_TYPE : ExternalTypeData.RECORD_TYPE;
+        }
+        String mimeType = mRecord.toMimeType();
+        if (mimeType == null) {
+            return UnknownData.RECORD_TYPE;
+        } else if (mimeType.toLowerCase(Locale.US).startsWith("image/")) {
+            return ImageData.RECORD_TYPE;
+        } else if (mimeType.equalsIgnoreCase(VCardData.VCARD_MIME_TYPE)) {
+            return VCardData.RECORD_TYPE;
+        } else if (mimeType.equalsIgnoreCase(BluetoothOobData.BREDR_MIME_TYPE)
+                || mimeType.equalsIgnoreCase(BluetoothOobData.LE_MIME_TYPE)) {
+            return BluetoothOobData.RECORD_TYPE;
+        } else if (mimeType.equalsIgnoreCase(WifiConfigData.MIME_TYPE)) {
+            return WifiConfigData.RECORD_TYPE;
+        }
+        return MimeData.RECORD_TYPE;
+    }
+
+    /** Returns the MIME type of the record, or {@code null} if it isn't a MIME record. */
+    public String getMimeType() {
+        return mRecord.toMimeType();
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+}
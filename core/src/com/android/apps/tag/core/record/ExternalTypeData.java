@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * An NFC Forum external type record, whose type is a {@code domain:name} pair chosen by the
+ * organization owning the domain. Its payload means something only to that organization's apps,
+ * so it is kept as it is. Android Application Records are parsed as {@link AarData}.
+ */
+public class ExternalTypeData extends RecordData {
+
+    public static final String RECORD_TYPE = "external";
+
+    private final String mType;
+    private final byte[] mPayload;
+
+    /**
+     * @param type the {@code domain:name} type, which is compared case insensitively and so is
+     *     kept in lower case
+     */
+    public ExternalTypeData(String type, byte[] payload) {
+        mType = Preconditions.checkNotNull(type).toLowerCase(Locale.US);
+        mPayload = payload.clone();
+    }
+
+    /** Returns the {@code domain:name} type, in lower case. */
+    public String getType() {
+        return mType;
+    }
+
+    /** Returns the domain part of the type, or the whole type if it has no ':'. */
+    public String getDomain() {
+        int colon = mType.indexOf(':');
+        return colon < 0 ? mType : mType.substring(0, colon);
+    }
+
+    /**
+     * Returns the {@code vnd.android.nfc://ext/} URI the platform dispatches the record by,
+     * which apps filter for to receive it.
+     */
+    public String getUri() {
+        return "vnd.android.nfc://ext/" + mType;
+    }
+
+    public byte[] getPayload() {
+        return mPayload.clone();
+    }
+
+    public int getPayloadLength() {
+        return mPayload.length;
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    @Override
+    public void addSearchText(Collection<String> text) {
+        text.add(mType);
+    }
+
+    /** Returns the type of {@code record} if it is an external type record, else {@code null}. */
+    static String externalTypeOf(Record record) {
+        if (record.getTnf() != Record.TNF_EXTERNAL_TYPE || record.getType().length == 0) {
+            return null;
+        }
+        return new String(record.getType(), Charsets.US_ASCII);
+    }
+
+    /** Parses an external type record, or returns {@code null} if it isn't one. */
+    public static ExternalTypeData parse(Record record) {
+        String type = externalTypeOf(record);
+        return type == null ? null : new ExternalTypeData(type, record.getPayload());
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.NdefFormatException;
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A Handover Select or Handover Request record of the NFC Forum Connection Handover
+ * specification. It lists the alternative carriers a device offers, such as Bluetooth or
+ * Wi-Fi, each by a reference to the record of the same message that holds its configuration.
+ * Those records are parsed on their own, see {@link BluetoothOobData} and {@link WifiConfigData}.
+ */
+public class HandoverData extends RecordData {
+
+    public static final String RECORD_TYPE = "Handover";
+
+    /** Whether the record selects carriers or requests them. */
+    public enum Kind {
+        SELECT,
+        REQUEST,
+    }
+
+    /** The power state of an alternative carrier, Connection Handover section 3.1.4. */
+    public enum PowerState {
+        INACTIVE,
+        ACTIVE,
+        ACTIVATING,
+        UNKNOWN,
+    }
+
+    /** An alternative carrier, from an "ac" record. */
+    public static final class Carrier {
+        private final PowerState mPowerState;
+        private final String mReference;
+        private final List<String> mAuxiliaryReferences;
+
+        public Carrier(PowerState powerState, String reference,
+                List<String> auxiliaryReferences) {
+            mPowerState = Preconditions.checkNotNull(powerState);
+            mReference = Preconditions.checkNotNull(reference);
+            mAuxiliaryReferences = ImmutableList.copyOf(auxiliaryReferences);
+        }
+
+        public PowerState getPowerState() {
+            return mPowerState;
+        }
+
+        /** Returns the ID of the record holding the carrier's configuration. */
+        public String getReference() {
+            return mReference;
+        }
+
+        /** Returns the IDs of records with more data for the carrier. */
+        public List<String> getAuxiliaryReferences() {
+            return mAuxiliaryReferences;
+        }
+    }
+
+    private static final byte[] COLLISION_RESOLUTION_TYPE = new byte[] { 'c', 'r' };
+    private static final byte[] ERROR_TYPE = new byte[] { 'e', 'r', 'r' };
+
+    private final Kind mKind;
+    private final int mMajorVersion;
+    private final int mMinorVersion;
+    private final List<Carrier> mCarriers;
+    private final int mCollisionResolution;
+    private final int mError;
+
+    public HandoverData(Kind kind, int majorVersion, int minorVersion, List<Carrier> carriers,
+            int collisionResolution, int error) {
+        mKind = Preconditions.checkNotNull(kind);
+        mMajorVersion = majorVersion;
+        mMinorVersion = minorVersion;
+        mCarriers = ImmutableList.copyOf(carriers);
+        mCollisionResolution = collisionResolution;
+        mError = error;
+    }
+
+    public Kind getKind() {
+        return mKind;
+    }
+
+    public int getMajorVersion() {
+        return mMajorVersion;
+    }
+
+    public int getMinorVersion() {
+        return mMinorVersion;
+    }
+
+    /** Returns the alternative carriers, most preferred first. */
+    public List<Carrier> getCarriers() {
+        return mCarriers;
+    }
+
+    /**
+     * Returns the random number of a request for resolving which device selects, or -1 if it
+     * has none.
+     */
+    public int getCollisionResolution() {
+        return mCollisionResolution;
+    }
+
+    /** Returns the error reason of a select that failed, or 0 if it didn't fail. */
+    public int getError() {
+        return mError;
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    @Override
+    public void addSearchText(Collection<String> text) {
+        text.add(mKind == Kind.SELECT ? "Hs" : "Hr");
+    }
+
+    /**
+     * Returns the handover select or request in {@code record}, or {@code null} if it isn't one
+     * or is malformed.
+     */
+    public static HandoverData parse(Record record) {
+        if (record.getTnf() != Record.TNF_WELL_KNOWN) {
+            return null;
+        }
+        Kind kind;
+        if (record.hasType(Record.RTD_HANDOVER_SELECT)) {
+            kind = Kind.SELECT;
+        } else if (record.hasType(Record.RTD_HANDOVER_REQUEST)) {
+            kind = Kind.REQUEST;
+        } else {
+            return null;
+        }
+        byte[] payload = record.getPayload();
+        if (payload.length == 0) {
+            return null;
+        }
+        int version = payload[0] & 0xff;
+
+        // A select with no carriers is just the version
+        List<Record> records = ImmutableList.of();
+        if (payload.length > 1) {
+            byte[] message = new byte[payload.length - 1];
+            System.arraycopy(payload, 1, message, 0, message.length);
+            try {
+                records = Message.decode(message).getRecords();
+            } catch (NdefFormatException e) {
+                return null;
+            }
+        }
+
+        ImmutableList.Builder<Carrier> carriers = ImmutableList.builder();
+        int collisionResolution = -1;
+        int error = 0;
+        for (Record local : records) {
+            if (local.getTnf() != Record.TNF_WELL_KNOWN) {
+                continue;
+            }
+            byte[] data = local.getPayload();
+            if (local.hasType(Record.RTD_ALTERNATIVE_CARRIER)) {
+                Carrier carrier = parseCarrier(data);
+                if (carrier == null) {
+                    return null;
+                }
+                carriers.add(carrier);
+            } else if (local.hasType(COLLISION_RESOLUTION_TYPE) && data.length >= 2) {
+                collisionResolution = ((data[0] & 0xff) << 8) | (data[1] & 0xff);
+            } else if (local.hasType(ERROR_TYPE) && data.length >= 1) {
+                error = data[0] & 0xff;
+            }
+        }
+        return new HandoverData(kind, version >> 4, version & 0x0f, carriers.build(),
+                collisionResolution, error);
+    }
+
+    /** Returns the carrier in the payload of an "ac" record, or {@code null} if malformed. */
+    private static Carrier parseCarrier(byte[] data) {
+        if (data.length < 2) {
+            return null;
+        }
+        PowerState powerState = PowerState.values()[data[0] & 0x03];
+        int pos = 1;
+        String reference = readReference(data, pos);
+        if (reference == null) {
+            return null;
+        }
+        pos += 1 + (data[pos] & 0xff);
+        ImmutableList.Builder<String> auxiliary = ImmutableList.builder();
+        if (pos < data.length) {
+            int count = data[pos++] & 0xff;
+            for (int i = 0; i < count; i++) {
+                String aux = readReference(data, pos);
+                if (aux == null) {
+                    return null;
+                }
+                auxiliary.add(aux);
+                pos += 1 + (data[pos] & 0xff);
+            }
+        }
+        return new Carrier(powerState, reference, auxiliary.build());
+    }
+
+    /** Reads the length prefixed reference at {@code pos}, or returns {@code null}. */
+    private static String readReference(byte[] data, int pos) {
+        if (pos >= data.length) {
+            return null;
+        }
+        int length = data[pos] & 0xff;
+        if (pos + 1 + length > data.length) {
+            return null;
+        }
+        return new String(data, pos + 1, length, Charsets.US_ASCII);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A record of image content. The image isn't decoded here, but its header has to name
+ * positive dimensions in one of the formats every platform decodes.
+ */
+public class ImageData extends MimeData {
+
+    public static final String RECORD_TYPE = "ImageRecord";
+
+    private final int mWidth;
+    private final int mHeight;
+
+    public ImageData(String mimeType, byte[] content, int width, int height) {
+        this(mimeType, ByteBuffer.wrap(content.clone()), width, height);
+    }
+
+    private ImageData(String mimeType, ByteBuffer content, int width, int height) {
+        super(mimeType, content);
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    /**
+     * Returns the image in {@code record}, or {@code null} if it isn't an image record or its
+     * header isn't that of a PNG, JPEG, GIF, BMP or WebP image.
+     */
+    public static ImageData parse(Record record) {
+        return parse(record, record.toMimeType());
+    }
+
+    /** Like {@link #parse(Record)}, for a record whose MIME type is already known. */
+    static ImageData parse(Record record, String mimeType) {
+        if (mimeType == null || !mimeType.startsWith("image/")) {
+            return null;
+        }
+        byte[] content = record.getPayload();
+        int[] size = readSize(content);
+        if (size == null || size[0] <= 0 || size[1] <= 0) {
+            return null;
+        }
+        return new ImageData(mimeType, ByteBuffer.wrap(content), size[0], size[1]);
+    }
+
+    /** Returns the width and height in the header of {@code image}, or {@code null}. */
+    private static int[] readSize(byte[] image) {
+        if (startsWith(image, 0, 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n')) {
+            if (image.length < 24 || !startsWith(image, 12, 'I', 'H', 'D', 'R')) {
+                return null;
+            }
+            return new int[] { readInt(image, 16, true), readInt(image, 20, true) };
+        } else if (startsWith(image, 0, 'G', 'I', 'F', '8')) {
+            if (image.length < 10) {
+                return null;
+            }
+            return new int[] { readShort(image, 6, false), readShort(image, 8, false) };
+        } else if (startsWith(image, 0, 'B', 'M')) {
+            if (image.length < 26) {
+                return null;
+            }
+            // Bottom-up bitmaps have a negative height
+            return new int[] { readInt(image, 18, false), Math.abs(readInt(image, 22, false)) };
+        } else if (startsWith(image, 0, 0xff, 0xd8)) {
+            return readJpegSize(image);
+        } else if (startsWith(image, 0, 'R', 'I', 'F', 'F')
+                && startsWith(image, 8, 'W', 'E', 'B', 'P')) {
+            return readWebpSize(image);
+        }
+        return null;
+    }
+
+    /** Walks the JPEG segments up to the start of frame, which holds the size. */
+    private static int[] readJpegSize(byte[] image) {
+        int pos = 2;
+        while (pos + 4 <= image.length) {
+            if ((image[pos] & 0xff) != 0xff) {
+                return null;
+            }
+            int marker = image[pos + 1] & 0xff;
+            if (marker == 0xff) {
+                pos++;
+                continue;
+            }
+            int length = readShort(image, pos + 2, true);
+            boolean startOfFrame = marker >= 0xc0 && marker <= 0xcf
+                    && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+            if (startOfFrame) {
+                if (pos + 9 > image.length) {
+                    return null;
+                }
+                return new int[] {
+                    readShort(image, pos + 7, true), readShort(image, pos + 5, true) };
+            }
+            pos += 2 + length;
+        }
+        return null;
+    }
+
+    private static int[] readWebpSize(byte[] image) {
+        if (image.length < 30) {
+            return null;
+        }
+        if (startsWith(image, 12, 'V', 'P', '8', ' ')) {
+            return new int[] {
+                readShort(image, 26, false) & 0x3fff, readShort(image, 28, false) & 0x3fff };
+        } else if (startsWith(image, 12, 'V', 'P', '8', 'L')) {
+            int bits = readInt(image, 21, false);
+            return new int[] { (bits & 0x3fff) + 1, ((bits >> 14) & 0x3fff) + 1 };
+        } else if (startsWith(image, 12, 'V', 'P', '8', 'X')) {
+            return new int[] { readUint24(image, 24) + 1, readUint24(image, 27) + 1 };
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int... prefix) {
+        if (data.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((data[offset + i] & 0xff) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean bigEndian) {
+        int a = data[offset] & 0xff;
+        int b = data[offset + 1] & 0xff;
+        return bigEndian ? (a << 8) | b : (b << 8) | a;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean bigEndian) {
+        int high = readShort(data, offset + (bigEndian ? 0 : 2), bigEndian);
+        int low = readShort(data, offset + (bigEndian ? 2 : 0), bigEndian);
+        return (high << 16) | low;
+    }
+
+    private static int readUint24(byte[] data, int offset) {
+        return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8)
+                | ((data[offset + 2] & 0xff) << 16);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * A record of MIME typed content. The content is held in a read-only {@link ByteBuffer}, which
+ * may be a heap array or a mapped file, so large content can be read without being copied.
+ */
+public class MimeData extends RecordData {
+
+    public static final String RECORD_TYPE = "MimeRecord";
+
+    private final String mType;
+    private final ByteBuffer mContent;
+
+    public MimeData(String mimeType, byte[] content) {
+        this(mimeType, ByteBuffer.wrap(content.clone()));
+    }
+
+    /**
+     * Wraps the remaining bytes of {@code content} without copying them, so they must not be
+     * changed afterwards.
+     */
+    public MimeData(String mimeType, ByteBuffer content) {
+        mType = Preconditions.checkNotNull(mimeType);
+        if (content.position() != 0 || content.limit() != content.capacity()) {
+            content = content.slice();
+        }
+        mContent = content.isReadOnly() ? content : content.asReadOnlyBuffer();
+    }
+
+    public String getMimeType() {
+        return mType;
+    }
+
+    /** Returns a copy of the content. Prefer the other accessors for large content. */
+    public byte[] getContent() {
+        byte[] content = new byte[mContent.capacity()];
+        mContent.duplicate().get(content);
+        return content;
+    }
+
+    public int getContentLength() {
+        return mContent.capacity();
+    }
+
+    /** Returns a read-only view of the content, positioned at its start. */
+    public ByteBuffer getContentBuffer() {
+        return mContent.duplicate();
+    }
+
+    /** Returns a stream reading the content, which needs no closing. */
+    public InputStream openContent() {
+        final ByteBuffer content = mContent.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return content.hasRemaining() ? content.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                } else if (!content.hasRemaining()) {
+                    return -1;
+                }
+                length = Math.min(length, content.remaining());
+                content.get(buffer, offset, length);
+                return length;
+            }
+
+            @Override
+            public long skip(long n) {
+                int skipped = (int) Math.max(0, Math.min(n, content.remaining()));
+                content.position(content.position() + skipped);
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return content.remaining();
+            }
+        };
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    @Override
+    public void addSearchText(Collection<String> text) {
+        text.add(mType);
+    }
+
+    /** Returns the content of {@code record}, or {@code null} if it has no MIME type. */
+    public static MimeData parse(Record record) {
+        return parse(record, record.toMimeType());
+    }
+
+    /** Like {@link #parse(Record)}, for a record whose MIME type is already known. */
+    static MimeData parse(Record record, String mimeType) {
+        // The payload is already a copy, so it needn't be copied again
+        return mimeType == null ? null
+                : new MimeData(mimeType, ByteBuffer.wrap(record.getPayload()));
+    }
+}
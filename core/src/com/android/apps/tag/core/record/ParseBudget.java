@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how much work parsing one message may take: the time since parsing started, the payload
+ * bytes of its records, and how deeply smart posters may nest. Records the budget doesn't stretch
+ * to are handed back as {@link DeferredData} rather than parsed, so a hostile tag costs no more
+ * than the budget however large or deep it is.
+ *
+ * <p>The budget is checked before each record, and the bytes of a top level record are charged
+ * as a whole before it is parsed, so a single record is never cut short part way. A budget is
+ * for one message, and may be charged from several threads at once.
+ */
+public final class ParseBudget {
+    /** The limit that ran out. */
+    public enum Limit {
+        TIME,
+        BYTES,
+        DEPTH,
+    }
+
+    /**
+     * How deeply smart posters may nest even with no budget, which keeps a hostile tag from
+     * running the parser out of stack.
+     */
+    public static final int MAX_NESTING = 32;
+
+    /** No limit on time or bytes, and nesting up to {@link #MAX_NESTING}. */
+    public static final ParseBudget UNBOUNDED =
+            new ParseBudget(Long.MAX_VALUE, Long.MAX_VALUE, MAX_NESTING);
+
+    private final long mMaxNanos;
+    private final long mMaxBytes;
+    private final int mMaxDepth;
+    private final long mStartNanos = System.nanoTime();
+    private final AtomicLong mBytes = new AtomicLong();
+
+    /**
+     * Starts a budget, whose clock starts now.
+     *
+     * @param maxNanos the time parsing may take
+     * @param maxBytes the payload bytes of the top level records that may be parsed
+     * @param maxDepth how many smart posters deep records may be parsed, so 1 parses a smart
+     *     poster but not one inside it
+     */
+    public ParseBudget(long maxNanos, long maxBytes, int maxDepth) {
+        Preconditions.checkArgument(maxNanos > 0 && maxBytes >= 0 && maxDepth >= 0);
+        mMaxNanos = maxNanos;
+        mMaxBytes = maxBytes;
+        mMaxDepth = Math.min(maxDepth, MAX_NESTING);
+    }
+
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /** Returns {@link Limit#TIME} if the time is up, or {@code null} if there is time left. */
+    public Limit checkTime() {
+        if (mMaxNanos != Long.MAX_VALUE && System.nanoTime() - mStartNanos > mMaxNanos) {
+            return Limit.TIME;
+        }
+        return null;
+    }
+
+    /**
+     * Charges {@code bytes} to the budget if they fit and there is time left, returning
+     * {@code null}, or else returns the limit that ran out and charges nothing.
+     */
+    public Limit charge(long bytes) {
+        Limit limit = checkTime();
+        if (limit != null || mMaxBytes == Long.MAX_VALUE) {
+            return limit;
+        }
+        while (true) {
+            long charged = mBytes.get();
+            if (charged + bytes > mMaxBytes) {
+                return Limit.BYTES;
+            }
+            if (mBytes.compareAndSet(charged, charged + bytes)) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import java.util.Collection;
+
+/**
+ * The content of a parsed NDEF record, independent of how it is shown.
+ */
+public abstract class RecordData {
+
+    /**
+     * Returns a short stable name for the kind of this record, which is stored with history
+     * summaries and so must not change between releases.
+     */
+    public abstract String getRecordType();
+
+    /**
+     * Adds the pieces of text that a search should find this record by, such as its text,
+     * URI or MIME type.
+     */
+    public void addSearchText(Collection<String> text) {
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses NDEF records into the {@link RecordData} they hold, trying each kind of record from the
+ * most specific to the least.
+ */
+public class RecordParser {
+
+    /**
+     * The version of the parsing rules. Bump it whenever a change to the parsers alters how a
+     * message is summarized, so summaries stored with the history are rebuilt.
+     */
+    public static final int VERSION = 3;
+
+    // Utility class
+    private RecordParser() { }
+
+    public static List<RecordData> parse(Message message) {
+        return parse(message, ParseBudget.UNBOUNDED);
+    }
+
+    /**
+     * Parses the records of {@code message} until {@code budget} runs out, handing back the
+     * records after that as {@link DeferredData}.
+     */
+    public static List<RecordData> parse(Message message, ParseBudget budget) {
+        List<Record> records = message.getRecords();
+        ArrayList<RecordData> parsed = Lists.newArrayListWithCapacity(records.size());
+        for (Record record : records) {
+            parsed.add(parse(record, budget));
+        }
+        return parsed;
+    }
+
+    /** Parses a single record, falling back to {@link UnknownData}. */
+    public static RecordData parse(Record record) {
+        return parse(record, ParseBudget.UNBOUNDED);
+    }
+
+    /**
+     * Parses a single top level record, charging its payload to {@code budget}, or returns
+     * {@link DeferredData} if the budget doesn't stretch to it. Never returns
+     * {@link DeferredData} for {@link ParseBudget#UNBOUNDED}.
+     */
+    public static RecordData parse(Record record, ParseBudget budget) {
+        ParseBudget.Limit limit = budget.charge(record.getPayloadLength());
+        if (limit != null) {
+            return new DeferredData(record, limit);
+        }
+        return parse(record, budget, 0);
+    }
+
+    /**
+     * Parses a record found {@code depth} smart posters deep. Its bytes were charged along with
+     * the top level record holding it, so only the time and depth are checked.
+     */
+    static RecordData parse(Record record, ParseBudget budget, int depth) {
+        if (depth > 0) {
+            ParseBudget.Limit limit = budget.checkTime();
+            if (limit != null) {
+                return new DeferredData(record, limit);
+            }
+        }
+        RecordData data = SmartPosterData.parse(record, budget, depth);
+        if (data == null) {
+            data = HandoverData.parse(record);
+        }
+        if (data == null) {
+            // Before URIs, as the type of an external record reads as a URI
+            data = AarData.parse(record);
+        }
+        if (data == null) {
+            data = ExternalTypeData.parse(record);
+        }
+        if (data == null) {
+            data = UriData.parse(record);
+        }
+        if (data == null) {
+            data = TextData.parse(record);
+        }
+        if (data != null) {
+            return data;
+        }
+
+        // The rest go by MIME type, which is worked out once for all of them
+        String mimeType = record.toMimeType();
+        data = ImageData.parse(record, mimeType);
+        if (data == null) {
+            data = VCardData.parse(record, mimeType);
+        }
+        if (data == null) {
+            data = BluetoothOobData.parse(record, mimeType);
+        }
+        if (data == null) {
+            data = WifiConfigData.parse(record, mimeType);
+        }
+        if (data == null) {
+            data = MimeData.parse(record, mimeType);
+        }
+        if (data == null) {
+            data = new UnknownData();
+        }
+        return data;
+    }
+}
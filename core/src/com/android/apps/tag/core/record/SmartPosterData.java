@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.NdefFormatException;
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A representation of an NFC Forum "Smart Poster".
+ */
+public class SmartPosterData extends RecordData {
+
+    public static final String RECORD_TYPE = "SmartPoster";
+
+    private static final byte[] ACTION_RECORD_TYPE = new byte[] { 'a', 'c', 't' };
+    private static final byte[] TYPE_TYPE = new byte[] { 't' };
+
+    /**
+     * NFC Forum Smart Poster Record Type Definition section 3.2.1.
+     *
+     * "The Action record. This record describes how the service should be
+     * treated. For example, the action may indicate that the device should
+     * save the URI as a bookmark or open a browser. The Action record is
+     * optional. If it does not exist, the device may decide what to do with
+     * the service. If the action record exists, it should be treated as
+     * a strong suggestion; the UI designer may ignore it, but doing so
+     * will induce a different user experience from device to device."
+     */
+    public enum RecommendedAction {
+        UNKNOWN((byte) -1), DO_ACTION((byte) 0),
+        SAVE_FOR_LATER((byte) 1), OPEN_FOR_EDITING((byte) 2);
+
+        private static final ImmutableMap<Byte, RecommendedAction> LOOKUP;
+        static {
+            ImmutableMap.Builder<Byte, RecommendedAction> builder = ImmutableMap.builder();
+            for (RecommendedAction action : RecommendedAction.values()) {
+                builder.put(action.getByte(), action);
+            }
+            LOOKUP = builder.build();
+        }
+
+        private final byte mAction;
+
+        private RecommendedAction(byte val) {
+            this.mAction = val;
+        }
+
+        public byte getByte() {
+            return mAction;
+        }
+    }
+
+    /**
+     * "The URI record. This is the core of the Smart Poster, and all other
+     * records are just metadata about this record. There MUST be one URI
+     * record and there MUST NOT be more than one."
+     */
+    private final UriData mUri;
+
+    /**
+     * "The Title record for the service (there can be many of these in
+     * different languages, but a language MUST NOT be repeated).
+     * This record is optional."
+     */
+    private final TextData mTitle;
+
+    /**
+     * "The Icon record. A Smart Poster may include an icon by including one
+     * or many MIME-typed image records within the Smart Poster. [...] The
+     * Icon record is optional."
+     */
+    private final ImageData mImage;
+
+    private final RecommendedAction mAction;
+
+    /**
+     * "The Type record. If the URI references an external entity (e.g., via
+     * a URL), the Type record may be used to declare the MIME type of the
+     * entity. [...] The Type record is optional."
+     */
+    private final String mType;
+
+    public SmartPosterData(UriData uri, TextData title, ImageData image,
+            RecommendedAction action, String type) {
+        mUri = Preconditions.checkNotNull(uri);
+        mTitle = title;
+        mImage = image;
+        mAction = Preconditions.checkNotNull(action);
+        mType = type;
+    }
+
+    public UriData getUri() {
+        return mUri;
+    }
+
+    /** Returns the title of the smart poster. This may be {@code null}. */
+    public TextData getTitle() {
+        return mTitle;
+    }
+
+    /** Returns the icon of the smart poster. This may be {@code null}. */
+    public ImageData getImage() {
+        return mImage;
+    }
+
+    public RecommendedAction getAction() {
+        return mAction;
+    }
+
+    /** Returns the MIME type of what the URI refers to. This may be {@code null}. */
+    public String getType() {
+        return mType;
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    @Override
+    public void addSearchText(Collection<String> text) {
+        if (mTitle != null) {
+            mTitle.addSearchText(text);
+        }
+        mUri.addSearchText(text);
+        if (mType != null) {
+            text.add(mType);
+        }
+    }
+
+    /**
+     * Returns the smart poster in {@code record}, or {@code null} if it isn't one or doesn't
+     * hold exactly one URI.
+     */
+    public static SmartPosterData parse(Record record) {
+        RecordData data = parse(record, ParseBudget.UNBOUNDED, 0);
+        return data instanceof SmartPosterData ? (SmartPosterData) data : null;
+    }
+
+    /**
+     * Returns the smart poster made up of {@code records}, or {@code null} if they don't hold
+     * exactly one URI.
+     */
+    public static SmartPosterData parse(List<Record> records) {
+        RecordData data = parse(records, ParseBudget.UNBOUNDED, 1);
+        return data instanceof SmartPosterData ? (SmartPosterData) data : null;
+    }
+
+    /**
+     * Returns the smart poster in {@code record}, found {@code depth} smart posters deep, or
+     * {@code null} if it isn't one. Returns {@link DeferredData} if {@code budget} doesn't
+     * stretch to all of it, as half a smart poster would show the wrong thing. Smart posters
+     * nested deeper than {@link ParseBudget#MAX_NESTING} aren't parsed at all.
+     */
+    static RecordData parse(Record record, ParseBudget budget, int depth) {
+        if (record.getTnf() != Record.TNF_WELL_KNOWN || !record.hasType(Record.RTD_SMART_POSTER)
+                || depth >= ParseBudget.MAX_NESTING) {
+            return null;
+        }
+        if (depth >= budget.getMaxDepth()) {
+            return new DeferredData(record, ParseBudget.Limit.DEPTH);
+        }
+        List<Record> records;
+        try {
+            records = Message.decode(record.getPayload()).getRecords();
+        } catch (NdefFormatException e) {
+            return null;
+        }
+        RecordData data = parse(records, budget, depth + 1);
+        if (data instanceof DeferredData) {
+            return new DeferredData(record, ((DeferredData) data).getLimit());
+        }
+        return data;
+    }
+
+    /**
+     * Returns the smart poster made up of {@code records}, found {@code depth} smart posters
+     * deep, {@link DeferredData} for the first of them {@code budget} doesn't stretch to, or
+     * {@code null} if they don't hold exactly one URI.
+     */
+    private static RecordData parse(List<Record> records, ParseBudget budget, int depth) {
+        UriData uri = null;
+        TextData title = null;
+        ImageData image = null;
+        RecommendedAction action = RecommendedAction.UNKNOWN;
+        String type = null;
+        boolean haveAction = false;
+        for (Record record : records) {
+            RecordData data = RecordParser.parse(record, budget, depth);
+            if (data instanceof DeferredData) {
+                return data;
+            } else if (data instanceof UriData) {
+                if (uri != null) {
+                    return null;
+                }
+                uri = (UriData) data;
+            } else if (data instanceof TextData && title == null) {
+                title = (TextData) data;
+            } else if (data instanceof ImageData && image == null) {
+                image = (ImageData) data;
+            }
+            if (!haveAction && record.hasType(ACTION_RECORD_TYPE)) {
+                haveAction = true;
+                action = parseRecommendedAction(record);
+            }
+            if (type == null && record.hasType(TYPE_TYPE)) {
+                type = new String(record.getPayload(), Charsets.UTF_8);
+            }
+        }
+        if (uri == null) {
+            return null;
+        }
+        return new SmartPosterData(uri, title, image, action, type);
+    }
+
+    private static RecommendedAction parseRecommendedAction(Record record) {
+        if (record.getPayloadLength() == 0) {
+            return RecommendedAction.UNKNOWN;
+        }
+        RecommendedAction action = RecommendedAction.LOOKUP.get(record.getPayload()[0]);
+        return action == null ? RecommendedAction.UNKNOWN : action;
+    }
+}
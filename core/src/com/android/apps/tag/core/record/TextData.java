@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.nio.charset.Charset;
+import java.util.Collection;
+
+/**
+ * An NFC Forum text record.
+ */
+public class TextData extends RecordData {
+
+    public static final String RECORD_TYPE = "TextRecord";
+
+    /** ISO/IANA language code */
+    private final String mLanguageCode;
+    private final String mText;
+
+    public TextData(String languageCode, String text) {
+        mLanguageCode = Preconditions.checkNotNull(languageCode);
+        mText = Preconditions.checkNotNull(text);
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    /** Returns the ISO/IANA language code associated with this text. */
+    public String getLanguageCode() {
+        return mLanguageCode;
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    @Override
+    public void addSearchText(Collection<String> text) {
+        text.add(mText);
+    }
+
+    /** Returns the text of {@code record}, or {@code null} if it isn't a valid text record. */
+    public static TextData parse(Record record) {
+        if (record.getTnf() != Record.TNF_WELL_KNOWN || !record.hasType(Record.RTD_TEXT)
+                || record.getPayloadLength() == 0) {
+            return null;
+        }
+        byte[] payload = record.getPayload();
+
+        /*
+         * payload[0] contains the "Status Byte Encodings" field, per
+         * the NFC Forum "Text Record Type Definition" section 3.2.1.
+         *
+         * bit7 is the Text Encoding Field.
+         *
+         * if (Bit_7 == 0): The text is encoded in UTF-8
+         * if (Bit_7 == 1): The text is encoded in UTF16
+         *
+         * Bit_6 is reserved for future use and must be set to zero.
+         *
+         * Bits 5 to 0 are the length of the IANA language code.
+         */
+        Charset textEncoding = ((payload[0] & 0200) == 0) ? Charsets.UTF_8 : Charsets.UTF_16;
+        int languageCodeLength = payload[0] & 0077;
+        if (payload.length - languageCodeLength - 1 < 0) {
+            return null;
+        }
+        String languageCode = new String(payload, 1, languageCodeLength, Charsets.US_ASCII);
+        String text = new String(payload, languageCodeLength + 1,
+                payload.length - languageCodeLength - 1, textEncoding);
+        return new TextData(languageCode, text);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Preconditions;
+
+import java.util.Collection;
+
+/**
+ * A record containing a URI, either a well known URI record or an absolute URI record.
+ *
+ * <p>The URI is kept as a string and split as leniently as {@code android.net.Uri} does, for the
+ * parts a search looks at.
+ */
+public class UriData extends RecordData {
+
+    public static final String RECORD_TYPE = "UriRecord";
+
+    private final String mUri;
+
+    public UriData(String uri) {
+        mUri = Preconditions.checkNotNull(uri);
+    }
+
+    public String getUri() {
+        return mUri;
+    }
+
+    /** Returns the scheme, or {@code null} if the URI is relative. */
+    public String getScheme() {
+        int ssi = findSchemeSeparator();
+        return ssi == -1 ? null : mUri.substring(0, ssi);
+    }
+
+    /** Returns everything between the scheme and the fragment. */
+    public String getSchemeSpecificPart() {
+        int ssi = findSchemeSeparator();
+        int fsi = mUri.indexOf('#', ssi + 1);
+        return mUri.substring(ssi + 1, fsi == -1 ? mUri.length() : fsi);
+    }
+
+    /** Returns the host of a hierarchical URI, or {@code null} if it has none. */
+    public String getHost() {
+        String ssp = getSchemeSpecificPart();
+        if (!ssp.startsWith("//")) {
+            return null;
+        }
+        int end = findAuthorityEnd(ssp);
+        String authority = ssp.substring(2, end);
+        int userInfoSeparator = authority.lastIndexOf('@');
+        int portSeparator = authority.indexOf(':', userInfoSeparator + 1);
+        return authority.substring(userInfoSeparator + 1,
+                portSeparator == -1 ? authority.length() : portSeparator);
+    }
+
+    /** Returns the path of a hierarchical URI, or {@code null} if the URI is opaque. */
+    public String getPath() {
+        String ssp = getSchemeSpecificPart();
+        if (findSchemeSeparator() != -1 && !ssp.startsWith("/")) {
+            return null;
+        }
+        int start = ssp.startsWith("//") ? findAuthorityEnd(ssp) : 0;
+        int end = ssp.indexOf('?', start);
+        return ssp.substring(start, end == -1 ? ssp.length() : end);
+    }
+
+    /** Returns the index of the ':' ending the scheme, or -1 if there is none. */
+    private int findSchemeSeparator() {
+        int length = mUri.length();
+        for (int i = 0; i < length; i++) {
+            char c = mUri.charAt(i);
+            if (c == ':') {
+                return i;
+            } else if (c == '/' || c == '?' || c == '#') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int findAuthorityEnd(String ssp) {
+        int end = 2;
+        while (end < ssp.length() && "/?#".indexOf(ssp.charAt(end)) < 0) {
+            end++;
+        }
+        return end;
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    @Override
+    public void addSearchText(Collection<String> text) {
+        text.add(getScheme());
+        String host = getHost();
+        if (host != null) {
+            text.add(host);
+            text.add(getPath());
+        } else {
+            text.add(getSchemeSpecificPart());
+        }
+    }
+
+    /**
+     * Returns the URI of {@code record}, or {@code null} if it doesn't carry one. See
+     * {@link Record#toUri}.
+     */
+    public static UriData parse(Record record) {
+        String uri = record.toUri();
+        return uri == null ? null : new UriData(uri);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A record holding a vCard.
+ */
+public class VCardData extends MimeData {
+
+    public static final String RECORD_TYPE = "vcard";
+
+    public static final String VCARD_MIME_TYPE = "text/x-vcard";
+
+    public VCardData(byte[] content) {
+        this(ByteBuffer.wrap(content.clone()));
+    }
+
+    private VCardData(ByteBuffer content) {
+        super(VCARD_MIME_TYPE, content);
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    /** Returns the vCard in {@code record}, or {@code null} if it isn't a vCard record. */
+    public static VCardData parse(Record record) {
+        return parse(record, record.toMimeType());
+    }
+
+    /** Like {@link #parse(Record)}, for a record whose MIME type is already known. */
+    static VCardData parse(Record record, String mimeType) {
+        // TODO: Add support for other vcard mime types.
+        if (!VCARD_MIME_TYPE.equals(mimeType)) {
+            return null;
+        }
+        return new VCardData(ByteBuffer.wrap(record.getPayload()));
+    }
+}
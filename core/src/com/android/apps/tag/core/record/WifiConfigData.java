@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * The credential of a Wi-Fi network, from an {@code application/vnd.wfa.wsc} record as written
+ * by Wi-Fi Protected Setup. The record is a series of attributes, each a two byte type, a two
+ * byte length and a value, with the network's SSID, key and security in a credential attribute.
+ */
+public class WifiConfigData extends MimeData {
+
+    public static final String RECORD_TYPE = "WifiConfig";
+
+    public static final String MIME_TYPE = "application/vnd.wfa.wsc";
+
+    /** Authentication type flags, Wi-Fi Simple Configuration section 12. */
+    public static final int AUTH_OPEN = 0x0001;
+    public static final int AUTH_WPA_PSK = 0x0002;
+    public static final int AUTH_SHARED = 0x0004;
+    public static final int AUTH_WPA = 0x0008;
+    public static final int AUTH_WPA2 = 0x0010;
+    public static final int AUTH_WPA2_PSK = 0x0020;
+
+    /** Encryption type flags. */
+    public static final int ENCRYPTION_NONE = 0x0001;
+    public static final int ENCRYPTION_WEP = 0x0002;
+    public static final int ENCRYPTION_TKIP = 0x0004;
+    public static final int ENCRYPTION_AES = 0x0008;
+
+    private static final int ATTR_AUTH_TYPE = 0x1003;
+    private static final int ATTR_CREDENTIAL = 0x100e;
+    private static final int ATTR_ENCRYPTION_TYPE = 0x100f;
+    private static final int ATTR_MAC_ADDRESS = 0x1020;
+    private static final int ATTR_NETWORK_KEY = 0x1027;
+    private static final int ATTR_SSID = 0x1045;
+
+    private static final int MAX_SSID_LENGTH = 32;
+    private static final int MAX_KEY_LENGTH = 64;
+
+    private final String mSsid;
+    private final String mNetworkKey;
+    private final int mAuthType;
+    private final int mEncryptionType;
+    private final String mMacAddress;
+
+    private WifiConfigData(ByteBuffer content, String ssid, String networkKey, int authType,
+            int encryptionType, String macAddress) {
+        super(MIME_TYPE, content);
+        mSsid = Preconditions.checkNotNull(ssid);
+        mNetworkKey = networkKey;
+        mAuthType = authType;
+        mEncryptionType = encryptionType;
+        mMacAddress = macAddress;
+    }
+
+    public String getSsid() {
+        return mSsid;
+    }
+
+    /**
+     * Returns the passphrase, or 64 hex digits for a raw pre-shared key, or {@code null} for an
+     * open network.
+     */
+    public String getNetworkKey() {
+        return mNetworkKey;
+    }
+
+    /** Returns the {@code AUTH_*} flags, or 0 if they aren't given. */
+    public int getAuthType() {
+        return mAuthType;
+    }
+
+    /** Returns the {@code ENCRYPTION_*} flags, or 0 if they aren't given. */
+    public int getEncryptionType() {
+        return mEncryptionType;
+    }
+
+    /** Returns the MAC address the credential is for. This may be {@code null}. */
+    public String getMacAddress() {
+        return mMacAddress;
+    }
+
+    /** Returns true if the network takes a WPA or WPA2 pre-shared key. */
+    public boolean isPsk() {
+        return (mAuthType & (AUTH_WPA_PSK | AUTH_WPA2_PSK)) != 0;
+    }
+
+    /** Returns true if the network takes a WEP key. */
+    public boolean isWep() {
+        return !isPsk() && (mEncryptionType & ENCRYPTION_WEP) != 0;
+    }
+
+    @Override
+    public String getRecordType() {
+        return RECORD_TYPE;
+    }
+
+    /** The SSID, but never the key. */
+    @Override
+    public void addSearchText(Collection<String> text) {
+        super.addSearchText(text);
+        text.add(mSsid);
+    }
+
+    /**
+     * Returns the first credential in {@code record}, or {@code null} if it isn't a Wi-Fi
+     * configuration record or holds no SSID.
+     */
+    public static WifiConfigData parse(Record record) {
+        return parse(record, record.toMimeType());
+    }
+
+    /** Like {@link #parse(Record)}, for a record whose MIME type is already known. */
+    static WifiConfigData parse(Record record, String mimeType) {
+        if (!MIME_TYPE.equals(mimeType)) {
+            return null;
+        }
+        byte[] payload = record.getPayload();
+        int credential = find(payload, 0, payload.length, ATTR_CREDENTIAL);
+        // Some tags put the credential's attributes at the top level
+        int start = credential < 0 ? 0 : credential + 4;
+        int end = credential < 0 ? payload.length : start + readShort(payload, credential + 2);
+
+        int ssid = find(payload, start, end, ATTR_SSID);
+        if (ssid < 0 || readShort(payload, ssid + 2) > MAX_SSID_LENGTH) {
+            return null;
+        }
+        String networkKey = null;
+        int key = find(payload, start, end, ATTR_NETWORK_KEY);
+        if (key >= 0 && readShort(payload, key + 2) > 0) {
+            if (readShort(payload, key + 2) > MAX_KEY_LENGTH) {
+                return null;
+            }
+            networkKey = readString(payload, key);
+        }
+        int authType = readValue(payload, find(payload, start, end, ATTR_AUTH_TYPE));
+        int encryptionType = readValue(payload, find(payload, start, end, ATTR_ENCRYPTION_TYPE));
+        String macAddress = null;
+        int mac = find(payload, start, end, ATTR_MAC_ADDRESS);
+        if (mac >= 0 && readShort(payload, mac + 2) == 6) {
+            macAddress = BluetoothOobData.formatAddress(payload, mac + 4, false);
+        }
+        return new WifiConfigData(ByteBuffer.wrap(payload), readString(payload, ssid),
+                networkKey, authType, encryptionType, macAddress);
+    }
+
+    /**
+     * Returns the offset of the first attribute of {@code type} from {@code start} to
+     * {@code end}, or -1 if there is none or the attributes run past {@code end}.
+     */
+    private static int find(byte[] data, int start, int end, int type) {
+        end = Math.min(end, data.length);
+        int pos = start;
+        while (pos + 4 <= end) {
+            int length = readShort(data, pos + 2);
+            if (pos + 4 + length > end) {
+                return -1;
+            }
+            if (readShort(data, pos) == type) {
+                return pos;
+            }
+            pos += 4 + length;
+        }
+        return -1;
+    }
+
+    private static int readShort(byte[] data, int pos) {
+        return ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+    }
+
+    /** Returns the two byte value of the attribute at {@code pos}, or 0 if there is none. */
+    private static int readValue(byte[] data, int pos) {
+        return pos < 0 || readShort(data, pos + 2) != 2 ? 0 : readShort(data, pos + 4);
+    }
+
+    private static String readString(byte[] data, int pos) {
+        return new String(data, pos + 4, readShort(data, pos + 2), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,16 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+# Host tests of the NDEF codec and parsers in tag-core. Run them with
+#   java -cp $(ANDROID_HOST_OUT)/framework/tag-core-tests.jar junit.textui.TestRunner \
+#       com.android.apps.tag.core.AllTests
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
+
+LOCAL_STATIC_JAVA_LIBRARIES := tag-core-host guavalib junit
+
+LOCAL_MODULE := tag-core-tests
+
+LOCAL_MODULE_TAGS := tests
+
+include $(BUILD_HOST_JAVA_LIBRARY)
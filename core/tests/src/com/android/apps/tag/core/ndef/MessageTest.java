@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.core.ndef;
+
+import com.google.common.base.Charsets;
+import com.google.common.primitives.Bytes;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Tests of encoding and decoding {@link Message}s, chunked records and malformed input included.
+ */
+public class MessageTest extends TestCase {
+    private static final int FLAG_MB = 0x80;
+    private static final int FLAG_ME = 0x40;
+    private static final int FLAG_CF = 0x20;
+    private static final int FLAG_SR = 0x10;
+    private static final int FLAG_IL = 0x08;
+
+    private static final byte[] TYPE = "text/x-test".getBytes(Charsets.US_ASCII);
+    private static final byte[] ID = "id".getBytes(Charsets.US_ASCII);
+    private static final byte[] NONE = new byte[0];
+
+    public void testShortRecordRoundTrip() throws Exception {
+        Record record = new Record(Record.TNF_MIME_MEDIA, TYPE, NONE, payload(10));
+        byte[] encoded = new Message(record).toByteArray();
+
+        assertEquals(FLAG_MB | FLAG_ME | FLAG_SR | Record.TNF_MIME_MEDIA, encoded[0] & 0xff);
+        assertEquals(3 + TYPE.length + 10, encoded.length);
+        assertEquals(new Message(record), Message.decode(encoded));
+    }
+
+    public void testLongRecordWithIdRoundTrip() throws Exception {
+        Record first = new Record(Record.TNF_MIME_MEDIA, TYPE, ID, payload(300));
+        Record second = Record.createUri("http://www.example.com/");
+        Message message = new Message(first, second);
+        byte[] encoded = message.toByteArray();
+
+        // No short record flag, so a four byte payload length, then the id length
+        assertEquals(FLAG_MB | FLAG_IL | Record.TNF_MIME_MEDIA, encoded[0] & 0xff);
+        assertEquals(ID.length, encoded[6]);
+        assertEquals(message.getByteLength(), encoded.length);
+
+        Message decoded = Message.decode(encoded);
+        assertEquals(message, decoded);
+        assertTrue(Arrays.equals(ID, decoded.getRecords().get(0).getId()));
+        assertEquals(300, decoded.getRecords().get(0).getPayloadLength());
+    }
+
+    public void testChunkedRecordIsJoined() throws Exception {
+        byte[] payload = payload(25);
+        byte[] encoded = Bytes.concat(
+                chunk(FLAG_MB | FLAG_CF | Record.TNF_MIME_MEDIA, TYPE, ID,
+                        Arrays.copyOfRange(payload, 0, 10)),
+                chunk(FLAG_CF | Record.TNF_UNCHANGED, NONE, NONE,
+                        Arrays.copyOfRange(payload, 10, 20)),
+                chunk(Record.TNF_UNCHANGED, NONE, NONE, Arrays.copyOfRange(payload, 20, 25)),
+                chunk(FLAG_ME | Record.TNF_WELL_KNOWN, Record.RTD_TEXT, NONE,
+                        new byte[] { 2, 'e', 'n', 'h', 'i' }));
+
+        Message message = Message.decode(encoded);
+        assertEquals(2, message.getRecords().size());
+        Record joined = message.getRecords().get(0);
+        assertEquals(Record.TNF_MIME_MEDIA, joined.getTnf());
+        assertTrue(Arrays.equals(TYPE, joined.getType()));
+        assertTrue(Arrays.equals(ID, joined.getId()));
+        assertTrue(Arrays.equals(payload, joined.getPayload()));
+    }
+
+    public void testRejectsIdInTrailingChunk() {
+        assertMalformed(Bytes.concat(
+                chunk(FLAG_MB | FLAG_CF | Record.TNF_MIME_MEDIA, TYPE, NONE, payload(4)),
+                chunk(FLAG_ME | Record.TNF_UNCHANGED, NONE, ID, payload(4))));
+    }
+
+    public void testRejectsTypeInTrailingChunk() {
+        assertMalformed(Bytes.concat(
+                chunk(FLAG_MB | FLAG_CF | Record.TNF_MIME_MEDIA, TYPE, NONE, payload(4)),
+                chunk(FLAG_ME | Record.TNF_UNCHANGED, TYPE, NONE, payload(4))));
+    }
+
+    public void testRejectsMessageEndingInsideChunkedRecord() {
+        assertMalformed(chunk(FLAG_MB | FLAG_ME | FLAG_CF | Record.TNF_MIME_MEDIA, TYPE, NONE,
+                payload(4)));
+    }
+
+    public void testRejectsUnchangedTypeOutsideChunkedRecord() {
+        assertMalformed(chunk(FLAG_MB | FLAG_ME | Record.TNF_UNCHANGED, NONE, NONE, payload(4)));
+    }
+
+    public void testRejectsMissingMessageBegin() {
+        byte[] encoded = new Message(Record.createUri("http://www.example.com/")).toByteArray();
+        encoded[0] &= ~FLAG_MB;
+        assertMalformed(encoded);
+    }
+
+    public void testRejectsMessageBeginOutOfPlace() {
+        assertMalformed(Bytes.concat(
+                chunk(FLAG_MB | Record.TNF_MIME_MEDIA, TYPE, NONE, payload(4)),
+                chunk(FLAG_MB | FLAG_ME | Record.TNF_MIME_MEDIA, TYPE, NONE, payload(4))));
+    }
+
+    public void testRejectsTrailingData() {
+        byte[] encoded = new Message(Record.createUri("http://www.example.com/")).toByteArray();
+        assertMalformed(Bytes.concat(encoded, new byte[] { 0 }));
+    }
+
+    public void testRejectsEveryTruncation() {
+        Message message = new Message(new Record(Record.TNF_MIME_MEDIA, TYPE, ID, payload(300)),
+                Record.createUri("http://www.example.com/"));
+        byte[] encoded = message.toByteArray();
+        for (int length = 0; length < encoded.length; length++) {
+            assertMalformed(Arrays.copyOf(encoded, length));
+        }
+    }
+
+    public void testRejectsPayloadLengthPastTheEnd() {
+        byte[] encoded = chunk(FLAG_MB | FLAG_ME | Record.TNF_MIME_MEDIA, TYPE, NONE, payload(4));
+        encoded[2] = (byte) 200;
+        assertMalformed(encoded);
+    }
+
+    private static void assertMalformed(byte[] encoded) {
+        try {
+            Message.decode(encoded);
+            fail("Decoded " + encoded.length + " malformed bytes");
+        } catch (NdefFormatException e) {
+            // Expected
+        }
+    }
+
+    /** Encodes one record or chunk as a short record, with the id length if there is an id. */
+    private static byte[] chunk(int flags, byte[] type, byte[] id, byte[] payload) {
+        boolean hasId = id.length > 0;
+        byte[] header = hasId
+                ? new byte[] { (byte) (flags | FLAG_SR | FLAG_IL), (byte) type.length,
+                        (byte) payload.length, (byte) id.length }
+                : new byte[] { (byte) (flags | FLAG_SR), (byte) type.length,
+                        (byte) payload.length };
+        return Bytes.concat(header, type, id, payload);
+    }
+
+    private static byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) i;
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Bytes;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Tests of parsing Bluetooth BR/EDR and Low Energy out-of-band pairing records.
+ */
+public class BluetoothOobDataTest extends TestCase {
+    /** 11:22:33:44:55:66, little endian as on the wire. */
+    private static final byte[] ADDRESS = new byte[] { 0x66, 0x55, 0x44, 0x33, 0x22, 0x11 };
+
+    public void testBrEdr() {
+        byte[] structures = Bytes.concat(
+                structure(0x09, utf8("Kitchen speaker")),
+                structure(0x0d, new byte[] { 0x14, 0x04, 0x24 }),
+                structure(0x03, new byte[] { 0x0b, 0x11 }));
+        BluetoothOobData data = parse(BluetoothOobData.BREDR_MIME_TYPE, brEdr(structures));
+
+        assertFalse(data.isLowEnergy());
+        assertEquals("11:22:33:44:55:66", data.getAddress());
+        assertEquals(-1, data.getAddressType());
+        assertEquals("Kitchen speaker", data.getName());
+        assertEquals(0x240414, data.getDeviceClass());
+        assertEquals(ImmutableList.of("0000110b-0000-1000-8000-00805f9b34fb"),
+                data.getServiceUuids());
+    }
+
+    public void testShortNameWhenThereIsNoName() {
+        BluetoothOobData data = parse(BluetoothOobData.BREDR_MIME_TYPE,
+                brEdr(structure(0x08, utf8("Speaker"))));
+        assertEquals("Speaker", data.getName());
+    }
+
+    public void testLowEnergy() {
+        byte[] tk = new byte[16];
+        Arrays.fill(tk, (byte) 7);
+        byte[] payload = Bytes.concat(
+                structure(0x1b, Bytes.concat(ADDRESS, new byte[] { 1 })),
+                structure(0x1c, new byte[] { 2 }),
+                structure(0x09, utf8("Tracker")),
+                structure(0x10, tk));
+        BluetoothOobData data = parse(BluetoothOobData.LE_MIME_TYPE, payload);
+
+        assertTrue(data.isLowEnergy());
+        assertEquals("11:22:33:44:55:66", data.getAddress());
+        assertEquals(BluetoothOobData.ADDRESS_RANDOM, data.getAddressType());
+        assertEquals(2, data.getRole());
+        assertEquals("Tracker", data.getName());
+        assertTrue(Arrays.equals(tk, data.getTk()));
+    }
+
+    public void testRejectsBrEdrWithoutAddress() {
+        assertNull(parse(BluetoothOobData.BREDR_MIME_TYPE, new byte[] { 7, 0, 1, 2, 3, 4, 5 }));
+    }
+
+    public void testRejectsLowEnergyWithoutAddress() {
+        assertNull(parse(BluetoothOobData.LE_MIME_TYPE, structure(0x09, utf8("Tracker"))));
+    }
+
+    public void testRejectsLowEnergyWithTruncatedAddress() {
+        assertNull(parse(BluetoothOobData.LE_MIME_TYPE, structure(0x1b, ADDRESS)));
+    }
+
+    public void testDropsTruncatedStructure() {
+        byte[] name = structure(0x09, utf8("Kitchen speaker"));
+        byte[] truncated = Arrays.copyOf(name, name.length - 1);
+        byte[] structures = Bytes.concat(structure(0x0d, new byte[] { 0x14, 0x04, 0x24 }),
+                truncated);
+        BluetoothOobData data = parse(BluetoothOobData.BREDR_MIME_TYPE, brEdr(structures));
+
+        assertEquals("11:22:33:44:55:66", data.getAddress());
+        assertEquals(0x240414, data.getDeviceClass());
+        assertNull(data.getName());
+    }
+
+    public void testDropsValuesOfTheWrongLength() {
+        BluetoothOobData data = parse(BluetoothOobData.BREDR_MIME_TYPE,
+                brEdr(structure(0x0e, new byte[] { 1, 2, 3 })));
+        assertNull(data.getHash());
+    }
+
+    public void testIgnoresOtherMimeTypes() {
+        assertNull(parse("application/octet-stream", brEdr(new byte[0])));
+    }
+
+    private static BluetoothOobData parse(String mimeType, byte[] payload) {
+        return BluetoothOobData.parse(Record.createMime(mimeType, payload));
+    }
+
+    /** Returns a BR/EDR payload: the OOB data length, the address, then {@code structures}. */
+    private static byte[] brEdr(byte[] structures) {
+        int length = 2 + ADDRESS.length + structures.length;
+        return Bytes.concat(new byte[] { (byte) length, (byte) (length >> 8) }, ADDRESS,
+                structures);
+    }
+
+    private static byte[] structure(int type, byte[] value) {
+        return Bytes.concat(new byte[] { (byte) (value.length + 1), (byte) type }, value);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Bytes;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests of parsing Connection Handover select and request records and their carriers.
+ */
+public class HandoverDataTest extends TestCase {
+    private static final byte[] NONE = new byte[0];
+    private static final byte[] HANDOVER_VERSION = new byte[] { 0x12 };
+
+    public void testSelectWithCarriers() {
+        Record select = handover(Record.RTD_HANDOVER_SELECT,
+                carrier(1, "b", "aux"), carrier(2, "w"));
+        HandoverData data = HandoverData.parse(select);
+
+        assertEquals(HandoverData.Kind.SELECT, data.getKind());
+        assertEquals(1, data.getMajorVersion());
+        assertEquals(2, data.getMinorVersion());
+        List<HandoverData.Carrier> carriers = data.getCarriers();
+        assertEquals(2, carriers.size());
+        assertEquals(HandoverData.PowerState.ACTIVE, carriers.get(0).getPowerState());
+        assertEquals("b", carriers.get(0).getReference());
+        assertEquals(ImmutableList.of("aux"), carriers.get(0).getAuxiliaryReferences());
+        assertEquals(HandoverData.PowerState.ACTIVATING, carriers.get(1).getPowerState());
+        assertEquals("w", carriers.get(1).getReference());
+        assertTrue(carriers.get(1).getAuxiliaryReferences().isEmpty());
+        assertEquals(-1, data.getCollisionResolution());
+    }
+
+    public void testRequestWithCollisionResolution() {
+        Record collision = new Record(Record.TNF_WELL_KNOWN, ascii("cr"), NONE,
+                new byte[] { 0x12, 0x34 });
+        HandoverData data = HandoverData.parse(
+                handover(Record.RTD_HANDOVER_REQUEST, collision, carrier(1, "b")));
+
+        assertEquals(HandoverData.Kind.REQUEST, data.getKind());
+        assertEquals(0x1234, data.getCollisionResolution());
+        assertEquals(1, data.getCarriers().size());
+    }
+
+    public void testSelectWithoutCarriers() {
+        HandoverData data = HandoverData.parse(new Record(Record.TNF_WELL_KNOWN,
+                Record.RTD_HANDOVER_SELECT, NONE, HANDOVER_VERSION));
+        assertTrue(data.getCarriers().isEmpty());
+    }
+
+    public void testCarrierReferencesNameRecordsOfTheMessage() {
+        byte[] oob = new byte[] { 8, 0, 0x66, 0x55, 0x44, 0x33, 0x22, 0x11 };
+        Message message = new Message(handover(Record.RTD_HANDOVER_SELECT, carrier(1, "b")),
+                new Record(Record.TNF_MIME_MEDIA, ascii(BluetoothOobData.BREDR_MIME_TYPE),
+                        ascii("b"), oob));
+        List<RecordData> parsed = RecordParser.parse(message);
+
+        String reference = ((HandoverData) parsed.get(0)).getCarriers().get(0).getReference();
+        assertTrue(Arrays.equals(ascii(reference), message.getRecords().get(1).getId()));
+        assertTrue(parsed.get(1) instanceof BluetoothOobData);
+    }
+
+    public void testRejectsTruncatedCarrier() {
+        // The reference says three bytes, but only one follows
+        Record truncated = new Record(Record.TNF_WELL_KNOWN, Record.RTD_ALTERNATIVE_CARRIER,
+                NONE, new byte[] { 1, 3, 'b' });
+        assertNull(HandoverData.parse(handover(Record.RTD_HANDOVER_SELECT, truncated)));
+    }
+
+    public void testRejectsTruncatedAuxiliaryReference() {
+        Record truncated = new Record(Record.TNF_WELL_KNOWN, Record.RTD_ALTERNATIVE_CARRIER,
+                NONE, new byte[] { 1, 1, 'b', 2, 1, 'x' });
+        assertNull(HandoverData.parse(handover(Record.RTD_HANDOVER_SELECT, truncated)));
+    }
+
+    public void testRejectsTruncatedMessage() {
+        byte[] payload = handover(Record.RTD_HANDOVER_SELECT, carrier(1, "b")).getPayload();
+        Record truncated = new Record(Record.TNF_WELL_KNOWN, Record.RTD_HANDOVER_SELECT, NONE,
+                Arrays.copyOf(payload, payload.length - 1));
+        assertNull(HandoverData.parse(truncated));
+    }
+
+    public void testRejectsEmptyPayload() {
+        assertNull(HandoverData.parse(
+                new Record(Record.TNF_WELL_KNOWN, Record.RTD_HANDOVER_SELECT, NONE, NONE)));
+    }
+
+    public void testIgnoresOtherRecords() {
+        assertNull(HandoverData.parse(Record.createUri("http://www.example.com/")));
+    }
+
+    private static Record handover(byte[] type, Record first, Record... rest) {
+        byte[] message = new Message(first, rest).toByteArray();
+        return new Record(Record.TNF_WELL_KNOWN, type, NONE,
+                Bytes.concat(HANDOVER_VERSION, message));
+    }
+
+    private static Record carrier(int powerState, String reference, String... auxiliary) {
+        byte[] payload = Bytes.concat(new byte[] { (byte) powerState }, reference(reference));
+        if (auxiliary.length > 0) {
+            payload = Bytes.concat(payload, new byte[] { (byte) auxiliary.length });
+            for (String aux : auxiliary) {
+                payload = Bytes.concat(payload, reference(aux));
+            }
+        }
+        return new Record(Record.TNF_WELL_KNOWN, Record.RTD_ALTERNATIVE_CARRIER, NONE, payload);
+    }
+
+    private static byte[] reference(String reference) {
+        return Bytes.concat(new byte[] { (byte) reference.length() }, ascii(reference));
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(Charsets.US_ASCII);
+    }
+}
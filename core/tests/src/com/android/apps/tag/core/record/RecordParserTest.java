@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.primitives.Bytes;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tests that {@link RecordParser} hands each kind of record to the parser for it.
+ */
+public class RecordParserTest extends TestCase {
+    private static final byte[] NONE = new byte[0];
+
+    public void testText() {
+        RecordData data = RecordParser.parse(Record.createText("hello", Locale.ENGLISH, true));
+        assertTrue(data instanceof TextData);
+        assertEquals("hello", ((TextData) data).getText());
+        assertEquals("en", ((TextData) data).getLanguageCode());
+    }
+
+    public void testUri() {
+        RecordData data = RecordParser.parse(Record.createUri("http://www.example.com/"));
+        assertTrue(data instanceof UriData);
+        assertEquals("http://www.example.com/", ((UriData) data).getUri());
+    }
+
+    public void testSmartPoster() {
+        Message content = new Message(Record.createUri("http://www.example.com/"),
+                Record.createText("Example", Locale.ENGLISH, true));
+        RecordData data = RecordParser.parse(new Record(Record.TNF_WELL_KNOWN,
+                Record.RTD_SMART_POSTER, NONE, content.toByteArray()));
+        assertTrue(data instanceof SmartPosterData);
+        SmartPosterData poster = (SmartPosterData) data;
+        assertEquals("http://www.example.com/", poster.getUri().getUri());
+        assertEquals("Example", poster.getTitle().getText());
+    }
+
+    public void testHandover() {
+        RecordData data = RecordParser.parse(new Record(Record.TNF_WELL_KNOWN,
+                Record.RTD_HANDOVER_SELECT, NONE, new byte[] { 0x12 }));
+        assertTrue(data instanceof HandoverData);
+    }
+
+    public void testAndroidApplicationRecord() {
+        RecordData data = RecordParser.parse(new Record(Record.TNF_EXTERNAL_TYPE,
+                Record.RTD_ANDROID_APP, NONE, ascii("com.example.app")));
+        assertTrue(data instanceof AarData);
+        assertEquals("com.example.app", ((AarData) data).getPackageName());
+    }
+
+    public void testExternalTypeIsNotTakenForUri() {
+        RecordData data = RecordParser.parse(new Record(Record.TNF_EXTERNAL_TYPE,
+                ascii("example.com:thing"), NONE, ascii("stuff")));
+        assertEquals(ExternalTypeData.class, data.getClass());
+    }
+
+    public void testImage() {
+        byte[] png = Bytes.concat(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n',
+                0, 0, 0, 13, 'I', 'H', 'D', 'R', 0, 0, 0, 16, 0, 0, 0, 8 });
+        RecordData data = RecordParser.parse(Record.createMime("image/png", png));
+        assertTrue(data instanceof ImageData);
+    }
+
+    public void testImageWithoutHeaderIsMime() {
+        RecordData data = RecordParser.parse(Record.createMime("image/png", ascii("not a png")));
+        assertEquals(MimeData.class, data.getClass());
+    }
+
+    public void testVCard() {
+        RecordData data = RecordParser.parse(Record.createMime(VCardData.VCARD_MIME_TYPE,
+                ascii("BEGIN:VCARD\r\nVERSION:2.1\r\nFN:Jane Doe\r\nEND:VCARD\r\n")));
+        assertTrue(data instanceof VCardData);
+    }
+
+    public void testBluetoothOob() {
+        RecordData data = RecordParser.parse(Record.createMime(BluetoothOobData.BREDR_MIME_TYPE,
+                new byte[] { 8, 0, 6, 5, 4, 3, 2, 1 }));
+        assertTrue(data instanceof BluetoothOobData);
+    }
+
+    public void testWifiConfig() {
+        byte[] ssid = ascii("HomeNet");
+        byte[] payload = Bytes.concat(new byte[] { 0x10, 0x45, 0, (byte) ssid.length }, ssid);
+        RecordData data = RecordParser.parse(Record.createMime(WifiConfigData.MIME_TYPE, payload));
+        assertTrue(data instanceof WifiConfigData);
+    }
+
+    public void testOtherMime() {
+        RecordData data = RecordParser.parse(Record.createMime("application/x-test", ascii("x")));
+        assertEquals(MimeData.class, data.getClass());
+        assertEquals("application/x-test", ((MimeData) data).getMimeType());
+    }
+
+    public void testUnknown() {
+        RecordData data = RecordParser.parse(new Record(Record.TNF_UNKNOWN, NONE, NONE,
+                ascii("x")));
+        assertTrue(data instanceof UnknownData);
+    }
+
+    public void testRecordsPastTheBudgetAreDeferred() {
+        Message message = new Message(Record.createUri("http://www.example.com/"),
+                Record.createText("hello", Locale.ENGLISH, true));
+        int firstLength = message.getRecords().get(0).getPayloadLength();
+        List<RecordData> parsed = RecordParser.parse(message,
+                new ParseBudget(Long.MAX_VALUE, firstLength, ParseBudget.MAX_NESTING));
+        assertTrue(parsed.get(0) instanceof UriData);
+        assertTrue(parsed.get(1) instanceof DeferredData);
+        assertEquals(ParseBudget.Limit.BYTES, ((DeferredData) parsed.get(1)).getLimit());
+        assertEquals(message.getRecords().get(1), ((DeferredData) parsed.get(1)).getRecord());
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(Charsets.US_ASCII);
+    }
+}
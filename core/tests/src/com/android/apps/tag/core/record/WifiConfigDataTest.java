@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.core.record;
+
+import com.android.apps.tag.core.ndef.Record;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.primitives.Bytes;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Tests of parsing Wi-Fi Protected Setup credentials.
+ */
+public class WifiConfigDataTest extends TestCase {
+    private static final int ATTR_AUTH_TYPE = 0x1003;
+    private static final int ATTR_CREDENTIAL = 0x100e;
+    private static final int ATTR_ENCRYPTION_TYPE = 0x100f;
+    private static final int ATTR_MAC_ADDRESS = 0x1020;
+    private static final int ATTR_NETWORK_KEY = 0x1027;
+    private static final int ATTR_SSID = 0x1045;
+    private static final int ATTR_VERSION = 0x104a;
+
+    public void testCredential() {
+        byte[] credential = Bytes.concat(
+                attribute(ATTR_SSID, utf8("HomeNet")),
+                attribute(ATTR_AUTH_TYPE, new byte[] { 0, WifiConfigData.AUTH_WPA2_PSK }),
+                attribute(ATTR_ENCRYPTION_TYPE, new byte[] { 0, WifiConfigData.ENCRYPTION_AES }),
+                attribute(ATTR_NETWORK_KEY, utf8("correct horse")),
+                attribute(ATTR_MAC_ADDRESS, new byte[] { 0x11, 0x22, 0x33, 0x44, 0x55, 0x66 }));
+        WifiConfigData data = parse(Bytes.concat(attribute(ATTR_VERSION, new byte[] { 0x10 }),
+                attribute(ATTR_CREDENTIAL, credential)));
+
+        assertEquals("HomeNet", data.getSsid());
+        assertEquals("correct horse", data.getNetworkKey());
+        assertEquals(WifiConfigData.AUTH_WPA2_PSK, data.getAuthType());
+        assertEquals(WifiConfigData.ENCRYPTION_AES, data.getEncryptionType());
+        assertEquals("11:22:33:44:55:66", data.getMacAddress());
+        assertTrue(data.isPsk());
+        assertFalse(data.isWep());
+    }
+
+    public void testCredentialAttributesAtTheTopLevel() {
+        WifiConfigData data = parse(Bytes.concat(attribute(ATTR_SSID, utf8("Cafe")),
+                attribute(ATTR_AUTH_TYPE, new byte[] { 0, WifiConfigData.AUTH_OPEN })));
+
+        assertEquals("Cafe", data.getSsid());
+        assertNull(data.getNetworkKey());
+        assertEquals(WifiConfigData.AUTH_OPEN, data.getAuthType());
+        assertFalse(data.isPsk());
+    }
+
+    public void testRejectsMissingSsid() {
+        assertNull(parse(attribute(ATTR_CREDENTIAL, attribute(ATTR_NETWORK_KEY, utf8("key")))));
+    }
+
+    public void testRejectsTruncatedSsid() {
+        byte[] ssid = attribute(ATTR_SSID, utf8("HomeNet"));
+        assertNull(parse(Arrays.copyOf(ssid, ssid.length - 1)));
+    }
+
+    public void testRejectsTruncatedCredential() {
+        byte[] credential = attribute(ATTR_CREDENTIAL, Bytes.concat(
+                attribute(ATTR_NETWORK_KEY, utf8("correct horse")),
+                attribute(ATTR_SSID, utf8("HomeNet"))));
+        assertNull(parse(Arrays.copyOf(credential, credential.length - 2)));
+    }
+
+    public void testRejectsOverlongSsid() {
+        assertNull(parse(attribute(ATTR_SSID, utf8(Strings.repeat("s", 33)))));
+    }
+
+    public void testRejectsOverlongKey() {
+        assertNull(parse(Bytes.concat(attribute(ATTR_SSID, utf8("HomeNet")),
+                attribute(ATTR_NETWORK_KEY, utf8(Strings.repeat("k", 65))))));
+    }
+
+    public void testIgnoresOtherMimeTypes() {
+        assertNull(WifiConfigData.parse(Record.createMime("application/octet-stream",
+                attribute(ATTR_SSID, utf8("HomeNet")))));
+    }
+
+    private static WifiConfigData parse(byte[] payload) {
+        return WifiConfigData.parse(Record.createMime(WifiConfigData.MIME_TYPE, payload));
+    }
+
+    private static byte[] attribute(int type, byte[] value) {
+        return Bytes.concat(new byte[] { (byte) (type >> 8), (byte) type,
+                (byte) (value.length >> 8), (byte) value.length }, value);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,18 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+# Parses directories or zip archives of raw NDEF dumps in parallel and prints a line of JSON per
+# message. Run it with
+#   java -jar $(ANDROID_HOST_OUT)/framework/ndefdump.jar <directory or zip> [--threads N]
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
+
+LOCAL_STATIC_JAVA_LIBRARIES := tag-core-host guavalib
+
+LOCAL_JAR_MANIFEST := manifest.txt
+
+LOCAL_MODULE := ndefdump
+
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.dump;
+
+import com.android.apps.tag.core.ndef.Message;
+import com.android.apps.tag.core.ndef.NdefFormatException;
+import com.android.apps.tag.core.record.AarData;
+import com.android.apps.tag.core.record.BluetoothOobData;
+import com.android.apps.tag.core.record.ExternalTypeData;
+import com.android.apps.tag.core.record.MimeData;
+import com.android.apps.tag.core.record.RecordData;
+import com.android.apps.tag.core.record.RecordParser;
+import com.android.apps.tag.core.record.SmartPosterData;
+import com.android.apps.tag.core.record.TextData;
+import com.android.apps.tag.core.record.UriData;
+import com.android.apps.tag.core.record.VCardData;
+import com.android.apps.tag.core.record.WifiConfigData;
+import com.google.common.base.Charsets;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns a raw NDEF message into one line of JSON describing it:
+ * <pre>
+ * {"file":"a/00001.ndef","bytes":42,"snippet":"Exhibit 7","uris":["http://example.com/7"],
+ *  "records":[{"type":"SmartPoster","snippet":"Exhibit 7","uri":"http://example.com/7"}]}
+ * </pre>
+ * or, for a message the decoder rejects, {@code {"file":"...","bytes":42,"error":"..."}}.
+ * A file that couldn't be read has an error and no byte count.
+ *
+ * <p>Snippets follow the viewer's history list, without its localized strings: the text of a
+ * text record, the title of a smart poster or else its URI, the URI of a URI record, the name on
+ * a vCard and the type of other MIME records. The snippet of the message is that of a smart
+ * poster after a leading URI record, as the specification asks, or else of the first record.
+ */
+final class MessageSummary {
+    /** Snippets longer than this are cut, as in the history. */
+    private static final int MAX_SNIPPET_LENGTH = 512;
+
+    /** The line of JSON, without a line break. */
+    final String json;
+
+    /** Whether the message was rejected or couldn't be read. */
+    final boolean failed;
+
+    private MessageSummary(String json, boolean failed) {
+        this.json = json;
+        this.failed = failed;
+    }
+
+    /** Returns the summary of {@code bytes}, read from {@code name}. */
+    static MessageSummary parse(String name, byte[] bytes) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"file\":");
+        quote(json, name);
+        json.append(",\"bytes\":").append(bytes.length);
+
+        List<RecordData> records;
+        try {
+            records = RecordParser.parse(Message.decode(bytes));
+        } catch (NdefFormatException e) {
+            json.append(",\"error\":");
+            quote(json, e.getMessage());
+            return new MessageSummary(json.append('}').toString(), true);
+        }
+
+        json.append(",\"snippet\":");
+        quote(json, records.isEmpty() ? null : snippetOf(primaryOf(records)));
+        json.append(",\"uris\":[");
+        boolean first = true;
+        for (RecordData record : records) {
+            String uri = uriOf(record);
+            if (uri != null) {
+                if (!first) {
+                    json.append(',');
+                }
+                quote(json, uri);
+                first = false;
+            }
+        }
+        json.append("],\"records\":[");
+        for (int i = 0; i < records.size(); i++) {
+            RecordData record = records.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":");
+            quote(json, record.getRecordType());
+            json.append(",\"snippet\":");
+            quote(json, snippetOf(record));
+            String uri = uriOf(record);
+            if (uri != null) {
+                json.append(",\"uri\":");
+                quote(json, uri);
+            }
+            json.append('}');
+        }
+        return new MessageSummary(json.append("]}").toString(), false);
+    }
+
+    /** Returns the summary of a file that couldn't be read, for {@code reason}. */
+    static MessageSummary unreadable(String name, String reason) {
+        StringBuilder json = new StringBuilder("{\"file\":");
+        quote(json, name);
+        json.append(",\"error\":");
+        quote(json, reason);
+        return new MessageSummary(json.append('}').toString(), true);
+    }
+
+    /** Returns the record that best describes a message, as the viewer's history picks it. */
+    private static RecordData primaryOf(List<RecordData> records) {
+        RecordData first = records.get(0);
+        if (first instanceof UriData) {
+            for (int i = 1; i < records.size(); i++) {
+                if (records.get(i) instanceof SmartPosterData) {
+                    return records.get(i);
+                }
+            }
+        }
+        return first;
+    }
+
+    private static String snippetOf(RecordData record) {
+        String snippet = null;
+        if (record instanceof TextData) {
+            snippet = ((TextData) record).getText();
+        } else if (record instanceof SmartPosterData) {
+            SmartPosterData poster = (SmartPosterData) record;
+            snippet = (poster.getTitle() != null)
+                    ? poster.getTitle().getText() : poster.getUri().getUri();
+        } else if (record instanceof UriData) {
+            snippet = ((UriData) record).getUri();
+        } else if (record instanceof VCardData) {
+            snippet = vCardName((VCardData) record);
+        } else if (record instanceof BluetoothOobData) {
+            BluetoothOobData oob = (BluetoothOobData) record;
+            snippet = oob.getName() != null ? oob.getName() : oob.getAddress();
+        } else if (record instanceof WifiConfigData) {
+            snippet = ((WifiConfigData) record).getSsid();
+        } else if (record instanceof AarData) {
+            snippet = ((AarData) record).getPackageName();
+        } else if (record instanceof ExternalTypeData) {
+            snippet = ((ExternalTypeData) record).getType();
+        } else if (record instanceof MimeData) {
+            snippet = ((MimeData) record).getMimeType();
+        }
+        if (snippet != null && snippet.length() > MAX_SNIPPET_LENGTH) {
+            snippet = snippet.substring(0, MAX_SNIPPET_LENGTH);
+        }
+        return snippet;
+    }
+
+    private static String uriOf(RecordData record) {
+        if (record instanceof UriData) {
+            return ((UriData) record).getUri();
+        } else if (record instanceof SmartPosterData) {
+            return ((SmartPosterData) record).getUri().getUri();
+        }
+        return null;
+    }
+
+    /** Returns the formatted name on a vCard, or its MIME type if it has none. */
+    private static String vCardName(VCardData card) {
+        String content = new String(card.getContent(), Charsets.UTF_8);
+        for (String line : content.split("\r?\n")) {
+            if (line.regionMatches(true, 0, "FN", 0, 2)) {
+                int colon = line.indexOf(':');
+                if (colon >= 0 && (colon == 2 || line.charAt(2) == ';')) {
+                    return line.substring(colon + 1).trim();
+                }
+            }
+        }
+        return card.getMimeType();
+    }
+
+    /** Appends {@code value} as a JSON string, or {@code null}. */
+    private static void quote(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        json.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                    break;
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.dump;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Parses raw NDEF dumps in bulk and prints one line of JSON per message, as described in
+ * {@link MessageSummary}. Takes a directory, searched recursively, or a zip archive of
+ * {@code .ndef} files, each holding one encoded message:
+ * <pre>
+ * java -jar ndefdump.jar &lt;directory or zip&gt; [--threads N] &gt; messages.jsonl
+ * </pre>
+ *
+ * <p>Files are parsed on a fork-join pool as they are found, and only a few per thread are read
+ * ahead, so memory stays bounded however many there are. Lines come out in the order files
+ * finish, not the order they were found. The count and rate of files is printed to standard
+ * error at the end.
+ */
+public class NdefDump {
+    static final String EXTENSION = ".ndef";
+
+    /** Larger files aren't read, as the decoder would reject a record that large anyway. */
+    static final long MAX_FILE_SIZE = 10 * (1 << 20);
+
+    /** How many files per thread may be read and waiting for or being parsed at a time. */
+    private static final int FILES_IN_FLIGHT_PER_THREAD = 4;
+
+    private final ForkJoinPool mPool;
+    private final Semaphore mInFlight;
+    private final Writer mOut;
+    private final AtomicLong mFiles = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+
+    NdefDump(int threads, Writer out) {
+        mPool = new ForkJoinPool(threads);
+        mInFlight = new Semaphore(threads * FILES_IN_FLIGHT_PER_THREAD);
+        mOut = out;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File source = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (source == null && !args[i].startsWith("--")) {
+                source = new File(args[i]);
+            } else {
+                usage();
+            }
+        }
+        if (source == null || threads < 1) {
+            usage();
+        }
+        if (!source.exists()) {
+            System.err.println(source + " doesn't exist");
+            System.exit(1);
+        }
+
+        // Not System.out, which swallows the error when the reader goes away
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(FileDescriptor.out), Charsets.UTF_8));
+        NdefDump dump = new NdefDump(threads, out);
+        long start = System.nanoTime();
+        dump.dump(source);
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.exit(1);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(String.format(Locale.US,
+                "%d files, %d failed, in %.1fs: %.0f files/s on %d threads",
+                dump.mFiles.get(), dump.mErrors.get(), seconds,
+                seconds > 0 ? dump.mFiles.get() / seconds : 0, threads));
+    }
+
+    private static void usage() {
+        System.err.println("Usage: ndefdump <directory or zip> [--threads N]");
+        System.exit(2);
+    }
+
+    /** Parses every {@code .ndef} file in {@code source} and waits for all of them. */
+    void dump(File source) throws IOException, InterruptedException {
+        try {
+            if (source.isDirectory()) {
+                dumpDirectory(source.toPath());
+            } else if (source.getName().endsWith(".zip")) {
+                dumpZip(source);
+            } else {
+                dumpFile(source.toPath(), source.getName());
+            }
+        } finally {
+            mPool.shutdown();
+            mPool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+    }
+
+    private void dumpDirectory(final Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && file.getFileName().toString().endsWith(EXTENSION)) {
+                    dumpFile(file, root.relativize(file).toString());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void dumpFile(final Path file, String name) {
+        submit(name, new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                if (Files.size(file) > MAX_FILE_SIZE) {
+                    throw new IOException("larger than " + MAX_FILE_SIZE + " bytes");
+                }
+                return Files.readAllBytes(file);
+            }
+        });
+    }
+
+    /**
+     * Parses the entries of a zip archive. The archive stays open until every entry is parsed,
+     * as entries are read on the pool.
+     */
+    private void dumpZip(File archive) throws IOException, InterruptedException {
+        final ZipFile zip = new ZipFile(archive);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(EXTENSION)) {
+                    continue;
+                }
+                submit(entry.getName(), new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        if (entry.getSize() > MAX_FILE_SIZE) {
+                            throw new IOException("larger than " + MAX_FILE_SIZE + " bytes");
+                        }
+                        InputStream in = zip.getInputStream(entry);
+                        try {
+                            return ByteStreams.toByteArray(ByteStreams.limit(in,
+                                    MAX_FILE_SIZE + 1));
+                        } finally {
+                            in.close();
+                        }
+                    }
+                });
+            }
+            // Wait for the pool before closing the archive under it
+            mPool.shutdown();
+            mPool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Reads and parses a file on the pool, once fewer than the allowed number of files are in
+     * flight.
+     */
+    private void submit(final String name, final Callable<byte[]> reader) {
+        mInFlight.acquireUninterruptibly();
+        mPool.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                try {
+                    MessageSummary summary;
+                    try {
+                        byte[] bytes = reader.call();
+                        if (bytes.length > MAX_FILE_SIZE) {
+                            throw new IOException("larger than " + MAX_FILE_SIZE + " bytes");
+                        }
+                        summary = MessageSummary.parse(name, bytes);
+                    } catch (Exception e) {
+                        summary = MessageSummary.unreadable(name, "unreadable: " + e.getMessage());
+                    }
+                    if (summary.failed) {
+                        mErrors.incrementAndGet();
+                    }
+                    mFiles.incrementAndGet();
+                    write(summary.json);
+                } finally {
+                    mInFlight.release();
+                }
+            }
+        });
+    }
+
+    private void write(String line) {
+        synchronized (mOut) {
+            try {
+                mOut.write(line);
+                mOut.write('\n');
+            } catch (IOException e) {
+                // Standard output went away, as when piped into head, so stop
+                System.exit(1);
+            }
+        }
+    }
+}
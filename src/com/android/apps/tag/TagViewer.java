@@ -16,45 +16,416 @@
 
 package com.android.apps.tag;
 
+import com.android.apps.tag.core.record.ParseBudget;
+import com.android.apps.tag.core.record.SmartPosterData;
+import com.android.apps.tag.history.BlobStore;
+import com.android.apps.tag.history.TagHistory;
+import com.android.apps.tag.message.IncrementalNdefParser;
 import com.android.apps.tag.message.NdefMessageParser;
-import com.android.apps.tag.message.ParsedNdefMessage;
+import com.android.apps.tag.message.PayloadSpill;
+import com.android.apps.tag.provider.TagContract;
+import com.android.apps.tag.reader.Type2Reader;
+import com.android.apps.tag.reader.UltralightTransport;
+import com.android.apps.tag.record.AarRecord;
+import com.android.apps.tag.record.DeferredRecord;
+import com.android.apps.tag.record.MimeRecord;
 import com.android.apps.tag.record.ParsedNdefRecord;
+import com.android.apps.tag.record.UriRecord;
+import com.android.apps.tag.record.VCardRecord;
+import com.android.apps.tag.util.LatencyHistogram;
+import com.android.apps.tag.util.ScanStats;
+import com.android.apps.tag.util.TagPreferences;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
 import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.nfc.FormatException;
 import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.nfc.TagLostException;
+import android.nfc.tech.MifareUltralight;
+import android.nfc.tech.Ndef;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Parcelable;
+import android.os.ResultReceiver;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * An {@link Activity} which handles a broadcast of a new tag that the device just discovered.
+ *
+ * <p>While it is in the foreground on a device that supports it, the viewer polls for tags in
+ * reader mode and reads them itself, which skips intent dispatch. The platform's NDEF check can
+ * be skipped too, in which case Type 2 tags are read page by page and others are ignored. See
+ * {@link TagPreferences} for the settings, which {@link TagSettings} edits from the menu.
+ *
+ * <p>The time spent in each stage of handling a scan is kept in {@link ScanStats} and printed by
+ * {@code adb shell dumpsys activity com.android.apps.tag/.TagViewer}, along with how much space
+ * the history saves by sharing message bytes. Adding {@code --reset-stats} clears the scan stats
+ * afterwards.
+ *
+ * <p>A message with an Android Application Record is handed straight to the app it names, if
+ * that is installed, instead of being shown. So is a smart poster recommending its action be
+ * done, if {@link TagPreferences} allow it and a single app handles its URI.
+ *
+ * <p>A scan intent may carry an {@link #EXTRA_SCAN_RECEIVER}, which is told once the scan is on
+ * screen, handed to an app, or replaced by a later scan before it got there. The scan load
+ * driver in TagCanon uses it to measure the whole path from intent to frame without NFC
+ * hardware. As the viewer is exported and the results include heap sizes and timings, the
+ * receiver is only honored in a debuggable build.
  */
 public class TagViewer extends Activity implements OnClickListener {
     static final String TAG = "TagViewer";
 
+    /**
+     * A {@link ResultReceiver} sent {@link #SCAN_SHOWN}, {@link #SCAN_COALESCED} or
+     * {@link #SCAN_LAUNCHED} for the scan in the intent, with its {@link #EXTRA_SCAN_ID} in the
+     * result data.
+     */
+    public static final String EXTRA_SCAN_RECEIVER = "com.android.apps.tag.extra.SCAN_RECEIVER";
+
+    /** An int identifying the scan to the {@link #EXTRA_SCAN_RECEIVER}. */
+    public static final String EXTRA_SCAN_ID = "com.android.apps.tag.extra.SCAN_ID";
+
+    /**
+     * In a {@link #SCAN_SHOWN} result, the nanoseconds from the intent to the frame. In a
+     * {@link #SCAN_LAUNCHED} result, the nanoseconds from the intent to the app being started.
+     */
+    public static final String EXTRA_VIEWER_NANOS = "com.android.apps.tag.extra.VIEWER_NANOS";
+
+    /** In a {@link #SCAN_SHOWN} result, the bytes of the Java heap in use. */
+    public static final String EXTRA_JAVA_HEAP = "com.android.apps.tag.extra.JAVA_HEAP";
+
+    /** In a {@link #SCAN_SHOWN} result, the bytes of the native heap in use. */
+    public static final String EXTRA_NATIVE_HEAP = "com.android.apps.tag.extra.NATIVE_HEAP";
+
+    /** The result code for a scan whose first frame was drawn. */
+    public static final int SCAN_SHOWN = 1;
+
+    /** The result code for a scan replaced by a later one before its first frame. */
+    public static final int SCAN_COALESCED = 2;
+
+    /** The result code for a scan handed to the app named by its Android Application Record. */
+    public static final int SCAN_LAUNCHED = 3;
+
+    /** How many taps between logging the tap to first frame latencies. */
+    private static final int LATENCY_LOG_INTERVAL = 20;
+
+    /**
+     * Time from a tag delivered by intent dispatch reaching the viewer to the first frame showing
+     * it. The platform's read of the tag and the dispatch itself happen before this starts.
+     */
+    static final LatencyHistogram sDispatchLatency =
+            ScanStats.stage(ScanStats.FIRST_FRAME_DISPATCH);
+
+    /**
+     * Time from a tag being discovered in reader mode to the first frame showing it, including
+     * reading its NDEF message.
+     */
+    static final LatencyHistogram sReaderLatency = ScanStats.stage(ScanStats.FIRST_FRAME_READER);
+
     LinearLayout mTagContent;
 
+    /** The records currently on screen, in message order. */
+    ArrayList<RecordViews> mRecordViews = Lists.newArrayList();
+
+    /** The records of the message on screen, or {@code null} while it is still being read. */
+    List<RecordKey> mMessageKeys;
+
+    /**
+     * The message on screen, until its URI is known and large records were moved off the heap.
+     */
+    NdefMessage mMessage;
+
+    /** The provider URI of the message on screen, once a record asked for it or it was dropped. */
+    Uri mMessageUri;
+
+    /** The message whose URI is being worked out off the UI thread, if any. */
+    NdefMessage mDigesting;
+
+    /** The number of records being spilled off the UI thread. */
+    int mPendingSpills;
+
+    /** The budget the records of a message still being read are parsed against. */
+    ParseBudget mPartialBudget;
+
+    /** The view shown in place of the records for an empty tag, if it is on screen. */
+    View mEmptyView;
+
+    /** Whether reader mode was turned on when the viewer was last resumed. */
+    boolean mReaderMode;
+
+    /** The receiver of the scan being resolved, until the frame showing it is drawn. */
+    ResultReceiver mScanReceiver;
+    int mScanId;
+
+    /** Reads Type 2 tags in reader mode, keeping interrupted reads to resume. */
+    final Type2Reader mType2Reader = new Type2Reader();
+
+    /**
+     * Identifies a record by a hash of its content rather than the content itself, so the payload
+     * of a record on screen can leave the heap.
+     */
+    static final class RecordKey {
+        private final short mTnf;
+        private final byte[] mType;
+        private final byte[] mId;
+        private final int mPayloadLength;
+        private final HashCode mPayloadHash;
+
+        RecordKey(NdefRecord record) {
+            byte[] payload = record.getPayload();
+            mTnf = record.getTnf();
+            mType = record.getType();
+            mId = record.getId();
+            mPayloadLength = payload.length;
+            mPayloadHash = PAYLOAD_HASH.hashBytes(payload);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RecordKey)) {
+                return false;
+            }
+            RecordKey other = (RecordKey) o;
+            return mTnf == other.mTnf && mPayloadLength == other.mPayloadLength
+                    && mPayloadHash.equals(other.mPayloadHash)
+                    && Arrays.equals(mType, other.mType) && Arrays.equals(mId, other.mId);
+        }
+
+        @Override
+        public int hashCode() {
+            return mPayloadHash.hashCode();
+        }
+    }
+
+    private static final HashFunction PAYLOAD_HASH = Hashing.murmur3_128();
+
+    /**
+     * A record currently on screen along with the views that were built for it.
+     */
+    static final class RecordViews {
+        final RecordKey key;
+        final ParsedNdefRecord parsed;
+        final View view;
+        final View divider;
+        int offset;
+
+        RecordViews(RecordKey key, ParsedNdefRecord parsed, View view, View divider, int offset) {
+            this.key = key;
+            this.parsed = parsed;
+            this.view = view;
+            this.divider = divider;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Reads tags discovered in reader mode and hands them to the viewer as if they had been
+     * dispatched. Kept apart from the activity so it is only loaded where reader mode exists.
+     */
+    static final class ReaderModeCallback implements NfcAdapter.ReaderCallback {
+        private final TagViewer mViewer;
+
+        ReaderModeCallback(TagViewer viewer) {
+            mViewer = viewer;
+        }
+
+        @Override
+        public void onTagDiscovered(Tag tag) {
+            final long start = System.nanoTime();
+            // Without the platform's NDEF check there is no Ndef, and Type 2 tags are read
+            // page by page instead
+            Ndef ndef = Ndef.get(tag);
+            MifareUltralight ultralight = MifareUltralight.get(tag);
+            if (ndef == null && ultralight == null) {
+                // Intent dispatch wouldn't have offered it either, see res/xml/filter_nfc.xml
+                return;
+            }
+
+            NdefMessage msg = (ndef != null) ? ndef.getCachedNdefMessage() : null;
+            if (msg == null) {
+                try {
+                    msg = (ultralight != null) ? readType2(ultralight, ndef) : readNdef(ndef);
+                } catch (TagLostException e) {
+                    Log.d(TAG, "Tag left the field part way through the read");
+                    return;
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to read tag", e);
+                    return;
+                } catch (FormatException e) {
+                    Log.w(TAG, "Tag holds malformed NDEF", e);
+                    return;
+                }
+            }
+
+            final Intent intent = new Intent(NfcAdapter.ACTION_TECH_DISCOVERED)
+                    .putExtra(NfcAdapter.EXTRA_TAG, tag)
+                    .putExtra(NfcAdapter.EXTRA_ID, tag.getId());
+            if (msg != null) {
+                intent.putExtra(NfcAdapter.EXTRA_NDEF_MESSAGES, new NdefMessage[] { msg });
+            }
+            mViewer.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    mViewer.setIntent(intent);
+                    mViewer.resolveIntent(intent, start);
+                    mViewer.watchFirstFrame(start, sReaderLatency);
+                }
+            });
+        }
+
+        /**
+         * Reads a Type 2 tag page by page, showing each record as soon as it is in. Falls back
+         * to the platform's read if the tag has a layout the page reader doesn't handle and
+         * {@code ndef} isn't {@code null}.
+         */
+        private NdefMessage readType2(MifareUltralight ultralight, Ndef ndef)
+                throws IOException, FormatException {
+            IncrementalNdefParser.Listener listener = new IncrementalNdefParser.Listener() {
+                @Override
+                public void onRecord(final int index, final NdefRecord record) {
+                    mViewer.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            mViewer.showPartialRecord(index, record);
+                        }
+                    });
+                }
+            };
+            try {
+                return mViewer.mType2Reader.read(new UltralightTransport(ultralight), listener);
+            } catch (TagLostException e) {
+                throw e;
+            } catch (IOException e) {
+                if (ndef == null) {
+                    throw e;
+                }
+                Log.w(TAG, "Page read failed, reading as NDEF", e);
+            } catch (FormatException e) {
+                if (ndef == null) {
+                    throw e;
+                }
+                Log.w(TAG, "Page read failed, reading as NDEF", e);
+            }
+            return readNdef(ndef);
+        }
+
+        private static NdefMessage readNdef(Ndef ndef) throws IOException, FormatException {
+            try {
+                ndef.connect();
+                return ndef.getNdefMessage();
+            } finally {
+                try {
+                    ndef.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long start = System.nanoTime();
         super.onCreate(savedInstanceState);
 
         setContentView(R.layout.tag_viewer);
 
         mTagContent = (LinearLayout) findViewById(R.id.list);
 
-        resolveIntent(getIntent());
+        resolveIntent(getIntent(), start);
+        watchFirstFrame(start, sDispatchLatency);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        NfcAdapter adapter = NfcAdapter.getDefaultAdapter(this);
+        if (adapter == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        TagPreferences prefs = TagPreferences.get(this);
+        if (!prefs.isReaderModeEnabled()) {
+            return;
+        }
+        int flags = prefs.getReaderTechs();
+        if (prefs.isNdefCheckSkipped()) {
+            flags |= NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK;
+        }
+        Bundle extras = new Bundle();
+        extras.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY,
+                prefs.getPresenceCheckDelay());
+        adapter.enableReaderMode(this, new ReaderModeCallback(this), flags, extras);
+        mReaderMode = true;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        releaseRecords();
     }
 
-    void resolveIntent(Intent intent) {
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (mReaderMode) {
+            NfcAdapter.getDefaultAdapter(this).disableReaderMode(this);
+            mReaderMode = false;
+        }
+    }
+
+    /**
+     * Shows the scan in {@code intent}, or hands it straight to another app.
+     *
+     * @param scanNanos when the scan reached the viewer, or was discovered in reader mode
+     */
+    void resolveIntent(Intent intent, long scanNanos) {
+        takeScanReceiver(intent);
+        long start = ScanStats.begin(ScanStats.RESOLVE_INTENT);
+        try {
+            resolveIntentUntimed(intent, scanNanos);
+        } finally {
+            ScanStats.end(ScanStats.RESOLVE_INTENT, start);
+        }
+    }
+
+    private void resolveIntentUntimed(Intent intent, long scanNanos) {
         // Parse the intent
         String action = intent.getAction();
         if (NfcAdapter.ACTION_TAG_DISCOVERED.equals(action)
@@ -63,9 +434,25 @@ public class TagViewer extends Activity implements OnClickListener {
             NdefMessage msg = null;
             if (rawMsgs != null && rawMsgs.length > 0) {
                 msg = (NdefMessage) rawMsgs[0];
+            } else if (intent.getData() != null) {
+                // A recreated viewer whose message was dropped, see releaseMessage()
+                loadMessage(intent);
+                return;
             }
 
-            buildTagViews(msg);
+            boolean launched = msg != null && (launchApplication(intent, msg, scanNanos)
+                    || launchSmartPoster(msg, scanNanos));
+            if (!launched) {
+                buildTagViews(msg);
+            }
+
+            if (msg != null) {
+                Tag tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
+                TagHistory.get(this).recordScan(msg, tag);
+            }
+            if (launched) {
+                finish();
+            }
         } else {
             Log.e(TAG, "Unknown intent " + intent);
             finish();
@@ -73,47 +460,598 @@ public class TagViewer extends Activity implements OnClickListener {
         }
     }
 
+    /**
+     * Hands {@code msg} to the first installed app named by one of its Android Application
+     * Records, without parsing the rest of it or offering a choice of apps. An app record naming
+     * the viewer itself is left alone, as the scan is already where it was meant to go.
+     *
+     * @return false if the message names no app that could be started
+     */
+    private boolean launchApplication(Intent intent, NdefMessage msg, long scanNanos) {
+        for (String packageName : NdefMessageParser.getApplicationPackages(msg)) {
+            if (packageName.equals(getPackageName())) {
+                return false;
+            }
+            if (AarRecord.startApp(this, packageName, intent, msg)) {
+                reportScanLaunched(AarRecord.RECORD_TYPE, scanNanos);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens the URI of a smart poster starting {@code msg} without showing it, if the poster
+     * recommends its action be done, auto launch is turned on in {@link TagPreferences} for the
+     * URI's scheme, and exactly one app handles it. Anything less certain is left for the user
+     * to tap.
+     *
+     * @return false if the poster wasn't opened
+     */
+    private boolean launchSmartPoster(NdefMessage msg, long scanNanos) {
+        TagPreferences prefs = TagPreferences.get(this);
+        if (!prefs.isAutoLaunchEnabled()) {
+            return false;
+        }
+        SmartPosterData poster = NdefMessageParser.getActionPoster(msg, prefs.getParseBudget());
+        if (poster == null) {
+            return false;
+        }
+        String scheme = poster.getUri().getScheme();
+        if (scheme == null || !prefs.getAutoLaunchSchemes().contains(
+                scheme.toLowerCase(Locale.US))) {
+            return false;
+        }
+
+        Intent intent = new UriRecord(poster.getUri()).getIntentForUri();
+        List<ResolveInfo> activities;
+        long start = ScanStats.begin(ScanStats.QUERY_ACTIVITIES);
+        try {
+            activities = getPackageManager().queryIntentActivities(intent,
+                    PackageManager.MATCH_DEFAULT_ONLY);
+        } finally {
+            ScanStats.end(ScanStats.QUERY_ACTIVITIES, start);
+        }
+        ActivityInfo handler = null;
+        for (ResolveInfo resolveInfo : activities) {
+            if (!resolveInfo.activityInfo.enabled) {
+                continue;
+            }
+            if (handler != null) {
+                // Which app is meant is for the user to say
+                return false;
+            }
+            handler = resolveInfo.activityInfo;
+        }
+        if (handler == null) {
+            return false;
+        }
+
+        intent.setComponent(new ComponentName(handler.packageName, handler.name));
+        try {
+            startActivity(intent);
+        } catch (ActivityNotFoundException e) {
+            Log.w(TAG, "Failed to launch activity for intent " + intent, e);
+            return false;
+        }
+        reportScanLaunched(SmartPosterData.RECORD_TYPE, scanNanos);
+        return true;
+    }
+
+    /**
+     * Binds the records of {@code msg} into the content area. Records that are unchanged from the
+     * previous scan keep their views, so only inserted, removed or changed records are parsed and
+     * inflated again.
+     */
     void buildTagViews(NdefMessage msg) {
+        NdefRecord[] rawRecords = (msg == null) ? new NdefRecord[0] : msg.getRecords();
+        if (rawRecords.length == 0) {
+            showEmptyView();
+            return;
+        }
+
         LayoutInflater inflater = LayoutInflater.from(this);
         LinearLayout content = mTagContent;
+        mPartialBudget = null;
+        List<RecordKey> keys = Lists.newArrayListWithCapacity(rawRecords.length);
+        for (NdefRecord raw : rawRecords) {
+            keys.add(new RecordKey(raw));
+        }
+        boolean dataChanged = !keys.equals(mMessageKeys);
+        if (dataChanged) {
+            mMessageKeys = keys;
+            mMessageUri = null;
+        }
+        mMessage = msg;
 
-        // Clear out any old views in the content area, for example if you scan two tags in a row.
-        content.removeAllViews();
+        // Index the records on screen by content so unchanged ones can be matched up
+        ListMultimap<RecordKey, RecordViews> reusable = ArrayListMultimap.create();
+        for (RecordViews views : mRecordViews) {
+            reusable.put(views.key, views);
+        }
 
-        // Build views for all of the sub records
-        if (msg == null) {
-            TextView empty = (TextView) inflater.inflate(R.layout.tag_text, content, false);
-            empty.setText(R.string.tag_empty);
-            content.addView(empty);
-        } else {
-            // Parse the first message in the list
-            //TODO figure out what to do when/if we support multiple messages per tag
-            ParsedNdefMessage parsedMsg = NdefMessageParser.parse(msg);
-
-            List<ParsedNdefRecord> records = parsedMsg.getRecords();
-            final int size = records.size();
-            if (size == 0) {
-                TextView empty = (TextView) inflater.inflate(R.layout.tag_text, content, false);
-                empty.setText(R.string.tag_empty);
-                content.addView(empty);
+        RecordViews[] matched = new RecordViews[rawRecords.length];
+        ArrayList<NdefRecord> unmatched = Lists.newArrayList();
+        for (int i = 0; i < rawRecords.length; i++) {
+            matched[i] = takeReusable(reusable.get(keys.get(i)), i, dataChanged);
+            if (matched[i] == null) {
+                unmatched.add(rawRecords[i]);
+            }
+        }
+
+        // Parse the new records together, so heavy ones can be parsed side by side, leaving
+        // whatever doesn't fit the budget for the user to expand
+        List<ParsedNdefRecord> parsed = NdefMessageParser.getRecords(
+                unmatched.toArray(new NdefRecord[unmatched.size()]),
+                TagPreferences.get(this).getParseBudget());
+
+        ArrayList<RecordViews> bound = Lists.newArrayListWithCapacity(rawRecords.length);
+        int next = 0;
+        for (int i = 0; i < rawRecords.length; i++) {
+            RecordViews views = matched[i];
+            if (views == null) {
+                views = inflateRecord(inflater, keys.get(i), parsed.get(next++), i);
             } else {
-                for (int i = 0; i < size; i++) {
-                    ParsedNdefRecord record = records.get(i);
-                    content.addView(record.getView(this, inflater, content, i));
-                    inflater.inflate(R.layout.tag_divider, content, true);
+                ScanStats.increment(ScanStats.RECORDS_REUSED);
+            }
+            views.offset = i;
+            bound.add(views);
+        }
+
+        // Drop the views of records that aren't part of the new message
+        if (mEmptyView != null) {
+            content.removeView(mEmptyView);
+            mEmptyView = null;
+        }
+        for (RecordViews stale : reusable.values()) {
+            content.removeView(stale.view);
+            content.removeView(stale.divider);
+            stale.parsed.release();
+        }
+
+        // Put everything in order, leaving the views that are already in place alone
+        int position = 0;
+        for (RecordViews views : bound) {
+            placeView(content, views.view, position++);
+            placeView(content, views.divider, position++);
+        }
+
+        mRecordViews = bound;
+        releaseMessage();
+    }
+
+    /**
+     * Shows the record at {@code index} of a message that is still being read. Records already on
+     * screen at the same offset are kept while they match, and everything from the first one that
+     * doesn't is dropped, so each call parses and inflates at most the one new record. The views
+     * are matched up again once the whole message is in and bound by {@link #buildTagViews}.
+     */
+    void showPartialRecord(int index, NdefRecord raw) {
+        if (index > mRecordViews.size() || isFinishing()) {
+            return;
+        }
+        if (index == 0) {
+            // A new message, which records can't name until it is complete
+            mMessageKeys = null;
+            mMessage = null;
+            mMessageUri = null;
+            mPartialBudget = TagPreferences.get(this).getParseBudget();
+        } else if (mPartialBudget == null) {
+            return;
+        }
+
+        LinearLayout content = mTagContent;
+        RecordKey key = new RecordKey(raw);
+        if (index < mRecordViews.size()) {
+            RecordViews current = mRecordViews.get(index);
+            if (current.key.equals(key) && !current.parsed.isViewPositionDependent()) {
+                return;
+            }
+            for (RecordViews stale : mRecordViews.subList(index, mRecordViews.size())) {
+                content.removeView(stale.view);
+                content.removeView(stale.divider);
+                stale.parsed.release();
+            }
+            mRecordViews.subList(index, mRecordViews.size()).clear();
+        }
+        if (mEmptyView != null) {
+            content.removeView(mEmptyView);
+            mEmptyView = null;
+        }
+
+        RecordViews views = inflateRecord(LayoutInflater.from(this), key,
+                NdefMessageParser.parseRecord(raw, mPartialBudget), index);
+        content.addView(views.view);
+        content.addView(views.divider);
+        mRecordViews.add(views);
+    }
+
+    /**
+     * Builds the views for {@code record} to be shown at {@code offset}.
+     */
+    private RecordViews inflateRecord(LayoutInflater inflater, RecordKey key,
+            ParsedNdefRecord record, int offset) {
+        LinearLayout content = mTagContent;
+        RecordViews views;
+        long start = ScanStats.begin(ScanStats.INFLATE);
+        try {
+            View view = record.getView(this, inflater, content, offset);
+            View divider = inflater.inflate(R.layout.tag_divider, content, false);
+            views = new RecordViews(key, record, view, divider, offset);
+        } finally {
+            ScanStats.end(ScanStats.byType(ScanStats.INFLATE, record.getRecordType()), start);
+        }
+        if (PayloadSpill.isSpillable(record)) {
+            spillRecord(views);
+        }
+        return views;
+    }
+
+    /**
+     * Moves the content of the record in {@code views} off the heap, off the UI thread, and puts
+     * the spilled record in its place unless it left the screen in the meantime.
+     */
+    private void spillRecord(final RecordViews views) {
+        mPendingSpills++;
+        new AsyncTask<Void, Void, ParsedNdefRecord>() {
+            @Override
+            protected ParsedNdefRecord doInBackground(Void... params) {
+                return PayloadSpill.get(TagViewer.this).spill(views.parsed);
+            }
+
+            @Override
+            protected void onPostExecute(ParsedNdefRecord record) {
+                mPendingSpills--;
+                int offset = mRecordViews.indexOf(views);
+                if (offset < 0 || isFinishing()) {
+                    record.release();
+                    return;
                 }
+                mRecordViews.set(offset, new RecordViews(views.key, record, views.view,
+                        views.divider, views.offset));
+                releaseMessage();
             }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Reads the message named by the data of {@code intent} back from the provider, off the UI
+     * thread, and shows it unless another scan came in first. The scan was recorded already.
+     */
+    private void loadMessage(final Intent intent) {
+        final Uri uri = intent.getData();
+        new AsyncTask<Void, Void, NdefMessage>() {
+            @Override
+            protected NdefMessage doInBackground(Void... params) {
+                try {
+                    InputStream in = getContentResolver().openInputStream(uri);
+                    try {
+                        return new NdefMessage(ByteStreams.toByteArray(in));
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to read " + uri, e);
+                } catch (FormatException e) {
+                    Log.w(TAG, "Failed to parse " + uri, e);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(NdefMessage msg) {
+                if (getIntent() == intent && !isFinishing()) {
+                    buildTagViews(msg);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Drops the references to the message on screen once every large record in it was spilled,
+     * so its payload can leave the heap. The message is first named by its URI, see
+     * {@link #digestMessage}, and the intent carries the URI in its place so a recreated viewer
+     * can read it back.
+     */
+    private void releaseMessage() {
+        if (mMessage == null || mPendingSpills > 0) {
+            return;
         }
+        boolean spilled = false;
+        for (RecordViews views : mRecordViews) {
+            spilled |= views.parsed instanceof MimeRecord
+                    && ((MimeRecord) views.parsed).isSpilled();
+        }
+        if (!spilled) {
+            return;
+        }
+        if (mMessageUri == null) {
+            // Comes back here once the URI is known
+            digestMessage();
+            return;
+        }
+        mMessage = null;
+        Intent intent = getIntent();
+        intent.removeExtra(NfcAdapter.EXTRA_NDEF_MESSAGES);
+        // The tag caches the message too
+        intent.removeExtra(NfcAdapter.EXTRA_TAG);
+        intent.setData(mMessageUri);
+    }
+
+    /**
+     * Returns the provider URI naming the message on screen, through which records hand parts of
+     * it to other apps, or {@code null} if it isn't known yet or nothing is on screen. The
+     * provider serves the message once the scan is recorded. Most messages never need the URI, so
+     * the digest naming it is only taken when a record first asks, and off the UI thread.
+     */
+    public Uri getMessageUri() {
+        if (mMessageUri == null && mMessage != null) {
+            digestMessage();
+        }
+        return mMessageUri;
+    }
+
+    /**
+     * Works out the URI of the message on screen off the UI thread. Once it is known, the records
+     * that were bound without it are bound again and the message is released if it can be.
+     */
+    private void digestMessage() {
+        if (mDigesting == mMessage) {
+            return;
+        }
+        final NdefMessage msg = mMessage;
+        mDigesting = msg;
+        new AsyncTask<Void, Void, Uri>() {
+            @Override
+            protected Uri doInBackground(Void... params) {
+                return TagContract.Messages.buildMessageUri(BlobStore.digest(msg.toByteArray()));
+            }
+
+            @Override
+            protected void onPostExecute(Uri uri) {
+                if (mDigesting == msg) {
+                    mDigesting = null;
+                }
+                if (mMessage != msg || isFinishing()) {
+                    return;
+                }
+                mMessageUri = uri;
+                LinearLayout content = mTagContent;
+                LayoutInflater inflater = LayoutInflater.from(TagViewer.this);
+                for (int i = 0; i < mRecordViews.size(); i++) {
+                    RecordViews views = mRecordViews.get(i);
+                    if (!(views.parsed instanceof VCardRecord)) {
+                        continue;
+                    }
+                    View view = views.parsed.getView(TagViewer.this, inflater, content, i);
+                    int position = content.indexOfChild(views.view);
+                    content.removeViewAt(position);
+                    content.addView(view, position);
+                    mRecordViews.set(i, new RecordViews(views.key, views.parsed, view,
+                            views.divider, i));
+                }
+                releaseMessage();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Parses the deferred record at {@code offset} in full, off the UI thread, and shows it in
+     * place of its placeholder unless the record left the screen in the meantime.
+     */
+    public void expandRecord(int offset) {
+        if (offset >= mRecordViews.size()
+                || !(mRecordViews.get(offset).parsed instanceof DeferredRecord)) {
+            return;
+        }
+        final RecordViews deferred = mRecordViews.get(offset);
+        new AsyncTask<Void, Void, ParsedNdefRecord>() {
+            @Override
+            protected ParsedNdefRecord doInBackground(Void... params) {
+                return PayloadSpill.get(TagViewer.this).spill(
+                        NdefMessageParser.expand((DeferredRecord) deferred.parsed));
+            }
+
+            @Override
+            protected void onPostExecute(ParsedNdefRecord record) {
+                int offset = mRecordViews.indexOf(deferred);
+                if (offset < 0 || isFinishing()) {
+                    record.release();
+                    return;
+                }
+                LinearLayout content = mTagContent;
+                View view = record.getView(TagViewer.this, LayoutInflater.from(TagViewer.this),
+                        content, offset);
+                int position = content.indexOfChild(deferred.view);
+                content.removeViewAt(position);
+                content.addView(view, position);
+                mRecordViews.set(offset, new RecordViews(deferred.key, record, view,
+                        deferred.divider, offset));
+                releaseMessage();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Removes and returns the best match among {@code candidates} for a record that will be shown
+     * at {@code offset}, or {@code null} if none of them can be reused.
+     */
+    private static RecordViews takeReusable(List<RecordViews> candidates, int offset,
+            boolean dataChanged) {
+        RecordViews match = null;
+        for (RecordViews candidate : candidates) {
+            if (candidate.parsed.isViewPositionDependent()
+                    && (dataChanged || candidate.offset != offset)) {
+                continue;
+            }
+            if (match == null || candidate.offset == offset) {
+                match = candidate;
+            }
+            if (candidate.offset == offset) {
+                break;
+            }
+        }
+        if (match != null) {
+            candidates.remove(match);
+        }
+        return match;
+    }
+
+    private static void placeView(ViewGroup parent, View child, int position) {
+        if (parent.getChildAt(position) == child) {
+            return;
+        }
+        if (child.getParent() == parent) {
+            parent.removeView(child);
+        }
+        parent.addView(child, position);
+    }
+
+    private void releaseRecords() {
+        for (RecordViews views : mRecordViews) {
+            views.parsed.release();
+        }
+    }
+
+    private void showEmptyView() {
+        LinearLayout content = mTagContent;
+        if (mEmptyView != null && mRecordViews.isEmpty()) {
+            return;
+        }
+
+        content.removeAllViews();
+        releaseRecords();
+        mRecordViews.clear();
+        mMessageKeys = null;
+        mMessage = null;
+        mMessageUri = null;
+        mPartialBudget = null;
+
+        TextView empty = (TextView) LayoutInflater.from(this).inflate(
+                R.layout.tag_text, content, false);
+        empty.setText(R.string.tag_empty);
+        content.addView(empty);
+        mEmptyView = empty;
+    }
+
+    /**
+     * Makes the receiver of {@code intent}, if any, the one to tell when the next frame is drawn.
+     * A receiver still waiting for its frame is told its scan was coalesced. Receivers are
+     * ignored unless the app is debuggable.
+     */
+    private void takeScanReceiver(Intent intent) {
+        if (mScanReceiver != null) {
+            Bundle data = new Bundle();
+            data.putInt(EXTRA_SCAN_ID, mScanId);
+            mScanReceiver.send(SCAN_COALESCED, data);
+        }
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            mScanReceiver = null;
+            return;
+        }
+        mScanReceiver = intent.getParcelableExtra(EXTRA_SCAN_RECEIVER);
+        mScanId = intent.getIntExtra(EXTRA_SCAN_ID, -1);
+    }
+
+    /**
+     * Records the time from {@code startNanos} to the next frame drawn in {@code histogram}, unless
+     * the viewer is going away instead.
+     */
+    void watchFirstFrame(final long startNanos, final LatencyHistogram histogram) {
+        if (isFinishing()) {
+            return;
+        }
+        final ResultReceiver receiver = mScanReceiver;
+        mTagContent.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mTagContent.getViewTreeObserver().removeOnPreDrawListener(this);
+                long nanos = System.nanoTime() - startNanos;
+                histogram.recordNanos(nanos);
+                if (receiver != null && receiver == mScanReceiver) {
+                    reportScanShown(nanos);
+                }
+                if (histogram.getCount() % LATENCY_LOG_INTERVAL == 0) {
+                    Log.d(TAG, "Tap to first frame, dispatch: " + sDispatchLatency
+                            + ", reader mode: " + sReaderLatency);
+                }
+                return true;
+            }
+        });
+    }
+
+    private void reportScanShown(long nanos) {
+        Runtime runtime = Runtime.getRuntime();
+        Bundle data = new Bundle();
+        data.putInt(EXTRA_SCAN_ID, mScanId);
+        data.putLong(EXTRA_VIEWER_NANOS, nanos);
+        data.putLong(EXTRA_JAVA_HEAP, runtime.totalMemory() - runtime.freeMemory());
+        data.putLong(EXTRA_NATIVE_HEAP, Debug.getNativeHeapAllocatedSize());
+        mScanReceiver.send(SCAN_SHOWN, data);
+        mScanReceiver = null;
+    }
+
+    /**
+     * Records the time from {@code scanNanos} to the scan being handed to another app because of
+     * a record of {@code recordType}, and tells the scan's receiver.
+     */
+    private void reportScanLaunched(String recordType, long scanNanos) {
+        long nanos = System.nanoTime() - scanNanos;
+        ScanStats.stage(ScanStats.byType(ScanStats.LAUNCH, recordType)).recordNanos(nanos);
+        if (mScanReceiver == null) {
+            return;
+        }
+        Bundle data = new Bundle();
+        data.putInt(EXTRA_SCAN_ID, mScanId);
+        data.putLong(EXTRA_VIEWER_NANOS, nanos);
+        mScanReceiver.send(SCAN_LAUNCHED, data);
+        mScanReceiver = null;
     }
 
     @Override
     public void onNewIntent(Intent intent) {
+        long start = System.nanoTime();
         setIntent(intent);
-        resolveIntent(intent);
+        resolveIntent(intent, start);
+        watchFirstFrame(start, sDispatchLatency);
     }
 
     @Override
     public void onClick(View view) {
         finish();
     }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        super.onCreateOptionsMenu(menu);
+        getMenuInflater().inflate(R.menu.tag_viewer, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.menu_settings) {
+            startActivity(new Intent(this, TagSettings.class));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        ScanStats.dump(prefix, writer);
+        writer.print(prefix);
+        try {
+            writer.println("Payload storage: " + TagHistory.get(this).getStore().getDedupStats());
+        } catch (IOException e) {
+            writer.println("Payload storage unavailable: " + e);
+        }
+        if (args != null && Arrays.asList(args).contains("--reset-stats")) {
+            ScanStats.reset();
+            writer.print(prefix);
+            writer.println("Scan stats reset");
+        }
+    }
 }
@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.history;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content addressed storage for message payloads.
+ *
+ * <p>Each distinct payload is stored once, in a file named by its SHA-256 digest, and carries a
+ * count of the history entries referring to it. Files are written under a temporary name and
+ * renamed into place, so a digest either names a complete payload or nothing.
+ *
+ * <p>Data derived from a payload, such as a parsed summary, can be stored alongside it as an
+ * attachment and is deleted together with the payload.
+ *
+ * <p>Reference counts live in memory and are checkpointed to a file tagged with the caller's
+ * generation number. If the generation found on open doesn't match, the caller must rebuild the
+ * counts with {@link #beginRebuild}, {@link #addRef} and {@link #endRebuild}, which also deletes
+ * payloads that no entry refers to any more.
+ */
+public class BlobStore {
+    private static final String TAG = "BlobStore";
+
+    /** The length in bytes of the digests naming payloads. */
+    public static final int DIGEST_LENGTH = 32;
+
+    private static final HashFunction DIGEST = Hashing.sha256();
+
+    private static final String REFS_FILE = "refs";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final char ATTACHMENT_SEPARATOR = '.';
+
+    /** Refs file: magic, version, generation, entry count, then digest, count, size per entry. */
+    private static final int REFS_MAGIC = 0x54475246; // "TGRF"
+    private static final int REFS_VERSION = 1;
+    private static final int REFS_HEADER_SIZE = 20;
+    private static final int REFS_ENTRY_SIZE = DIGEST_LENGTH + 12;
+
+    /**
+     * How much space deduplication saves.
+     */
+    public static final class Stats {
+        /** The number of distinct payloads stored. */
+        public final int blobs;
+
+        /** The bytes that would be stored if every reference kept its own copy. */
+        public final long logicalBytes;
+
+        /** The bytes actually stored. */
+        public final long storedBytes;
+
+        Stats(int blobs, long logicalBytes, long storedBytes) {
+            this.blobs = blobs;
+            this.logicalBytes = logicalBytes;
+            this.storedBytes = storedBytes;
+        }
+
+        /** Returns logical over stored bytes, 1 when nothing is shared. */
+        public float getSavingsRatio() {
+            return storedBytes == 0 ? 1f : (float) logicalBytes / storedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d blobs, %d logical bytes, %d stored bytes, ratio %.2f",
+                    blobs, logicalBytes, storedBytes, getSavingsRatio());
+        }
+    }
+
+    private static final class Blob {
+        int refs;
+        final long size;
+
+        Blob(int refs, long size) {
+            this.refs = refs;
+            this.size = size;
+        }
+    }
+
+    private final File mDir;
+    private final HashMap<HashCode, Blob> mBlobs = Maps.newHashMap();
+    private long mLogicalBytes;
+    private long mStoredBytes;
+    private long mGeneration = -1;
+
+    public BlobStore(File dir) throws IOException {
+        mDir = Preconditions.checkNotNull(dir);
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't create " + mDir);
+        }
+        loadRefs();
+    }
+
+    /** Returns the generation of the last checkpoint, or -1 if none could be read. */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /** Returns the digest that names {@code content}. */
+    public static HashCode digest(byte[] content) {
+        return DIGEST.hashBytes(content);
+    }
+
+    /**
+     * Stores {@code content} unless it is already present, adds a reference to it and returns
+     * its digest.
+     */
+    public synchronized HashCode put(byte[] content) throws IOException {
+        HashCode digest = digest(content);
+        Blob blob = mBlobs.get(digest);
+        if (blob == null) {
+            write(digest, content);
+            blob = new Blob(0, content.length);
+            mBlobs.put(digest, blob);
+            mStoredBytes += blob.size;
+        }
+        blob.refs++;
+        mLogicalBytes += blob.size;
+        return digest;
+    }
+
+    /** Returns true if the payload named by {@code digest} is stored. */
+    public synchronized boolean contains(HashCode digest) {
+        return mBlobs.containsKey(digest);
+    }
+
+    /**
+     * Adds a reference to a payload that is already stored.
+     *
+     * @throws IOException if the payload doesn't exist
+     */
+    public synchronized void addRef(HashCode digest) throws IOException {
+        Blob blob = mBlobs.get(digest);
+        if (blob == null) {
+            File file = getFile(digest);
+            if (!file.exists()) {
+                throw new IOException("No payload " + digest);
+            }
+            blob = new Blob(0, file.length());
+            mBlobs.put(digest, blob);
+            mStoredBytes += blob.size;
+        }
+        blob.refs++;
+        mLogicalBytes += blob.size;
+    }
+
+    /**
+     * Drops a reference to a payload, deleting it once nothing refers to it.
+     */
+    public synchronized void release(HashCode digest) {
+        Blob blob = mBlobs.get(digest);
+        if (blob == null) {
+            return;
+        }
+        mLogicalBytes -= blob.size;
+        if (--blob.refs <= 0) {
+            mBlobs.remove(digest);
+            mStoredBytes -= blob.size;
+            if (!getFile(digest).delete()) {
+                Log.w(TAG, "Can't delete payload " + digest);
+            }
+            deleteAttachments(digest);
+        }
+    }
+
+    /**
+     * Stores {@code content} as the attachment of the given kind to a payload, replacing any
+     * previous one. Nothing is stored if the payload doesn't exist.
+     */
+    public synchronized boolean putAttachment(HashCode digest, String kind, byte[] content)
+            throws IOException {
+        if (!mBlobs.containsKey(digest)) {
+            return false;
+        }
+        writeAtomically(getAttachmentFile(digest, kind), content);
+        return true;
+    }
+
+    /**
+     * Returns the attachment of the given kind to a payload, or {@code null} if there is none.
+     */
+    public byte[] getAttachment(HashCode digest, String kind) throws IOException {
+        File file = getAttachmentFile(digest, kind);
+        RandomAccessFile in;
+        try {
+            in = new RandomAccessFile(file, "r");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            byte[] content = new byte[(int) in.length()];
+            in.readFully(content);
+            return content;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Maps the payload named by {@code digest} read-only, so it can be read without copying it
+     * onto the heap.
+     */
+    public ByteBuffer map(HashCode digest) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(getFile(digest), "r");
+        try {
+            return file.getChannel().map(MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    /** Returns the file holding the payload named by {@code digest}. */
+    public File getFile(HashCode digest) {
+        String name = digest.toString();
+        return new File(new File(mDir, name.substring(0, 2)), name);
+    }
+
+    private File getAttachmentFile(HashCode digest, String kind) {
+        Preconditions.checkArgument(kind.indexOf(ATTACHMENT_SEPARATOR) < 0);
+        File file = getFile(digest);
+        return new File(file.getParentFile(), file.getName() + ATTACHMENT_SEPARATOR + kind);
+    }
+
+    private void deleteAttachments(HashCode digest) {
+        File file = getFile(digest);
+        final String prefix = file.getName() + ATTACHMENT_SEPARATOR;
+        File[] attachments = file.getParentFile().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix);
+            }
+        });
+        if (attachments != null) {
+            for (File attachment : attachments) {
+                attachment.delete();
+            }
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(mBlobs.size(), mLogicalBytes, mStoredBytes);
+    }
+
+    /** Forgets all reference counts ahead of a rebuild. */
+    public synchronized void beginRebuild() {
+        mBlobs.clear();
+        mLogicalBytes = 0;
+        mStoredBytes = 0;
+    }
+
+    /**
+     * Finishes a rebuild by deleting every payload that no reference was added for, such as
+     * payloads written just before a crash, and checkpoints the new counts.
+     */
+    public synchronized void endRebuild(long generation) throws IOException {
+        File[] shards = mDir.listFiles();
+        if (shards != null) {
+            for (File shard : shards) {
+                File[] files = shard.isDirectory() ? shard.listFiles() : null;
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    String name = file.getName();
+                    int separator = name.indexOf(ATTACHMENT_SEPARATOR);
+                    if (separator >= 0) {
+                        name = name.substring(0, separator);
+                    }
+                    boolean orphan;
+                    try {
+                        orphan = file.getName().endsWith(TMP_SUFFIX)
+                                || !mBlobs.containsKey(HashCode.fromString(name));
+                    } catch (IllegalArgumentException e) {
+                        orphan = true;
+                    }
+                    if (orphan) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+        checkpoint(generation);
+    }
+
+    /**
+     * Writes the reference counts out, tagged with {@code generation}.
+     */
+    public synchronized void checkpoint(long generation) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(REFS_HEADER_SIZE + mBlobs.size() * REFS_ENTRY_SIZE);
+        buffer.putInt(REFS_MAGIC).putInt(REFS_VERSION).putLong(generation).putInt(mBlobs.size());
+        for (Map.Entry<HashCode, Blob> entry : mBlobs.entrySet()) {
+            Blob blob = entry.getValue();
+            buffer.put(entry.getKey().asBytes()).putInt(blob.refs).putLong(blob.size);
+        }
+        writeAtomically(new File(mDir, REFS_FILE), buffer.array());
+        mGeneration = generation;
+    }
+
+    private void loadRefs() throws IOException {
+        File refs = new File(mDir, REFS_FILE);
+        if (!refs.exists()) {
+            return;
+        }
+        RandomAccessFile file = new RandomAccessFile(refs, "r");
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) file.length());
+            file.readFully(buffer.array());
+            if (buffer.capacity() < REFS_HEADER_SIZE || buffer.getInt() != REFS_MAGIC
+                    || buffer.getInt() != REFS_VERSION) {
+                Log.w(TAG, "Ignoring unreadable reference counts");
+                return;
+            }
+            long generation = buffer.getLong();
+            int entries = buffer.getInt();
+            if (buffer.remaining() != (long) entries * REFS_ENTRY_SIZE) {
+                Log.w(TAG, "Ignoring truncated reference counts");
+                return;
+            }
+            byte[] digest = new byte[DIGEST_LENGTH];
+            for (int i = 0; i < entries; i++) {
+                buffer.get(digest);
+                HashCode hash = HashCode.fromBytes(digest);
+                int count = buffer.getInt();
+                Blob blob = new Blob(count, buffer.getLong());
+                mBlobs.put(hash, blob);
+                mStoredBytes += blob.size;
+                mLogicalBytes += blob.size * blob.refs;
+            }
+            mGeneration = generation;
+        } finally {
+            file.close();
+        }
+    }
+
+    private void write(HashCode digest, byte[] content) throws IOException {
+        File file = getFile(digest);
+        File shard = file.getParentFile();
+        if (!shard.isDirectory() && !shard.mkdirs()) {
+            throw new IOException("Can't create " + shard);
+        }
+        writeAtomically(file, content);
+    }
+
+    private static void writeAtomically(File file, byte[] content) throws IOException {
+        File tmp = new File(file.getPath() + TMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(content);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Can't rename " + tmp);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.history;
+
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Streams the history out to, and back in from, a compact binary archive.
+ *
+ * <p>An archive is a header followed by one length-prefixed, checksummed frame per entry and
+ * a trailer. The header carries the entry count and whether payloads are deflated. A frame
+ * holds the entry's metadata and the digest of its message, and the message bytes only the
+ * first time that digest appears in the archive, so repeated scans cost a few dozen bytes.
+ *
+ * <p>Neither direction holds more than one message in memory. Importing checks each frame
+ * before it is applied and stores entries as it goes, sharing messages that are already in
+ * the store. A damaged archive stops the import at the first bad frame, keeping the entries
+ * before it.
+ */
+public class HistoryArchive {
+
+    private static final int MAGIC = 0x54474152; // "TGAR"
+    private static final int TRAILER_MAGIC = 0x5447454e; // "TGEN"
+    private static final int VERSION = 1;
+
+    /** Set in the header when payloads are deflated. */
+    private static final int FLAG_DEFLATE = 1 << 0;
+
+    /** How the message follows the metadata in a frame. */
+    private static final int PAYLOAD_SHARED = 0;
+    private static final int PAYLOAD_RAW = 1;
+    private static final int PAYLOAD_DEFLATED = 2;
+
+    /** Frame body: timestamp, techs, flags, digest, UID length, then the UID and payload. */
+    private static final int FRAME_FIXED_SIZE = 17 + BlobStore.DIGEST_LENGTH;
+    private static final int MAX_FRAME_SIZE =
+            FRAME_FIXED_SIZE + 255 + 5 + TagHistoryStore.MAX_PAYLOAD_SIZE + 64 * 1024;
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * What an import added to the store.
+     */
+    public static final class ImportResult {
+        /** The number of entries added. */
+        public int entries;
+
+        /** The number of messages that weren't stored yet. */
+        public int newPayloads;
+
+        /** The number of entries whose message was already stored. */
+        public int sharedPayloads;
+
+        @Override
+        public String toString() {
+            return String.format("%d entries, %d new payloads, %d shared payloads",
+                    entries, newPayloads, sharedPayloads);
+        }
+    }
+
+    // Utility class
+    private HistoryArchive() { }
+
+    /**
+     * Writes every live entry of {@code store}, oldest first, to {@code out}. Entries deleted
+     * while the export runs are written as deleted and skipped on import.
+     *
+     * @return the number of entries written
+     */
+    public static int export(TagHistoryStore store, OutputStream out, boolean deflate)
+            throws IOException {
+        int count;
+        int[] ids;
+        synchronized (store) {
+            ids = new int[store.size()];
+            count = 0;
+            for (int id = 0; id < ids.length; id++) {
+                if (store.isLive(id)) {
+                    ids[count++] = id;
+                }
+            }
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, CHUNK_SIZE));
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(MAGIC);
+        headerData.writeInt(VERSION);
+        headerData.writeInt(deflate ? FLAG_DEFLATE : 0);
+        headerData.writeInt(count);
+        headerData.writeLong(System.currentTimeMillis());
+        data.write(header.toByteArray());
+        data.writeInt(crc(header.toByteArray(), 0, header.size()));
+
+        HashSet<HashCode> written = Sets.newHashSet();
+        Deflater deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try {
+            for (int i = 0; i < count; i++) {
+                HistoryEntry entry = store.getEntry(ids[i]);
+
+                ByteArrayOutputStream meta = new ByteArrayOutputStream(FRAME_FIXED_SIZE + 255);
+                DataOutputStream metaData = new DataOutputStream(meta);
+                byte[] uid = entry == null ? new byte[0] : entry.getUid();
+                metaData.writeLong(entry == null ? 0 : entry.getTimestamp());
+                metaData.writeInt(entry == null ? 0 : entry.getTechs());
+                metaData.writeInt(entry == null ? HistoryEntry.FLAG_DELETED
+                        : (entry.isStarred() ? HistoryEntry.FLAG_STARRED : 0));
+                metaData.write(entry == null ? new byte[BlobStore.DIGEST_LENGTH]
+                        : entry.getDigest().asBytes());
+                metaData.writeByte(uid.length);
+                metaData.write(uid);
+
+                ByteBuffer payload = null;
+                byte[] deflated = null;
+                if (entry == null || !written.add(entry.getDigest())) {
+                    metaData.writeByte(PAYLOAD_SHARED);
+                } else if (deflater != null) {
+                    deflated = deflate(deflater, entry.getPayloadBuffer(), chunk);
+                    metaData.writeByte(PAYLOAD_DEFLATED);
+                    metaData.writeInt(entry.getPayloadBuffer().remaining());
+                } else {
+                    payload = entry.getPayloadBuffer();
+                    metaData.writeByte(PAYLOAD_RAW);
+                    metaData.writeInt(payload.remaining());
+                }
+
+                // Checksum the frame before writing it, the payload is read twice from its
+                // mapping rather than copied
+                crc.reset();
+                crc.update(meta.toByteArray(), 0, meta.size());
+                int bodyLength = meta.size();
+                if (deflated != null) {
+                    crc.update(deflated, 0, deflated.length);
+                    bodyLength += deflated.length;
+                } else if (payload != null) {
+                    ByteBuffer copy = payload.duplicate();
+                    while (copy.hasRemaining()) {
+                        int n = Math.min(chunk.length, copy.remaining());
+                        copy.get(chunk, 0, n);
+                        crc.update(chunk, 0, n);
+                    }
+                    bodyLength += payload.remaining();
+                }
+
+                data.writeInt(bodyLength);
+                data.writeInt((int) crc.getValue());
+                meta.writeTo(data);
+                if (deflated != null) {
+                    data.write(deflated);
+                } else if (payload != null) {
+                    while (payload.hasRemaining()) {
+                        int n = Math.min(chunk.length, payload.remaining());
+                        payload.get(chunk, 0, n);
+                        data.write(chunk, 0, n);
+                    }
+                }
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        data.writeInt(TRAILER_MAGIC);
+        data.writeInt(count);
+        data.flush();
+        return count;
+    }
+
+    /**
+     * Reads an archive written by {@link #export} into {@code store}. Messages that are already
+     * stored are shared rather than stored again.
+     *
+     * @throws IOException if the archive is malformed, after importing the entries before the
+     *     first bad frame
+     */
+    public static ImportResult importFrom(TagHistoryStore store, InputStream in)
+            throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, CHUNK_SIZE));
+        byte[] header = new byte[24];
+        data.readFully(header);
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+        if (headerBuffer.getInt() != MAGIC || headerBuffer.getInt() != VERSION) {
+            throw new IOException("Not a history archive");
+        }
+        int flags = headerBuffer.getInt();
+        int count = headerBuffer.getInt();
+        if (data.readInt() != crc(header, 0, header.length) || count < 0) {
+            throw new IOException("Corrupt archive header");
+        }
+        boolean deflate = (flags & FLAG_DEFLATE) != 0;
+
+        ImportResult result = new ImportResult();
+        BlobStore blobs = store.getBlobStore();
+        Inflater inflater = new Inflater();
+        try {
+            for (int i = 0; i < count; i++) {
+                int bodyLength = data.readInt();
+                int expectedCrc = data.readInt();
+                if (bodyLength < FRAME_FIXED_SIZE + 1 || bodyLength > MAX_FRAME_SIZE) {
+                    throw new IOException("Corrupt frame " + i);
+                }
+                byte[] body = new byte[bodyLength];
+                data.readFully(body);
+                if (crc(body, 0, bodyLength) != expectedCrc) {
+                    throw new IOException("Checksum mismatch in frame " + i);
+                }
+
+                ByteBuffer frame = ByteBuffer.wrap(body);
+                long timestamp = frame.getLong();
+                int techs = frame.getInt();
+                int entryFlags = frame.getInt();
+                byte[] digestBytes = new byte[BlobStore.DIGEST_LENGTH];
+                frame.get(digestBytes);
+                HashCode digest = HashCode.fromBytes(digestBytes);
+                int uidLength = frame.get() & 0xff;
+                if (frame.remaining() < uidLength + 1) {
+                    throw new IOException("Corrupt frame " + i);
+                }
+                byte[] uid = new byte[uidLength];
+                frame.get(uid);
+                int payloadKind = frame.get();
+                if ((entryFlags & HistoryEntry.FLAG_DELETED) != 0) {
+                    continue;
+                }
+
+                int id;
+                if (payloadKind == PAYLOAD_SHARED) {
+                    id = store.appendReference(timestamp, uid, techs, digest);
+                    result.sharedPayloads++;
+                } else {
+                    byte[] payload = readPayload(frame, payloadKind, deflate, inflater, i);
+                    if (!BlobStore.digest(payload).equals(digest)) {
+                        throw new IOException("Digest mismatch in frame " + i);
+                    }
+                    if (blobs.contains(digest)) {
+                        result.sharedPayloads++;
+                    } else {
+                        result.newPayloads++;
+                    }
+                    id = store.append(timestamp, uid, techs, payload);
+                }
+                if ((entryFlags & HistoryEntry.FLAG_STARRED) != 0) {
+                    store.setStarred(id, true);
+                }
+                result.entries++;
+            }
+        } finally {
+            inflater.end();
+        }
+
+        if (data.readInt() != TRAILER_MAGIC || data.readInt() != count) {
+            throw new IOException("Truncated archive");
+        }
+        return result;
+    }
+
+    private static byte[] readPayload(ByteBuffer frame, int kind, boolean deflate,
+            Inflater inflater, int index) throws IOException {
+        if (frame.remaining() < 4) {
+            throw new IOException("Corrupt frame " + index);
+        }
+        int length = frame.getInt();
+        if (length < 0 || length > TagHistoryStore.MAX_PAYLOAD_SIZE
+                || kind != (deflate ? PAYLOAD_DEFLATED : PAYLOAD_RAW)) {
+            throw new IOException("Corrupt frame " + index);
+        }
+        if (kind == PAYLOAD_RAW) {
+            if (frame.remaining() != length) {
+                throw new IOException("Corrupt frame " + index);
+            }
+            return Arrays.copyOfRange(frame.array(), frame.position(), frame.limit());
+        }
+
+        byte[] payload = new byte[length];
+        inflater.reset();
+        inflater.setInput(frame.array(), frame.position(), frame.remaining());
+        try {
+            int offset = 0;
+            while (offset < length) {
+                int n = inflater.inflate(payload, offset, length - offset);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                offset += n;
+            }
+            if (offset != length || !inflater.finished() || inflater.getRemaining() != 0) {
+                throw new IOException("Corrupt payload in frame " + index);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt payload in frame " + index, e);
+        }
+        return payload;
+    }
+
+    private static byte[] deflate(Deflater deflater, ByteBuffer payload, byte[] chunk) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.remaining() / 2 + 64);
+        deflater.reset();
+        byte[] input = new byte[Math.min(chunk.length, Math.max(1, payload.remaining()))];
+        while (payload.hasRemaining()) {
+            int n = Math.min(input.length, payload.remaining());
+            payload.get(input, 0, n);
+            deflater.setInput(input, 0, n);
+            while (!deflater.needsInput()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
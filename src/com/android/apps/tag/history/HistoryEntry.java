@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.history;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+
+import android.nfc.FormatException;
+import android.nfc.NdefMessage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A single scan read back from the {@link TagHistoryStore}.
+ */
+public class HistoryEntry {
+
+    /** Set on entries the user removed from the history. */
+    public static final int FLAG_DELETED = 1 << 0;
+
+    /** Set on entries the user starred. */
+    public static final int FLAG_STARRED = 1 << 1;
+
+    /**
+     * The tag technologies that can be recorded for a scan, in bit order. New technologies must
+     * only ever be appended so existing masks stay valid.
+     */
+    private static final String[] TECHS = new String[] {
+        "android.nfc.tech.NfcA",
+        "android.nfc.tech.NfcB",
+        "android.nfc.tech.NfcF",
+        "android.nfc.tech.NfcV",
+        "android.nfc.tech.IsoDep",
+        "android.nfc.tech.Ndef",
+        "android.nfc.tech.NdefFormatable",
+        "android.nfc.tech.MifareClassic",
+        "android.nfc.tech.MifareUltralight",
+        "android.nfc.tech.NfcBarcode",
+    };
+
+    private final int mId;
+    private final long mTimestamp;
+    private final byte[] mUid;
+    private final int mTechs;
+    private final int mFlags;
+    private final HashCode mDigest;
+    private final ByteBuffer mPayload;
+
+    HistoryEntry(int id, long timestamp, byte[] uid, int techs, int flags, HashCode digest,
+            ByteBuffer payload) {
+        mId = id;
+        mTimestamp = timestamp;
+        mUid = Preconditions.checkNotNull(uid);
+        mTechs = techs;
+        mFlags = flags;
+        mDigest = Preconditions.checkNotNull(digest);
+        mPayload = Preconditions.checkNotNull(payload);
+    }
+
+    /** Returns the id of this entry, which is stable for the life of the store. */
+    public int getId() {
+        return mId;
+    }
+
+    /** Returns the time of the scan in milliseconds since the epoch. */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /** Returns the UID of the scanned tag, which may be empty if it wasn't known. */
+    public byte[] getUid() {
+        return Arrays.copyOf(mUid, mUid.length);
+    }
+
+    /** Returns the technologies of the scanned tag as a mask, see {@link #techsToMask}. */
+    public int getTechs() {
+        return mTechs;
+    }
+
+    public boolean isStarred() {
+        return (mFlags & FLAG_STARRED) != 0;
+    }
+
+    /** Returns the digest of the message, which is shared by all scans of the same content. */
+    public HashCode getDigest() {
+        return mDigest;
+    }
+
+    /**
+     * Returns a read-only view of the raw NDEF message that was read from the tag. The view is
+     * backed by the stored message and doesn't copy it.
+     */
+    public ByteBuffer getPayloadBuffer() {
+        return mPayload.asReadOnlyBuffer();
+    }
+
+    /** Returns a copy of the raw bytes of the NDEF message that was read from the tag. */
+    public byte[] getPayload() {
+        ByteBuffer payload = mPayload.duplicate();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return bytes;
+    }
+
+    public NdefMessage getNdefMessage() throws FormatException {
+        return new NdefMessage(getPayload());
+    }
+
+    /**
+     * Converts a list of tech class names, as returned by {@link android.nfc.Tag#getTechList},
+     * to the compact mask that is stored with each entry. Unknown technologies are dropped.
+     */
+    public static int techsToMask(String[] techList) {
+        int mask = 0;
+        if (techList == null) {
+            return mask;
+        }
+        for (String tech : techList) {
+            int bit = Arrays.asList(TECHS).indexOf(tech);
+            if (bit >= 0) {
+                mask |= 1 << bit;
+            }
+        }
+        return mask;
+    }
+
+    /** The inverse of {@link #techsToMask}. */
+    public static List<String> maskToTechs(int mask) {
+        List<String> techs = Lists.newArrayList();
+        for (int bit = 0; bit < TECHS.length; bit++) {
+            if ((mask & (1 << bit)) != 0) {
+                techs.add(TECHS[bit]);
+            }
+        }
+        return techs;
+    }
+}
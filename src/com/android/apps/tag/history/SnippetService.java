@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.history;
+
+import com.android.apps.tag.message.NdefMessageParser;
+import com.android.apps.tag.message.ParsedNdefMessage;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+
+import android.content.Context;
+import android.nfc.NdefMessage;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the snippets of many messages at once for list views, on a pool of worker threads,
+ * and hands them back a page at a time on the UI thread.
+ *
+ * <p>Snippets are cached in memory by message digest and locale. History entries go through
+ * their stored {@link SummarySnapshot} first, so an entry whose summary is current costs a read
+ * rather than a parse, and one whose summary is stale gets it rebuilt and stored on the way.
+ *
+ * <p>Nothing is computed on the calling thread: a list binds rows from {@link #getCached} and
+ * asks for the rest with {@link #requestEntries} or {@link #requestMessages}, filling the rows
+ * in as pages arrive.
+ */
+public class SnippetService {
+    private static final String TAG = "SnippetService";
+
+    /** The cache holds about this many characters of keys and snippets. */
+    private static final int CACHE_CHARS = 256 * 1024;
+
+    private static final int THREADS = 2;
+
+    /** Receives the snippets of a request on the UI thread, one page at a time. */
+    public interface Callback {
+        /**
+         * Called once per page, in no particular order, with the snippets of the items from
+         * {@code offset} in the request on. A snippet is {@code null} where the item is gone or
+         * can't be parsed.
+         */
+        void onSnippets(int offset, List<String> snippets);
+    }
+
+    /** A request in progress, which can be dropped once its results are no longer wanted. */
+    public static final class Request {
+        private volatile boolean mCancelled;
+
+        /** Stops computing and delivering pages that haven't been delivered yet. */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private static SnippetService sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREADS,
+            new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "SnippetService #" + mCount.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final LruCache<String, String> mCache = new LruCache<String, String>(CACHE_CHARS) {
+        @Override
+        protected int sizeOf(String key, String snippet) {
+            return key.length() + snippet.length();
+        }
+    };
+
+    private SnippetService(Context context) {
+        mContext = context;
+    }
+
+    public static synchronized SnippetService get(Context context) {
+        if (sInstance == null) {
+            sInstance = new SnippetService(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the cached snippet of the message with {@code digest} in {@code locale}, or
+     * {@code null} if it hasn't been computed. Never computes anything, so it is safe to call
+     * while binding list rows.
+     */
+    public String getCached(HashCode digest, Locale locale) {
+        return mCache.get(keyOf(digest, locale));
+    }
+
+    /**
+     * Computes the snippets of the history entries with {@code ids} in {@code locale}, in pages
+     * of {@code pageSize}.
+     */
+    public Request requestEntries(final int[] ids, final Locale locale, int pageSize,
+            Callback callback) {
+        return request(ids.length, pageSize, callback, new PageLoader() {
+            @Override
+            public String load(int index) throws IOException {
+                return getEntrySnippet(ids[index], locale);
+            }
+        });
+    }
+
+    /**
+     * Computes the snippets of {@code messages} in {@code locale}, in pages of
+     * {@code pageSize}.
+     */
+    public Request requestMessages(List<NdefMessage> messages, final Locale locale,
+            int pageSize, Callback callback) {
+        final List<NdefMessage> copy = ImmutableList.copyOf(messages);
+        return request(copy.size(), pageSize, callback, new PageLoader() {
+            @Override
+            public String load(int index) {
+                return getMessageSnippet(copy.get(index), locale);
+            }
+        });
+    }
+
+    /** Computes the snippet of one item of a request. */
+    private interface PageLoader {
+        String load(int index) throws IOException;
+    }
+
+    private Request request(int count, int pageSize, final Callback callback,
+            final PageLoader loader) {
+        Preconditions.checkArgument(pageSize > 0);
+        final Request request = new Request();
+        for (int offset = 0; offset < count; offset += pageSize) {
+            final int start = offset;
+            final int end = Math.min(count, offset + pageSize);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final ArrayList<String> snippets = Lists.newArrayListWithCapacity(end - start);
+                    for (int i = start; i < end; i++) {
+                        if (request.isCancelled()) {
+                            return;
+                        }
+                        try {
+                            snippets.add(loader.load(i));
+                        } catch (IOException e) {
+                            Log.w(TAG, "Failed to load snippet", e);
+                            snippets.add(null);
+                        }
+                    }
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!request.isCancelled()) {
+                                callback.onSnippets(start, snippets);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+        return request;
+    }
+
+    private String getEntrySnippet(int id, Locale locale) throws IOException {
+        TagHistory history = TagHistory.get(mContext);
+        HistoryEntry entry = history.getStore().getEntry(id);
+        if (entry == null) {
+            return null;
+        }
+        String key = keyOf(entry.getDigest(), locale);
+        String snippet = mCache.get(key);
+        if (snippet == null) {
+            SummarySnapshot summary = history.getSummary(entry, locale);
+            if (summary != null) {
+                snippet = summary.getSnippet();
+                mCache.put(key, snippet);
+            }
+        }
+        return snippet;
+    }
+
+    private String getMessageSnippet(NdefMessage message, Locale locale) {
+        String key = keyOf(BlobStore.digest(message.toByteArray()), locale);
+        String snippet = mCache.get(key);
+        if (snippet == null) {
+            try {
+                ParsedNdefMessage parsed = NdefMessageParser.parse(message);
+                snippet = parsed.getSnippet(mContext, locale);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to parse message", e);
+            }
+            if (snippet != null) {
+                mCache.put(key, snippet);
+            }
+        }
+        return snippet;
+    }
+
+    private static String keyOf(HashCode digest, Locale locale) {
+        return digest + "/" + locale;
+    }
+}
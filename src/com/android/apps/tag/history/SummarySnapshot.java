@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.history;
+
+import com.android.apps.tag.message.NdefMessageParser;
+import com.android.apps.tag.message.ParsedNdefMessage;
+import com.android.apps.tag.record.ImageRecord;
+import com.android.apps.tag.record.ParsedNdefRecord;
+import com.android.apps.tag.record.SmartPoster;
+import com.android.apps.tag.record.UriRecord;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The parsed summary of a stored message: everything a history list needs to show a row
+ * without running the parsers again.
+ *
+ * <p>Snapshots are stored in a compact binary form as an attachment to the message in the
+ * {@link BlobStore}. Each one records the {@link NdefMessageParser#VERSION} and locale it was
+ * built with, and is rebuilt lazily once either no longer matches.
+ */
+public class SummarySnapshot {
+
+    /** The kind of the {@link BlobStore} attachment holding snapshots. */
+    static final String ATTACHMENT_KIND = "summary";
+
+    private static final int MAGIC = 0x5447534d; // "TGSM"
+    private static final int FORMAT_VERSION = 1;
+
+    /** Snippets longer than this are cut, a list row can't show more anyway. */
+    private static final int MAX_SNIPPET_LENGTH = 512;
+
+    /** Longer URIs aren't kept, so every string fits the modified UTF-8 encoding. */
+    private static final int MAX_URI_LENGTH = 8 * 1024;
+
+    private final int mParserVersion;
+    private final String mLocale;
+    private final String mSnippet;
+    private final List<String> mRecordTypes;
+    private final String mUri;
+    private final String mIntentAction;
+    private final int mThumbnailRecord;
+
+    private SummarySnapshot(int parserVersion, String locale, String snippet,
+            List<String> recordTypes, String uri, String intentAction, int thumbnailRecord) {
+        mParserVersion = parserVersion;
+        mLocale = Preconditions.checkNotNull(locale);
+        mSnippet = Preconditions.checkNotNull(snippet);
+        mRecordTypes = ImmutableList.copyOf(recordTypes);
+        mUri = uri;
+        mIntentAction = intentAction;
+        mThumbnailRecord = thumbnailRecord;
+    }
+
+    /** Summarizes {@code msg} as it displays in {@code locale}. */
+    public static SummarySnapshot create(Context context, ParsedNdefMessage msg, Locale locale) {
+        String snippet = msg.getSnippet(context, locale);
+        if (snippet == null) {
+            snippet = "";
+        } else if (snippet.length() > MAX_SNIPPET_LENGTH) {
+            snippet = snippet.substring(0, MAX_SNIPPET_LENGTH);
+        }
+
+        List<ParsedNdefRecord> records = msg.getRecords();
+        ImmutableList.Builder<String> types = ImmutableList.builder();
+        int thumbnailRecord = -1;
+        for (int i = 0; i < records.size(); i++) {
+            ParsedNdefRecord record = records.get(i);
+            types.add(record.getRecordType());
+            if (thumbnailRecord < 0 && getThumbnail(record) != null) {
+                thumbnailRecord = i;
+            }
+        }
+
+        UriRecord uriRecord = null;
+        ParsedNdefRecord primary = msg.getPrimaryRecord();
+        if (primary instanceof SmartPoster) {
+            uriRecord = ((SmartPoster) primary).getUriRecord();
+        } else if (primary instanceof UriRecord) {
+            uriRecord = (UriRecord) primary;
+        }
+        String uri = null;
+        String intentAction = null;
+        if (uriRecord != null && uriRecord.getUri().toString().length() <= MAX_URI_LENGTH) {
+            uri = uriRecord.getUri().toString();
+            intentAction = uriRecord.getIntentForUri().getAction();
+        }
+
+        return new SummarySnapshot(NdefMessageParser.VERSION, locale.toString(), snippet,
+                types.build(), uri, intentAction, thumbnailRecord);
+    }
+
+    /**
+     * Returns the image a record shows, if any. This is what the thumbnail handle of a snapshot
+     * resolves to once its record is parsed again.
+     */
+    static ImageRecord getThumbnail(ParsedNdefRecord record) {
+        if (record instanceof ImageRecord) {
+            return (ImageRecord) record;
+        } else if (record instanceof SmartPoster) {
+            return ((SmartPoster) record).getImage();
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the snapshot was built by the current parsers for {@code locale}.
+     */
+    public boolean isCurrent(Locale locale) {
+        return mParserVersion == NdefMessageParser.VERSION && mLocale.equals(locale.toString());
+    }
+
+    public String getSnippet() {
+        return mSnippet;
+    }
+
+    /** Returns the {@link ParsedNdefRecord#getRecordType} of each record, in order. */
+    public List<String> getRecordTypes() {
+        return mRecordTypes;
+    }
+
+    /** Returns the URI the message points at, or {@code null} if it has none. */
+    public Uri getUri() {
+        return mUri == null ? null : Uri.parse(mUri);
+    }
+
+    /** Returns the intent that opens the message's URI, or {@code null} if it has none. */
+    public Intent getIntent() {
+        return mUri == null ? null : new Intent(mIntentAction, Uri.parse(mUri));
+    }
+
+    /**
+     * Returns the index of the record holding the message's thumbnail, or -1 if it has no
+     * image. The thumbnail is decoded on demand from the stored message.
+     */
+    public int getThumbnailRecord() {
+        return mThumbnailRecord;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(mParserVersion);
+            out.writeUTF(mLocale);
+            out.writeUTF(mSnippet);
+            out.writeInt(mRecordTypes.size());
+            for (String type : mRecordTypes) {
+                out.writeUTF(type);
+            }
+            out.writeBoolean(mUri != null);
+            if (mUri != null) {
+                out.writeUTF(mUri);
+                out.writeUTF(mIntentAction);
+            }
+            out.writeInt(mThumbnailRecord);
+            out.flush();
+        } catch (IOException e) {
+            // Can't happen writing to memory
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a snapshot written by {@link #toByteArray}, returning {@code null} if it is
+     * malformed or was written in a different format.
+     */
+    public static SummarySnapshot fromByteArray(byte[] data) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int parserVersion = in.readInt();
+            String locale = in.readUTF();
+            String snippet = in.readUTF();
+            int typeCount = in.readInt();
+            ImmutableList.Builder<String> types = ImmutableList.builder();
+            for (int i = 0; i < typeCount; i++) {
+                types.add(in.readUTF());
+            }
+            String uri = null;
+            String intentAction = null;
+            if (in.readBoolean()) {
+                uri = in.readUTF();
+                intentAction = in.readUTF();
+            }
+            int thumbnailRecord = in.readInt();
+            return new SummarySnapshot(parserVersion, locale, snippet, types.build(), uri,
+                    intentAction, thumbnailRecord);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
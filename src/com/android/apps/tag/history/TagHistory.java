@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.history;
+
+import com.android.apps.tag.message.NdefMessageParser;
+import com.android.apps.tag.message.ParsedNdefMessage;
+import com.android.apps.tag.record.ImageRecord;
+import com.android.apps.tag.record.ParsedNdefRecord;
+import com.android.apps.tag.util.TagPreferences;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.nfc.FormatException;
+import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
+import android.nfc.Tag;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the app's {@link TagHistoryStore} and {@link TagSearchIndex}, and records scans into
+ * them off the UI thread. Each scan's {@link SummarySnapshot} is written at the same time, so
+ * history lists can show it without parsing the message again.
+ *
+ * <p>Newly indexed entries are only in memory until the search index is flushed. That happens
+ * once scans have stopped coming for a few seconds and at every compaction,
+ * so few entries have to be parsed again to catch up after the process dies.
+ */
+public class TagHistory {
+    private static final String TAG = "TagHistory";
+
+    private static final String HISTORY_DIR = "history";
+    private static final String SEARCH_DIR = "search";
+
+    /** Compact the store after this many appends. */
+    private static final int COMPACT_INTERVAL = 256;
+    private static final float COMPACT_GARBAGE_RATIO = 0.5f;
+
+    /** Flush the search index once no scan was recorded for this long. */
+    private static final long IDLE_FLUSH_DELAY_MILLIS = 5 * 1000;
+
+    private static TagHistory sInstance;
+
+    private final Context mContext;
+    private final File mDir;
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+    private TagHistoryStore mStore;
+    private TagSearchIndex mSearchIndex;
+    private int mAppendsSinceCompact;
+    private ScheduledFuture<?> mIdleFlush;
+
+    private final Runnable mFlushSearchIndex = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                getSearchIndex().flush();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to flush search index", e);
+            }
+        }
+    };
+
+    private TagHistory(Context context) {
+        mContext = context;
+        mDir = new File(context.getFilesDir(), HISTORY_DIR);
+    }
+
+    public static synchronized TagHistory get(Context context) {
+        if (sInstance == null) {
+            sInstance = new TagHistory(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the store, opening it on first use. This does I/O and must not be called from
+     * the UI thread.
+     */
+    public synchronized TagHistoryStore getStore() throws IOException {
+        if (mStore == null) {
+            mStore = TagHistoryStore.open(mDir);
+        }
+        return mStore;
+    }
+
+    /**
+     * Returns the search index, opening it on first use and indexing any entries it missed.
+     * This does I/O and must not be called from the UI thread.
+     */
+    public synchronized TagSearchIndex getSearchIndex() throws IOException {
+        if (mSearchIndex == null) {
+            TagSearchIndex index = TagSearchIndex.open(new File(mDir, SEARCH_DIR));
+            catchUp(index);
+            mSearchIndex = index;
+        }
+        return mSearchIndex;
+    }
+
+    private void catchUp(TagSearchIndex index) throws IOException {
+        TagHistoryStore store = getStore();
+        for (int id = index.getIndexedUpTo() + 1; id < store.size(); id++) {
+            HistoryEntry entry = store.getEntry(id);
+            ParsedNdefMessage parsed = null;
+            if (entry != null) {
+                try {
+                    parsed = parse(entry.getNdefMessage());
+                } catch (FormatException e) {
+                    Log.w(TAG, "Skipping malformed history entry " + id, e);
+                }
+            }
+            index.add(id, getSearchText(parsed));
+        }
+    }
+
+    /**
+     * Writes the history to {@code out} as a {@link HistoryArchive}. This does I/O and must not
+     * be called from the UI thread.
+     */
+    public int exportArchive(OutputStream out, boolean deflate) throws IOException {
+        return HistoryArchive.export(getStore(), out, deflate);
+    }
+
+    /**
+     * Adds the entries of a {@link HistoryArchive} to the history and indexes them. The import
+     * runs in turn with recorded scans, and this waits for it, so it must not be called from
+     * the UI thread.
+     */
+    public HistoryArchive.ImportResult importArchive(final InputStream in) throws IOException {
+        Future<HistoryArchive.ImportResult> result = mExecutor.submit(
+                new Callable<HistoryArchive.ImportResult>() {
+            @Override
+            public HistoryArchive.ImportResult call() throws IOException {
+                TagSearchIndex index = getSearchIndex();
+                try {
+                    return HistoryArchive.importFrom(getStore(), in);
+                } finally {
+                    synchronized (TagHistory.this) {
+                        catchUp(index);
+                    }
+                }
+            }
+        });
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the ids of up to {@code limit} live history entries matching {@code query},
+     * newest first. This does I/O and must not be called from the UI thread.
+     */
+    public List<Integer> search(String query, int limit) throws IOException {
+        TagHistoryStore store = getStore();
+        int[] ids = getSearchIndex().query(query, Integer.MAX_VALUE);
+        ArrayList<Integer> results = Lists.newArrayList();
+        for (int i = 0; i < ids.length && results.size() < limit; i++) {
+            if (store.isLive(ids[i])) {
+                results.add(ids[i]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the summary of {@code entry} for the current locale, building and storing it if
+     * it is missing or out of date. This does I/O and must not be called from the UI thread.
+     *
+     * @return the summary, or {@code null} if the entry's message can't be parsed
+     */
+    public SummarySnapshot getSummary(HistoryEntry entry) throws IOException {
+        return getSummary(entry, Locale.getDefault());
+    }
+
+    /**
+     * Returns the summary of {@code entry} for {@code locale}, building and storing it if it is
+     * missing or out of date. This does I/O and must not be called from the UI thread.
+     *
+     * @return the summary, or {@code null} if the entry's message can't be parsed
+     */
+    public SummarySnapshot getSummary(HistoryEntry entry, Locale locale) throws IOException {
+        BlobStore blobs = getStore().getBlobStore();
+        byte[] data = blobs.getAttachment(entry.getDigest(), SummarySnapshot.ATTACHMENT_KIND);
+        if (data != null) {
+            SummarySnapshot summary = SummarySnapshot.fromByteArray(data);
+            if (summary != null && summary.isCurrent(locale)) {
+                return summary;
+            }
+        }
+
+        ParsedNdefMessage parsed = null;
+        try {
+            parsed = parse(entry.getNdefMessage());
+        } catch (FormatException e) {
+            Log.w(TAG, "Can't summarize malformed history entry " + entry.getId(), e);
+        }
+        if (parsed == null) {
+            return null;
+        } else if (parsed.hasDeferredRecords()) {
+            // Not stored, so it is built again, and may fit, once the budget allows more
+            return SummarySnapshot.create(mContext, parsed, locale);
+        }
+        return putSummary(entry.getDigest(), parsed, locale);
+    }
+
+    /**
+     * Decodes the thumbnail that {@code summary} names from the message of {@code entry}, or
+     * returns {@code null} if it has none. This must not be called from the UI thread.
+     */
+    public Bitmap getThumbnail(HistoryEntry entry, SummarySnapshot summary) {
+        int index = summary.getThumbnailRecord();
+        if (index < 0) {
+            return null;
+        }
+        try {
+            NdefRecord[] records = entry.getNdefMessage().getRecords();
+            if (index < records.length) {
+                ImageRecord image = SummarySnapshot.getThumbnail(
+                        NdefMessageParser.parseRecord(records[index]));
+                return image == null ? null : image.getImage();
+            }
+        } catch (FormatException e) {
+            Log.w(TAG, "Can't read thumbnail of history entry " + entry.getId(), e);
+        }
+        return null;
+    }
+
+    private SummarySnapshot putSummary(HashCode digest, ParsedNdefMessage parsed,
+            Locale locale) throws IOException {
+        SummarySnapshot summary = SummarySnapshot.create(mContext, parsed, locale);
+        getStore().getBlobStore().putAttachment(digest, SummarySnapshot.ATTACHMENT_KIND,
+                summary.toByteArray());
+        return summary;
+    }
+
+    /**
+     * Parses {@code msg} within the parse budget of a scan, so that a hostile message can't hold
+     * up the scans, imports and searches queued behind it.
+     */
+    private ParsedNdefMessage parse(NdefMessage msg) {
+        try {
+            return NdefMessageParser.parse(msg, TagPreferences.get(mContext).getParseBudget());
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to parse message", e);
+            return null;
+        }
+    }
+
+    private static List<String> getSearchText(ParsedNdefMessage msg) {
+        ArrayList<String> text = Lists.newArrayList();
+        if (msg == null) {
+            return text;
+        }
+        for (ParsedNdefRecord record : msg.getRecords()) {
+            record.addSearchText(text);
+        }
+        return text;
+    }
+
+    /**
+     * Queues a scan of {@code tag}, which may be {@code null}, to be appended to the history.
+     */
+    public void recordScan(final NdefMessage msg, Tag tag) {
+        final long timestamp = System.currentTimeMillis();
+        final byte[] payload = msg.toByteArray();
+        final byte[] uid = (tag == null || tag.getId() == null) ? new byte[0] : tag.getId();
+        final int techs = (tag == null) ? 0 : HistoryEntry.techsToMask(tag.getTechList());
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TagHistoryStore store = getStore();
+                    TagSearchIndex index = getSearchIndex();
+                    int id = store.append(timestamp, uid, techs, payload);
+                    ParsedNdefMessage parsed = parse(msg);
+                    if (id > index.getIndexedUpTo()) {
+                        index.add(id, getSearchText(parsed));
+                    }
+                    if (parsed != null && !parsed.hasDeferredRecords()) {
+                        // Summarize now, while the message is parsed anyway
+                        putSummary(store.getDigest(id), parsed, Locale.getDefault());
+                    }
+                    if (++mAppendsSinceCompact >= COMPACT_INTERVAL) {
+                        mAppendsSinceCompact = 0;
+                        store.compact(COMPACT_GARBAGE_RATIO);
+                        index.flush();
+                        Log.d(TAG, "Payload storage: " + store.getDedupStats());
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to record scan", e);
+                }
+                scheduleIdleFlush();
+            }
+        });
+    }
+
+    /** Pushes the flush of the search index back until scans stop coming. Runs on mExecutor. */
+    private void scheduleIdleFlush() {
+        if (mIdleFlush != null) {
+            mIdleFlush.cancel(false);
+        }
+        mIdleFlush = mExecutor.schedule(mFlushSearchIndex, IDLE_FLUSH_DELAY_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,827 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.history;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only store of scanned tags.
+ *
+ * <p>Each scan is appended as a small checksummed record to the active segment of a log that is
+ * split across files of bounded size. Records hold the scan's metadata and the digest of its
+ * message, whose bytes are kept once per distinct message in a {@link BlobStore}. A memory-mapped
+ * index holds a fixed size slot per entry, giving the segment and offset of its record along with
+ * its flags, so any entry or page of entries can be located without scanning the log. Entry ids
+ * are slot numbers and never change.
+ *
+ * <p>Records are written to the log and synced before their slot is published, so after a crash
+ * the index is trimmed back to the records that made it to disk, and records the index missed
+ * are picked up again by scanning the tail of the log. A torn record at the tail is truncated.
+ * If the index itself is lost it is rebuilt from the log, though entry flags can't be recovered.
+ *
+ * <p>Deleting an entry flags it in the index and releases its message. {@link #compact} later
+ * copies the live records of mostly deleted segments into new segments and removes the old files.
+ *
+ * <p>The index header carries a generation that is bumped by every append and delete. The blob
+ * store's reference counts are checkpointed along with it, and recounted from the index if the
+ * two disagree after a crash.
+ */
+public class TagHistoryStore {
+    private static final String TAG = "TagHistoryStore";
+
+    static final long DEFAULT_MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final String INDEX_FILE = "index";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String BLOBS_DIR = "blobs";
+
+    private static final int VERSION = 2;
+
+    /** Segment header: magic, version, flags. */
+    private static final int SEGMENT_MAGIC = 0x54475347; // "TGSG"
+    private static final int SEGMENT_HEADER_SIZE = 12;
+    private static final int SEGMENT_FLAG_COMPACTED = 1;
+
+    /** Record header: magic, body length, CRC32 of the body. */
+    private static final int RECORD_MAGIC = 0x54475245; // "TGRE"
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    /** Record body: id, timestamp, techs, message digest, UID length. The UID follows. */
+    private static final int RECORD_FIXED_BODY_SIZE = 17 + BlobStore.DIGEST_LENGTH;
+    private static final int MAX_UID_LENGTH = 255;
+    private static final int MAX_RECORD_SIZE = RECORD_FIXED_BODY_SIZE + MAX_UID_LENGTH;
+    static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+    /** Index header: magic, version, entry count, generation. */
+    private static final int INDEX_MAGIC = 0x54474958; // "TGIX"
+    private static final int INDEX_HEADER_SIZE = 16;
+    private static final int INDEX_COUNT_OFFSET = 8;
+    private static final int INDEX_GENERATION_OFFSET = 12;
+
+    /** Checkpoint the blob reference counts after this many generations. */
+    private static final int REFS_CHECKPOINT_INTERVAL = 64;
+
+    /** Index slot: segment, offset, record length, flags. */
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_SLOTS = 1024;
+
+    private final File mDir;
+    private final long mMaxSegmentSize;
+    private final HashMap<Integer, FileChannel> mSegments = Maps.newHashMap();
+    private final CRC32 mCrc = new CRC32();
+
+    private FileChannel mIndexChannel;
+    private MappedByteBuffer mIndex;
+    private int mCount;
+    private int mGeneration;
+    private BlobStore mBlobs;
+
+    private int mActiveSegment = -1;
+    private long mActiveSize;
+    private int mNextSegment;
+
+    private TagHistoryStore(File dir, long maxSegmentSize) {
+        mDir = Preconditions.checkNotNull(dir);
+        Preconditions.checkArgument(maxSegmentSize > SEGMENT_HEADER_SIZE
+                && maxSegmentSize <= Integer.MAX_VALUE);
+        mMaxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * Opens the store kept in {@code dir}, creating it if needed and recovering from any
+     * interrupted writes.
+     */
+    public static TagHistoryStore open(File dir) throws IOException {
+        return open(dir, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    static TagHistoryStore open(File dir, long maxSegmentSize) throws IOException {
+        TagHistoryStore store = new TagHistoryStore(dir, maxSegmentSize);
+        try {
+            store.recover();
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /** Returns the number of entries ever appended, including deleted ones. */
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * Appends a scan to the store and returns its id.
+     *
+     * @param timestamp the time of the scan in milliseconds since the epoch
+     * @param uid the UID of the tag, or an empty array if it isn't known
+     * @param techs the tag technologies, see {@link HistoryEntry#techsToMask}
+     * @param payload the raw NDEF message
+     */
+    public synchronized int append(long timestamp, byte[] uid, int techs, byte[] payload)
+            throws IOException {
+        Preconditions.checkNotNull(payload);
+        Preconditions.checkArgument(payload.length <= MAX_PAYLOAD_SIZE, "payload too large");
+        checkOpen();
+        return appendEvent(timestamp, uid, techs, mBlobs.put(payload));
+    }
+
+    /**
+     * Appends a scan of a message that is already stored, as named by {@code digest}.
+     *
+     * @throws IOException if no such message is stored
+     */
+    public synchronized int appendReference(long timestamp, byte[] uid, int techs,
+            HashCode digest) throws IOException {
+        Preconditions.checkNotNull(digest);
+        checkOpen();
+        mBlobs.addRef(digest);
+        return appendEvent(timestamp, uid, techs, digest);
+    }
+
+    private int appendEvent(long timestamp, byte[] uid, int techs, HashCode digest)
+            throws IOException {
+        try {
+            Preconditions.checkNotNull(uid);
+            Preconditions.checkArgument(uid.length <= MAX_UID_LENGTH, "UID too long");
+        } catch (RuntimeException e) {
+            mBlobs.release(digest);
+            throw e;
+        }
+
+        int id = mCount;
+        int bodyLength = RECORD_FIXED_BODY_SIZE + uid.length;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodyLength);
+        record.putInt(RECORD_MAGIC).putInt(bodyLength).putInt(0);
+        record.putInt(id).putLong(timestamp).putInt(techs).put(digest.asBytes());
+        record.put((byte) uid.length).put(uid);
+        record.putInt(8, crc(record.array(), RECORD_HEADER_SIZE, bodyLength));
+        record.flip();
+
+        try {
+            if (mActiveSize + record.remaining() > mMaxSegmentSize
+                    && mActiveSize > SEGMENT_HEADER_SIZE) {
+                startSegment();
+            }
+
+            // Make the record durable before the index can point at it
+            long position = mActiveSize;
+            FileChannel channel = getSegment(mActiveSegment);
+            writeFully(channel, record, position);
+            channel.force(false);
+            mActiveSize = position + record.capacity();
+
+            ensureCapacity(id + 1);
+            writeSlot(id, mActiveSegment, (int) position, record.capacity(), 0);
+        } catch (IOException e) {
+            mBlobs.release(digest);
+            throw e;
+        }
+        mCount = id + 1;
+        mIndex.putInt(INDEX_COUNT_OFFSET, mCount);
+        bumpGeneration();
+        return id;
+    }
+
+    /**
+     * Returns the entry with the given id, or {@code null} if it was deleted.
+     */
+    public synchronized HistoryEntry getEntry(int id) throws IOException {
+        Preconditions.checkElementIndex(id, mCount);
+        checkOpen();
+        if (!isLive(id)) {
+            return null;
+        }
+
+        ByteBuffer record = readRecord(id);
+        if (record == null) {
+            throw new IOException("Corrupt history entry " + id);
+        }
+        int recordId = record.getInt();
+        long timestamp = record.getLong();
+        int techs = record.getInt();
+        byte[] digest = new byte[BlobStore.DIGEST_LENGTH];
+        record.get(digest);
+        byte[] uid = new byte[record.get() & 0xff];
+        record.get(uid);
+        if (recordId != id) {
+            throw new IOException("History entry " + id + " points at entry " + recordId);
+        }
+        HashCode hash = HashCode.fromBytes(digest);
+        return new HistoryEntry(id, timestamp, uid, techs, slotFlags(id), hash, mBlobs.map(hash));
+    }
+
+    /**
+     * Returns the digest of the message of entry {@code id}, or {@code null} if it was deleted.
+     */
+    public synchronized HashCode getDigest(int id) throws IOException {
+        Preconditions.checkElementIndex(id, mCount);
+        checkOpen();
+        return isLive(id) ? readDigest(id) : null;
+    }
+
+    /** Returns the store holding the message bytes. */
+    public BlobStore getBlobStore() {
+        return mBlobs;
+    }
+
+    /** Returns how much space sharing message bytes between entries saves. */
+    public BlobStore.Stats getDedupStats() {
+        return mBlobs.getStats();
+    }
+
+    /**
+     * Returns the live entries with ids in {@code [first, first + count)}, newest first. Finding
+     * a page only touches the index slots and records of that page.
+     */
+    public synchronized List<HistoryEntry> getPage(int first, int count) throws IOException {
+        Preconditions.checkArgument(first >= 0 && count >= 0);
+        int end = (int) Math.min((long) first + count, mCount);
+        ArrayList<HistoryEntry> entries = Lists.newArrayListWithCapacity(Math.max(0, end - first));
+        for (int id = end - 1; id >= first; id--) {
+            HistoryEntry entry = getEntry(id);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /** Returns true if the entry exists and wasn't deleted. */
+    public synchronized boolean isLive(int id) {
+        return id >= 0 && id < mCount && slotLength(id) > 0
+                && (slotFlags(id) & HistoryEntry.FLAG_DELETED) == 0;
+    }
+
+    /**
+     * Flags the entry as deleted and releases its message. The space of the entry itself is
+     * reclaimed by {@link #compact}.
+     */
+    public synchronized boolean delete(int id) throws IOException {
+        checkOpen();
+        if (!isLive(id)) {
+            return false;
+        }
+        HashCode digest = readDigest(id);
+        setFlag(id, HistoryEntry.FLAG_DELETED, true);
+        if (digest != null) {
+            mBlobs.release(digest);
+        }
+        bumpGeneration();
+        return true;
+    }
+
+    public synchronized boolean setStarred(int id, boolean starred) throws IOException {
+        return setFlag(id, HistoryEntry.FLAG_STARRED, starred);
+    }
+
+    private boolean setFlag(int id, int flag, boolean set) throws IOException {
+        checkOpen();
+        if (!isLive(id)) {
+            return false;
+        }
+        int flags = slotFlags(id);
+        mIndex.putInt(slotBase(id) + 12, set ? (flags | flag) : (flags & ~flag));
+        mIndex.force();
+        return true;
+    }
+
+    /**
+     * Rewrites every closed segment in which at least {@code minGarbageRatio} of the bytes
+     * belong to deleted entries, and removes segments with no live entries at all.
+     */
+    public synchronized void compact(float minGarbageRatio) throws IOException {
+        checkOpen();
+
+        // Group the live entries by the segment holding them
+        HashMap<Integer, List<Integer>> liveIds = Maps.newHashMap();
+        HashMap<Integer, Long> liveBytes = Maps.newHashMap();
+        for (int id = 0; id < mCount; id++) {
+            if (!isLive(id)) {
+                continue;
+            }
+            int segment = slotSegment(id);
+            List<Integer> ids = liveIds.get(segment);
+            if (ids == null) {
+                ids = Lists.newArrayList();
+                liveIds.put(segment, ids);
+                liveBytes.put(segment, 0L);
+            }
+            ids.add(id);
+            liveBytes.put(segment, liveBytes.get(segment) + slotLength(id));
+        }
+
+        for (int segment : listSegments()) {
+            if (segment == mActiveSegment) {
+                continue;
+            }
+            List<Integer> ids = liveIds.get(segment);
+            if (ids == null) {
+                deleteSegment(segment);
+                continue;
+            }
+            long size = getSegment(segment).size() - SEGMENT_HEADER_SIZE;
+            float garbage = 1f - (float) liveBytes.get(segment) / size;
+            if (garbage >= minGarbageRatio) {
+                rewriteSegment(segment, ids);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (mBlobs != null && mIndex != null) {
+            try {
+                mBlobs.checkpoint(mGeneration);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to checkpoint reference counts", e);
+            }
+        }
+        for (FileChannel channel : mSegments.values()) {
+            closeQuietly(channel);
+        }
+        mSegments.clear();
+        if (mIndex != null) {
+            mIndex.force();
+            mIndex = null;
+        }
+        if (mIndexChannel != null) {
+            closeQuietly(mIndexChannel);
+            mIndexChannel = null;
+        }
+    }
+
+    private void recover() throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't create " + mDir);
+        }
+
+        // Leftovers of a compaction that didn't finish
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(TMP_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+
+        mBlobs = new BlobStore(new File(mDir, BLOBS_DIR));
+        mIndexChannel = new RandomAccessFile(new File(mDir, INDEX_FILE), "rw").getChannel();
+        long indexSize = mIndexChannel.size();
+        mapIndex(Math.max(INITIAL_SLOTS, (int) ((indexSize - INDEX_HEADER_SIZE) / SLOT_SIZE)));
+        boolean rebuild = indexSize < INDEX_HEADER_SIZE
+                || mIndex.getInt(0) != INDEX_MAGIC || mIndex.getInt(4) != VERSION;
+
+        TreeSet<Integer> segments = listSegments();
+        mNextSegment = segments.isEmpty() ? 0 : segments.last() + 1;
+        for (Integer segment : Lists.newArrayList(segments)) {
+            if (!hasValidHeader(segment)) {
+                // Written by another version, or torn before its header was complete
+                Log.w(TAG, "Dropping unreadable segment " + segment);
+                deleteSegment(segment);
+                segments.remove(segment);
+            }
+        }
+
+        if (rebuild) {
+            if (indexSize > 0) {
+                Log.w(TAG, "Rebuilding unreadable history index");
+            }
+            for (int i = 0; i < INDEX_HEADER_SIZE; i++) {
+                mIndex.put(i, (byte) 0);
+            }
+            mIndex.putInt(0, INDEX_MAGIC);
+            mIndex.putInt(4, VERSION);
+            mCount = 0;
+            mGeneration = 0;
+            for (int segment : segments) {
+                scanSegment(segment, SEGMENT_HEADER_SIZE, true);
+                if (!isCompacted(segment)) {
+                    mActiveSegment = segment;
+                }
+            }
+        } else {
+            mCount = mIndex.getInt(INDEX_COUNT_OFFSET);
+            mGeneration = mIndex.getInt(INDEX_GENERATION_OFFSET);
+            int indexed = mCount;
+
+            // Forget entries whose records never made it to the log
+            while (mCount > 0 && !isRecordValid(mCount - 1)) {
+                mCount--;
+            }
+
+            // Then pick up any records the index missed
+            int last = -1;
+            long tail = SEGMENT_HEADER_SIZE;
+            if (mCount > 0) {
+                last = slotSegment(mCount - 1);
+                tail = (long) slotOffset(mCount - 1) + slotLength(mCount - 1);
+            }
+            for (int segment : segments) {
+                if (segment == last) {
+                    scanSegment(segment, tail, false);
+                } else if (segment > last && !isCompacted(segment)) {
+                    scanSegment(segment, SEGMENT_HEADER_SIZE, false);
+                } else {
+                    continue;
+                }
+                mActiveSegment = segment;
+            }
+            if (mCount != indexed) {
+                // The entries changed behind the index, so its reference counts are stale
+                mGeneration++;
+            }
+        }
+
+        if (mActiveSegment < 0) {
+            startSegment();
+        } else {
+            mActiveSize = getSegment(mActiveSegment).size();
+        }
+        mIndex.putInt(INDEX_COUNT_OFFSET, mCount);
+        mIndex.putInt(INDEX_GENERATION_OFFSET, mGeneration);
+        mIndex.force();
+
+        if (rebuild || mBlobs.getGeneration() != mGeneration) {
+            rebuildRefs();
+        }
+    }
+
+    /**
+     * Recounts the references to each message from the live entries. Entries whose message has
+     * gone missing are deleted.
+     */
+    private void rebuildRefs() throws IOException {
+        Log.w(TAG, "Recounting message references");
+        mBlobs.beginRebuild();
+        for (int id = 0; id < mCount; id++) {
+            if (!isLive(id)) {
+                continue;
+            }
+            HashCode digest = readDigest(id);
+            try {
+                if (digest == null) {
+                    throw new IOException("Unreadable entry " + id);
+                }
+                mBlobs.addRef(digest);
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping history entry " + id, e);
+                setFlag(id, HistoryEntry.FLAG_DELETED, true);
+            }
+        }
+        mBlobs.endRebuild(mGeneration);
+    }
+
+    private void bumpGeneration() throws IOException {
+        mGeneration++;
+        mIndex.putInt(INDEX_GENERATION_OFFSET, mGeneration);
+        mIndex.force();
+        if (mGeneration % REFS_CHECKPOINT_INTERVAL == 0) {
+            mBlobs.checkpoint(mGeneration);
+        }
+    }
+
+    private HashCode readDigest(int id) throws IOException {
+        ByteBuffer record = readRecord(id);
+        if (record == null) {
+            return null;
+        }
+        byte[] digest = new byte[BlobStore.DIGEST_LENGTH];
+        record.position(record.position() + 16);
+        record.get(digest);
+        return HashCode.fromBytes(digest);
+    }
+
+    /**
+     * Indexes the valid records of {@code segment} starting at {@code position}, and truncates
+     * the segment at the first record that is torn or corrupt. When rebuilding, records are
+     * placed in the slot named by their id, otherwise they must follow the last indexed entry.
+     */
+    private void scanSegment(int segment, long position, boolean rebuild) throws IOException {
+        FileChannel channel = getSegment(segment);
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int magic = header.getInt(0);
+            int bodyLength = header.getInt(4);
+            if (magic != RECORD_MAGIC || bodyLength < RECORD_FIXED_BODY_SIZE
+                    || bodyLength > MAX_RECORD_SIZE
+                    || position + RECORD_HEADER_SIZE + bodyLength > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(channel, body, position + RECORD_HEADER_SIZE);
+            if (crc(body.array(), 0, bodyLength) != header.getInt(8)
+                    || (body.get(RECORD_FIXED_BODY_SIZE - 1) & 0xff)
+                            != bodyLength - RECORD_FIXED_BODY_SIZE) {
+                break;
+            }
+
+            int id = body.getInt(0);
+            int length = RECORD_HEADER_SIZE + bodyLength;
+            if (rebuild) {
+                if (id < 0) {
+                    break;
+                }
+                ensureCapacity(id + 1);
+                writeSlot(id, segment, (int) position, length, 0);
+                mCount = Math.max(mCount, id + 1);
+            } else {
+                if (id != mCount) {
+                    break;
+                }
+                ensureCapacity(id + 1);
+                writeSlot(id, segment, (int) position, length, 0);
+                mCount++;
+            }
+            position += length;
+        }
+
+        if (position < size) {
+            Log.w(TAG, "Truncating segment " + segment + " from " + size + " to " + position);
+            channel.truncate(position);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Copies the records of {@code ids} out of {@code segment} into a new compacted segment,
+     * repoints their slots and deletes the old segment. The new segment is complete on disk
+     * before any slot moves, so a crash leaves either the old or the new layout in use.
+     */
+    private void rewriteSegment(int segment, List<Integer> ids) throws IOException {
+        int target = mNextSegment++;
+        File tmp = new File(mDir, segmentName(target) + TMP_SUFFIX);
+        FileChannel source = getSegment(segment);
+        int[] offsets = new int[ids.size()];
+
+        FileChannel out = new RandomAccessFile(tmp, "rw").getChannel();
+        try {
+            writeSegmentHeader(out, SEGMENT_FLAG_COMPACTED);
+            long position = SEGMENT_HEADER_SIZE;
+            for (int i = 0; i < offsets.length; i++) {
+                int id = ids.get(i);
+                long from = slotOffset(id);
+                int length = slotLength(id);
+                long copied = 0;
+                while (copied < length) {
+                    long n = source.transferTo(from + copied, length - copied,
+                            out.position(position + copied));
+                    if (n <= 0) {
+                        throw new IOException("Short copy compacting segment " + segment);
+                    }
+                    copied += n;
+                }
+                offsets[i] = (int) position;
+                position += length;
+            }
+            out.force(true);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(segmentFile(target))) {
+            throw new IOException("Can't rename " + tmp);
+        }
+
+        for (int i = 0; i < offsets.length; i++) {
+            int id = ids.get(i);
+            writeSlot(id, target, offsets[i], slotLength(id), slotFlags(id));
+        }
+        mIndex.force();
+        deleteSegment(segment);
+    }
+
+    private void startSegment() throws IOException {
+        int segment = mNextSegment++;
+        FileChannel channel = getSegment(segment);
+        writeSegmentHeader(channel, 0);
+        channel.force(true);
+        mActiveSegment = segment;
+        mActiveSize = SEGMENT_HEADER_SIZE;
+    }
+
+    private void writeSegmentHeader(FileChannel channel, int flags) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(SEGMENT_MAGIC).putInt(VERSION).putInt(flags);
+        header.flip();
+        writeFully(channel, header, 0);
+    }
+
+    private boolean hasValidHeader(int segment) throws IOException {
+        FileChannel channel = getSegment(segment);
+        if (channel.size() < SEGMENT_HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        readFully(channel, header, 0);
+        return header.getInt(0) == SEGMENT_MAGIC && header.getInt(4) == VERSION;
+    }
+
+    private boolean isCompacted(int segment) throws IOException {
+        FileChannel channel = getSegment(segment);
+        if (channel.size() < SEGMENT_HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        readFully(channel, header, 0);
+        return header.getInt(0) == SEGMENT_MAGIC
+                && (header.getInt(8) & SEGMENT_FLAG_COMPACTED) != 0;
+    }
+
+    /** Returns the body of the record for {@code id}, or {@code null} if it doesn't check out. */
+    private ByteBuffer readRecord(int id) throws IOException {
+        int length = slotLength(id);
+        if (length < RECORD_HEADER_SIZE + RECORD_FIXED_BODY_SIZE) {
+            return null;
+        }
+        File file = segmentFile(slotSegment(id));
+        if (!mSegments.containsKey(slotSegment(id)) && !file.exists()) {
+            return null;
+        }
+        FileChannel channel = getSegment(slotSegment(id));
+        long offset = slotOffset(id);
+        if (offset + length > channel.size()) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        readFully(channel, record, offset);
+        int bodyLength = length - RECORD_HEADER_SIZE;
+        if (record.getInt(0) != RECORD_MAGIC || record.getInt(4) != bodyLength
+                || record.getInt(8) != crc(record.array(), RECORD_HEADER_SIZE, bodyLength)) {
+            return null;
+        }
+        record.position(RECORD_HEADER_SIZE);
+        return record;
+    }
+
+    private boolean isRecordValid(int id) throws IOException {
+        return !isLive(id) || readRecord(id) != null;
+    }
+
+    private FileChannel getSegment(int segment) throws IOException {
+        FileChannel channel = mSegments.get(segment);
+        if (channel == null) {
+            channel = new RandomAccessFile(segmentFile(segment), "rw").getChannel();
+            mSegments.put(segment, channel);
+        }
+        return channel;
+    }
+
+    private void deleteSegment(int segment) {
+        FileChannel channel = mSegments.remove(segment);
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+        if (!segmentFile(segment).delete()) {
+            Log.w(TAG, "Can't delete segment " + segment);
+        }
+    }
+
+    private TreeSet<Integer> listSegments() {
+        TreeSet<Integer> segments = Sets.newTreeSet();
+        String[] names = mDir.list();
+        if (names == null) {
+            return segments;
+        }
+        for (String name : names) {
+            if (!name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            try {
+                segments.add(Integer.parseInt(
+                        name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring stray file " + name);
+            }
+        }
+        return segments;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(mDir, segmentName(segment));
+    }
+
+    private static String segmentName(int segment) {
+        return String.format("%08d%s", segment, SEGMENT_SUFFIX);
+    }
+
+    private void ensureCapacity(int slots) throws IOException {
+        int capacity = (mIndex.capacity() - INDEX_HEADER_SIZE) / SLOT_SIZE;
+        if (slots <= capacity) {
+            return;
+        }
+        while (capacity < slots) {
+            capacity *= 2;
+        }
+        mapIndex(capacity);
+    }
+
+    private void mapIndex(int slots) throws IOException {
+        mIndex = mIndexChannel.map(MapMode.READ_WRITE, 0,
+                INDEX_HEADER_SIZE + (long) slots * SLOT_SIZE);
+    }
+
+    private static int slotBase(int id) {
+        return INDEX_HEADER_SIZE + id * SLOT_SIZE;
+    }
+
+    private int slotSegment(int id) {
+        return mIndex.getInt(slotBase(id));
+    }
+
+    private int slotOffset(int id) {
+        return mIndex.getInt(slotBase(id) + 4);
+    }
+
+    private int slotLength(int id) {
+        return mIndex.getInt(slotBase(id) + 8);
+    }
+
+    private int slotFlags(int id) {
+        return mIndex.getInt(slotBase(id) + 12);
+    }
+
+    private void writeSlot(int id, int segment, int offset, int length, int flags) {
+        int base = slotBase(id);
+        mIndex.putInt(base, segment);
+        mIndex.putInt(base + 4, offset);
+        mIndex.putInt(base + 8, length);
+        mIndex.putInt(base + 12, flags);
+    }
+
+    private int crc(byte[] data, int offset, int length) {
+        mCrc.reset();
+        mCrc.update(data, offset, length);
+        return (int) mCrc.getValue();
+    }
+
+    private void checkOpen() throws IOException {
+        if (mIndex == null) {
+            throw new IOException("History store is closed");
+        }
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close", e);
+        }
+    }
+}
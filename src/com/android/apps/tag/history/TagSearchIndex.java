@@ -0,0 +1,584 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.history;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.UnsignedBytes;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * An incremental inverted index from the words in scanned tags to their history entry ids.
+ *
+ * <p>New entries are indexed in memory and flushed as immutable segment files. Each segment holds
+ * a dictionary of terms sorted by their UTF-8 bytes, front coded in blocks of {@link #BLOCK_SIZE}
+ * terms, followed by delta encoded posting lists. Only the first term of each block is kept in
+ * memory; a prefix lookup binary searches those and decodes forward from one block, so queries
+ * never scan the whole index. Once there are too many segments they are merged into one.
+ *
+ * <p>Pending entries are lost if the process dies before a flush. {@link #getIndexedUpTo} tells
+ * the owner which entries have to be indexed again after reopening.
+ */
+public class TagSearchIndex {
+    private static final String TAG = "TagSearchIndex";
+
+    private static final String SEGMENT_PREFIX = "terms-";
+    private static final String SEGMENT_SUFFIX = ".idx";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /** Segment header: magic, version, term count, block count, highest entry id, dict length. */
+    private static final int MAGIC = 0x54475358; // "TGSX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private static final int BLOCK_SIZE = 32;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int FLUSH_THRESHOLD = 512;
+    private static final int MAX_SEGMENTS = 8;
+
+    private static final Comparator<byte[]> TERM_ORDER = UnsignedBytes.lexicographicalComparator();
+
+    private final File mDir;
+    private final ArrayList<Segment> mSegments = Lists.newArrayList();
+    private final TreeMap<String, Postings> mPending = Maps.newTreeMap();
+    private int mPendingEntries;
+    private int mIndexedUpTo = -1;
+    private int mNextSegment;
+
+    private TagSearchIndex(File dir) {
+        mDir = Preconditions.checkNotNull(dir);
+    }
+
+    public static TagSearchIndex open(File dir) throws IOException {
+        TagSearchIndex index = new TagSearchIndex(dir);
+        index.load();
+        return index;
+    }
+
+    /**
+     * Returns the highest entry id that has been indexed, or -1. Entries have to be added in
+     * increasing order starting just above it.
+     */
+    public synchronized int getIndexedUpTo() {
+        return mIndexedUpTo;
+    }
+
+    /**
+     * Indexes the entry {@code id} under the words in {@code text}.
+     */
+    public synchronized void add(int id, Collection<String> text) throws IOException {
+        Preconditions.checkArgument(id > mIndexedUpTo, "entries must be added in order");
+        LinkedHashSet<String> terms = Sets.newLinkedHashSet();
+        for (String fragment : text) {
+            tokenize(fragment, terms);
+        }
+        for (String term : terms) {
+            Postings postings = mPending.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                mPending.put(term, postings);
+            }
+            postings.add(id);
+        }
+        mIndexedUpTo = id;
+        if (++mPendingEntries >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns the ids of up to {@code limit} entries, newest first, that have a word starting
+     * with each of the words in {@code query}.
+     */
+    public synchronized int[] query(String query, int limit) {
+        LinkedHashSet<String> tokens = Sets.newLinkedHashSet();
+        tokenize(query, tokens);
+        if (tokens.isEmpty() || mIndexedUpTo < 0) {
+            return new int[0];
+        }
+
+        BitSet result = null;
+        for (String token : tokens) {
+            BitSet matches = new BitSet(mIndexedUpTo + 1);
+            byte[] prefix = token.getBytes(Charsets.UTF_8);
+            for (Segment segment : mSegments) {
+                segment.collect(prefix, matches);
+            }
+            for (Postings postings :
+                    mPending.subMap(token, true, token + Character.MAX_VALUE, true).values()) {
+                postings.addTo(matches);
+            }
+            if (result == null) {
+                result = matches;
+            } else {
+                result.and(matches);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+
+        int[] ids = new int[Math.min(limit, result.cardinality())];
+        int n = 0;
+        for (int id = result.length() - 1; id >= 0 && n < ids.length;
+                id = result.previousSetBit(id - 1)) {
+            ids[n++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Writes the pending entries out to a new segment.
+     */
+    public synchronized void flush() throws IOException {
+        if (mPendingEntries == 0) {
+            return;
+        }
+
+        TreeMap<byte[], Postings> sorted = new TreeMap<byte[], Postings>(TERM_ORDER);
+        for (Map.Entry<String, Postings> entry : mPending.entrySet()) {
+            sorted.put(entry.getKey().getBytes(Charsets.UTF_8), entry.getValue());
+        }
+        SegmentWriter writer = new SegmentWriter();
+        for (Map.Entry<byte[], Postings> entry : sorted.entrySet()) {
+            Postings postings = entry.getValue();
+            writer.add(entry.getKey(), postings.mIds, postings.mSize);
+        }
+        mSegments.add(writer.finish(nextSegmentFile(), mIndexedUpTo));
+        mPending.clear();
+        mPendingEntries = 0;
+
+        if (mSegments.size() > MAX_SEGMENTS) {
+            merge();
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to flush search index", e);
+        }
+        mSegments.clear();
+    }
+
+    /**
+     * Adds the lower cased words of {@code text} to {@code tokens}. Words are runs of letters
+     * and digits, so URIs fall apart into their host labels and path segments.
+     */
+    public static void tokenize(String text, Collection<String> tokens) {
+        if (text == null) {
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(lower.substring(start, Math.min(i, start + MAX_TERM_LENGTH)));
+                start = -1;
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't create " + mDir);
+        }
+
+        File[] files = mDir.listFiles();
+        ArrayList<File> segmentFiles = Lists.newArrayList();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX)) {
+                file.delete();
+            } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                segmentFiles.add(file);
+            }
+        }
+
+        for (File file : segmentFiles) {
+            int number;
+            try {
+                number = Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length(),
+                        file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            mNextSegment = Math.max(mNextSegment, number + 1);
+            try {
+                Segment segment = new Segment(file);
+                mSegments.add(segment);
+                mIndexedUpTo = Math.max(mIndexedUpTo, segment.mMaxId);
+            } catch (RuntimeException e) {
+                // A damaged segment would leave holes in the results, start over instead
+                Log.w(TAG, "Dropping unreadable search index " + file, e);
+                for (File other : segmentFiles) {
+                    other.delete();
+                }
+                mSegments.clear();
+                mIndexedUpTo = -1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Merges all segments into one. The merged segment is renamed into place before the old
+     * ones are deleted; should that not happen the leftover postings are merely redundant.
+     */
+    private void merge() throws IOException {
+        PriorityQueue<TermCursor> cursors = new PriorityQueue<TermCursor>(mSegments.size(),
+                new Comparator<TermCursor>() {
+                    @Override
+                    public int compare(TermCursor a, TermCursor b) {
+                        return TERM_ORDER.compare(a.mTerm, b.mTerm);
+                    }
+                });
+        for (Segment segment : mSegments) {
+            TermCursor cursor = new TermCursor(segment);
+            if (cursor.next()) {
+                cursors.add(cursor);
+            }
+        }
+
+        SegmentWriter writer = new SegmentWriter();
+        Postings merged = new Postings();
+        while (!cursors.isEmpty()) {
+            byte[] term = cursors.peek().mTerm;
+            merged.mSize = 0;
+            while (!cursors.isEmpty() && Arrays.equals(cursors.peek().mTerm, term)) {
+                TermCursor cursor = cursors.poll();
+                cursor.readPostings(merged);
+                if (cursor.next()) {
+                    cursors.add(cursor);
+                }
+            }
+            merged.sortUnique();
+            writer.add(term, merged.mIds, merged.mSize);
+        }
+
+        Segment segment = writer.finish(nextSegmentFile(), mIndexedUpTo);
+        for (Segment old : mSegments) {
+            old.mFile.delete();
+        }
+        mSegments.clear();
+        mSegments.add(segment);
+    }
+
+    private File nextSegmentFile() {
+        return new File(mDir, String.format("%s%08d%s", SEGMENT_PREFIX, mNextSegment++,
+                SEGMENT_SUFFIX));
+    }
+
+    private static int compare(byte[] a, int aLength, byte[] b) {
+        int n = Math.min(aLength, b.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = UnsignedBytes.compare(a[i], b[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return aLength - b.length;
+    }
+
+    private static boolean startsWith(byte[] term, int termLength, byte[] prefix) {
+        if (termLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (term[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** A growable list of entry ids. */
+    private static final class Postings {
+        int[] mIds = new int[4];
+        int mSize;
+
+        void add(int id) {
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            mIds[mSize++] = id;
+        }
+
+        void addTo(BitSet set) {
+            for (int i = 0; i < mSize; i++) {
+                set.set(mIds[i]);
+            }
+        }
+
+        void sortUnique() {
+            Arrays.sort(mIds, 0, mSize);
+            int n = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (n == 0 || mIds[n - 1] != mIds[i]) {
+                    mIds[n++] = mIds[i];
+                }
+            }
+            mSize = n;
+        }
+    }
+
+    /**
+     * Builds a segment from terms added in order.
+     */
+    private static final class SegmentWriter {
+        private final ByteArrayOutputStream mDict = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream mPostings = new ByteArrayOutputStream();
+        private final Postings mBlockOffsets = new Postings();
+        private byte[] mPrevious;
+        private int mTermCount;
+
+        void add(byte[] term, int[] ids, int count) {
+            int shared = 0;
+            if (mTermCount % BLOCK_SIZE == 0) {
+                // Blocks start with a full term and the absolute offset of its postings
+                mBlockOffsets.add(mDict.size());
+                int offset = mPostings.size();
+                mDict.write(offset >>> 24);
+                mDict.write(offset >>> 16);
+                mDict.write(offset >>> 8);
+                mDict.write(offset);
+            } else {
+                int max = Math.min(term.length, mPrevious.length);
+                while (shared < max && term[shared] == mPrevious[shared]) {
+                    shared++;
+                }
+            }
+            Varint.write(mDict, shared);
+            Varint.write(mDict, term.length - shared);
+            mDict.write(term, shared, term.length - shared);
+
+            int start = mPostings.size();
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                Varint.write(mPostings, ids[i] - previous);
+                previous = ids[i];
+            }
+            Varint.write(mDict, count);
+            Varint.write(mDict, mPostings.size() - start);
+
+            mPrevious = term;
+            mTermCount++;
+        }
+
+        Segment finish(File file, int maxId) throws IOException {
+            File tmp = new File(file.getPath() + TMP_SUFFIX);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + mBlockOffsets.mSize * 4);
+            header.putInt(MAGIC).putInt(VERSION).putInt(mTermCount).putInt(mBlockOffsets.mSize);
+            header.putInt(maxId).putInt(mDict.size());
+
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(header.array(), 0, HEADER_SIZE);
+                mDict.writeTo(out);
+                header.position(HEADER_SIZE);
+                for (int i = 0; i < mBlockOffsets.mSize; i++) {
+                    header.putInt(mBlockOffsets.mIds[i]);
+                }
+                out.write(header.array(), HEADER_SIZE, mBlockOffsets.mSize * 4);
+                mPostings.writeTo(out);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Can't rename " + tmp);
+            }
+            return new Segment(file);
+        }
+    }
+
+    /**
+     * A read-only, memory-mapped segment.
+     */
+    private static final class Segment {
+        final File mFile;
+        final int mMaxId;
+        private final MappedByteBuffer mBuffer;
+        private final int mTermCount;
+        private final int mDictStart;
+        private final int mPostingsStart;
+        private final int[] mBlockOffsets;
+        private final byte[][] mLeaders;
+
+        Segment(File file) throws IOException {
+            mFile = file;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                mBuffer = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+            if (mBuffer.capacity() < HEADER_SIZE || mBuffer.getInt(0) != MAGIC
+                    || mBuffer.getInt(4) != VERSION) {
+                throw new IllegalStateException("bad segment header");
+            }
+            mTermCount = mBuffer.getInt(8);
+            int blockCount = mBuffer.getInt(12);
+            mMaxId = mBuffer.getInt(16);
+            int dictLength = mBuffer.getInt(20);
+            mDictStart = HEADER_SIZE;
+            mPostingsStart = mDictStart + dictLength + blockCount * 4;
+
+            mBlockOffsets = new int[blockCount];
+            mLeaders = new byte[blockCount][];
+            for (int i = 0; i < blockCount; i++) {
+                mBlockOffsets[i] = mBuffer.getInt(mDictStart + dictLength + i * 4);
+                ByteBuffer in = dictAt(i);
+                in.getInt();
+                Varint.read(in);
+                byte[] leader = new byte[Varint.read(in)];
+                in.get(leader);
+                mLeaders[i] = leader;
+            }
+        }
+
+        /** Sets the ids of all entries having a term that starts with {@code prefix}. */
+        void collect(byte[] prefix, BitSet out) {
+            // Start at the last block whose first term sorts before the prefix
+            int low = 0;
+            int high = mLeaders.length - 1;
+            int block = 0;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (TERM_ORDER.compare(mLeaders[mid], prefix) <= 0) {
+                    block = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            byte[] term = new byte[MAX_TERM_LENGTH * 4];
+            for (; block < mLeaders.length; block++) {
+                ByteBuffer in = dictAt(block);
+                int postings = in.getInt();
+                int termsInBlock = Math.min(BLOCK_SIZE, mTermCount - block * BLOCK_SIZE);
+                int termLength = 0;
+                for (int i = 0; i < termsInBlock; i++) {
+                    int shared = Varint.read(in);
+                    int suffix = Varint.read(in);
+                    in.get(term, shared, suffix);
+                    termLength = shared + suffix;
+                    int count = Varint.read(in);
+                    int length = Varint.read(in);
+
+                    if (startsWith(term, termLength, prefix)) {
+                        readPostings(postings, count, out, null);
+                    } else if (compare(term, termLength, prefix) > 0) {
+                        return;
+                    }
+                    postings += length;
+                }
+            }
+        }
+
+        void readPostings(int offset, int count, BitSet set, Postings list) {
+            ByteBuffer in = mBuffer.duplicate();
+            in.position(mPostingsStart + offset);
+            int id = 0;
+            for (int i = 0; i < count; i++) {
+                id += Varint.read(in);
+                if (set != null) {
+                    set.set(id);
+                } else {
+                    list.add(id);
+                }
+            }
+        }
+
+        ByteBuffer dictAt(int block) {
+            ByteBuffer in = mBuffer.duplicate();
+            in.position(mDictStart + mBlockOffsets[block]);
+            return in;
+        }
+    }
+
+    /**
+     * Walks all terms of a segment in order, for merging.
+     */
+    private static final class TermCursor {
+        private final Segment mSegment;
+        private ByteBuffer mIn;
+        private int mIndex = -1;
+        private int mPostingsOffset;
+        private byte[] mScratch = new byte[MAX_TERM_LENGTH * 4];
+        byte[] mTerm;
+        private int mCount;
+        private int mLength;
+
+        TermCursor(Segment segment) {
+            mSegment = segment;
+        }
+
+        boolean next() {
+            mPostingsOffset += mLength;
+            mIndex++;
+            if (mIndex >= mSegment.mTermCount) {
+                return false;
+            }
+            if (mIndex % BLOCK_SIZE == 0) {
+                mIn = mSegment.dictAt(mIndex / BLOCK_SIZE);
+                mPostingsOffset = mIn.getInt();
+            }
+            int shared = Varint.read(mIn);
+            int suffix = Varint.read(mIn);
+            mIn.get(mScratch, shared, suffix);
+            mTerm = Arrays.copyOf(mScratch, shared + suffix);
+            mCount = Varint.read(mIn);
+            mLength = Varint.read(mIn);
+            return true;
+        }
+
+        void readPostings(Postings out) {
+            mSegment.readPostings(mPostingsOffset, mCount, null, out);
+        }
+    }
+}
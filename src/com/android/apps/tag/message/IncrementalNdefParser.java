@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.message;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import android.nfc.FormatException;
+import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes a serialized NDEF message as its bytes arrive, handing out each record as soon as
+ * all of it is in. Used while a tag is still being read, so the first records can be shown
+ * before the rest of the message is.
+ *
+ * <p>Chunked records are reassembled and handed out once their last chunk is in.
+ */
+public class IncrementalNdefParser {
+    private static final int FLAG_MB = 0x80;
+    private static final int FLAG_ME = 0x40;
+    private static final int FLAG_CF = 0x20;
+    private static final int FLAG_SR = 0x10;
+    private static final int FLAG_IL = 0x08;
+    private static final int TNF_MASK = 0x07;
+
+    /** Receives the records of the message as they are decoded. */
+    public interface Listener {
+        /** Called with each record in order, {@code index} counting chunked records once. */
+        void onRecord(int index, NdefRecord record);
+    }
+
+    private final int mMessageLength;
+    private final Listener mListener;
+    private final ArrayList<NdefRecord> mRecords = Lists.newArrayList();
+
+    /** Bytes that are in but not yet decoded, at the start of the buffer. */
+    private byte[] mBuffer;
+    private int mBuffered;
+    private int mConsumed;
+    private boolean mComplete;
+
+    // The chunked record being reassembled, if any
+    private short mChunkTnf = -1;
+    private byte[] mChunkType;
+    private byte[] mChunkId;
+    private ByteArrayOutputStream mChunkPayload;
+
+    /**
+     * @param messageLength the length of the whole message, which no record may claim to exceed
+     * @param listener told about each record as it is decoded, or {@code null}
+     */
+    public IncrementalNdefParser(int messageLength, Listener listener) {
+        Preconditions.checkArgument(messageLength >= 0);
+        mMessageLength = messageLength;
+        mListener = listener;
+        mBuffer = new byte[Math.min(messageLength, 256)];
+    }
+
+    /**
+     * Adds the next {@code length} bytes of the message, decoding any records they complete.
+     * Bytes after the end of the message are ignored.
+     *
+     * @throws FormatException if the message is malformed
+     */
+    public void feed(byte[] data, int offset, int length) throws FormatException {
+        length = Math.min(length, mMessageLength - mConsumed - mBuffered);
+        if (mComplete || length <= 0) {
+            return;
+        }
+        if (mBuffered + length > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.min(mMessageLength - mConsumed,
+                    Math.max(mBuffer.length * 2, mBuffered + length)));
+        }
+        System.arraycopy(data, offset, mBuffer, mBuffered, length);
+        mBuffered += length;
+
+        int pos = 0;
+        while (!mComplete) {
+            int used = decodeRecord(pos);
+            if (used == 0) {
+                break;
+            }
+            pos += used;
+        }
+        System.arraycopy(mBuffer, pos, mBuffer, 0, mBuffered - pos);
+        mBuffered -= pos;
+        mConsumed += pos;
+    }
+
+    /** Returns true once the record with the message end flag was decoded. */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    /** Returns the records decoded so far. */
+    public List<NdefRecord> getRecords() {
+        return mRecords;
+    }
+
+    /**
+     * Returns the records decoded so far as a message, or {@code null} if there are none yet.
+     */
+    public NdefMessage getMessage() {
+        if (mRecords.isEmpty()) {
+            return null;
+        }
+        return new NdefMessage(mRecords.toArray(new NdefRecord[mRecords.size()]));
+    }
+
+    /**
+     * Decodes the record at {@code pos} in the buffer, returning the number of bytes it took or 0
+     * if it isn't all in yet.
+     */
+    private int decodeRecord(int pos) throws FormatException {
+        int available = mBuffered - pos;
+        if (available < 3) {
+            return 0;
+        }
+        byte[] buf = mBuffer;
+        int flags = buf[pos] & 0xff;
+        short tnf = (short) (flags & TNF_MASK);
+        int typeLength = buf[pos + 1] & 0xff;
+        int header = (flags & FLAG_SR) != 0 ? 3 : 6;
+        if ((flags & FLAG_IL) != 0) {
+            header++;
+        }
+        if (available < header) {
+            return 0;
+        }
+
+        long payloadLength;
+        if ((flags & FLAG_SR) != 0) {
+            payloadLength = buf[pos + 2] & 0xff;
+        } else {
+            payloadLength = ((buf[pos + 2] & 0xffL) << 24) | ((buf[pos + 3] & 0xff) << 16)
+                    | ((buf[pos + 4] & 0xff) << 8) | (buf[pos + 5] & 0xff);
+        }
+        int idLength = (flags & FLAG_IL) != 0 ? buf[pos + header - 1] & 0xff : 0;
+        long recordLength = header + typeLength + idLength + payloadLength;
+        if (mConsumed + pos + recordLength > mMessageLength) {
+            throw new FormatException("Record runs past the end of the message");
+        }
+        if (available < recordLength) {
+            return 0;
+        }
+
+        boolean first = mConsumed + pos == 0;
+        if (first != ((flags & FLAG_MB) != 0)) {
+            throw new FormatException("Message begin flag out of place");
+        }
+        int at = pos + header;
+        byte[] type = Arrays.copyOfRange(buf, at, at + typeLength);
+        at += typeLength;
+        byte[] id = Arrays.copyOfRange(buf, at, at + idLength);
+        at += idLength;
+        int payloadStart = at;
+        int payloadEnd = at + (int) payloadLength;
+
+        boolean chunked = (flags & FLAG_CF) != 0;
+        if (mChunkPayload == null) {
+            if (tnf == NdefRecord.TNF_UNCHANGED) {
+                throw new FormatException("Unchanged type outside a chunked record");
+            }
+            if (chunked) {
+                mChunkTnf = tnf;
+                mChunkType = type;
+                mChunkId = id;
+                mChunkPayload = new ByteArrayOutputStream();
+                mChunkPayload.write(buf, payloadStart, payloadEnd - payloadStart);
+            } else {
+                addRecord(new NdefRecord(tnf, type, id,
+                        Arrays.copyOfRange(buf, payloadStart, payloadEnd)));
+            }
+        } else {
+            if (tnf != NdefRecord.TNF_UNCHANGED || typeLength != 0) {
+                throw new FormatException("Chunk of a record changes its type");
+            }
+            mChunkPayload.write(buf, payloadStart, payloadEnd - payloadStart);
+            if (!chunked) {
+                addRecord(new NdefRecord(mChunkTnf, mChunkType, mChunkId,
+                        mChunkPayload.toByteArray()));
+                mChunkPayload = null;
+                mChunkType = null;
+                mChunkId = null;
+            }
+        }
+
+        if ((flags & FLAG_ME) != 0) {
+            if (mChunkPayload != null) {
+                throw new FormatException("Message ends inside a chunked record");
+            }
+            mComplete = true;
+        }
+        return (int) recordLength;
+    }
+
+    private void addRecord(NdefRecord record) {
+        mRecords.add(record);
+        if (mListener != null) {
+            mListener.onRecord(mRecords.size() - 1, record);
+        }
+    }
+}
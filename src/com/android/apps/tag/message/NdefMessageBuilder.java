@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.message;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import android.nfc.FormatException;
+import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Builds an {@link NdefMessage} to write to a tag of known capacity.
+ *
+ * <p>The serialized size is kept up to date as records are added, so whether the message fits
+ * is known before any I/O. Records use the short record form whenever their payload is under
+ * 256 bytes, and record IDs are dropped unless asked for. Records added as optional are dropped,
+ * last first, by {@link #fitTo} until the message fits.
+ */
+public class NdefMessageBuilder {
+    private static final int FLAG_MB = 0x80;
+    private static final int FLAG_ME = 0x40;
+    private static final int FLAG_SR = 0x10;
+    private static final int FLAG_IL = 0x08;
+
+    private static final int MAX_SHORT_PAYLOAD = 0xff;
+
+    private static final class Entry {
+        final short tnf;
+        final byte[] type;
+        final byte[] id;
+        final byte[] payload;
+        final boolean optional;
+        final int size;
+
+        Entry(short tnf, byte[] type, byte[] id, byte[] payload, boolean optional) {
+            this.tnf = tnf;
+            this.type = type;
+            this.id = id;
+            this.payload = payload;
+            this.optional = optional;
+            this.size = getSerializedSize(type.length, id.length, payload.length);
+        }
+    }
+
+    private final ArrayList<Entry> mEntries = Lists.newArrayList();
+    private int mSize;
+
+    /** Adds a required record, dropping its ID. */
+    public NdefMessageBuilder add(NdefRecord record) {
+        return add(record, false, false);
+    }
+
+    /** Adds a record that {@link #fitTo} may drop, dropping its ID. */
+    public NdefMessageBuilder addOptional(NdefRecord record) {
+        return add(record, true, false);
+    }
+
+    /**
+     * Adds a record.
+     *
+     * @param optional whether {@link #fitTo} may drop the record
+     * @param keepId whether to keep the record's ID, which is dropped otherwise
+     */
+    public NdefMessageBuilder add(NdefRecord record, boolean optional, boolean keepId) {
+        Preconditions.checkNotNull(record);
+        Preconditions.checkArgument(record.getTnf() != NdefRecord.TNF_UNCHANGED,
+                "chunked records can't be added");
+        byte[] id = keepId ? record.getId() : new byte[0];
+        Entry entry = new Entry(record.getTnf(), record.getType(), id, record.getPayload(),
+                optional);
+        mEntries.add(entry);
+        mSize += entry.size;
+        return this;
+    }
+
+    /** Returns the number of records added. */
+    public int getRecordCount() {
+        return mEntries.size();
+    }
+
+    /** Returns the exact size in bytes of the serialized message. */
+    public int getSize() {
+        return mSize;
+    }
+
+    public boolean fits(int capacity) {
+        return mSize <= capacity;
+    }
+
+    /**
+     * Returns the largest payload that one more record without an ID and with a type of
+     * {@code typeLength} bytes could have and still fit in {@code capacity}, or -1 if even an
+     * empty one wouldn't fit.
+     */
+    public int getPayloadBudget(int capacity, int typeLength) {
+        int room = capacity - mSize - 2 - typeLength;
+        if (room - 4 > MAX_SHORT_PAYLOAD) {
+            return room - 4;
+        }
+        return Math.max(-1, Math.min(room - 1, MAX_SHORT_PAYLOAD));
+    }
+
+    /**
+     * Drops optional records, the last added first, until the message fits in {@code capacity}
+     * bytes.
+     *
+     * @return true if the message fits, false if it doesn't even without its optional records,
+     *     in which case none are dropped
+     */
+    public boolean fitTo(int capacity) {
+        if (mSize <= capacity) {
+            return true;
+        }
+
+        int required = 0;
+        for (Entry entry : mEntries) {
+            if (!entry.optional) {
+                required += entry.size;
+            }
+        }
+        if (required > capacity) {
+            return false;
+        }
+
+        for (int i = mEntries.size() - 1; i >= 0 && mSize > capacity; i--) {
+            Entry entry = mEntries.get(i);
+            if (entry.optional) {
+                mEntries.remove(i);
+                mSize -= entry.size;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Throws if the message doesn't fit in {@code capacity} bytes even without its optional
+     * records, and drops those that don't fit otherwise.
+     */
+    public NdefMessageBuilder checkFits(int capacity) {
+        if (!fitTo(capacity)) {
+            throw new IllegalArgumentException("Message of " + mSize + " bytes doesn't fit in "
+                    + capacity + " bytes");
+        }
+        return this;
+    }
+
+    /** Serializes the message into a single buffer of exactly {@link #getSize} bytes. */
+    public byte[] toByteArray() {
+        Preconditions.checkState(!mEntries.isEmpty(), "empty message");
+        ByteBuffer out = ByteBuffer.allocate(mSize);
+        int last = mEntries.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            Entry entry = mEntries.get(i);
+            boolean shortRecord = entry.payload.length <= MAX_SHORT_PAYLOAD;
+            int flags = entry.tnf;
+            if (i == 0) {
+                flags |= FLAG_MB;
+            }
+            if (i == last) {
+                flags |= FLAG_ME;
+            }
+            if (shortRecord) {
+                flags |= FLAG_SR;
+            }
+            if (entry.id.length > 0) {
+                flags |= FLAG_IL;
+            }
+
+            out.put((byte) flags);
+            out.put((byte) entry.type.length);
+            if (shortRecord) {
+                out.put((byte) entry.payload.length);
+            } else {
+                out.putInt(entry.payload.length);
+            }
+            if (entry.id.length > 0) {
+                out.put((byte) entry.id.length);
+            }
+            out.put(entry.type);
+            out.put(entry.id);
+            out.put(entry.payload);
+        }
+        return out.array();
+    }
+
+    public NdefMessage build() {
+        try {
+            return new NdefMessage(toByteArray());
+        } catch (FormatException e) {
+            // The records were valid on their own, so the framing is our fault
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the serialized size of a record with fields of the given lengths, using the short
+     * record form when the payload allows and omitting the ID length when there is no ID.
+     */
+    public static int getSerializedSize(int typeLength, int idLength, int payloadLength) {
+        int size = 2 + (payloadLength <= MAX_SHORT_PAYLOAD ? 1 : 4) + typeLength + payloadLength;
+        if (idLength > 0) {
+            size += 1 + idLength;
+        }
+        return size;
+    }
+}
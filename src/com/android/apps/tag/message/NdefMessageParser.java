@@ -16,6 +16,27 @@
 
 package com.android.apps.tag.message;
 
+import com.android.apps.tag.core.ndef.Record;
+import com.android.apps.tag.core.record.AarData;
+import com.android.apps.tag.core.record.BluetoothOobData;
+import com.android.apps.tag.core.record.DeferredData;
+import com.android.apps.tag.core.record.ExternalTypeData;
+import com.android.apps.tag.core.record.HandoverData;
+import com.android.apps.tag.core.record.ImageData;
+import com.android.apps.tag.core.record.MimeData;
+import com.android.apps.tag.core.record.ParseBudget;
+import com.android.apps.tag.core.record.RecordData;
+import com.android.apps.tag.core.record.RecordParser;
+import com.android.apps.tag.core.record.SmartPosterData;
+import com.android.apps.tag.core.record.TextData;
+import com.android.apps.tag.core.record.UriData;
+import com.android.apps.tag.core.record.VCardData;
+import com.android.apps.tag.core.record.WifiConfigData;
+import com.android.apps.tag.record.AarRecord;
+import com.android.apps.tag.record.BluetoothOobRecord;
+import com.android.apps.tag.record.DeferredRecord;
+import com.android.apps.tag.record.ExternalTypeRecord;
+import com.android.apps.tag.record.HandoverRecord;
 import com.android.apps.tag.record.ImageRecord;
 import com.android.apps.tag.record.MimeRecord;
 import com.android.apps.tag.record.ParsedNdefRecord;
@@ -24,6 +45,9 @@ import com.android.apps.tag.record.TextRecord;
 import com.android.apps.tag.record.UnknownRecord;
 import com.android.apps.tag.record.UriRecord;
 import com.android.apps.tag.record.VCardRecord;
+import com.android.apps.tag.record.WifiConfigRecord;
+import com.android.apps.tag.util.ScanStats;
+import com.google.common.collect.Lists;
 
 import android.nfc.NdefMessage;
 import android.nfc.NdefRecord;
@@ -32,41 +56,196 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Utility class for creating {@link ParsedNdefMessage}s.
+ * Utility class for creating {@link ParsedNdefMessage}s. The records are parsed by the
+ * {@link RecordParser} of the core library and wrapped in the {@link ParsedNdefRecord}s that
+ * show them.
  */
 public class NdefMessageParser {
 
+    /**
+     * The version of the parsing rules. Bump {@link RecordParser#VERSION} whenever a change to
+     * the parsers alters how a message is summarized, so summaries stored with the history are
+     * rebuilt.
+     */
+    public static final int VERSION = RecordParser.VERSION;
+
     // Utility class
     private NdefMessageParser() { }
 
     /** Parse an NdefMessage */
     public static ParsedNdefMessage parse(NdefMessage message) {
-        return new ParsedNdefMessage(getRecords(message));
+        return parse(message, ParseBudget.UNBOUNDED);
+    }
+
+    /**
+     * Parses an NdefMessage until {@code budget} runs out, leaving the records after that as
+     * {@link DeferredRecord}s.
+     */
+    public static ParsedNdefMessage parse(NdefMessage message, ParseBudget budget) {
+        long start = ScanStats.begin(ScanStats.PARSE_MESSAGE);
+        try {
+            return new ParsedNdefMessage(getRecords(message.getRecords(), budget));
+        } finally {
+            ScanStats.end(ScanStats.PARSE_MESSAGE, start);
+        }
     }
 
     public static List<ParsedNdefRecord> getRecords(NdefMessage message) {
         return getRecords(message.getRecords());
     }
 
+    /**
+     * Parses {@code records} in order. Heavy records such as images and vCards may be parsed at
+     * the same time on other threads when that pays off, see {@link ParallelRecordParser}.
+     */
     public static List<ParsedNdefRecord> getRecords(NdefRecord[] records) {
-        List<ParsedNdefRecord> elements = new ArrayList<ParsedNdefRecord>();
-        for (NdefRecord record : records) {
-            if (SmartPoster.isPoster(record)) {
-                elements.add(SmartPoster.parse(record));
-            } else if (UriRecord.isUri(record)) {
-                elements.add(UriRecord.parse(record));
-            } else if (TextRecord.isText(record)) {
-                elements.add(TextRecord.parse(record));
-            } else if (ImageRecord.isImage(record)) {
-                elements.add(ImageRecord.parse(record));
-            } else if (VCardRecord.isVCard(record)) {
-                elements.add(VCardRecord.parse(record));
-            } else if (MimeRecord.isMime(record)) {
-                elements.add(MimeRecord.parse(record));
-            } else {
-                elements.add(new UnknownRecord());
+        return getRecords(records, ParseBudget.UNBOUNDED);
+    }
+
+    /**
+     * Parses {@code records} in order until {@code budget} runs out, returning a
+     * {@link DeferredRecord} for each record it doesn't stretch to. When records are parsed side
+     * by side, which of them run out of budget depends on which finish first.
+     */
+    public static List<ParsedNdefRecord> getRecords(NdefRecord[] records, ParseBudget budget) {
+        return ParallelRecordParser.parse(records, budget);
+    }
+
+    /**
+     * Returns the packages named by the Android Application Records of {@code message}, in
+     * message order. Only external type records are looked at, so this costs next to nothing
+     * next to parsing the message.
+     */
+    public static List<String> getApplicationPackages(NdefMessage message) {
+        ArrayList<String> packages = Lists.newArrayList();
+        for (NdefRecord record : message.getRecords()) {
+            if (record.getTnf() != NdefRecord.TNF_EXTERNAL_TYPE) {
+                continue;
             }
+            AarData aar;
+            try {
+                aar = AarData.parse(new Record(record.getTnf(), record.getType(),
+                        record.getId(), record.getPayload()));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (aar != null) {
+                packages.add(aar.getPackageName());
+            }
+        }
+        return packages;
+    }
+
+    /**
+     * Returns the smart poster that starts {@code message} if it recommends its action be done,
+     * or {@code null} otherwise. Only the first record is parsed, against {@code budget}.
+     */
+    public static SmartPosterData getActionPoster(NdefMessage message, ParseBudget budget) {
+        NdefRecord[] records = message.getRecords();
+        if (records.length == 0 || records[0].getTnf() != NdefRecord.TNF_WELL_KNOWN) {
+            return null;
+        }
+        RecordData data;
+        try {
+            data = RecordParser.parse(new Record(records[0].getTnf(), records[0].getType(),
+                    records[0].getId(), records[0].getPayload()), budget);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!(data instanceof SmartPosterData)) {
+            return null;
+        }
+        SmartPosterData poster = (SmartPosterData) data;
+        return poster.getAction() == SmartPosterData.RecommendedAction.DO_ACTION ? poster : null;
+    }
+
+    /** Parse a single NdefRecord, falling back to an {@link UnknownRecord}. */
+    public static ParsedNdefRecord parseRecord(NdefRecord record) {
+        return parseRecord(record, ParseBudget.UNBOUNDED);
+    }
+
+    /**
+     * Parses a single NdefRecord, or returns a {@link DeferredRecord} if {@code budget} doesn't
+     * stretch to it.
+     */
+    public static ParsedNdefRecord parseRecord(NdefRecord record, ParseBudget budget) {
+        long start = ScanStats.begin(ScanStats.PARSE_RECORD);
+        String type = "failed";
+        try {
+            ParsedNdefRecord parsed = parseRecordUntimed(record, budget);
+            type = parsed.getRecordType();
+            return parsed;
+        } finally {
+            ScanStats.end(ScanStats.byType(ScanStats.PARSE_RECORD, type), start);
+        }
+    }
+
+    /** Parses the record behind {@code deferred} in full, whatever it costs. */
+    public static ParsedNdefRecord expand(DeferredRecord deferred) {
+        long start = ScanStats.begin(ScanStats.PARSE_RECORD);
+        String type = "failed";
+        try {
+            ParsedNdefRecord parsed = wrap(RecordParser.parse(deferred.getDeferred().getRecord()));
+            type = parsed.getRecordType();
+            return parsed;
+        } finally {
+            ScanStats.end(ScanStats.byType(ScanStats.PARSE_RECORD, type), start);
+        }
+    }
+
+    private static ParsedNdefRecord parseRecordUntimed(NdefRecord record, ParseBudget budget) {
+        Record core;
+        try {
+            core = new Record(record.getTnf(), record.getType(), record.getId(),
+                    record.getPayload());
+        } catch (IllegalArgumentException e) {
+            return new UnknownRecord();
+        }
+        RecordData data = RecordParser.parse(core, budget);
+        if (data instanceof ImageData || data instanceof VCardData) {
+            // Decoding the image or vCard costs more than parsing the record, so it needs time
+            // of its own
+            ParseBudget.Limit limit = budget.checkTime();
+            if (limit != null) {
+                return new DeferredRecord(new DeferredData(core, limit));
+            }
+        }
+        return wrap(data);
+    }
+
+    /** Returns the view of {@code data}. */
+    static ParsedNdefRecord wrap(RecordData data) {
+        if (data instanceof DeferredData) {
+            return new DeferredRecord((DeferredData) data);
+        } else if (data instanceof SmartPosterData) {
+            return new SmartPoster((SmartPosterData) data);
+        } else if (data instanceof UriData) {
+            return new UriRecord((UriData) data);
+        } else if (data instanceof TextData) {
+            return new TextRecord((TextData) data);
+        } else if (data instanceof ImageData) {
+            // Only shown as an image if the platform decodes it, as a MIME record otherwise
+            ImageData imageData = (ImageData) data;
+            ImageRecord image = ImageRecord.decode(imageData);
+            return image != null ? image
+                    : new MimeRecord(new MimeData(imageData.getMimeType(),
+                            imageData.getContentBuffer()));
+        } else if (data instanceof VCardData) {
+            return new VCardRecord((VCardData) data);
+        } else if (data instanceof HandoverData) {
+            return new HandoverRecord((HandoverData) data);
+        } else if (data instanceof BluetoothOobData) {
+            return new BluetoothOobRecord((BluetoothOobData) data);
+        } else if (data instanceof WifiConfigData) {
+            return new WifiConfigRecord((WifiConfigData) data);
+        } else if (data instanceof AarData) {
+            return new AarRecord((AarData) data);
+        } else if (data instanceof ExternalTypeData) {
+            return new ExternalTypeRecord((ExternalTypeData) data);
+        } else if (data instanceof MimeData) {
+            return new MimeRecord((MimeData) data);
+        } else {
+            return new UnknownRecord();
         }
-        return elements;
     }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.message;
+
+import com.android.apps.tag.core.record.ParseBudget;
+import com.android.apps.tag.record.DeferredRecord;
+import com.android.apps.tag.record.ParsedNdefRecord;
+import com.android.apps.tag.util.ScanStats;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import android.nfc.NdefRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses the heavy records of a message, images, vCards and nested smart posters, at the same
+ * time on a small pool, so a message holding several waits for the slowest rather than for all
+ * of them in turn. Other records are cheap and are parsed on the calling thread, as is the
+ * costliest heavy record while the pool works on the rest.
+ *
+ * <p>Whether a message is worth spreading out is decided from what parsing has cost so far: the
+ * time per payload byte of each kind of heavy record, and the time a record waits to be picked
+ * up by the pool. Only when the time saved clearly exceeds the handoffs do records leave the
+ * calling thread, so small messages are parsed exactly as before.
+ */
+final class ParallelRecordParser {
+    private static final int KIND_CHEAP = -1;
+    private static final int KIND_IMAGE = 0;
+    private static final int KIND_VCARD = 1;
+    private static final int KIND_SMART_POSTER = 2;
+    private static final int KIND_LARGE = 3;
+
+    /** Payloads at least this large are heavy whatever the record is. */
+    private static final int LARGE_PAYLOAD = 4 * 1024;
+
+    /** Smart posters this large have room for nested posters or an icon. */
+    private static final int LARGE_SMART_POSTER = 256;
+
+    /** Starting guesses at the cost of each kind of heavy record, until it is measured. */
+    private static final double[] INITIAL_NANOS_PER_BYTE = { 100, 20, 10, 5 };
+    private static final double INITIAL_HANDOFF_NANOS = 100 * 1000;
+
+    /** The weight of each new measurement in the running averages. */
+    private static final double SMOOTHING = 1 / 8.0;
+
+    /** How many times the handoffs the time saved must be to go parallel. */
+    private static final int MIN_GAIN = 2;
+
+    private static final int MAX_THREADS = 3;
+    private static final int THREADS = Math.min(MAX_THREADS,
+            Runtime.getRuntime().availableProcessors() - 1);
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private static final double[] sNanosPerByte = INITIAL_NANOS_PER_BYTE.clone();
+    private static double sHandoffNanos = INITIAL_HANDOFF_NANOS;
+    private static ThreadPoolExecutor sExecutor;
+
+    private ParallelRecordParser() { }
+
+    /** Returns the parsed {@code records}, in order, each charged to {@code budget}. */
+    static List<ParsedNdefRecord> parse(NdefRecord[] records, ParseBudget budget) {
+        ParsedNdefRecord[] parsed = new ParsedNdefRecord[records.length];
+        int[] kinds = new int[records.length];
+        // The platform copies the payload on every call, so its length is taken once
+        int[] lengths = new int[records.length];
+        ArrayList<Integer> heavy = Lists.newArrayList();
+        double totalCost = 0;
+        double maxCost = 0;
+        int costliest = -1;
+        for (int i = 0; i < records.length; i++) {
+            lengths[i] = records[i].getPayload().length;
+            kinds[i] = kindOf(records[i], lengths[i]);
+            if (kinds[i] != KIND_CHEAP) {
+                heavy.add(i);
+                double cost = estimateNanos(kinds[i], lengths[i]);
+                totalCost += cost;
+                if (cost > maxCost) {
+                    maxCost = cost;
+                    costliest = i;
+                }
+            }
+        }
+
+        boolean parallel = THREADS > 0 && heavy.size() > 1
+                && totalCost - maxCost > MIN_GAIN * handoffNanos() * (heavy.size() - 1);
+        if (!parallel) {
+            for (int i = 0; i < records.length; i++) {
+                parsed[i] = parseMeasured(records[i], budget, kinds[i], lengths[i]);
+            }
+            return Lists.newArrayList(Arrays.asList(parsed));
+        }
+
+        ScanStats.increment(ScanStats.RECORDS_PARSED_IN_PARALLEL, heavy.size() - 1);
+        ArrayList<Future<ParsedNdefRecord>> futures = Lists.newArrayList();
+        for (int i : heavy) {
+            futures.add(i == costliest ? null : submit(records[i], budget, kinds[i], lengths[i]));
+        }
+        for (int i = 0; i < records.length; i++) {
+            if (kinds[i] == KIND_CHEAP || i == costliest) {
+                parsed[i] = parseMeasured(records[i], budget, kinds[i], lengths[i]);
+            }
+        }
+        for (int j = 0; j < heavy.size(); j++) {
+            int i = heavy.get(j);
+            if (i != costliest) {
+                parsed[i] = await(futures.get(j), records[i], budget);
+            }
+        }
+        return Lists.newArrayList(Arrays.asList(parsed));
+    }
+
+    private static int kindOf(NdefRecord record, int length) {
+        short tnf = record.getTnf();
+        if (tnf == NdefRecord.TNF_MIME_MEDIA) {
+            String type = new String(record.getType(), Charsets.US_ASCII).toLowerCase(Locale.US);
+            if (type.startsWith("image/")) {
+                return KIND_IMAGE;
+            } else if (type.equals("text/x-vcard") || type.equals("text/vcard")) {
+                return KIND_VCARD;
+            }
+        } else if (tnf == NdefRecord.TNF_WELL_KNOWN
+                && Arrays.equals(record.getType(), NdefRecord.RTD_SMART_POSTER)
+                && length >= LARGE_SMART_POSTER) {
+            return KIND_SMART_POSTER;
+        }
+        return length >= LARGE_PAYLOAD ? KIND_LARGE : KIND_CHEAP;
+    }
+
+    private static synchronized double estimateNanos(int kind, int length) {
+        return sNanosPerByte[kind] * length;
+    }
+
+    private static synchronized double handoffNanos() {
+        return sHandoffNanos;
+    }
+
+    /** Parses {@code record}, folding the time it took into the estimate for its kind. */
+    private static ParsedNdefRecord parseMeasured(NdefRecord record, ParseBudget budget,
+            int kind, int length) {
+        long start = System.nanoTime();
+        ParsedNdefRecord parsed = NdefMessageParser.parseRecord(record, budget);
+        // A record that ran out of budget took no time, which says nothing about its kind
+        if (kind != KIND_CHEAP && length > 0 && !(parsed instanceof DeferredRecord)) {
+            double nanosPerByte = (double) (System.nanoTime() - start) / length;
+            synchronized (ParallelRecordParser.class) {
+                sNanosPerByte[kind] += (nanosPerByte - sNanosPerByte[kind]) * SMOOTHING;
+            }
+        }
+        return parsed;
+    }
+
+    private static Future<ParsedNdefRecord> submit(final NdefRecord record,
+            final ParseBudget budget, final int kind, final int length) {
+        final long submitted = System.nanoTime();
+        return getExecutor().submit(new Callable<ParsedNdefRecord>() {
+            @Override
+            public ParsedNdefRecord call() {
+                long handoff = System.nanoTime() - submitted;
+                synchronized (ParallelRecordParser.class) {
+                    sHandoffNanos += (handoff - sHandoffNanos) * SMOOTHING;
+                }
+                return parseMeasured(record, budget, kind, length);
+            }
+        });
+    }
+
+    private static ParsedNdefRecord await(Future<ParsedNdefRecord> future, NdefRecord record,
+            ParseBudget budget) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            return NdefMessageParser.parseRecord(record, budget);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "RecordParser #" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+}
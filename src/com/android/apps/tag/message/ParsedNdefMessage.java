@@ -17,6 +17,7 @@
 package com.android.apps.tag.message;
 
 import com.android.apps.tag.R;
+import com.android.apps.tag.record.DeferredRecord;
 import com.android.apps.tag.record.ParsedNdefRecord;
 import com.android.apps.tag.record.SmartPoster;
 import com.android.apps.tag.record.UriRecord;
@@ -45,6 +46,16 @@ public class ParsedNdefMessage {
         return mRecords;
     }
 
+    /** Returns true if a record was left unparsed because the parse budget ran out. */
+    public boolean hasDeferredRecords() {
+        for (ParsedNdefRecord record : mRecords) {
+            if (record instanceof DeferredRecord) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns the snippet information associated with the NdefMessage
      * most appropriate for the given {@code locale}.
@@ -53,6 +64,16 @@ public class ParsedNdefMessage {
         if (mRecords.isEmpty()) {
             return context.getString(R.string.tag_empty);
         }
+        return getPrimaryRecord().getSnippet(context, locale);
+    }
+
+    /**
+     * Returns the record that best describes the message, or {@code null} if it is empty.
+     */
+    public ParsedNdefRecord getPrimaryRecord() {
+        if (mRecords.isEmpty()) {
+            return null;
+        }
 
         ParsedNdefRecord record = mRecords.get(0);
 
@@ -77,6 +98,6 @@ public class ParsedNdefMessage {
             }
         }
 
-        return record.getSnippet(context, locale);
+        return record;
     }
 }
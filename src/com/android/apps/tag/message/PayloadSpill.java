@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.message;
+
+import com.android.apps.tag.core.record.MimeData;
+import com.android.apps.tag.record.MimeRecord;
+import com.android.apps.tag.record.ParsedNdefRecord;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Moves the content of large MIME records off the Java heap, into files in the app's cache that
+ * are mapped back in read-only. The content is written once, and is then read through the
+ * mapping as a {@link ByteBuffer} or stream like content on the heap.
+ *
+ * <p>A spilled record holds its file until {@link ParsedNdefRecord#release} is called, which
+ * deletes it. Files left behind by a process that died are deleted when this is first used.
+ *
+ * <p>Images and vCards aren't spilled, as they are decoded from a byte array anyway. Spilling,
+ * and the first use of this, do I/O and belong off the UI thread. {@link #isSpillable} doesn't.
+ */
+public class PayloadSpill {
+    private static final String TAG = "PayloadSpill";
+
+    /** Content at least this large is spilled. Smaller content costs less on the heap. */
+    public static final int SPILL_THRESHOLD = 64 * 1024;
+
+    private static final String SPILL_DIR = "payloads";
+    private static final String SPILL_PREFIX = "payload";
+
+    private static PayloadSpill sInstance;
+
+    private final File mDir;
+
+    /** A spilled file, deleted once the record holding it is released. */
+    public static final class Handle {
+        private final File mFile;
+        private final ByteBuffer mContent;
+        private boolean mReleased;
+
+        Handle(File file, ByteBuffer content) {
+            mFile = file;
+            mContent = content;
+        }
+
+        /** Returns the mapped content. */
+        public ByteBuffer getContent() {
+            return mContent.duplicate();
+        }
+
+        /**
+         * Deletes the file. The mapping stays readable until it is collected, so a view that
+         * still shows the content keeps working.
+         */
+        public synchronized void release() {
+            if (!mReleased) {
+                mReleased = true;
+                if (!mFile.delete()) {
+                    Log.w(TAG, "Failed to delete " + mFile);
+                }
+            }
+        }
+    }
+
+    private PayloadSpill(File dir) {
+        mDir = dir;
+        deleteLeftovers();
+    }
+
+    public static synchronized PayloadSpill get(Context context) {
+        if (sInstance == null) {
+            sInstance = new PayloadSpill(new File(context.getCacheDir(), SPILL_DIR));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns {@code record}, or in its place a record whose content was spilled if it is a MIME
+     * record of at least {@link #SPILL_THRESHOLD} bytes. The record is returned unchanged if the
+     * content can't be written. This does I/O for large records.
+     */
+    public ParsedNdefRecord spill(ParsedNdefRecord record) {
+        if (!isSpillable(record)) {
+            return record;
+        }
+        MimeData mime = (MimeData) record.getData();
+        try {
+            Handle handle = write(mime.getContentBuffer());
+            return new MimeRecord(new MimeData(mime.getMimeType(), handle.getContent()), handle);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to spill " + mime.getContentLength() + " bytes", e);
+            return record;
+        }
+    }
+
+    /** Returns true if {@link #spill} would move the content of {@code record} off the heap. */
+    public static boolean isSpillable(ParsedNdefRecord record) {
+        return record.getClass() == MimeRecord.class && !((MimeRecord) record).isSpilled()
+                && ((MimeRecord) record).getContentLength() >= SPILL_THRESHOLD;
+    }
+
+    private Handle write(ByteBuffer content) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't create " + mDir);
+        }
+        File file = File.createTempFile(SPILL_PREFIX, null, mDir);
+        boolean written = false;
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = out.getChannel();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            // The mapping outlives the file being closed
+            ByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            written = true;
+            return new Handle(file, mapped);
+        } finally {
+            out.close();
+            if (!written) {
+                file.delete();
+            }
+        }
+    }
+
+    private void deleteLeftovers() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(SPILL_PREFIX) && !file.delete()) {
+                Log.w(TAG, "Failed to delete " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.provider;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import android.nfc.NdefRecord;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Finds where a record's payload lies in a serialized NDEF message by walking the record
+ * headers, without copying or decoding any payload.
+ */
+final class NdefLayout {
+    private static final int FLAG_CF = 0x20;
+    private static final int FLAG_SR = 0x10;
+    private static final int FLAG_IL = 0x08;
+    private static final int TNF_MASK = 0x07;
+
+    /**
+     * The payload of one logical record. A chunked record's payload is spread over several
+     * slices, which are views of the message and share its storage.
+     */
+    static final class Payload {
+        final short tnf;
+        final byte[] type;
+        final List<ByteBuffer> slices;
+        final long length;
+
+        Payload(short tnf, byte[] type, List<ByteBuffer> slices, long length) {
+            this.tnf = tnf;
+            this.type = type;
+            this.slices = slices;
+            this.length = length;
+        }
+
+        /** Returns the MIME type to serve the payload as. */
+        String getMimeType() {
+            if (tnf == NdefRecord.TNF_MIME_MEDIA && type.length > 0) {
+                return new String(type, Charsets.US_ASCII).toLowerCase(Locale.US);
+            }
+            return "application/octet-stream";
+        }
+    }
+
+    private NdefLayout() { }
+
+    /**
+     * Returns the payload of the record at {@code offset} in {@code message}, counting chunked
+     * records once, or {@code null} if there is no such record or the message is malformed.
+     */
+    static Payload findPayload(ByteBuffer message, int offset) {
+        ByteBuffer in = message.duplicate();
+        int index = 0;
+        boolean inChunk = false;
+        short tnf = 0;
+        byte[] type = null;
+        ArrayList<ByteBuffer> slices = null;
+        long length = 0;
+
+        while (in.remaining() >= 3) {
+            int flags = in.get() & 0xff;
+            int typeLength = in.get() & 0xff;
+            long payloadLength;
+            if ((flags & FLAG_SR) != 0) {
+                payloadLength = in.get() & 0xff;
+            } else {
+                if (in.remaining() < 4) {
+                    return null;
+                }
+                payloadLength = in.getInt() & 0xffffffffL;
+            }
+            int idLength = 0;
+            if ((flags & FLAG_IL) != 0) {
+                if (!in.hasRemaining()) {
+                    return null;
+                }
+                idLength = in.get() & 0xff;
+            }
+            if (in.remaining() < (long) typeLength + idLength + payloadLength) {
+                return null;
+            }
+
+            boolean wanted = index == offset;
+            if (!inChunk && wanted) {
+                tnf = (short) (flags & TNF_MASK);
+                type = new byte[typeLength];
+                in.get(type);
+                slices = Lists.newArrayList();
+            } else {
+                in.position(in.position() + typeLength);
+            }
+            in.position(in.position() + idLength);
+            if (wanted) {
+                ByteBuffer slice = in.slice();
+                slice.limit((int) payloadLength);
+                slices.add(slice);
+                length += payloadLength;
+            }
+            in.position(in.position() + (int) payloadLength);
+
+            inChunk = (flags & FLAG_CF) != 0;
+            if (!inChunk) {
+                if (wanted) {
+                    return new Payload(tnf, type, slices, length);
+                }
+                index++;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.provider;
+
+import com.google.common.hash.HashCode;
+
+import android.content.ContentUris;
+import android.net.Uri;
+
+/**
+ * The URIs served by {@link TagProvider}.
+ *
+ * <p>A message is named either by the digest of its bytes, which is known as soon as a tag is
+ * read, or by the id of a history entry. Appending {@code /<offset>/mime} to a message URI names
+ * the payload of the record at that offset, typed with the record's MIME type.
+ */
+public final class TagContract {
+    public static final String AUTHORITY = "com.android.apps.tag";
+
+    public static final Uri AUTHORITY_URI = Uri.parse("content://" + AUTHORITY);
+
+    /** The MIME type of a whole NDEF message. */
+    public static final String MESSAGE_ITEM_TYPE = "vnd.android.cursor.item/ndef_msg";
+
+    /** The path segment that follows a record offset. */
+    public static final String RECORD_MIME_SEGMENT = "mime";
+
+    private TagContract() { }
+
+    /** Messages named by the digest of their bytes. */
+    public static final class Messages {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, "messages");
+
+        private Messages() { }
+
+        public static Uri buildMessageUri(HashCode digest) {
+            return Uri.withAppendedPath(CONTENT_URI, digest.toString());
+        }
+    }
+
+    /** The messages of history entries, named by entry id. */
+    public static final class Entries {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, "entries");
+
+        private Entries() { }
+
+        public static Uri buildEntryUri(int id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+
+    /** Returns the URI of the payload of the record at {@code offset} in a message. */
+    public static Uri buildRecordUri(Uri messageUri, int offset) {
+        return messageUri.buildUpon()
+                .appendPath(Integer.toString(offset))
+                .appendPath(RECORD_MIME_SEGMENT)
+                .build();
+    }
+}
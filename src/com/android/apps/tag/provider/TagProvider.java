@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.provider;
+
+import com.android.apps.tag.history.BlobStore;
+import com.android.apps.tag.history.TagHistory;
+import com.google.common.hash.HashCode;
+
+import android.content.ContentProvider;
+import android.content.ContentProvider.PipeDataWriter;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Serves stored NDEF messages, and the payloads of their records, as streams.
+ *
+ * <p>A whole message is handed out as a read-only descriptor of the file it is stored in. A
+ * record payload is written into a pipe straight from the memory-mapped message, so neither is
+ * ever copied onto the heap. See {@link TagContract} for the URIs.
+ */
+public class TagProvider extends ContentProvider implements PipeDataWriter<NdefLayout.Payload> {
+    private static final String TAG = "TagProvider";
+
+    private static final int MESSAGE = 1;
+    private static final int MESSAGE_RECORD = 2;
+    private static final int ENTRY = 3;
+    private static final int ENTRY_RECORD = 4;
+
+    private static final UriMatcher sMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+    static {
+        String mime = "/#/" + TagContract.RECORD_MIME_SEGMENT;
+        sMatcher.addURI(TagContract.AUTHORITY, "messages/*", MESSAGE);
+        sMatcher.addURI(TagContract.AUTHORITY, "messages/*" + mime, MESSAGE_RECORD);
+        sMatcher.addURI(TagContract.AUTHORITY, "entries/#", ENTRY);
+        sMatcher.addURI(TagContract.AUTHORITY, "entries/#" + mime, ENTRY_RECORD);
+    }
+
+    private static final String[] DEFAULT_PROJECTION = new String[] {
+        OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE,
+    };
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        int match = sMatcher.match(uri);
+        if (match == MESSAGE || match == ENTRY) {
+            return TagContract.MESSAGE_ITEM_TYPE;
+        }
+        try {
+            NdefLayout.Payload payload = findPayload(uri, match);
+            return payload == null ? null : payload.getMimeType();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        int match = sMatcher.match(uri);
+        long size;
+        try {
+            if (match == MESSAGE || match == ENTRY) {
+                size = getMessageFile(uri, match).length();
+            } else {
+                NdefLayout.Payload payload = findPayload(uri, match);
+                if (payload == null) {
+                    return null;
+                }
+                size = payload.length;
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+
+        if (projection == null) {
+            projection = DEFAULT_PROJECTION;
+        }
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = uri.getLastPathSegment();
+            } else if (OpenableColumns.SIZE.equals(projection[i])) {
+                row[i] = size;
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Read only: " + uri);
+        }
+        int match = sMatcher.match(uri);
+        if (match == MESSAGE || match == ENTRY) {
+            return ParcelFileDescriptor.open(getMessageFile(uri, match),
+                    ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+        NdefLayout.Payload payload = findPayload(uri, match);
+        if (payload == null) {
+            throw new FileNotFoundException("No record " + uri);
+        }
+        return openPipeHelper(uri, payload.getMimeType(), null, payload, this);
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+            Bundle opts, NdefLayout.Payload payload) {
+        FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+        try {
+            FileChannel channel = out.getChannel();
+            for (ByteBuffer slice : payload.slices) {
+                ByteBuffer remaining = slice.duplicate();
+                while (remaining.hasRemaining()) {
+                    channel.write(remaining);
+                }
+            }
+        } catch (IOException e) {
+            // Most likely the reader went away
+            Log.w(TAG, "Failed to stream " + uri, e);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    private NdefLayout.Payload findPayload(Uri uri, int match) throws FileNotFoundException {
+        if (match != MESSAGE_RECORD && match != ENTRY_RECORD) {
+            throw new FileNotFoundException("Unknown URI " + uri);
+        }
+        List<String> segments = uri.getPathSegments();
+        int offset = Integer.parseInt(segments.get(2));
+        try {
+            ByteBuffer message = getBlobStore().map(getDigest(uri, match));
+            return NdefLayout.findPayload(message, offset);
+        } catch (IOException e) {
+            throw asFileNotFound(uri, e);
+        }
+    }
+
+    private File getMessageFile(Uri uri, int match) throws FileNotFoundException {
+        BlobStore blobs = getBlobStore();
+        HashCode digest = getDigest(uri, match);
+        if (!blobs.contains(digest)) {
+            throw new FileNotFoundException("No message " + uri);
+        }
+        return blobs.getFile(digest);
+    }
+
+    private HashCode getDigest(Uri uri, int match) throws FileNotFoundException {
+        String name = uri.getPathSegments().get(1);
+        if (match == MESSAGE || match == MESSAGE_RECORD) {
+            try {
+                return HashCode.fromString(name);
+            } catch (IllegalArgumentException e) {
+                throw new FileNotFoundException("Bad message " + uri);
+            }
+        } else if (match == ENTRY || match == ENTRY_RECORD) {
+            try {
+                HashCode digest = TagHistory.get(getContext()).getStore().getDigest(
+                        Integer.parseInt(name));
+                if (digest == null) {
+                    throw new FileNotFoundException("Deleted entry " + uri);
+                }
+                return digest;
+            } catch (IndexOutOfBoundsException e) {
+                throw new FileNotFoundException("No entry " + uri);
+            } catch (IOException e) {
+                throw asFileNotFound(uri, e);
+            }
+        }
+        throw new FileNotFoundException("Unknown URI " + uri);
+    }
+
+    private BlobStore getBlobStore() throws FileNotFoundException {
+        try {
+            return TagHistory.get(getContext()).getStore().getBlobStore();
+        } catch (IOException e) {
+            throw asFileNotFound(null, e);
+        }
+    }
+
+    private static FileNotFoundException asFileNotFound(Uri uri, IOException e) {
+        if (e instanceof FileNotFoundException) {
+            return (FileNotFoundException) e;
+        }
+        FileNotFoundException fnf = new FileNotFoundException("Can't read " + uri);
+        fnf.initCause(e);
+        return fnf;
+    }
+}
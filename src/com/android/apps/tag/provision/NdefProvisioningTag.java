@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.provision;
+
+import android.nfc.FormatException;
+import android.nfc.NdefMessage;
+import android.nfc.Tag;
+import android.nfc.TagLostException;
+import android.nfc.tech.Ndef;
+import android.nfc.tech.NdefFormatable;
+import android.nfc.tech.TagTechnology;
+
+import java.io.IOException;
+
+/**
+ * A {@link ProvisioningTag} backed by a real tag, either already NDEF formatted or formattable.
+ * A formattable tag is formatted by its first write. Its capacity isn't known before that, so a
+ * message too large for it fails the write instead of the size check, and once formatted it
+ * can't be locked separately, so it is formatted read-only when the tag is to be locked.
+ */
+public class NdefProvisioningTag implements ProvisioningTag {
+    private final Ndef mNdef;
+    private final NdefFormatable mFormatable;
+
+    private NdefProvisioningTag(Ndef ndef, NdefFormatable formatable) {
+        mNdef = ndef;
+        mFormatable = formatable;
+    }
+
+    /** Returns a provisioning tag for {@code tag}, or {@code null} if it can't hold NDEF. */
+    public static NdefProvisioningTag get(Tag tag) {
+        Ndef ndef = Ndef.get(tag);
+        if (ndef != null) {
+            return new NdefProvisioningTag(ndef, null);
+        }
+        NdefFormatable formatable = NdefFormatable.get(tag);
+        if (formatable != null) {
+            return new NdefProvisioningTag(null, formatable);
+        }
+        return null;
+    }
+
+    private TagTechnology getTech() {
+        return mNdef != null ? mNdef : mFormatable;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        try {
+            getTech().connect();
+        } catch (TagLostException e) {
+            throw new LostTagException(e);
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return mNdef != null ? mNdef.getMaxSize() : UNKNOWN_SIZE;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return mNdef == null || mNdef.isWritable();
+    }
+
+    @Override
+    public boolean write(byte[] bytes, boolean lock) throws IOException {
+        try {
+            // Parsing a message this size takes far less than the write itself
+            NdefMessage msg = new NdefMessage(bytes);
+            if (mNdef != null) {
+                mNdef.writeNdefMessage(msg);
+                return false;
+            } else if (lock) {
+                mFormatable.formatReadOnly(msg);
+                return true;
+            } else {
+                mFormatable.format(msg);
+                return false;
+            }
+        } catch (TagLostException e) {
+            throw new LostTagException(e);
+        } catch (FormatException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public byte[] read() throws IOException {
+        if (mNdef == null) {
+            // Formatting doesn't add Ndef to a tag that is already discovered
+            return null;
+        }
+        try {
+            NdefMessage msg = mNdef.getNdefMessage();
+            return msg == null ? new byte[0] : msg.toByteArray();
+        } catch (TagLostException e) {
+            throw new LostTagException(e);
+        } catch (FormatException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public boolean canMakeReadOnly() {
+        return mNdef != null && mNdef.canMakeReadOnly();
+    }
+
+    @Override
+    public boolean makeReadOnly() throws IOException {
+        try {
+            return mNdef != null && mNdef.makeReadOnly();
+        } catch (TagLostException e) {
+            throw new LostTagException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            getTech().close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.provision;
+
+import com.android.apps.tag.R;
+import com.android.apps.tag.message.NdefMessageBuilder;
+import com.android.apps.tag.record.TextRecord;
+import com.android.apps.tag.record.UriRecord;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.nfc.NdefMessage;
+import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.nfc.tech.Ndef;
+import android.nfc.tech.NdefFormatable;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
+import android.util.Log;
+import android.view.WindowManager;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Programs tags in bulk. Each tag held to the device while this is in the foreground gets the
+ * next queued message, and the running totals are shown in place of any per-tag prompt.
+ *
+ * <p>The messages come from the starting intent, as {@link #EXTRA_URIS}, {@link #EXTRA_TEXTS}
+ * or ready made {@link NfcAdapter#EXTRA_NDEF_MESSAGES}. Starting it takes the signature
+ * permission {@code com.android.apps.tag.permission.PROVISION}, as a queue with
+ * {@link #EXTRA_LOCK} locks every tag it is held to for good.
+ *
+ * <p>The queue and its totals live in a {@link Session} that is handed to the next instance
+ * when the activity is recreated for a configuration change, so rotating the device neither
+ * starts the queue over nor interrupts a tag being written.
+ */
+public class ProvisionActivity extends Activity {
+    static final String TAG = "ProvisionActivity";
+
+    public static final String ACTION_PROVISION = "com.android.apps.tag.action.PROVISION";
+
+    /** URIs to write, one per tag. */
+    public static final String EXTRA_URIS = "com.android.apps.tag.extra.URIS";
+
+    /** Plain text to write, one per tag. */
+    public static final String EXTRA_TEXTS = "com.android.apps.tag.extra.TEXTS";
+
+    /** Whether to make each tag read-only once it is written. */
+    public static final String EXTRA_LOCK = "com.android.apps.tag.extra.LOCK";
+
+    /** Whether to start over with the first message after the last. */
+    public static final String EXTRA_REPEAT = "com.android.apps.tag.extra.REPEAT";
+
+    /** The state that outlives a single instance of the activity. */
+    private static final class Session {
+        final Provisioner provisioner;
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        /** The instance showing the results, only touched on the UI thread. */
+        ProvisionActivity activity;
+
+        Session(Provisioner provisioner) {
+            this.provisioner = provisioner;
+        }
+    }
+
+    private NfcAdapter mAdapter;
+    private Session mSession;
+    private Provisioner mProvisioner;
+    private boolean mRetained;
+    private TextView mStatus;
+    private TextView mLastResult;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        setContentView(R.layout.provision);
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        mStatus = (TextView) findViewById(R.id.provision_status);
+        mLastResult = (TextView) findViewById(R.id.provision_last);
+
+        mSession = (Session) getLastNonConfigurationInstance();
+        if (mSession == null) {
+            ArrayList<NdefMessage> messages = getMessages(getIntent());
+            if (messages.isEmpty()) {
+                Log.e(TAG, "Nothing to provision");
+                finish();
+                return;
+            }
+            ArrayList<byte[]> serialized = Lists.newArrayListWithCapacity(messages.size());
+            for (NdefMessage message : messages) {
+                serialized.add(message.toByteArray());
+            }
+            mSession = new Session(new Provisioner(serialized,
+                    getIntent().getBooleanExtra(EXTRA_LOCK, false),
+                    getIntent().getBooleanExtra(EXTRA_REPEAT, false)));
+        }
+        mSession.activity = this;
+        mProvisioner = mSession.provisioner;
+        mAdapter = NfcAdapter.getDefaultAdapter(this);
+        updateStatus();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (mAdapter != null) {
+            Intent intent = new Intent(this, getClass())
+                    .addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+            PendingIntent pending = PendingIntent.getActivity(this, 0, intent, 0);
+            IntentFilter[] filters = new IntentFilter[] {
+                new IntentFilter(NfcAdapter.ACTION_TECH_DISCOVERED),
+            };
+            String[][] techLists = new String[][] {
+                new String[] { Ndef.class.getName() },
+                new String[] { NdefFormatable.class.getName() },
+            };
+            mAdapter.enableForegroundDispatch(this, pending, filters, techLists);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (mAdapter != null) {
+            mAdapter.disableForegroundDispatch(this);
+        }
+    }
+
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        mRetained = mSession != null;
+        return mSession;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mSession == null) {
+            return;
+        }
+        if (mSession.activity == this) {
+            mSession.activity = null;
+        }
+        if (!mRetained) {
+            // Let a tag that is being written finish rather than leave it half written
+            mSession.executor.shutdown();
+        }
+    }
+
+    @Override
+    public void onNewIntent(Intent intent) {
+        final Tag tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
+        if (tag == null || mSession == null || mSession.executor.isShutdown()) {
+            return;
+        }
+        final Session session = mSession;
+        final Handler handler = new Handler(Looper.getMainLooper());
+        session.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!session.provisioner.hasNext()) {
+                    return;
+                }
+                final Provisioner.Result result =
+                        session.provisioner.provision(NdefProvisioningTag.get(tag));
+                if (result.error != null) {
+                    Log.w(TAG, "Failed to provision tag", result.error);
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Shown by whichever instance is current once the write is done
+                        if (session.activity != null) {
+                            session.activity.showResult(result);
+                            session.activity.updateStatus();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    void showResult(Provisioner.Result result) {
+        if (result.failure == null) {
+            mLastResult.setText(getString(R.string.provision_result_ok,
+                    result.messageIndex + 1, result.latencyNanos / 1000000));
+        } else {
+            mLastResult.setText(getString(R.string.provision_result_failed,
+                    result.messageIndex + 1, result.failure));
+        }
+    }
+
+    void updateStatus() {
+        Provisioner.Stats stats = mProvisioner.getStats();
+        StringBuilder status = new StringBuilder();
+        String remaining = stats.remaining < 0
+                ? getString(R.string.provision_unlimited) : Integer.toString(stats.remaining);
+        status.append(getString(R.string.provision_status, stats.provisioned, remaining,
+                stats.tagsPerMinute));
+        if (stats.writeLatency.getCount() > 0) {
+            status.append('\n').append(getString(R.string.provision_latency,
+                    stats.writeLatency.toString()));
+        }
+        if (!stats.failures.isEmpty()) {
+            status.append('\n').append(getString(R.string.provision_failures,
+                    Joiner.on(", ").withKeyValueSeparator("=").join(stats.failures)));
+        }
+        if (!mProvisioner.hasNext()) {
+            status.append('\n').append(getString(R.string.provision_done));
+        }
+        mStatus.setText(status);
+    }
+
+    /** Builds the queued messages from the extras of {@code intent}. */
+    static ArrayList<NdefMessage> getMessages(Intent intent) {
+        ArrayList<NdefMessage> messages = Lists.newArrayList();
+        Parcelable[] raw = intent.getParcelableArrayExtra(NfcAdapter.EXTRA_NDEF_MESSAGES);
+        if (raw != null) {
+            for (Parcelable msg : raw) {
+                messages.add((NdefMessage) msg);
+            }
+        }
+        String[] uris = intent.getStringArrayExtra(EXTRA_URIS);
+        if (uris != null) {
+            for (String uri : uris) {
+                messages.add(new NdefMessageBuilder()
+                        .add(UriRecord.newUriRecord(Uri.parse(uri)))
+                        .build());
+            }
+        }
+        String[] texts = intent.getStringArrayExtra(EXTRA_TEXTS);
+        if (texts != null) {
+            for (String text : texts) {
+                messages.add(new NdefMessageBuilder()
+                        .add(TextRecord.newTextRecord(text, Locale.getDefault()))
+                        .build());
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.provision;
+
+import com.android.apps.tag.util.LatencyHistogram;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a queue of messages to tags one after another, for programming tags in bulk.
+ *
+ * <p>Messages are queued in their serialized form, so each is serialized once up front. Each tag presented gets the message at the
+ * head of the queue, is read back to verify it and is optionally locked. The message only
+ * leaves the queue once all of that succeeded, so a failed tag is simply retried with the next
+ * one. Throughput, latency and the reasons for failures are kept in {@link Stats}.
+ *
+ * <p>This has no framework dependencies, so it runs on the host against a {@link SimulatedTag}.
+ */
+public class Provisioner {
+    /** Why a tag couldn't be provisioned. */
+    public enum Failure {
+        /** The tag can't hold NDEF data. */
+        NOT_NDEF,
+        /** The message is larger than the tag. */
+        TOO_LARGE,
+        /** The tag is already read-only. */
+        READ_ONLY,
+        /** The tag left the field. */
+        TAG_LOST,
+        /** Writing failed for another reason. */
+        WRITE_FAILED,
+        /** What was read back differs from what was written. */
+        VERIFY_MISMATCH,
+        /** The tag couldn't be locked. */
+        LOCK_FAILED,
+    }
+
+    /** The outcome of presenting one tag. */
+    public static final class Result {
+        /** Why the tag failed, or {@code null} if it was provisioned. */
+        public final Failure failure;
+
+        /** The index of the message that was written, in the order they were queued. */
+        public final int messageIndex;
+
+        /** Whether the message was read back, which a tag formatted by the write can't be. */
+        public final boolean verified;
+
+        /** The time from connecting to the tag to being done with it. */
+        public final long latencyNanos;
+
+        /** What caused a {@link Failure#WRITE_FAILED}, or {@code null}. */
+        public final IOException error;
+
+        Result(Failure failure, int messageIndex, boolean verified, long latencyNanos,
+                IOException error) {
+            this.failure = failure;
+            this.messageIndex = messageIndex;
+            this.verified = verified;
+            this.latencyNanos = latencyNanos;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Throughput and latency of a provisioning run.
+     */
+    public static final class Stats {
+        public final int provisioned;
+        public final int unverified;
+        public final int remaining;
+        public final float tagsPerMinute;
+        public final Map<Failure, Integer> failures;
+
+        /** The time taken by the write alone. */
+        public final LatencyHistogram writeLatency;
+
+        /** The time taken per tag, from connecting to verifying and locking. */
+        public final LatencyHistogram tagLatency;
+
+        Stats(int provisioned, int unverified, int remaining, float tagsPerMinute,
+                Map<Failure, Integer> failures, LatencyHistogram writeLatency,
+                LatencyHistogram tagLatency) {
+            this.provisioned = provisioned;
+            this.unverified = unverified;
+            this.remaining = remaining;
+            this.tagsPerMinute = tagsPerMinute;
+            this.failures = failures;
+            this.writeLatency = writeLatency;
+            this.tagLatency = tagLatency;
+        }
+    }
+
+    private static final class Payload {
+        final int index;
+        final byte[] bytes;
+
+        Payload(int index, byte[] bytes) {
+            this.index = index;
+            this.bytes = bytes;
+        }
+    }
+
+    private final ArrayList<Payload> mQueue = Lists.newArrayList();
+    private final boolean mLock;
+    private final boolean mRepeat;
+    private int mHead;
+
+    private final EnumMap<Failure, Integer> mFailures = Maps.newEnumMap(Failure.class);
+    private final LatencyHistogram mWriteLatency = new LatencyHistogram();
+    private final LatencyHistogram mTagLatency = new LatencyHistogram();
+    private int mProvisioned;
+    private int mUnverified;
+    private long mStartNanos = -1;
+    private long mLastNanos;
+
+    /**
+     * @param messages the serialized messages to write, one per tag, in order. They are not
+     *     copied and must not be changed afterwards.
+     * @param lock whether to make each tag read-only once it is verified
+     * @param repeat whether to start over with the first message after the last, so that the
+     *     same messages are written to any number of tags
+     */
+    public Provisioner(List<byte[]> messages, boolean lock, boolean repeat) {
+        Preconditions.checkArgument(!messages.isEmpty(), "nothing to provision");
+        for (byte[] message : messages) {
+            mQueue.add(new Payload(mQueue.size(), message));
+        }
+        mLock = lock;
+        mRepeat = repeat;
+    }
+
+    /** Returns true if there are messages left to write. */
+    public synchronized boolean hasNext() {
+        return mRepeat || mHead < mQueue.size();
+    }
+
+    /**
+     * Writes the next message to {@code tag}, or records a {@link Failure#NOT_NDEF} if it is
+     * {@code null}. This does I/O and must not be called from the UI thread.
+     */
+    public Result provision(ProvisioningTag tag) {
+        Payload payload;
+        synchronized (this) {
+            Preconditions.checkState(hasNext(), "all messages were written");
+            payload = mQueue.get(mHead % mQueue.size());
+        }
+
+        long start = System.nanoTime();
+        Failure failure = null;
+        boolean verified = false;
+        IOException error = null;
+        if (tag == null) {
+            failure = Failure.NOT_NDEF;
+        } else {
+            try {
+                tag.connect();
+                if (!tag.isWritable()) {
+                    failure = Failure.READ_ONLY;
+                } else if (tag.getMaxSize() != ProvisioningTag.UNKNOWN_SIZE
+                        && payload.bytes.length > tag.getMaxSize()) {
+                    failure = Failure.TOO_LARGE;
+                } else {
+                    long writeStart = System.nanoTime();
+                    boolean locked = tag.write(payload.bytes, mLock);
+                    mWriteLatency.recordNanos(System.nanoTime() - writeStart);
+
+                    byte[] readBack = tag.read();
+                    verified = readBack != null;
+                    if (verified && !Arrays.equals(readBack, payload.bytes)) {
+                        failure = Failure.VERIFY_MISMATCH;
+                    } else if (mLock && !locked
+                            && (!tag.canMakeReadOnly() || !tag.makeReadOnly())) {
+                        failure = Failure.LOCK_FAILED;
+                    }
+                }
+            } catch (LostTagException e) {
+                failure = Failure.TAG_LOST;
+            } catch (IOException e) {
+                failure = Failure.WRITE_FAILED;
+                error = e;
+            } finally {
+                tag.close();
+            }
+        }
+
+        long end = System.nanoTime();
+        synchronized (this) {
+            if (mStartNanos < 0) {
+                mStartNanos = start;
+            }
+            mLastNanos = end;
+            mTagLatency.recordNanos(end - start);
+            if (failure == null) {
+                mProvisioned++;
+                if (!verified) {
+                    mUnverified++;
+                }
+                mHead++;
+            } else {
+                Integer count = mFailures.get(failure);
+                mFailures.put(failure, count == null ? 1 : count + 1);
+            }
+        }
+        return new Result(failure, payload.index, verified, end - start, error);
+    }
+
+    public synchronized Stats getStats() {
+        float minutes = (mLastNanos - mStartNanos) / 60e9f;
+        float tagsPerMinute = (mStartNanos < 0 || minutes <= 0) ? 0 : mProvisioned / minutes;
+        int remaining = mRepeat ? -1 : mQueue.size() - mHead;
+        LatencyHistogram writeLatency = new LatencyHistogram();
+        writeLatency.add(mWriteLatency);
+        LatencyHistogram tagLatency = new LatencyHistogram();
+        tagLatency.add(mTagLatency);
+        return new Stats(mProvisioned, mUnverified, remaining, tagsPerMinute,
+                Maps.newEnumMap(mFailures), writeLatency, tagLatency);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.provision;
+
+import java.io.IOException;
+
+/**
+ * A tag as seen by the {@link Provisioner}: something an NDEF message can be written to, read
+ * back from and locked. {@link NdefProvisioningTag} talks to a real tag and {@link SimulatedTag}
+ * stands in for one. Every method that does I/O throws {@link LostTagException} if the tag left
+ * the field.
+ */
+public interface ProvisioningTag {
+
+    /** The size of a tag whose capacity is only known once it is formatted. */
+    int UNKNOWN_SIZE = -1;
+
+    /** Opens the connection to the tag. */
+    void connect() throws IOException;
+
+    /**
+     * Returns the largest message the tag can hold, in bytes, or {@link #UNKNOWN_SIZE} if that
+     * isn't known until the tag is written.
+     */
+    int getMaxSize();
+
+    boolean isWritable();
+
+    /**
+     * Writes the serialized message {@code bytes} to the tag. A tag that can
+     * only be locked as part of the write, such as one that is formatted by it, is locked then
+     * if {@code lock} is set; others are left for {@link #makeReadOnly}.
+     *
+     * @return true if the write also locked the tag
+     */
+    boolean write(byte[] bytes, boolean lock) throws IOException;
+
+    /**
+     * Reads the message on the tag back in its serialized form, or returns {@code null} if the
+     * tag can't be read until it is presented again.
+     */
+    byte[] read() throws IOException;
+
+    boolean canMakeReadOnly();
+
+    /** Permanently locks the tag, returning false if it refused. */
+    boolean makeReadOnly() throws IOException;
+
+    /** Closes the connection, ignoring errors. */
+    void close();
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.provision;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An in-memory {@link ProvisioningTag}, for exercising the {@link Provisioner} without
+ * hardware. Failures can be injected and each operation can be made to take a fixed time. A
+ * tag can also act like a blank one that is formatted by its first write, which hides its size
+ * and can't be read back or locked afterwards.
+ */
+public class SimulatedTag implements ProvisioningTag {
+    private final int mMaxSize;
+    private byte[] mContent = new byte[0];
+    private boolean mWritable = true;
+    private boolean mLockable = true;
+    private boolean mLoseOnWrite;
+    private boolean mCorruptReads;
+    private boolean mFormatOnWrite;
+    private boolean mUnreadable;
+    private long mLatencyMillis;
+
+    public SimulatedTag(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public SimulatedTag setWritable(boolean writable) {
+        mWritable = writable;
+        return this;
+    }
+
+    public SimulatedTag setLockable(boolean lockable) {
+        mLockable = lockable;
+        return this;
+    }
+
+    /** Makes writes fail as if the tag left the field part way through. */
+    public SimulatedTag setLoseOnWrite(boolean lose) {
+        mLoseOnWrite = lose;
+        return this;
+    }
+
+    /** Makes reads return something other than what was written. */
+    public SimulatedTag setCorruptReads(boolean corrupt) {
+        mCorruptReads = corrupt;
+        return this;
+    }
+
+    /** Makes the tag act like a blank one that is formatted by the next write. */
+    public SimulatedTag setFormatOnWrite(boolean format) {
+        mFormatOnWrite = format;
+        return this;
+    }
+
+    /** Makes every write, read and lock take {@code millis}. */
+    public SimulatedTag setLatencyMillis(long millis) {
+        mLatencyMillis = millis;
+        return this;
+    }
+
+    /** Returns what was last written to the tag. */
+    public byte[] getContent() {
+        return Arrays.copyOf(mContent, mContent.length);
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public int getMaxSize() {
+        return mFormatOnWrite ? UNKNOWN_SIZE : mMaxSize;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return mWritable;
+    }
+
+    @Override
+    public boolean write(byte[] bytes, boolean lock) throws IOException {
+        delay();
+        if (!mWritable) {
+            throw new IOException("Tag is read-only");
+        }
+        if (bytes.length > mMaxSize) {
+            throw new IOException("Message too large");
+        }
+        if (mLoseOnWrite) {
+            throw new LostTagException("Tag was lost");
+        }
+        mContent = Arrays.copyOf(bytes, bytes.length);
+        if (mFormatOnWrite) {
+            mFormatOnWrite = false;
+            mUnreadable = true;
+            if (lock && mLockable) {
+                mWritable = false;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] read() throws IOException {
+        delay();
+        if (mUnreadable) {
+            return null;
+        }
+        byte[] content = Arrays.copyOf(mContent, mContent.length);
+        if (mCorruptReads && content.length > 0) {
+            content[content.length - 1] ^= 1;
+        }
+        return content;
+    }
+
+    @Override
+    public boolean canMakeReadOnly() {
+        return mLockable && !mFormatOnWrite && !mUnreadable;
+    }
+
+    @Override
+    public boolean makeReadOnly() throws IOException {
+        delay();
+        if (!canMakeReadOnly()) {
+            return false;
+        }
+        mWritable = false;
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void delay() throws IOException {
+        if (mLatencyMillis > 0) {
+            try {
+                Thread.sleep(mLatencyMillis);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+        }
+    }
+}
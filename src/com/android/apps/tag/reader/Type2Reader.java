@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.reader;
+
+import com.android.apps.tag.message.IncrementalNdefParser;
+
+import android.nfc.FormatException;
+import android.nfc.NdefMessage;
+import android.nfc.TagLostException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the NDEF message of an NFC Forum Type 2 tag page by page, in the largest bursts the tag
+ * supports, instead of through the platform's NDEF support.
+ *
+ * <p>The TLV area is parsed as pages arrive and the NDEF message in it is fed to an
+ * {@link IncrementalNdefParser}, so records are handed out as soon as they are in. If the tag
+ * leaves the field part way through, the pages read so far are kept and the read resumes from
+ * the last good page when the same tag is presented again soon after.
+ *
+ * <p>Lock and memory control TLVs are skipped, so reserved areas they place inside the data
+ * area aren't supported. No NTAG or Ultralight tag places any there.
+ */
+public class Type2Reader {
+    private static final String TAG = "Type2Reader";
+
+    private static final int PAGE_SIZE = 4;
+    private static final int CC_PAGE = 3;
+    private static final int DATA_PAGE = 4;
+    private static final int READ_PAGES = 4;
+    private static final int CC_MAGIC = 0xe1;
+
+    private static final int TLV_NULL = 0x00;
+    private static final int TLV_NDEF = 0x03;
+    private static final int TLV_TERMINATOR = 0xfe;
+
+    /** How long the pages of an interrupted read are kept for it to resume. */
+    private static final long RESUME_TIMEOUT_MILLIS = 30 * 1000;
+
+    /** How many interrupted reads are kept, for different tags. */
+    private static final int MAX_PARTIAL_READS = 4;
+
+    /** The pages of a read that was interrupted. */
+    private static final class PartialRead {
+        final byte[] cc;
+        final byte[] data;
+        final int pagesRead;
+        final long savedAt;
+
+        PartialRead(byte[] cc, byte[] data, int pagesRead, long savedAt) {
+            this.cc = cc;
+            this.data = data;
+            this.pagesRead = pagesRead;
+            this.savedAt = savedAt;
+        }
+    }
+
+    /** Interrupted reads by the UID of their tag. */
+    private final LinkedHashMap<ByteBuffer, PartialRead> mPartialReads =
+            new LinkedHashMap<ByteBuffer, PartialRead>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, PartialRead> eldest) {
+            return size() > MAX_PARTIAL_READS;
+        }
+    };
+
+    /**
+     * Reads the NDEF message of {@code tag}. The connection is opened here and closed before
+     * returning.
+     *
+     * @param listener told about each record as soon as it is read, or {@code null}
+     * @return the message, or {@code null} if the tag holds none
+     * @throws TagLostException if the tag left the field, in which case the read resumes when it
+     *     is presented again
+     * @throws FormatException if the tag isn't NDEF formatted or its contents are malformed
+     */
+    public synchronized NdefMessage read(Type2Transport tag,
+            IncrementalNdefParser.Listener listener) throws IOException, FormatException {
+        ByteBuffer uid = ByteBuffer.wrap(tag.getUid().clone());
+        tag.connect();
+        try {
+            // Reading from the capability container on gets the first data pages along with it
+            byte[] first = tag.readPages(CC_PAGE);
+            byte[] cc = Arrays.copyOf(first, PAGE_SIZE);
+            if ((cc[0] & 0xff) != CC_MAGIC) {
+                throw new FormatException("Not NDEF formatted");
+            }
+            int dataPages = (cc[2] & 0xff) * 8 / PAGE_SIZE;
+            byte[] data = new byte[dataPages * PAGE_SIZE];
+            int pagesRead = Math.min(dataPages, READ_PAGES - 1);
+            System.arraycopy(first, PAGE_SIZE, data, 0, pagesRead * PAGE_SIZE);
+
+            PartialRead partial = mPartialReads.remove(uid);
+            if (partial != null && canResume(partial, cc, data, pagesRead)) {
+                Log.d(TAG, "Resuming read at page " + (DATA_PAGE + partial.pagesRead));
+                data = partial.data;
+                pagesRead = partial.pagesRead;
+            }
+
+            TlvParser parser = new TlvParser(listener);
+            parser.feed(data, 0, pagesRead * PAGE_SIZE);
+
+            boolean fastRead = tag.getMaxBurstPages() > READ_PAGES;
+            boolean fastReadWorked = false;
+            try {
+                while (!parser.isDone() && pagesRead < dataPages) {
+                    int start = DATA_PAGE + pagesRead;
+                    int count = Math.min(READ_PAGES, dataPages - pagesRead);
+                    byte[] pages = null;
+                    if (fastRead) {
+                        int burst = Math.min(tag.getMaxBurstPages(), dataPages - pagesRead);
+                        try {
+                            pages = tag.fastRead(start, start + burst - 1);
+                            count = burst;
+                            fastReadWorked = true;
+                        } catch (TagLostException e) {
+                            if (fastReadWorked) {
+                                throw e;
+                            }
+                            // Tags without FAST_READ, such as the Ultralight and Ultralight C,
+                            // go silent on it rather than refuse it. Only if the tag can't be
+                            // selected again did it really leave.
+                            fastRead = false;
+                            reconnect(tag, e);
+                        } catch (IOException e) {
+                            // The tag refused, so it has to be selected again
+                            fastRead = false;
+                            tag.connect();
+                        }
+                    }
+                    if (pages == null) {
+                        pages = tag.readPages(start);
+                    }
+                    System.arraycopy(pages, 0, data, pagesRead * PAGE_SIZE, count * PAGE_SIZE);
+                    parser.feed(data, pagesRead * PAGE_SIZE, count * PAGE_SIZE);
+                    pagesRead += count;
+                }
+            } catch (IOException e) {
+                mPartialReads.put(uid, new PartialRead(cc, data, pagesRead,
+                        SystemClock.elapsedRealtime()));
+                throw e;
+            }
+            return parser.getMessage();
+        } finally {
+            tag.close();
+        }
+    }
+
+    /** Selects {@code tag} again, throwing {@code lost} if it is gone. */
+    private static void reconnect(Type2Transport tag, TagLostException lost)
+            throws TagLostException {
+        try {
+            tag.connect();
+        } catch (IOException e) {
+            throw lost;
+        }
+    }
+
+    /**
+     * Returns true if {@code partial} is recent and matches what was just read from the start of
+     * the tag, so the tag wasn't rewritten in between.
+     */
+    private static boolean canResume(PartialRead partial, byte[] cc, byte[] data, int pagesRead) {
+        if (SystemClock.elapsedRealtime() - partial.savedAt > RESUME_TIMEOUT_MILLIS
+                || !Arrays.equals(partial.cc, cc) || partial.pagesRead < pagesRead) {
+            return false;
+        }
+        for (int i = 0; i < pagesRead * PAGE_SIZE; i++) {
+            if (partial.data[i] != data[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walks the TLVs of the data area as its bytes arrive, feeding the value of the first NDEF
+     * TLV to an {@link IncrementalNdefParser}.
+     */
+    private static final class TlvParser {
+        private static final int STATE_TYPE = 0;
+        private static final int STATE_LENGTH = 1;
+        private static final int STATE_LENGTH_HIGH = 2;
+        private static final int STATE_LENGTH_LOW = 3;
+        private static final int STATE_VALUE = 4;
+        private static final int STATE_DONE = 5;
+
+        private final IncrementalNdefParser.Listener mListener;
+        private int mState = STATE_TYPE;
+        private int mType;
+        private int mLength;
+        private int mRemaining;
+        private IncrementalNdefParser mNdef;
+        private boolean mEmpty;
+
+        TlvParser(IncrementalNdefParser.Listener listener) {
+            mListener = listener;
+        }
+
+        boolean isDone() {
+            return mState == STATE_DONE;
+        }
+
+        void feed(byte[] data, int offset, int length) throws FormatException {
+            int end = offset + length;
+            int pos = offset;
+            while (pos < end && mState != STATE_DONE) {
+                switch (mState) {
+                    case STATE_TYPE:
+                        mType = data[pos++] & 0xff;
+                        if (mType == TLV_TERMINATOR) {
+                            mState = STATE_DONE;
+                        } else if (mType != TLV_NULL) {
+                            mState = STATE_LENGTH;
+                        }
+                        break;
+                    case STATE_LENGTH:
+                        mLength = data[pos++] & 0xff;
+                        if (mLength == 0xff) {
+                            mState = STATE_LENGTH_HIGH;
+                        } else {
+                            startValue();
+                        }
+                        break;
+                    case STATE_LENGTH_HIGH:
+                        mLength = (data[pos++] & 0xff) << 8;
+                        mState = STATE_LENGTH_LOW;
+                        break;
+                    case STATE_LENGTH_LOW:
+                        mLength |= data[pos++] & 0xff;
+                        startValue();
+                        break;
+                    case STATE_VALUE:
+                        int n = Math.min(mRemaining, end - pos);
+                        if (mNdef != null) {
+                            mNdef.feed(data, pos, n);
+                        }
+                        pos += n;
+                        mRemaining -= n;
+                        if (mRemaining == 0) {
+                            endValue();
+                        }
+                        break;
+                }
+            }
+        }
+
+        private void startValue() throws FormatException {
+            mRemaining = mLength;
+            if (mType == TLV_NDEF) {
+                if (mLength == 0) {
+                    mEmpty = true;
+                    mState = STATE_DONE;
+                    return;
+                }
+                mNdef = new IncrementalNdefParser(mLength, mListener);
+            }
+            mState = STATE_VALUE;
+            if (mRemaining == 0) {
+                endValue();
+            }
+        }
+
+        private void endValue() throws FormatException {
+            if (mNdef == null) {
+                mState = STATE_TYPE;
+                return;
+            }
+            if (!mNdef.isComplete()) {
+                throw new FormatException("NDEF message ends part way through a record");
+            }
+            mState = STATE_DONE;
+        }
+
+        NdefMessage getMessage() throws FormatException {
+            if (mState != STATE_DONE) {
+                throw new FormatException("TLVs run past the end of the data area");
+            }
+            return (mEmpty || mNdef == null) ? null : mNdef.getMessage();
+        }
+    }
+}
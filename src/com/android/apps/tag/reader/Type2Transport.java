@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.reader;
+
+import java.io.IOException;
+
+/**
+ * The page level commands of an NFC Forum Type 2 tag, as used by the {@link Type2Reader}.
+ * {@link UltralightTransport} talks to a real tag.
+ */
+public interface Type2Transport {
+
+    /** Opens the connection to the tag, or opens it again after the tag refused a command. */
+    void connect() throws IOException;
+
+    /** Returns the UID of the tag. */
+    byte[] getUid();
+
+    /** Reads the four pages starting at {@code page}, wrapping around past the last one. */
+    byte[] readPages(int page) throws IOException;
+
+    /**
+     * Reads pages {@code start} to {@code end} inclusive in one command. Throws if the tag
+     * doesn't support it, after which it must be connected again. A tag that doesn't know the
+     * command may not answer at all, which looks the same as the tag leaving the field.
+     */
+    byte[] fastRead(int start, int end) throws IOException;
+
+    /** Returns the most pages a single {@link #fastRead} can return. */
+    int getMaxBurstPages();
+
+    /** Closes the connection, ignoring errors. */
+    void close();
+}
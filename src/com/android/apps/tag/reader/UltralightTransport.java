@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.reader;
+
+import android.nfc.tech.MifareUltralight;
+
+import java.io.IOException;
+
+/**
+ * A {@link Type2Transport} over {@link MifareUltralight}, which covers the Ultralight and NTAG
+ * families. Bursts use the FAST_READ command of the NTAG21x and Ultralight EV1 tags.
+ */
+public class UltralightTransport implements Type2Transport {
+    private static final byte CMD_FAST_READ = 0x3a;
+
+    private final MifareUltralight mTag;
+
+    public UltralightTransport(MifareUltralight tag) {
+        mTag = tag;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (mTag.isConnected()) {
+            mTag.close();
+        }
+        mTag.connect();
+    }
+
+    @Override
+    public byte[] getUid() {
+        return mTag.getTag().getId();
+    }
+
+    @Override
+    public byte[] readPages(int page) throws IOException {
+        return mTag.readPages(page);
+    }
+
+    @Override
+    public byte[] fastRead(int start, int end) throws IOException {
+        byte[] response = mTag.transceive(new byte[] { CMD_FAST_READ, (byte) start, (byte) end });
+        if (response == null || response.length != (end - start + 1) * MifareUltralight.PAGE_SIZE) {
+            throw new IOException("FAST_READ not supported");
+        }
+        return response;
+    }
+
+    @Override
+    public int getMaxBurstPages() {
+        return mTag.getMaxTransceiveLength() / MifareUltralight.PAGE_SIZE;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mTag.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
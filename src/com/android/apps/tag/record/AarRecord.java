@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.record;
+
+import com.android.apps.tag.R;
+import com.android.apps.tag.core.ndef.Record;
+import com.android.apps.tag.core.record.AarData;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
+import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.util.Locale;
+
+/**
+ * An Android Application Record, naming the app a message is meant for. A scan holding one is
+ * handed straight to that app by the viewer, so this is only shown when the app isn't installed,
+ * in which case tapping it looks the app up in the store.
+ */
+public class AarRecord extends ParsedNdefRecord implements OnClickListener {
+    private static final String TAG = "AarRecord";
+
+    public static final String RECORD_TYPE = AarData.RECORD_TYPE;
+
+    private final AarData mAar;
+
+    public AarRecord(AarData aar) {
+        super(aar);
+        mAar = aar;
+    }
+
+    public AarData getAar() {
+        return mAar;
+    }
+
+    @Override
+    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
+        View item = inflater.inflate(R.layout.tag_uri, parent, false);
+        ((TextView) item.findViewById(R.id.primary)).setText(mAar.getPackageName());
+        boolean installed = activity.getPackageManager()
+                .getLaunchIntentForPackage(mAar.getPackageName()) != null;
+        ((TextView) item.findViewById(R.id.secondary)).setText(
+                installed ? R.string.aar_open : R.string.aar_get);
+        item.setOnClickListener(this);
+        return item;
+    }
+
+    @Override
+    public String getSnippet(Context context, Locale locale) {
+        return mAar.getPackageName();
+    }
+
+    @Override
+    public void onClick(View view) {
+        Context context = view.getContext();
+        String packageName = mAar.getPackageName();
+        Intent intent = context.getPackageManager().getLaunchIntentForPackage(packageName);
+        if (intent == null) {
+            intent = new Intent(Intent.ACTION_VIEW,
+                    Uri.parse("market://details?id=" + packageName));
+        }
+        try {
+            context.startActivity(intent);
+            if (context instanceof Activity) {
+                ((Activity) context).finish();
+            }
+        } catch (ActivityNotFoundException e) {
+            Log.w(TAG, "Nothing to open " + packageName + " with", e);
+            Toast.makeText(context, context.getString(R.string.aar_unavailable, packageName),
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Hands the message of {@code scan} to the app named {@code packageName}, the way the
+     * platform dispatches a message with an Android Application Record: as an
+     * {@link NfcAdapter#ACTION_NDEF_DISCOVERED} limited to that package if it has an activity
+     * for it, or by simply launching the app otherwise. Nothing is resolved against other apps.
+     *
+     * @return false if the app isn't installed or can't be launched, leaving the scan to the
+     *     caller
+     */
+    public static boolean startApp(Activity activity, String packageName, Intent scan,
+            NdefMessage msg) {
+        Tag tag = scan.getParcelableExtra(NfcAdapter.EXTRA_TAG);
+        Intent ndef = new Intent(NfcAdapter.ACTION_NDEF_DISCOVERED)
+                .setPackage(packageName)
+                .putExtra(NfcAdapter.EXTRA_NDEF_MESSAGES, new NdefMessage[] { msg })
+                .putExtra(NfcAdapter.EXTRA_TAG, tag)
+                .putExtra(NfcAdapter.EXTRA_ID, scan.getByteArrayExtra(NfcAdapter.EXTRA_ID));
+        setDispatchData(ndef, msg.getRecords()[0]);
+        try {
+            activity.startActivity(ndef);
+            return true;
+        } catch (ActivityNotFoundException e) {
+            // The app doesn't filter for the message, so it is just launched
+        }
+
+        Intent launch = activity.getPackageManager().getLaunchIntentForPackage(packageName);
+        if (launch == null) {
+            return false;
+        }
+        try {
+            activity.startActivity(launch);
+            return true;
+        } catch (ActivityNotFoundException e) {
+            Log.w(TAG, "Failed to launch " + packageName, e);
+            return false;
+        }
+    }
+
+    /** Sets the MIME type or URI of {@code first} on {@code intent}, as the platform does. */
+    private static void setDispatchData(Intent intent, NdefRecord first) {
+        Record record;
+        try {
+            record = new Record(first.getTnf(), first.getType(), first.getId(),
+                    first.getPayload());
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        String mimeType = record.toMimeType();
+        if (mimeType != null) {
+            intent.setType(mimeType);
+            return;
+        }
+        String uri = record.toUri();
+        if (uri != null) {
+            intent.setData(Uri.parse(uri));
+        }
+    }
+}
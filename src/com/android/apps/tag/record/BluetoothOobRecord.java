@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.record;
+
+import com.android.apps.tag.R;
+import com.android.apps.tag.core.record.BluetoothOobData;
+
+import android.app.Activity;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.ActivityNotFoundException;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.provider.Settings;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.util.Locale;
+
+/**
+ * The pairing data of a Bluetooth device from a Connection Handover message. Tapping it starts
+ * pairing with the device by its address, so no discovery is needed to find it.
+ */
+public class BluetoothOobRecord extends ParsedNdefRecord implements OnClickListener {
+    private static final String TAG = "BluetoothOobRecord";
+
+    public static final String RECORD_TYPE = BluetoothOobData.RECORD_TYPE;
+
+    private final BluetoothOobData mOob;
+
+    public BluetoothOobRecord(BluetoothOobData oob) {
+        super(oob);
+        mOob = oob;
+    }
+
+    public BluetoothOobData getOob() {
+        return mOob;
+    }
+
+    @Override
+    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
+        View item = inflater.inflate(R.layout.tag_uri, parent, false);
+        ((TextView) item.findViewById(R.id.primary)).setText(
+                activity.getString(R.string.bluetooth_pair, getDeviceName()));
+        ((TextView) item.findViewById(R.id.secondary)).setText(mOob.isLowEnergy()
+                ? activity.getString(R.string.bluetooth_le_address, mOob.getAddress())
+                : mOob.getAddress());
+        item.setOnClickListener(this);
+        return item;
+    }
+
+    @Override
+    public String getSnippet(Context context, Locale locale) {
+        return getDeviceName();
+    }
+
+    @Override
+    public void onClick(View view) {
+        Context context = view.getContext();
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null || !BluetoothAdapter.checkBluetoothAddress(mOob.getAddress())) {
+            Toast.makeText(context, R.string.bluetooth_unavailable, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (!adapter.isEnabled()) {
+            startActivity(context, new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE));
+            Toast.makeText(context, R.string.bluetooth_enable_first, Toast.LENGTH_LONG).show();
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            // Pairing by address isn't available, so leave it to the settings
+            startActivity(context, new Intent(Settings.ACTION_BLUETOOTH_SETTINGS));
+            return;
+        }
+
+        // A running discovery slows down the connection pairing makes
+        adapter.cancelDiscovery();
+        BluetoothDevice device = adapter.getRemoteDevice(mOob.getAddress());
+        if (device.getBondState() == BluetoothDevice.BOND_BONDED) {
+            Toast.makeText(context, context.getString(R.string.bluetooth_paired, getDeviceName()),
+                    Toast.LENGTH_SHORT).show();
+        } else if (device.getBondState() == BluetoothDevice.BOND_BONDING
+                || device.createBond()) {
+            Toast.makeText(context, context.getString(R.string.bluetooth_pairing,
+                    getDeviceName()), Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(context, context.getString(R.string.bluetooth_pair_failed,
+                    getDeviceName()), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private String getDeviceName() {
+        return mOob.getName() != null ? mOob.getName() : mOob.getAddress();
+    }
+
+    private static void startActivity(Context context, Intent intent) {
+        try {
+            context.startActivity(intent);
+        } catch (ActivityNotFoundException e) {
+            Log.e(TAG, "Failed to launch activity for intent " + intent, e);
+        }
+    }
+}
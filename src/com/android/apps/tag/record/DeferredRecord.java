@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.record;
+
+import com.android.apps.tag.R;
+import com.android.apps.tag.TagViewer;
+import com.android.apps.tag.core.record.DeferredData;
+
+import android.app.Activity;
+import android.content.Context;
+import android.text.format.Formatter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * A record that wasn't parsed because its message ran out of parse budget. It is shown as its
+ * type and size, and is parsed and shown in full when tapped.
+ */
+public class DeferredRecord extends ParsedNdefRecord implements OnClickListener {
+
+    public static final String RECORD_TYPE = DeferredData.RECORD_TYPE;
+
+    private final DeferredData mDeferred;
+
+    public DeferredRecord(DeferredData deferred) {
+        super(deferred);
+        mDeferred = deferred;
+    }
+
+    public DeferredData getDeferred() {
+        return mDeferred;
+    }
+
+    @Override
+    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
+        TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
+        text.setText(activity.getString(R.string.tag_deferred, getTypeLabel(),
+                Formatter.formatShortFileSize(activity,
+                        mDeferred.getRecord().getPayloadLength())));
+        text.setTag(offset);
+        text.setOnClickListener(this);
+        return text;
+    }
+
+    @Override
+    public String getSnippet(Context context, Locale locale) {
+        return getTypeLabel();
+    }
+
+    /** The view holds the offset of the record to expand. */
+    @Override
+    public boolean isViewPositionDependent() {
+        return true;
+    }
+
+    @Override
+    public void onClick(View view) {
+        Context context = view.getContext();
+        if (context instanceof TagViewer) {
+            ((TagViewer) context).expandRecord((Integer) view.getTag());
+        }
+    }
+
+    private String getTypeLabel() {
+        String mimeType = mDeferred.getMimeType();
+        return mimeType != null ? mimeType : mDeferred.getExpectedType();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.record;
+
+import com.android.apps.tag.R;
+import com.android.apps.tag.core.record.ExternalTypeData;
+
+import android.app.Activity;
+import android.content.Context;
+import android.text.format.Formatter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * An NFC Forum external type record. Its payload is only meaningful to the apps of whoever owns
+ * the type's domain, so just the type and size are shown.
+ */
+public class ExternalTypeRecord extends ParsedNdefRecord {
+
+    public static final String RECORD_TYPE = ExternalTypeData.RECORD_TYPE;
+
+    private final ExternalTypeData mExternal;
+
+    public ExternalTypeRecord(ExternalTypeData external) {
+        super(external);
+        mExternal = external;
+    }
+
+    public ExternalTypeData getExternal() {
+        return mExternal;
+    }
+
+    @Override
+    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
+        TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
+        text.setText(activity.getString(R.string.external_type, mExternal.getType(),
+                Formatter.formatShortFileSize(activity, mExternal.getPayloadLength())));
+        return text;
+    }
+
+    @Override
+    public String getSnippet(Context context, Locale locale) {
+        return mExternal.getType();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.record;
+
+import com.android.apps.tag.R;
+import com.android.apps.tag.core.record.HandoverData;
+
+import android.app.Activity;
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * A Connection Handover select or request. It only says how many carriers are offered, as each
+ * carrier's configuration is a record of its own with its own action, see
+ * {@link BluetoothOobRecord} and {@link WifiConfigRecord}.
+ */
+public class HandoverRecord extends ParsedNdefRecord {
+
+    public static final String RECORD_TYPE = HandoverData.RECORD_TYPE;
+
+    private final HandoverData mHandover;
+
+    public HandoverRecord(HandoverData handover) {
+        super(handover);
+        mHandover = handover;
+    }
+
+    public HandoverData getHandover() {
+        return mHandover;
+    }
+
+    @Override
+    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
+        TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
+        text.setText(getSnippet(activity, Locale.getDefault()));
+        return text;
+    }
+
+    @Override
+    public String getSnippet(Context context, Locale locale) {
+        if (mHandover.getError() != 0) {
+            return context.getString(R.string.handover_failed);
+        }
+        int carriers = mHandover.getCarriers().size();
+        return context.getString(mHandover.getKind() == HandoverData.Kind.SELECT
+                ? R.string.handover_select : R.string.handover_request, carriers);
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.apps.tag.record;
 
 import com.android.apps.tag.R;
+import com.android.apps.tag.core.record.ImageData;
 import com.google.common.base.Preconditions;
 
 import android.app.Activity;
@@ -35,44 +36,69 @@ import java.io.ByteArrayOutputStream;
  */
 public class ImageRecord extends ParsedNdefRecord {
 
-    public static final String RECORD_TYPE = "ImageRecord";
+    public static final String RECORD_TYPE = ImageData.RECORD_TYPE;
 
+    /** The JPEG qualities to try, best first, when an image must fit a size. */
+    private static final int[] SHRINK_QUALITIES = new int[] { 100, 85, 70, 50, 30, 10 };
+
+    /**
+     * Images with more pixels than this are downsampled as they are decoded. The payload size
+     * says little about the size of the bitmap, as a small PNG can declare a huge one.
+     */
+    static final int MAX_DECODED_PIXELS = 1024 * 1024;
+
+    private final ImageData mImage;
     private final Bitmap mBitmap;
 
-    private ImageRecord(Bitmap bitmap) {
+    private ImageRecord(ImageData image, Bitmap bitmap) {
+        super(image);
+        mImage = image;
         mBitmap = Preconditions.checkNotNull(bitmap);
     }
 
-    @Override
-    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
-        ImageView image = (ImageView) inflater.inflate(R.layout.tag_image, parent, false);
-        image.setImageBitmap(mBitmap);
-        return image;
+    /**
+     * Decodes the image in {@code image}, downsampled to at most {@link #MAX_DECODED_PIXELS},
+     * returning {@code null} if the platform can't decode it after all.
+     */
+    public static ImageRecord decode(ImageData image) {
+        byte[] content = image.getContent();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(content, 0, content.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(content, 0, content.length, options);
+        return bitmap == null ? null : new ImageRecord(image, bitmap);
     }
 
-    public static ImageRecord parse(NdefRecord record) {
-        String mimeType = record.toMimeType();
-        if (mimeType == null) {
-            throw new IllegalArgumentException("not a valid image file");
+    /**
+     * Returns the power of two to divide the sides of a {@code width} by {@code height} image by
+     * so it has at most {@link #MAX_DECODED_PIXELS}.
+     */
+    static int getSampleSize(int width, int height) {
+        int sampleSize = 1;
+        while ((long) (width / sampleSize) * (height / sampleSize) > MAX_DECODED_PIXELS) {
+            sampleSize *= 2;
         }
-        Preconditions.checkArgument(mimeType.startsWith("image/"));
+        return sampleSize;
+    }
 
-        // Try to ensure it's a legal, valid image
-        byte[] content = record.getPayload();
-        Bitmap bitmap = BitmapFactory.decodeByteArray(content, 0, content.length);
-        if (bitmap == null) {
-            throw new IllegalArgumentException("not a valid image file");
-        }
-        return new ImageRecord(bitmap);
+    public String getMimeType() {
+        return mImage.getMimeType();
     }
 
-    public static boolean isImage(NdefRecord record) {
-        try {
-            parse(record);
-            return true;
-        } catch (IllegalArgumentException e) {
-            return false;
-        }
+    public Bitmap getImage() {
+        return mBitmap;
+    }
+
+    @Override
+    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
+        ImageView image = (ImageView) inflater.inflate(R.layout.tag_image, parent, false);
+        image.setImageBitmap(mBitmap);
+        return image;
     }
 
     public static NdefRecord newImageRecord(Bitmap bitmap) {
@@ -81,4 +107,21 @@ public class ImageRecord extends ParsedNdefRecord {
         byte[] content = out.toByteArray();
         return NdefRecord.createMime("image/jpeg", content);
     }
+
+    /**
+     * Returns an image record whose JPEG payload is at most {@code maxPayloadSize} bytes,
+     * lowering the quality as needed, or {@code null} if it can't be made that small. See
+     * {@link com.android.apps.tag.message.NdefMessageBuilder#getPayloadBudget}.
+     */
+    public static NdefRecord newImageRecord(Bitmap bitmap, int maxPayloadSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int quality : SHRINK_QUALITIES) {
+            out.reset();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+            if (out.size() <= maxPayloadSize) {
+                return NdefRecord.createMime("image/jpeg", out.toByteArray());
+            }
+        }
+        return null;
+    }
 }
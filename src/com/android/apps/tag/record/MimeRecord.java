@@ -14,11 +14,13 @@
  * limitations under the License.
  */
 
+
 package com.android.apps.tag.record;
 
 import com.android.apps.tag.R;
+import com.android.apps.tag.core.record.MimeData;
+import com.android.apps.tag.message.PayloadSpill;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Preconditions;
 
 import android.app.Activity;
 import android.content.Context;
@@ -28,52 +30,80 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Locale;
 
 /**
  * A {@link ParsedNdefRecord} corresponding to a MIME object.
  */
 public class MimeRecord extends ParsedNdefRecord {
-    private final String mType;
-    private final byte[] mContent;
 
-    private MimeRecord(String mimeType, byte[] content) {
-        mType = Preconditions.checkNotNull(mimeType);
-        Preconditions.checkNotNull(content);
-        mContent = Arrays.copyOf(content, content.length);
+    public static final String RECORD_TYPE = MimeData.RECORD_TYPE;
+
+    private final MimeData mMime;
+    private final PayloadSpill.Handle mSpill;
+
+    public MimeRecord(MimeData mime) {
+        this(mime, null);
+    }
+
+    /**
+     * @param spill the file {@code mime} was spilled to, deleted when this record is released,
+     *     or {@code null}
+     */
+    public MimeRecord(MimeData mime, PayloadSpill.Handle spill) {
+        super(mime);
+        mMime = mime;
+        mSpill = spill;
     }
 
     @VisibleForTesting
     public String getMimeType() {
-        return mType;
+        return mMime.getMimeType();
     }
 
     @VisibleForTesting
     public byte[] getContent() {
-        return Arrays.copyOf(mContent, mContent.length);
+        return mMime.getContent();
+    }
+
+    public int getContentLength() {
+        return mMime.getContentLength();
+    }
+
+    /** Returns a read-only view of the content, which doesn't copy it. */
+    public ByteBuffer getContentBuffer() {
+        return mMime.getContentBuffer();
+    }
+
+    /** Returns a stream reading the content, which doesn't copy it. */
+    public InputStream openContent() {
+        return mMime.openContent();
+    }
+
+    /** Returns true if the content was moved off the heap, see {@link PayloadSpill}. */
+    public boolean isSpilled() {
+        return mSpill != null;
+    }
+
+    @Override
+    public void release() {
+        if (mSpill != null) {
+            mSpill.release();
+        }
     }
 
     @Override
     public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
         TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
-        text.setText(mType);
+        text.setText(mMime.getMimeType());
         return text;
     }
 
     @Override
     public String getSnippet(Context context, Locale locale) {
-        return mType;
-    }
-
-    public static MimeRecord parse(NdefRecord record) {
-        Preconditions.checkArgument(record.toMimeType() != null);
-        return new MimeRecord(record.toMimeType(), record.getPayload());
-    }
-
-    public static boolean isMime(NdefRecord record) {
-        return record.toMimeType() != null;
+        return mMime.getMimeType();
     }
 
     public static NdefRecord newMimeRecord(String type, byte[] data) {
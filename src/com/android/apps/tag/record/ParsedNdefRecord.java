@@ -17,6 +17,8 @@
 package com.android.apps.tag.record;
 
 import com.android.apps.tag.R;
+import com.android.apps.tag.core.record.RecordData;
+import com.google.common.base.Preconditions;
 
 import android.app.Activity;
 import android.content.Context;
@@ -24,13 +26,28 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.Collection;
 import java.util.Locale;
 
 /**
+ * Shows the {@link RecordData} parsed from a record. The parsing itself is done by the
+ * framework free core in {@link com.android.apps.tag.core.record}.
+ *
  * TODO: come up with a better name.
  */
 public abstract class ParsedNdefRecord {
 
+    private final RecordData mData;
+
+    protected ParsedNdefRecord(RecordData data) {
+        mData = Preconditions.checkNotNull(data);
+    }
+
+    /** Returns what was parsed from the record. */
+    public RecordData getData() {
+        return mData;
+    }
+
     /**
      * Returns a view to display this record.
      */
@@ -40,4 +57,36 @@ public abstract class ParsedNdefRecord {
     public String getSnippet(Context context, Locale locale) {
         return context.getString(R.string.tag_unknown);
     }
+
+    /**
+     * Returns a short stable name for the kind of this record, which is stored with history
+     * summaries and so must not change between releases.
+     */
+    public String getRecordType() {
+        return mData.getRecordType();
+    }
+
+    /**
+     * Adds the pieces of text that a search should find this record by, such as its text,
+     * URI or MIME type.
+     */
+    public void addSearchText(Collection<String> text) {
+        mData.addSearchText(text);
+    }
+
+    /**
+     * Returns true if the view built by {@link #getView} depends on the record's offset within
+     * its message or on the rest of the message, such as through its provider URI, so it can't
+     * be carried over to a different scan unless both are unchanged.
+     */
+    public boolean isViewPositionDependent() {
+        return false;
+    }
+
+    /**
+     * Frees what the record holds outside the heap, once it is no longer shown. A view built
+     * for the record still works afterwards.
+     */
+    public void release() {
+    }
 }
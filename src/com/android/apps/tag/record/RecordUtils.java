@@ -17,6 +17,7 @@
 package com.android.apps.tag.record;
 
 import com.android.apps.tag.R;
+import com.android.apps.tag.util.ScanStats;
 import com.google.common.collect.Lists;
 
 import android.app.Activity;
@@ -65,7 +66,13 @@ public class RecordUtils {
         // Lookup which packages can handle this intent.
         PackageManager pm = activity.getPackageManager();
         int flags = PackageManager.GET_RESOLVED_FILTER | PackageManager.MATCH_DEFAULT_ONLY;
-        List<ResolveInfo> activities = pm.queryIntentActivities(intent, flags);
+        List<ResolveInfo> activities;
+        long start = ScanStats.begin(ScanStats.QUERY_ACTIVITIES);
+        try {
+            activities = pm.queryIntentActivities(intent, flags);
+        } finally {
+            ScanStats.end(ScanStats.QUERY_ACTIVITIES, start);
+        }
         int numActivities = activities.size();
         if (numActivities == 0 || (numActivities == 1 && !activities.get(0).activityInfo.enabled)) {
             TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
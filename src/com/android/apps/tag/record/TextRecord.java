@@ -17,9 +17,10 @@
 package com.android.apps.tag.record;
 
 import com.android.apps.tag.R;
+import com.android.apps.tag.core.ndef.Record;
+import com.android.apps.tag.core.record.TextData;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.primitives.Bytes;
 
 import android.app.Activity;
 import android.content.Context;
@@ -29,9 +30,6 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
-import java.util.Arrays;
 import java.util.Locale;
 
 /**
@@ -39,31 +37,29 @@ import java.util.Locale;
  */
 public class TextRecord extends ParsedNdefRecord {
 
-    public static final String RECORD_TYPE = "TextRecord";
+    public static final String RECORD_TYPE = TextData.RECORD_TYPE;
 
-    /** ISO/IANA language code */
-    private final String mLanguageCode;
-    private final String mText;
+    private final TextData mText;
 
-    private TextRecord(String languageCode, String text) {
-        mLanguageCode = Preconditions.checkNotNull(languageCode);
-        mText = Preconditions.checkNotNull(text);
+    public TextRecord(TextData text) {
+        super(text);
+        mText = text;
     }
 
     @Override
     public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
         TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
-        text.setText(mText);
+        text.setText(mText.getText());
         return text;
     }
 
     @Override
     public String getSnippet(Context context, Locale locale) {
-        return mText;
+        return mText.getText();
     }
 
     public String getText() {
-        return mText;
+        return mText.getText();
     }
 
     /**
@@ -73,56 +69,7 @@ public class TextRecord extends ParsedNdefRecord {
      */
     @VisibleForTesting
     public String getLanguageCode() {
-        return mLanguageCode;
-    }
-
-    // TODO: deal with text fields which span multiple NdefRecords
-    public static TextRecord parse(NdefRecord record) {
-        Preconditions.checkArgument(record.getTnf() == NdefRecord.TNF_WELL_KNOWN);
-        Preconditions.checkArgument(Arrays.equals(record.getType(), NdefRecord.RTD_TEXT));
-        try {
-
-            byte[] payload = record.getPayload();
-            Preconditions.checkArgument(payload.length > 0);
-
-            /*
-             * payload[0] contains the "Status Byte Encodings" field, per
-             * the NFC Forum "Text Record Type Definition" section 3.2.1.
-             *
-             * bit7 is the Text Encoding Field.
-             *
-             * if (Bit_7 == 0): The text is encoded in UTF-8
-             * if (Bit_7 == 1): The text is encoded in UTF16
-             *
-             * Bit_6 is reserved for future use and must be set to zero.
-             *
-             * Bits 5 to 0 are the length of the IANA language code.
-             */
-
-            String textEncoding = ((payload[0] & 0200) == 0) ? "UTF-8" : "UTF-16";
-            int languageCodeLength = payload[0] & 0077;
-            Preconditions.checkArgument(payload.length - languageCodeLength - 1 >= 0);
-
-            String languageCode = new String(payload, 1, languageCodeLength, "US-ASCII");
-            String text = new String(payload,
-                    languageCodeLength + 1,
-                    payload.length - languageCodeLength - 1,
-                    textEncoding);
-            return new TextRecord(languageCode, text);
-
-        } catch (UnsupportedEncodingException e) {
-            // should never happen unless we get a malformed tag.
-            throw new IllegalArgumentException(e);
-        }
-    }
-
-    public static boolean isText(NdefRecord record) {
-        try {
-            parse(record);
-            return true;
-        } catch (IllegalArgumentException e) {
-            return false;
-        }
+        return mText.getLanguageCode();
     }
 
     @VisibleForTesting
@@ -133,21 +80,8 @@ public class TextRecord extends ParsedNdefRecord {
     public static NdefRecord newTextRecord(String text, Locale locale, boolean encodeInUtf8) {
         Preconditions.checkNotNull(text);
         Preconditions.checkNotNull(locale);
-
-        byte[] langBytes = locale.getLanguage().getBytes(Charset.forName("US-ASCII"));
-
-        Charset utfEncoding = encodeInUtf8 ? Charset.forName("UTF-8") : Charset.forName("UTF-16");
-        byte[] textBytes = text.getBytes(utfEncoding);
-
-        int utfBit = encodeInUtf8 ? 0 : (1 << 7);
-        char status = (char) (utfBit + langBytes.length);
-
-        byte[] data = Bytes.concat(
-           new byte[] { (byte) status },
-           langBytes,
-           textBytes
-        );
-
-        return new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_TEXT, new byte[0], data);
+        Record record = Record.createText(text, locale, encodeInUtf8);
+        return new NdefRecord(record.getTnf(), record.getType(), record.getId(),
+                record.getPayload());
     }
 }
@@ -17,6 +17,7 @@
 package com.android.apps.tag.record;
 
 import com.android.apps.tag.R;
+import com.android.apps.tag.core.record.UnknownData;
 
 import android.app.Activity;
 import android.view.LayoutInflater;
@@ -26,6 +27,10 @@ import android.widget.TextView;
 
 public class UnknownRecord extends ParsedNdefRecord {
 
+    public UnknownRecord() {
+        super(new UnknownData());
+    }
+
     @Override
     public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
         TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
@@ -17,6 +17,7 @@
 package com.android.apps.tag.record;
 
 import com.android.apps.tag.R;
+import com.android.apps.tag.core.record.UriData;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
@@ -54,12 +55,13 @@ import java.util.Locale;
 public class UriRecord extends ParsedNdefRecord implements OnClickListener {
     private static final String TAG = "UriRecord";
 
-    public static final String RECORD_TYPE = "UriRecord";
+    public static final String RECORD_TYPE = UriData.RECORD_TYPE;
 
     private final Uri mUri;
 
-    private UriRecord(Uri uri) {
-        this.mUri = Preconditions.checkNotNull(uri);
+    public UriRecord(UriData uri) {
+        super(uri);
+        mUri = Uri.parse(uri.getUri());
     }
 
     public Intent getIntentForUri() {
@@ -121,23 +123,6 @@ public class UriRecord extends ParsedNdefRecord implements OnClickListener {
         return mUri;
     }
 
-    /**
-     * Convert {@link android.nfc.NdefRecord} into a {@link android.net.Uri}. This will handle
-     * both TNF_WELL_KNOWN / RTD_URI and TNF_ABSOLUTE_URI.
-     *
-     * @throws IllegalArgumentException if the NdefRecord is not a
-     *     record containing a URI.
-     */
-    public static UriRecord parse(NdefRecord record) {
-        Uri uri = record.toUri();
-        if (uri == null) throw new IllegalArgumentException("not a uri");
-        return new UriRecord(uri);
-    }
-
-    public static boolean isUri(NdefRecord record) {
-        return record.toUri() != null;
-    }
-
     /**
      * Convert a {@link Uri} to an {@link NdefRecord}
      */
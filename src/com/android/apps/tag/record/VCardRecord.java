@@ -17,6 +17,9 @@
 package com.android.apps.tag.record;
 
 import com.android.apps.tag.R;
+import com.android.apps.tag.TagViewer;
+import com.android.apps.tag.core.record.VCardData;
+import com.android.apps.tag.provider.TagContract;
 import com.android.vcard.VCardConfig;
 import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardEntryConstructor;
@@ -27,7 +30,6 @@ import com.android.vcard.VCardParser_V30;
 import com.android.vcard.exception.VCardException;
 import com.android.vcard.exception.VCardVersionException;
 import com.google.android.collect.Lists;
-import com.google.common.base.Preconditions;
 
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
@@ -63,6 +65,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 
@@ -72,39 +75,67 @@ import java.util.Locale;
 public class VCardRecord extends ParsedNdefRecord implements OnClickListener {
     private static final String TAG = VCardRecord.class.getSimpleName();
 
-    public static final String RECORD_TYPE = "vcard";
+    public static final String RECORD_TYPE = VCardData.RECORD_TYPE;
 
-    private final byte[] mVCard;
+    private static final String VCARD_MIME_TYPE = VCardData.VCARD_MIME_TYPE;
 
-    private VCardRecord(byte[] content) {
-        mVCard = content;
+    private final String mDisplayName;
+
+    /** Parses {@code vCard}, which is left to the parse of the message it is in. */
+    public VCardRecord(VCardData vCard) {
+        super(vCard);
+        mDisplayName = parseDisplayName(vCard.getContent());
     }
 
     @Override
     public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
 
-        Uri uri = activity.getIntent().getData();
-        uri = Uri.withAppendedPath(uri, Integer.toString(offset));
-        uri = Uri.withAppendedPath(uri, "mime");
-
-        // TODO: parse content and display something nicer.
-        Intent intent = new Intent(Intent.ACTION_VIEW, uri);
-
         CharSequence template = activity.getResources().getText(R.string.import_vcard);
         String description = TextUtils.expandTemplate(template, getDisplayName()).toString();
 
+        Uri message = (activity instanceof TagViewer)
+                ? ((TagViewer) activity).getMessageUri() : activity.getIntent().getData();
+        if (message == null) {
+            TextView text = (TextView) inflater.inflate(R.layout.tag_text, parent, false);
+            text.setText(description);
+            return text;
+        }
+        Uri uri = TagContract.buildRecordUri(message, offset);
+
+        // TODO: parse content and display something nicer.
+        // The type is set up front since the message may not have reached the provider yet.
+        Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setDataAndType(uri, VCARD_MIME_TYPE);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
         return RecordUtils.getViewsForIntent(activity, inflater, parent, this, intent, description);
     }
 
+    @Override
+    public boolean isViewPositionDependent() {
+        // The import URI is built from the message URI and our offset in the message.
+        return true;
+    }
+
     @Override
     public String getSnippet(Context context, Locale locale) {
         CharSequence template = context.getResources().getText(R.string.vcard_title);
         return TextUtils.expandTemplate(template, getDisplayName()).toString();
     }
 
+    @Override
+    public void addSearchText(Collection<String> text) {
+        super.addSearchText(text);
+        text.add(getDisplayName());
+    }
+
     public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    private static String parseDisplayName(byte[] vCard) {
         try {
-            ArrayList<VCardEntry> entries = getVCardEntries();
+            ArrayList<VCardEntry> entries = getVCardEntries(vCard);
             if (!entries.isEmpty()) {
                 return entries.get(0).getDisplayName();
             }
@@ -114,7 +145,8 @@ public class VCardRecord extends ParsedNdefRecord implements OnClickListener {
         return "vCard";
     }
 
-    private ArrayList<VCardEntry> getVCardEntries() throws IOException, VCardException {
+    private static ArrayList<VCardEntry> getVCardEntries(byte[] vCard)
+            throws IOException, VCardException {
         final ArrayList<VCardEntry> entries = Lists.newArrayList();
 
         final int type = VCardConfig.VCARD_TYPE_UNKNOWN;
@@ -131,11 +163,11 @@ public class VCardRecord extends ParsedNdefRecord implements OnClickListener {
 
         VCardParser parser = new VCardParser_V21(type);
         try {
-            parser.parse(new ByteArrayInputStream(mVCard), constructor);
+            parser.parse(new ByteArrayInputStream(vCard), constructor);
         } catch (VCardVersionException e) {
             try {
                 parser = new VCardParser_V30(type);
-                parser.parse(new ByteArrayInputStream(mVCard), constructor);
+                parser.parse(new ByteArrayInputStream(vCard), constructor);
             } finally {
             }
         }
@@ -149,16 +181,8 @@ public class VCardRecord extends ParsedNdefRecord implements OnClickListener {
         return intent;
     }
 
-    public static VCardRecord parse(NdefRecord record) {
-        MimeRecord underlyingRecord = MimeRecord.parse(record);
-
-        // TODO: Add support for other vcard mime types.
-        Preconditions.checkArgument("text/x-vcard".equals(underlyingRecord.getMimeType()));
-        return new VCardRecord(underlyingRecord.getContent());
-    }
-
     public static NdefRecord newVCardRecord(byte[] data) {
-        return MimeRecord.newMimeRecord("text/x-vcard", data);
+        return MimeRecord.newMimeRecord(VCARD_MIME_TYPE, data);
     }
 
     @Override
@@ -172,13 +196,4 @@ public class VCardRecord extends ParsedNdefRecord implements OnClickListener {
             Log.e(TAG, "Failed to launch activity for intent " + info.intent, e);
         }
     }
-
-    public static boolean isVCard(NdefRecord record) {
-        try {
-            parse(record);
-            return true;
-        } catch (IllegalArgumentException e) {
-            return false;
-        }
-    }
 }
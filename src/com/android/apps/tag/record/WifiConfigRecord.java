@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.record;
+
+import com.android.apps.tag.R;
+import com.android.apps.tag.core.record.WifiConfigData;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.WifiConfiguration;
+import android.net.wifi.WifiManager;
+import android.provider.Settings;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The credential of a Wi-Fi network from a Connection Handover message or a Wi-Fi Protected
+ * Setup tag. Tapping it adds the network and connects to it, without a scan or the key being
+ * typed in.
+ */
+public class WifiConfigRecord extends ParsedNdefRecord implements OnClickListener {
+    private static final String TAG = "WifiConfigRecord";
+
+    public static final String RECORD_TYPE = WifiConfigData.RECORD_TYPE;
+
+    /** Keys of this form are hex, a raw WPA key or a WEP key, rather than a passphrase. */
+    private static final Pattern PSK_HEX = Pattern.compile("[0-9A-Fa-f]{64}");
+    private static final Pattern WEP_HEX =
+            Pattern.compile("[0-9A-Fa-f]{10}|[0-9A-Fa-f]{26}|[0-9A-Fa-f]{58}");
+
+    private final WifiConfigData mConfig;
+
+    public WifiConfigRecord(WifiConfigData config) {
+        super(config);
+        mConfig = config;
+    }
+
+    public WifiConfigData getConfig() {
+        return mConfig;
+    }
+
+    @Override
+    public View getView(Activity activity, LayoutInflater inflater, ViewGroup parent, int offset) {
+        View item = inflater.inflate(R.layout.tag_uri, parent, false);
+        ((TextView) item.findViewById(R.id.primary)).setText(
+                activity.getString(R.string.wifi_connect, mConfig.getSsid()));
+        int security = mConfig.isPsk() ? R.string.wifi_security_wpa
+                : mConfig.isWep() ? R.string.wifi_security_wep : R.string.wifi_security_open;
+        ((TextView) item.findViewById(R.id.secondary)).setText(security);
+        item.setOnClickListener(this);
+        return item;
+    }
+
+    @Override
+    public String getSnippet(Context context, Locale locale) {
+        return mConfig.getSsid();
+    }
+
+    @Override
+    public void onClick(View view) {
+        Context context = view.getContext();
+        WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        if (wifi == null) {
+            Toast.makeText(context, R.string.wifi_unavailable, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if ((mConfig.isPsk() || mConfig.isWep())
+                && TextUtils.isEmpty(mConfig.getNetworkKey())) {
+            // Adding it without the key would connect to an open network of the same name
+            Toast.makeText(context, context.getString(R.string.wifi_missing_key,
+                    mConfig.getSsid()), Toast.LENGTH_LONG).show();
+            return;
+        }
+        if (!wifi.isWifiEnabled()) {
+            // Networks can't be added until the supplicant is up, well after enabling returns
+            startActivity(context, new Intent(Settings.ACTION_WIFI_SETTINGS));
+            Toast.makeText(context, R.string.wifi_enable_first, Toast.LENGTH_LONG).show();
+            return;
+        }
+        int networkId = wifi.addNetwork(toConfiguration());
+        if (networkId < 0 || !wifi.enableNetwork(networkId, true)) {
+            Toast.makeText(context, context.getString(R.string.wifi_connect_failed,
+                    mConfig.getSsid()), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        wifi.reconnect();
+        Toast.makeText(context, context.getString(R.string.wifi_connecting, mConfig.getSsid()),
+                Toast.LENGTH_SHORT).show();
+    }
+
+    private WifiConfiguration toConfiguration() {
+        WifiConfiguration config = new WifiConfiguration();
+        config.SSID = quote(mConfig.getSsid());
+        String key = mConfig.getNetworkKey();
+        if (mConfig.isPsk()) {
+            config.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.WPA_PSK);
+            config.preSharedKey = PSK_HEX.matcher(key).matches() ? key : quote(key);
+        } else if (mConfig.isWep()) {
+            config.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.NONE);
+            config.allowedAuthAlgorithms.set(WifiConfiguration.AuthAlgorithm.OPEN);
+            config.allowedAuthAlgorithms.set(WifiConfiguration.AuthAlgorithm.SHARED);
+            config.wepKeys[0] = WEP_HEX.matcher(key).matches() ? key : quote(key);
+            config.wepTxKeyIndex = 0;
+        } else {
+            config.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.NONE);
+        }
+        return config;
+    }
+
+    private static void startActivity(Context context, Intent intent) {
+        try {
+            context.startActivity(intent);
+        } catch (ActivityNotFoundException e) {
+            Log.e(TAG, "Failed to launch activity for intent " + intent, e);
+        }
+    }
+
+    private static String quote(String value) {
+        return '"' + value + '"';
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size histogram of latencies for reporting percentiles.
+ *
+ * <p>Values are kept in microseconds in buckets whose width grows with their magnitude, eight
+ * buckets per power of two, so any percentile is reported within 1/8 of the true value without
+ * keeping the samples. Recording doesn't allocate.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Enough buckets for values up to 2^40 microseconds, about 12 days. */
+    private static final int MAGNITUDES = 40;
+
+    private final long[] mCounts = new long[(MAGNITUDES + 1) * SUB_BUCKETS];
+    private long mCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    public synchronized void recordMicros(long micros) {
+        micros = Math.max(0, micros);
+        mCounts[bucketOf(micros)]++;
+        mCount++;
+        mSum += micros;
+        mMin = Math.min(mMin, micros);
+        mMax = Math.max(mMax, micros);
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMinMicros() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    public synchronized long getMaxMicros() {
+        return mMax;
+    }
+
+    public synchronized long getMeanMicros() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    /**
+     * Returns the value below which {@code percentile} percent of the recorded values fall, or
+     * 0 if nothing was recorded.
+     */
+    public synchronized long getPercentileMicros(double percentile) {
+        Preconditions.checkArgument(percentile >= 0 && percentile <= 100);
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+        long seen = 0;
+        for (int bucket = 0; bucket < mCounts.length; bucket++) {
+            seen += mCounts[bucket];
+            if (seen >= rank) {
+                if (bucket == mCounts.length - 1) {
+                    // The last bucket also holds everything too large for the others
+                    return mMax;
+                }
+                return Math.max(mMin, Math.min(mMax, upperBoundOf(bucket)));
+            }
+        }
+        return mMax;
+    }
+
+    /** Adds the values recorded by {@code other} to this histogram. */
+    public void add(LatencyHistogram other) {
+        long[] counts;
+        long count, sum, min, max;
+        synchronized (other) {
+            counts = other.mCounts.clone();
+            count = other.mCount;
+            sum = other.mSum;
+            min = other.mMin;
+            max = other.mMax;
+        }
+        synchronized (this) {
+            for (int i = 0; i < counts.length; i++) {
+                mCounts[i] += counts[i];
+            }
+            mCount += count;
+            mSum += sum;
+            mMin = Math.min(mMin, min);
+            mMax = Math.max(mMax, max);
+        }
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    /** Returns a one line summary in milliseconds, such as for a status line or dump. */
+    @Override
+    public synchronized String toString() {
+        return String.format("n=%d p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms", mCount,
+                getPercentileMicros(50) / 1000f, getPercentileMicros(90) / 1000f,
+                getPercentileMicros(99) / 1000f, mMax / 1000f);
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS + 1;
+        if (magnitude > MAGNITUDES) {
+            return (MAGNITUDES + 1) * SUB_BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (magnitude - 1)) - SUB_BUCKETS;
+        return magnitude * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        int magnitude = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        if (magnitude == 0) {
+            return sub;
+        }
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - 1)) - 1;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.util;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and counters for the stages of handling a scan, from the intent reaching
+ * the viewer to the first frame showing it. Each timed stage is also a trace section, so it
+ * shows up in systrace on devices that have it.
+ *
+ * <p>The numbers live as long as the process and are printed by {@link #dump}, which the
+ * viewer calls from {@code Activity.dump}, so they can be collected with
+ * {@code adb shell dumpsys activity com.android.apps.tag/.TagViewer}. Each stage is printed both
+ * over the life of the process and over the last one to two {@link #WINDOW_MILLIS}, as a
+ * regression in a long lived process barely moves the lifetime percentiles.
+ */
+public class ScanStats {
+    /** Handling an intent in the viewer, from receiving it to its views being bound. */
+    public static final String RESOLVE_INTENT = "resolveIntent";
+
+    /** Parsing a whole message into records. */
+    public static final String PARSE_MESSAGE = "parseMessage";
+
+    /** Parsing one record, kept apart {@link #byType by the type} it was parsed as. */
+    public static final String PARSE_RECORD = "parseRecord";
+
+    /** Looking up the activities that can handle the intent of a record. */
+    public static final String QUERY_ACTIVITIES = "queryIntentActivities";
+
+    /** Building the views of one record, kept apart {@link #byType by its type}. */
+    public static final String INFLATE = "inflate";
+
+    /** From a tag delivered by intent dispatch reaching the viewer to the first frame. */
+    public static final String FIRST_FRAME_DISPATCH = "firstFrame/dispatch";
+
+    /** From a tag discovered in reader mode to the first frame. */
+    public static final String FIRST_FRAME_READER = "firstFrame/reader";
+
+    /** Records whose views were carried over from the previous scan. */
+    public static final String RECORDS_REUSED = "recordsReused";
+
+    /** Heavy records handed to other threads to parse alongside the rest of their message. */
+    public static final String RECORDS_PARSED_IN_PARALLEL = "recordsParsedInParallel";
+
+    /**
+     * From a scan reaching the viewer, or being discovered in reader mode, to it being handed to
+     * another app without being shown. Kept apart {@link #byType by the type} of the record that
+     * decided where it went.
+     */
+    public static final String LAUNCH = "launch";
+
+    /** The length of the windows recent latencies are kept over. */
+    public static final long WINDOW_MILLIS = 60 * 1000;
+
+    private static final String TRACE_PREFIX = "Tag:";
+
+    private static final boolean TRACE_SUPPORTED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private static final ConcurrentMap<String, WindowedLatencyHistogram> sStages =
+            Maps.newConcurrentMap();
+    private static final ConcurrentMap<String, AtomicLong> sCounters = Maps.newConcurrentMap();
+
+    // Only static
+    private ScanStats() { }
+
+    /** Returns the histogram of {@code stage}, which is created the first time it is asked for. */
+    public static WindowedLatencyHistogram stage(String stage) {
+        WindowedLatencyHistogram histogram = sStages.get(stage);
+        if (histogram == null) {
+            WindowedLatencyHistogram created = new WindowedLatencyHistogram(WINDOW_MILLIS);
+            histogram = sStages.putIfAbsent(stage, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /** Returns the name under which {@code stage} is kept for records of {@code recordType}. */
+    public static String byType(String stage, String recordType) {
+        return stage + "/" + recordType;
+    }
+
+    /**
+     * Opens the trace section {@code section} and returns the time, to be passed to
+     * {@link #end} on the same thread.
+     */
+    public static long begin(String section) {
+        if (TRACE_SUPPORTED) {
+            Trace.beginSection(TRACE_PREFIX + section);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Closes the innermost trace section opened by {@link #begin} and records the time since
+     * {@code startNanos} in {@code stage}. The stage may name the outcome, such as the type a
+     * record was parsed as, which isn't known when the section opens.
+     */
+    public static void end(String stage, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        if (TRACE_SUPPORTED) {
+            Trace.endSection();
+        }
+        stage(stage).recordNanos(nanos);
+    }
+
+    public static void increment(String counter) {
+        increment(counter, 1);
+    }
+
+    public static void increment(String counter, long delta) {
+        AtomicLong count = sCounters.get(counter);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = sCounters.putIfAbsent(counter, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.addAndGet(delta);
+    }
+
+    /**
+     * Prints every stage, over the life of the process and then recently, and every counter, one
+     * per line and in name order.
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        List<String> stages = Ordering.natural().sortedCopy(sStages.keySet());
+        writer.print(prefix);
+        writer.println("Scan stages (ms):");
+        for (String stage : stages) {
+            dumpStage(prefix, writer, stage, sStages.get(stage));
+        }
+        writer.print(prefix);
+        writer.println("Scan stages over the last " + WINDOW_MILLIS / 1000 + "-"
+                + 2 * WINDOW_MILLIS / 1000 + "s (ms):");
+        for (String stage : stages) {
+            dumpStage(prefix, writer, stage, sStages.get(stage).getRecent());
+        }
+        writer.print(prefix);
+        writer.println("Scan counters:");
+        for (String counter : Ordering.natural().sortedCopy(sCounters.keySet())) {
+            writer.print(prefix);
+            writer.println("  " + counter + ": " + sCounters.get(counter).get());
+        }
+    }
+
+    private static void dumpStage(String prefix, PrintWriter writer, String stage,
+            LatencyHistogram histogram) {
+        writer.print(prefix);
+        writer.println(String.format("  %s: n=%d p50=%.1f p95=%.1f p99=%.1f max=%.1f",
+                stage, histogram.getCount(), histogram.getPercentileMicros(50) / 1000f,
+                histogram.getPercentileMicros(95) / 1000f,
+                histogram.getPercentileMicros(99) / 1000f,
+                histogram.getMaxMicros() / 1000f));
+    }
+
+    /** Clears every stage and counter, such as before collecting a fresh sample. */
+    public static void reset() {
+        for (LatencyHistogram histogram : sStages.values()) {
+            histogram.reset();
+        }
+        for (AtomicLong count : sCounters.values()) {
+            count.set(0);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.util;
+
+import com.android.apps.tag.core.record.ParseBudget;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.nfc.NfcAdapter;
+import android.preference.PreferenceManager;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Typed access to the settings that tune how tags are read, kept in the default shared
+ * preferences and edited in {@link com.android.apps.tag.TagSettings}. As the preference
+ * widgets store them, numbers are kept as strings and the reader technologies as a set of flag
+ * values; anything that doesn't parse reads as the default.
+ */
+public class TagPreferences {
+    /** Whether the viewer polls for tags itself while it is in the foreground. */
+    public static final String KEY_READER_MODE = "reader_mode";
+
+    /** The {@code NfcAdapter.FLAG_READER_NFC_*} technologies polled for in reader mode. */
+    public static final String KEY_READER_TECHS = "reader_techs";
+
+    /**
+     * Whether reader mode skips the platform NDEF check and leaves reading to the viewer. Only
+     * Type 2 tags can be read without it, so it is off unless those are the only tags in use.
+     */
+    public static final String KEY_SKIP_NDEF_CHECK = "reader_skip_ndef_check";
+
+    /** How often a tag in reader mode is checked for still being present, in milliseconds. */
+    public static final String KEY_PRESENCE_CHECK_DELAY = "reader_presence_check_delay";
+
+    /** How long the records of a scan may take to parse before the rest are deferred. */
+    public static final String KEY_PARSE_BUDGET_MILLIS = "parse_budget_millis";
+
+    /** How many payload bytes of a scan are parsed before the remaining records are deferred. */
+    public static final String KEY_PARSE_BUDGET_BYTES = "parse_budget_bytes";
+
+    /** How deeply nested smart posters are parsed before they are deferred. */
+    public static final String KEY_PARSE_BUDGET_DEPTH = "parse_budget_depth";
+
+    /**
+     * Whether a smart poster recommending its action be done is opened straight away, when
+     * exactly one app handles it, instead of being shown.
+     */
+    public static final String KEY_AUTO_LAUNCH = "auto_launch";
+
+    /** The comma separated URI schemes a smart poster may be opened straight away for. */
+    public static final String KEY_AUTO_LAUNCH_SCHEMES = "auto_launch_schemes";
+
+    public static final int DEFAULT_READER_TECHS = NfcAdapter.FLAG_READER_NFC_A
+            | NfcAdapter.FLAG_READER_NFC_B | NfcAdapter.FLAG_READER_NFC_F
+            | NfcAdapter.FLAG_READER_NFC_V;
+
+    /** Longer than the platform default, as a tag is only read once per tap. */
+    public static final int DEFAULT_PRESENCE_CHECK_DELAY = 250;
+
+    /** Long enough for any tag, short enough that a hostile one doesn't stall the viewer. */
+    public static final int DEFAULT_PARSE_BUDGET_MILLIS = 250;
+
+    public static final int DEFAULT_PARSE_BUDGET_BYTES = 1024 * 1024;
+
+    public static final int DEFAULT_PARSE_BUDGET_DEPTH = 4;
+
+    /** Only web pages, never a call or a message sent on the tag's say-so. */
+    public static final String DEFAULT_AUTO_LAUNCH_SCHEMES = "https";
+
+    private final SharedPreferences mPrefs;
+
+    private TagPreferences(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    public static TagPreferences get(Context context) {
+        return new TagPreferences(PreferenceManager.getDefaultSharedPreferences(context));
+    }
+
+    public boolean isReaderModeEnabled() {
+        return mPrefs.getBoolean(KEY_READER_MODE, true);
+    }
+
+    public int getReaderTechs() {
+        Set<String> techs = mPrefs.getStringSet(KEY_READER_TECHS, null);
+        if (techs == null || techs.isEmpty()) {
+            return DEFAULT_READER_TECHS;
+        }
+        int flags = 0;
+        for (String tech : techs) {
+            try {
+                flags |= Integer.parseInt(tech);
+            } catch (NumberFormatException e) {
+                // Ignore
+            }
+        }
+        return flags == 0 ? DEFAULT_READER_TECHS : flags;
+    }
+
+    public boolean isNdefCheckSkipped() {
+        return mPrefs.getBoolean(KEY_SKIP_NDEF_CHECK, false);
+    }
+
+    public int getPresenceCheckDelay() {
+        return getInt(KEY_PRESENCE_CHECK_DELAY, DEFAULT_PRESENCE_CHECK_DELAY);
+    }
+
+    /** Returns a budget for parsing one scan, starting now. */
+    public ParseBudget getParseBudget() {
+        return new ParseBudget(
+                getInt(KEY_PARSE_BUDGET_MILLIS, DEFAULT_PARSE_BUDGET_MILLIS) * 1000000L,
+                getInt(KEY_PARSE_BUDGET_BYTES, DEFAULT_PARSE_BUDGET_BYTES),
+                getInt(KEY_PARSE_BUDGET_DEPTH, DEFAULT_PARSE_BUDGET_DEPTH));
+    }
+
+    public boolean isAutoLaunchEnabled() {
+        return mPrefs.getBoolean(KEY_AUTO_LAUNCH, false);
+    }
+
+    /** Returns the URI schemes a smart poster may be opened straight away for, in lower case. */
+    public Set<String> getAutoLaunchSchemes() {
+        String schemes = mPrefs.getString(KEY_AUTO_LAUNCH_SCHEMES, DEFAULT_AUTO_LAUNCH_SCHEMES);
+        return ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(schemes.toLowerCase(Locale.US)));
+    }
+
+    /** Returns a number kept as a string, or {@code defValue} if it isn't a positive number. */
+    private int getInt(String key, int defValue) {
+        try {
+            int value = Integer.parseInt(mPrefs.getString(key, "").trim());
+            return value > 0 ? value : defValue;
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.apps.tag.util;
+
+/**
+ * A {@link LatencyHistogram} that also keeps the values recorded recently, so a regression shows
+ * up in {@link #getRecent} without being diluted by everything recorded since the process
+ * started.
+ *
+ * <p>Recent values are kept in two histograms of one window each, the current one and the one
+ * before it. Once a window is over the older one is cleared and takes over as current, so the
+ * recent values cover between one and two windows.
+ */
+public class WindowedLatencyHistogram extends LatencyHistogram {
+    private final long mWindowNanos;
+    private LatencyHistogram mCurrent = new LatencyHistogram();
+    private LatencyHistogram mPrevious = new LatencyHistogram();
+    private long mWindowStart = System.nanoTime();
+
+    public WindowedLatencyHistogram(long windowMillis) {
+        mWindowNanos = windowMillis * 1000000;
+    }
+
+    @Override
+    public synchronized void recordMicros(long micros) {
+        super.recordMicros(micros);
+        rotate(System.nanoTime());
+        mCurrent.recordMicros(micros);
+    }
+
+    /** Returns a copy of the values recorded over the last one to two windows. */
+    public synchronized LatencyHistogram getRecent() {
+        rotate(System.nanoTime());
+        LatencyHistogram recent = new LatencyHistogram();
+        recent.add(mPrevious);
+        recent.add(mCurrent);
+        return recent;
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        mCurrent.reset();
+        mPrevious.reset();
+        mWindowStart = System.nanoTime();
+    }
+
+    private void rotate(long nowNanos) {
+        long elapsed = nowNanos - mWindowStart;
+        if (elapsed < mWindowNanos) {
+            return;
+        }
+        if (elapsed < 2 * mWindowNanos) {
+            // The oldest window is cleared to become the current one
+            LatencyHistogram oldest = mPrevious;
+            oldest.reset();
+            mPrevious = mCurrent;
+            mCurrent = oldest;
+        } else {
+            // Neither window is recent any more
+            mPrevious.reset();
+            mCurrent.reset();
+        }
+        mWindowStart = nowNanos - elapsed % mWindowNanos;
+    }
+}
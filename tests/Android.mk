@@ -0,0 +1,23 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+# Host tests of the parts of the Tag app that have no framework dependencies. Run them with
+#   java -cp $(ANDROID_HOST_OUT)/framework/tag-tests.jar junit.textui.TestRunner \
+#       com.android.apps.tag.AllTests
+
+app_src := ../src/com/android/apps/tag
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+    $(app_src)/provision/LostTagException.java \
+    $(app_src)/provision/Provisioner.java \
+    $(app_src)/provision/ProvisioningTag.java \
+    $(app_src)/provision/SimulatedTag.java \
+    $(app_src)/util/LatencyHistogram.java
+
+LOCAL_STATIC_JAVA_LIBRARIES := guavalib junit
+
+LOCAL_MODULE := tag-tests
+
+LOCAL_MODULE_TAGS := tests
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag;
+
+import com.android.apps.tag.provision.ProvisionerTest;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * Every host test of the Tag app, for running them together.
+ */
+public class AllTests {
+    // Only static
+    private AllTests() { }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(AllTests.class.getName());
+        suite.addTestSuite(ProvisionerTest.class);
+        return suite;
+    }
+}
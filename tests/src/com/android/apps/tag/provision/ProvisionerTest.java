@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apps.tag.provision;
+
+import com.android.apps.tag.provision.Provisioner.Failure;
+import com.android.apps.tag.provision.Provisioner.Result;
+import com.android.apps.tag.provision.Provisioner.Stats;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Tests of the {@link Provisioner} against {@link SimulatedTag}s.
+ */
+public class ProvisionerTest extends TestCase {
+    private static final byte[] FIRST = message(16, 1);
+    private static final byte[] SECOND = message(32, 2);
+
+    public void testQueueAdvancesOnlyOnSuccess() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(FIRST, SECOND), false, false);
+
+        SimulatedTag first = new SimulatedTag(64);
+        assertOk(provisioner.provision(first), 0);
+        assertTrue(Arrays.equals(FIRST, first.getContent()));
+
+        assertFailure(provisioner.provision(new SimulatedTag(64).setLoseOnWrite(true)),
+                Failure.TAG_LOST, 1);
+        SimulatedTag second = new SimulatedTag(64);
+        assertOk(provisioner.provision(second), 1);
+        assertTrue(Arrays.equals(SECOND, second.getContent()));
+
+        assertFalse(provisioner.hasNext());
+        try {
+            provisioner.provision(new SimulatedTag(64));
+            fail("provisioned past the end of the queue");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testRepeatStartsOver() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(FIRST, SECOND), false, true);
+        assertOk(provisioner.provision(new SimulatedTag(64)), 0);
+        assertOk(provisioner.provision(new SimulatedTag(64)), 1);
+        SimulatedTag third = new SimulatedTag(64);
+        assertOk(provisioner.provision(third), 0);
+        assertTrue(Arrays.equals(FIRST, third.getContent()));
+        assertTrue(provisioner.hasNext());
+        assertEquals(-1, provisioner.getStats().remaining);
+    }
+
+    public void testNotNdef() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(FIRST), false, false);
+        assertFailure(provisioner.provision(null), Failure.NOT_NDEF, 0);
+    }
+
+    public void testReadOnly() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(FIRST), false, false);
+        SimulatedTag tag = new SimulatedTag(64).setWritable(false);
+        assertFailure(provisioner.provision(tag), Failure.READ_ONLY, 0);
+        assertEquals(0, tag.getContent().length);
+    }
+
+    public void testTooLarge() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(SECOND), false, false);
+        SimulatedTag tag = new SimulatedTag(SECOND.length - 1);
+        assertFailure(provisioner.provision(tag), Failure.TOO_LARGE, 0);
+        assertEquals(0, tag.getContent().length);
+        assertEquals(0, provisioner.getStats().writeLatency.getCount());
+    }
+
+    public void testUnknownSizeIsWrittenWithoutVerifying() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(SECOND), false, false);
+        SimulatedTag tag = new SimulatedTag(64).setFormatOnWrite(true);
+        Result result = provisioner.provision(tag);
+        assertNull(result.failure);
+        assertFalse(result.verified);
+        assertTrue(Arrays.equals(SECOND, tag.getContent()));
+        assertEquals(1, provisioner.getStats().unverified);
+    }
+
+    public void testUnknownSizeTooLargeFailsTheWrite() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(SECOND), false, false);
+        SimulatedTag tag = new SimulatedTag(SECOND.length - 1).setFormatOnWrite(true);
+        Result result = provisioner.provision(tag);
+        assertFailure(result, Failure.WRITE_FAILED, 0);
+        assertNotNull(result.error);
+    }
+
+    public void testTagLost() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(FIRST), false, false);
+        Result result = provisioner.provision(new SimulatedTag(64).setLoseOnWrite(true));
+        assertFailure(result, Failure.TAG_LOST, 0);
+        assertNull(result.error);
+        assertTrue(provisioner.hasNext());
+    }
+
+    public void testVerifyMismatch() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(FIRST), false, false);
+        Result result = provisioner.provision(new SimulatedTag(64).setCorruptReads(true));
+        assertFailure(result, Failure.VERIFY_MISMATCH, 0);
+        assertTrue(result.verified);
+        assertTrue(provisioner.hasNext());
+    }
+
+    public void testLock() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(FIRST), true, false);
+        SimulatedTag tag = new SimulatedTag(64);
+        assertOk(provisioner.provision(tag), 0);
+        assertFalse(tag.isWritable());
+    }
+
+    public void testLockFailed() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(FIRST), true, false);
+        SimulatedTag tag = new SimulatedTag(64).setLockable(false);
+        assertFailure(provisioner.provision(tag), Failure.LOCK_FAILED, 0);
+        assertTrue(tag.isWritable());
+        assertTrue(provisioner.hasNext());
+    }
+
+    public void testTagFormattedByTheWriteIsLockedByIt() {
+        Provisioner provisioner = new Provisioner(Arrays.asList(FIRST), true, false);
+        SimulatedTag tag = new SimulatedTag(64).setFormatOnWrite(true);
+        Result result = provisioner.provision(tag);
+        assertNull(result.failure);
+        assertFalse(result.verified);
+        assertFalse(tag.isWritable());
+        assertFalse(provisioner.hasNext());
+    }
+
+    public void testStats() {
+        Provisioner provisioner =
+                new Provisioner(Arrays.asList(FIRST, SECOND, FIRST), false, false);
+        Stats empty = provisioner.getStats();
+        assertEquals(0, empty.provisioned);
+        assertEquals(3, empty.remaining);
+        assertEquals(0f, empty.tagsPerMinute, 0f);
+        assertTrue(empty.failures.isEmpty());
+
+        provisioner.provision(new SimulatedTag(64).setLatencyMillis(1));
+        provisioner.provision(new SimulatedTag(64).setWritable(false));
+        provisioner.provision(new SimulatedTag(64).setLoseOnWrite(true));
+        provisioner.provision(new SimulatedTag(64).setLoseOnWrite(true));
+        provisioner.provision(new SimulatedTag(64).setFormatOnWrite(true));
+        provisioner.provision(new SimulatedTag(64).setCorruptReads(true));
+
+        Stats stats = provisioner.getStats();
+        assertEquals(2, stats.provisioned);
+        assertEquals(1, stats.unverified);
+        assertEquals(1, stats.remaining);
+        assertEquals(Integer.valueOf(1), stats.failures.get(Failure.READ_ONLY));
+        assertEquals(Integer.valueOf(2), stats.failures.get(Failure.TAG_LOST));
+        assertEquals(Integer.valueOf(1), stats.failures.get(Failure.VERIFY_MISMATCH));
+        assertEquals(3, stats.failures.size());
+        // Every tag that got as far as a completed write, and every tag presented
+        assertEquals(3, stats.writeLatency.getCount());
+        assertEquals(6, stats.tagLatency.getCount());
+        assertTrue(stats.tagsPerMinute > 0);
+
+        // The totals are a snapshot
+        provisioner.provision(new SimulatedTag(64));
+        assertEquals(2, stats.provisioned);
+        assertEquals(6, stats.tagLatency.getCount());
+        assertEquals(3, provisioner.getStats().provisioned);
+        assertEquals(0, provisioner.getStats().remaining);
+    }
+
+    private static void assertOk(Result result, int messageIndex) {
+        assertNull(String.valueOf(result.failure), result.failure);
+        assertEquals(messageIndex, result.messageIndex);
+        assertTrue(result.verified);
+    }
+
+    private static void assertFailure(Result result, Failure failure, int messageIndex) {
+        assertEquals(failure, result.failure);
+        assertEquals(messageIndex, result.messageIndex);
+    }
+
+    private static byte[] message(int length, int seed) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) (seed * 31 + i);
+        }
+        return message;
+    }
+}